@@ -0,0 +1,417 @@
+package input;
+
+import java.util.Map;
+import java.util.SplittableRandom;
+import perceptron.SampleFeed;
+
+/**
+ * Produces randomly augmented copies of image
+ * training cases while the network trains, so only
+ * the original cases are ever stored. Every case is
+ * shifted, optionally mirrored, rotated by a small
+ * angle and given gaussian noise at the moment it is
+ * needed.
+ *
+ * Background worker threads run ahead of the trainer
+ * and fill a ring of preallocated slots. Case number
+ * s of the run is always produced by the random
+ * stream seeded from (seed, s), so a run is
+ * reproducible no matter how many workers there are
+ * or how they are scheduled.
+ *
+ * The inputs of every case are width * height pels
+ * per channel, stored row by row, one channel after
+ * the other. The expected outputs are not changed.
+ *
+ * Methods:
+ * Constructor:
+ *  - Augmenter(Map<double[], double[]> trainSet, int width, int height, long seed, int workers, int lookahead)
+ * Public:
+ *  - void setTransforms(int maxShift, boolean flip, double maxDegrees, double noise)
+ *  - void startEpoch(int epoch)
+ *  - boolean next(double[] input, double[] truth)
+ *  - void close()
+ * Private:
+ *  - void work(int worker)
+ *  - void fail(Throwable cause)
+ *  - void augment(double[] source, double[] target, SplittableRandom rng)
+ *  - double sample(double[] image, int offset, double x, double y)
+ *  - double gaussian(SplittableRandom rng)
+ *  - long mix(long z)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Augmenter implements SampleFeed
+{
+   private double[][] inputs;           // The stored training cases
+   private double[][] truths;
+   private int cases;
+
+   private int width;                   // The size of each image channel
+   private int height;
+   private int channels;
+
+   private int maxShift = 2;            // The range of the random transforms
+   private boolean flip = false;
+   private double maxRadians = Math.toRadians(10.0);
+   private double noise = 0.0;
+
+   private long seed;
+   private int workers;
+
+   private double[][] slotInput;        // The ring of augmented cases
+   private double[][] slotTruth;
+   private long[] slotSequence;         // The case number held by each slot, -1 if none
+
+   private long consumed = 0;           // The number of cases handed to the trainer
+   private int epochCount = 0;          // The number of cases handed out in the current epoch
+
+   private Thread[] threads;
+   private volatile boolean running = false;
+   private volatile Throwable failure;  // Thrown by a worker, handed to the trainer
+
+   private final Object lock = new Object();
+
+   /**
+    * Copies references to the stored cases and sets
+    * up the ring. The workers start with the first
+    * epoch.
+    *
+    * @param trainSet  the stored training set
+    * @param width     the width of each image
+    * @param height    the height of each image
+    * @param seed      the seed of the random streams
+    * @param workers   the number of worker threads
+    * @param lookahead the number of cases the
+    *                  workers may run ahead
+    */
+   public Augmenter(Map<double[], double[]> trainSet, int width, int height, long seed, int workers, int lookahead)
+   {
+      cases = trainSet.size();
+      inputs = new double[cases][];
+      truths = new double[cases][];
+
+      int i = 0;
+      for (double[] in : trainSet.keySet())
+      {
+         inputs[i] = in;
+         truths[i] = trainSet.get(in);
+         i++;
+      }
+
+      this.width = width;
+      this.height = height;
+      this.channels = cases == 0 ? 1 : inputs[0].length / (width * height);
+      if (cases > 0 && channels * width * height != inputs[0].length)
+         throw new IllegalArgumentException("Inputs of length " + inputs[0].length + " are not " + width + "x"
+               + height + " images");
+
+      this.seed = seed;
+      this.workers = workers;
+
+      int slots = Math.max(lookahead, workers);
+      slotInput = new double[slots][cases == 0 ? 0 : inputs[0].length];
+      slotTruth = new double[slots][cases == 0 ? 0 : truths[0].length];
+      slotSequence = new long[slots];
+      for (int s = 0; s < slots; s++)
+         slotSequence[s] = -1;
+   }// Augmenter(...)
+
+   /**
+    * Sets the range of the random transforms. Must be
+    * called before training starts.
+    *
+    * @param maxShift   the largest shift in pels in
+    *                   each direction
+    * @param flip       whether images are mirrored
+    *                   left to right half the time
+    * @param maxDegrees the largest rotation in either
+    *                   direction
+    * @param noise      the standard deviation of the
+    *                   gaussian noise added to each pel
+    */
+   public void setTransforms(int maxShift, boolean flip, double maxDegrees, double noise)
+   {
+      this.maxShift = maxShift;
+      this.flip = flip;
+      this.maxRadians = Math.toRadians(maxDegrees);
+      this.noise = noise;
+   }
+
+   /**
+    * Starts the workers the first time it is called
+    * and begins a new epoch of the original size.
+    *
+    * @param epoch the number of the epoch
+    */
+   public void startEpoch(int epoch)
+   {
+      epochCount = 0;
+      if (!running && cases > 0)
+      {
+         running = true;
+         threads = new Thread[workers];
+         for (int w = 0; w < workers; w++)
+         {
+            final int worker = w;
+            threads[w] = new Thread(new Runnable()
+            {
+               public void run()
+               {
+                  work(worker);
+               }
+            }, "augmenter-" + w);
+            threads[w].setDaemon(true);
+            threads[w].start();
+         }
+      }
+   }// startEpoch(int epoch)
+
+   /**
+    * Hands the next augmented case to the trainer,
+    * waiting for a worker if it is not ready yet.
+    *
+    * @param input the array that receives the inputs
+    * @param truth the array that receives the outputs
+    * @return false once every case of the epoch has
+    *         been handed out
+    * @throws RuntimeException if a worker failed
+    *                          while augmenting
+    */
+   public boolean next(double[] input, double[] truth)
+   {
+      if (epochCount == cases)
+         return false;
+
+      long sequence = consumed;
+      int slot = (int) (sequence % slotSequence.length);
+      try
+      {
+         synchronized (lock)
+         {
+            while (slotSequence[slot] != sequence && failure == null)
+               lock.wait();
+         }
+         if (failure != null)
+         {
+            if (failure instanceof Error)
+               throw (Error) failure;
+            throw (RuntimeException) failure;                 // Nothing else escapes a worker
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+
+      System.arraycopy(slotInput[slot], 0, input, 0, input.length);
+      System.arraycopy(slotTruth[slot], 0, truth, 0, truth.length);
+
+      synchronized (lock)
+      {
+         consumed++;                                      // Frees the slot for the worker that is waiting on it
+         lock.notifyAll();
+      }
+      epochCount++;
+      return true;
+   }// next(double[] input, double[] truth)
+
+   /**
+    * Stops the worker threads.
+    */
+   public void close()
+   {
+      running = false;
+      synchronized (lock)
+      {
+         lock.notifyAll();
+      }
+   }
+
+   /**
+    * The loop run by each worker. Worker w produces
+    * cases w, w + workers, w + 2 * workers and so on,
+    * each into slot (case number % slots) once the
+    * trainer has consumed what was there before.
+    *
+    * @param worker the number of this worker
+    */
+   private void work(int worker)
+   {
+      int slots = slotSequence.length;
+      try
+      {
+         for (long sequence = worker; running; sequence += workers)
+         {
+            synchronized (lock)
+            {
+               while (running && consumed <= sequence - slots)
+                  lock.wait();
+            }
+            if (!running)
+               return;
+
+            int slot = (int) (sequence % slots);
+            int index = (int) (sequence % cases);
+            SplittableRandom rng = new SplittableRandom(mix(seed + mix(sequence)));
+
+            augment(inputs[index], slotInput[slot], rng);
+            System.arraycopy(truths[index], 0, slotTruth[slot], 0, truths[index].length);
+
+            synchronized (lock)
+            {
+               slotSequence[slot] = sequence;                // Publishes the case to the trainer
+               lock.notifyAll();
+            }
+         }// for (long sequence = worker; running; sequence += workers)
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (RuntimeException e)
+      {
+         fail(e);
+      }
+      catch (Error e)
+      {
+         fail(e);                                             // Wakes the trainer before the thread dies
+         throw e;
+      }
+   }// work(int worker)
+
+   /**
+    * Records the failure of a worker and wakes the
+    * trainer so next rethrows it instead of waiting
+    * for a case that will never be published.
+    *
+    * @param cause what the worker threw
+    */
+   private void fail(Throwable cause)
+   {
+      synchronized (lock)
+      {
+         if (failure == null)
+            failure = cause;
+         lock.notifyAll();
+      }
+   }
+
+   /**
+    * Writes a randomly transformed copy of the source
+    * image into the target. Every target pel is
+    * mapped back through the inverse shift, rotation
+    * and mirror to the source and sampled bilinearly.
+    *
+    * @param source the stored image
+    * @param target the array that receives the copy
+    * @param rng    the random stream for this case
+    */
+   private void augment(double[] source, double[] target, SplittableRandom rng)
+   {
+      int dx = maxShift > 0 ? rng.nextInt(-maxShift, maxShift + 1) : 0;
+      int dy = maxShift > 0 ? rng.nextInt(-maxShift, maxShift + 1) : 0;
+      boolean mirror = flip && rng.nextBoolean();
+      double angle = maxRadians > 0.0 ? rng.nextDouble(-maxRadians, maxRadians) : 0.0;
+
+      double cos = Math.cos(angle);
+      double sin = Math.sin(angle);
+      double cx = (width - 1) / 2.0;
+      double cy = (height - 1) / 2.0;
+
+      /*
+       * Iterates across every pel of every channel and
+       * samples the source at the inverse transformed
+       * position.
+       */
+      for (int c = 0; c < channels; c++)
+      {
+         int offset = c * width * height;
+         for (int y = 0; y < height; y++)
+         {
+            for (int x = 0; x < width; x++)
+            {
+               double ux = x - dx - cx;                       // Undoes the shift
+               double uy = y - dy - cy;
+               double sx = cos * ux + sin * uy + cx;           // Undoes the rotation
+               double sy = -sin * ux + cos * uy + cy;
+               if (mirror)
+                  sx = width - 1 - sx;
+
+               double value = sample(source, offset, sx, sy);
+               if (noise > 0.0)
+                  value += noise * gaussian(rng);
+               target[offset + y * width + x] = value;
+            }
+         }
+      }// for (int c = 0; c < channels; c++)
+   }// augment(double[] source, double[] target, SplittableRandom rng)
+
+   /**
+    * Samples a channel at a fractional position with
+    * bilinear interpolation. Pels outside the image
+    * are zero.
+    *
+    * @param image  the image
+    * @param offset the start of the channel
+    * @param x      the column to sample
+    * @param y      the row to sample
+    * @return the interpolated value
+    */
+   private double sample(double[] image, int offset, double x, double y)
+   {
+      int x0 = (int) Math.floor(x);
+      int y0 = (int) Math.floor(y);
+      double fx = x - x0;
+      double fy = y - y0;
+
+      double value = 0.0;
+      for (int j = 0; j <= 1; j++)
+      {
+         int row = y0 + j;
+         if (row < 0 || row >= height)
+            continue;
+         double wy = j == 0 ? 1.0 - fy : fy;
+         for (int i = 0; i <= 1; i++)
+         {
+            int col = x0 + i;
+            if (col < 0 || col >= width)
+               continue;
+            double wx = i == 0 ? 1.0 - fx : fx;
+            value += wx * wy * image[offset + row * width + col];
+         }
+      }
+      return value;
+   }// sample(double[] image, int offset, double x, double y)
+
+   /**
+    * Draws a standard normal value with the
+    * Box-Muller transform.
+    *
+    * @param rng the random stream
+    * @return a normally distributed value
+    */
+   private double gaussian(SplittableRandom rng)
+   {
+      double u = 1.0 - rng.nextDouble();                 // In (0, 1] so the log is finite
+      double v = rng.nextDouble();
+      return Math.sqrt(-2.0 * Math.log(u)) * Math.cos(2.0 * Math.PI * v);
+   }
+
+   /**
+    * Scrambles the bits of a long (the SplitMix64
+    * finalizer) so that nearby seeds give unrelated
+    * streams.
+    *
+    * @param z the value to scramble
+    * @return the scrambled value
+    */
+   private static long mix(long z)
+   {
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }
+}// public class Augmenter
@@ -0,0 +1,304 @@
+package input;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes 32-bit pels (0xRRGGBB, as produced by
+ * DibDump) out to an uncompressed BMP file. Each
+ * padded scanline is built in a byte buffer and
+ * handed to a FileChannel in a single bulk write,
+ * and small images are written with one write for
+ * the whole file. The header is built directly in
+ * little endian order so no byte swapping is
+ * needed.
+ *
+ * An encoder holds no mutable state, so a single
+ * instance may be shared by any number of threads.
+ *
+ * Methods:
+ * Constructor:
+ *  - BmpEncoder()
+ *  - BmpEncoder(int xPelsPerMeter, int yPelsPerMeter)
+ * Public:
+ *  - void write(String filename, int[][] image, int bitCount)
+ *  - ByteBuffer encode(int[][] image, int bitCount)
+ *  - int rowSize(int width, int bitCount)
+ *  - int grayLevel(int pel)
+ *  - int grayToPel(double value)
+ * Private:
+ *  - ByteBuffer header(int width, int height, int bitCount)
+ *  - void fillRow(ByteBuffer row, int[] pels, int bitCount)
+ *  - void writeFully(FileChannel channel, ByteBuffer buffer)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class BmpEncoder
+{
+   public static final int GRAYSCALE_8 = 8;                    // Supported output color depths
+   public static final int TRUE_COLOR_24 = 24;
+   public static final int TRUE_COLOR_32 = 32;
+
+   public static final int FILE_HEADER_SIZE = 14;              // BITMAPFILEHEADER
+   public static final int INFO_HEADER_SIZE = 40;              // BITMAPINFOHEADER
+   public static final int PALETTE_SIZE = 256 * 4;             // 256 RGBQUADs for the grayscale table
+
+   public static final int WHOLE_IMAGE_LIMIT = 1 << 24;        // Images up to 16MB are written in a single write
+
+   private static final int BI_RGB = 0;                        // Uncompressed
+   private static final int BMP_SIGNATURE = 0x4D42;            // "BM"
+
+   private final int xPelsPerMeter;
+   private final int yPelsPerMeter;
+
+   /**
+    * Creates an encoder that leaves the resolution
+    * fields of the header at zero.
+    */
+   public BmpEncoder()
+   {
+      this(0, 0);
+   }
+
+   /**
+    * Creates an encoder that records the given
+    * device resolution in every header it writes.
+    *
+    * @param xPelsPerMeter the horizontal resolution
+    * @param yPelsPerMeter the vertical resolution
+    */
+   public BmpEncoder(int xPelsPerMeter, int yPelsPerMeter)
+   {
+      this.xPelsPerMeter = xPelsPerMeter;
+      this.yPelsPerMeter = yPelsPerMeter;
+   }
+
+   /**
+    * Writes the image to file in the given color
+    * depth. The image is stored top row first, the
+    * file is written in the usual bottom up order.
+    *
+    * @param filename the path of the file to write
+    * @param image    the pels indexed [row][column]
+    * @param bitCount 8 (grayscale palette), 24 or 32
+    * @throws IOException if the file cannot be
+    *                     written
+    */
+   public void write(String filename, int[][] image, int bitCount) throws IOException
+   {
+      int height = image.length;
+      int width = height == 0 ? 0 : image[0].length;
+      long imageSize = (long) rowSize(width, bitCount) * height;
+
+      FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+      try
+      {
+         if (imageSize <= WHOLE_IMAGE_LIMIT)
+         {
+            writeFully(channel, encode(image, bitCount));           // One bulk write for the whole file
+         }
+         else
+         {
+            writeFully(channel, header(width, height, bitCount));
+
+            ByteBuffer row = ByteBuffer.allocate(rowSize(width, bitCount));
+            /*
+             * Builds each padded scanline in the reusable row
+             * buffer and writes it with a single call, last
+             * image row first.
+             */
+            for (int i = height - 1; i >= 0; i--)
+            {
+               row.clear();
+               fillRow(row, image[i], bitCount);
+               row.flip();
+               writeFully(channel, row);
+            }
+         }
+      }
+      finally
+      {
+         channel.close();
+      }
+   }// write(String filename, int[][] image, int bitCount)
+
+   /**
+    * Encodes the complete BMP file in memory.
+    *
+    * @param image    the pels indexed [row][column]
+    * @param bitCount 8 (grayscale palette), 24 or 32
+    * @return a buffer positioned at zero that holds
+    *         the complete file
+    */
+   public ByteBuffer encode(int[][] image, int bitCount)
+   {
+      int height = image.length;
+      int width = height == 0 ? 0 : image[0].length;
+      ByteBuffer header = header(width, height, bitCount);
+
+      ByteBuffer file = ByteBuffer.allocate(header.remaining() + rowSize(width, bitCount) * height);
+      file.order(ByteOrder.LITTLE_ENDIAN);
+      file.put(header);
+
+      for (int i = height - 1; i >= 0; i--)                      // Rows are stored in the usual inverted format
+      {
+         fillRow(file, image[i], bitCount);
+      }
+      file.flip();
+      return file;
+   }// encode(int[][] image, int bitCount)
+
+   /**
+    * Computes the size in bytes of one scanline
+    * including the padding to a 4 byte boundary.
+    *
+    * @param width    the number of pels in a row
+    * @param bitCount the color depth
+    * @return the padded row size in bytes
+    */
+   public int rowSize(int width, int bitCount)
+   {
+      if (bitCount != GRAYSCALE_8 && bitCount != TRUE_COLOR_24 && bitCount != TRUE_COLOR_32)
+         throw new IllegalArgumentException("Unsupported bit count: " + bitCount);
+
+      int bytes = width * (bitCount / 8);
+      return bytes + (4 - bytes % 4) % 4;
+   }
+
+   /**
+    * Converts a pel to its gray level using the same
+    * luminance formula as DibDump.colorToGrayscale.
+    *
+    * @param pel the 0xRRGGBB color
+    * @return the gray level from 0 to 255
+    */
+   public int grayLevel(int pel)
+   {
+      int red = (pel >> 16) & 0x00FF;
+      int green = (pel >> 8) & 0x00FF;
+      int blue = pel & 0x00FF;
+      int lum = (int) Math.round(0.3 * red + 0.589 * green + 0.11 * blue);
+      return Math.min(255, lum);
+   }
+
+   /**
+    * Converts an intensity in the range 0 to 1, such
+    * as a network output, to a gray pel.
+    *
+    * @param value the intensity, clamped to [0, 1]
+    * @return the gray 0xRRGGBB pel
+    */
+   public int grayToPel(double value)
+   {
+      int lum = (int) Math.round(Math.max(0.0, Math.min(1.0, value)) * 255.0);
+      return (lum << 16) | (lum << 8) | lum;
+   }
+
+   /**
+    * Builds the file header, info header and (for 8
+    * bit images) the grayscale color table.
+    *
+    * @param width    the width of the image
+    * @param height   the height of the image
+    * @param bitCount the color depth
+    * @return a buffer ready to be written
+    */
+   private ByteBuffer header(int width, int height, int bitCount)
+   {
+      int paletteSize = bitCount == GRAYSCALE_8 ? PALETTE_SIZE : 0;
+      int offBits = FILE_HEADER_SIZE + INFO_HEADER_SIZE + paletteSize;
+      int sizeImage = rowSize(width, bitCount) * height;
+
+      ByteBuffer header = ByteBuffer.allocate(offBits).order(ByteOrder.LITTLE_ENDIAN);
+
+      header.putShort((short) BMP_SIGNATURE);       // BITMAPFILEHEADER bfType       WORD
+      header.putInt(offBits + sizeImage);           //                  bfSize       DWORD
+      header.putShort((short) 0);                   //                  bfReserved1  WORD
+      header.putShort((short) 0);                   //                  bfReserved2  WORD
+      header.putInt(offBits);                       //                  bfOffBits    DWORD
+
+      header.putInt(INFO_HEADER_SIZE);              // BITMAPINFOHEADER biSize       DWORD
+      header.putInt(width);                         //                  biWidth      LONG
+      header.putInt(height);                        //                  biHeight     LONG
+      header.putShort((short) 1);                   //                  biPlanes     WORD
+      header.putShort((short) bitCount);            //                  biBitCount   WORD
+      header.putInt(BI_RGB);                        //                  biCompression DWORD
+      header.putInt(sizeImage);                     //                  biSizeImage  DWORD
+      header.putInt(xPelsPerMeter);                 //                  biXPelsPerMeter LONG
+      header.putInt(yPelsPerMeter);                 //                  biYPelsPerMeter LONG
+      header.putInt(paletteSize / 4);               //                  biClrUsed    DWORD
+      header.putInt(0);                             //                  biClrImportant DWORD
+
+      /*
+       * The grayscale color table maps each index to
+       * the RGBQUAD (i, i, i, 0)
+       */
+      for (int i = 0; i < paletteSize / 4; i++)
+      {
+         header.put((byte) i);
+         header.put((byte) i);
+         header.put((byte) i);
+         header.put((byte) 0);
+      }
+
+      header.flip();
+      return header;
+   }// header(int width, int height, int bitCount)
+
+   /**
+    * Appends one padded scanline to the buffer.
+    *
+    * @param row      the buffer to fill
+    * @param pels     the pels of the image row
+    * @param bitCount the color depth
+    */
+   private void fillRow(ByteBuffer row, int[] pels, int bitCount)
+   {
+      int start = row.position();
+
+      for (int j = 0; j < pels.length; j++)
+      {
+         int pel = pels[j];
+         if (bitCount == GRAYSCALE_8)
+         {
+            row.put((byte) grayLevel(pel));
+         }
+         else
+         {
+            row.put((byte) pel);                   // blue, the lowest byte in the color
+            row.put((byte) (pel >> 8));            // green
+            row.put((byte) (pel >> 16));           // red, the highest byte in the color
+            if (bitCount == TRUE_COLOR_32)
+               row.put((byte) 0);                  // reserved, always 0 as DibDump writes it
+         }
+      }
+
+      int deadBytes = rowSize(pels.length, bitCount) - (row.position() - start);
+      for (int j = 0; j < deadBytes; j++)
+      {
+         row.put((byte) 0);                        // Pads the row to a 4 byte boundary
+      }
+   }// fillRow(ByteBuffer row, int[] pels, int bitCount)
+
+   /**
+    * Writes the remaining bytes of the buffer to the
+    * channel.
+    *
+    * @param channel the channel to write to
+    * @param buffer  the bytes to write
+    * @throws IOException if the write fails
+    */
+   private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException
+   {
+      while (buffer.hasRemaining())
+      {
+         channel.write(buffer);
+      }
+   }
+}// public class BmpEncoder
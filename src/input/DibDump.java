@@ -767,72 +767,13 @@ typedef RGBQUAD FAR* LPRGBQUAD;
       
 /*
  * Now write out the true color bitmap (24-bits) to a disk file. This is here mostly to be sure we did it all correctly.
- *
+ * BmpEncoder builds each padded scan line in a buffer and writes it in bulk, so there is no per-byte write
+ * or byte swapping here anymore. Change TRUE_COLOR_24 to TRUE_COLOR_32 to write out 32 bit color images.
  */
       try
          {
-         iDeadBytes = (4 - (bmpInfoHeader_biWidth * 3) % 4) % 4;
-
-         bmpInfoHeader_biSizeImage =  (bmpInfoHeader_biWidth * 3 + iDeadBytes) * bmpInfoHeader_biHeight;
-         bmpFileHeader_bfOffBits = 54;        // 54 byte offset for 24 bit images (just open one with this app to get this value)
-         bmpFileHeader_bfSize = bmpInfoHeader_biSizeImage + bmpFileHeader_bfOffBits;
-         bmpInfoHeader_biBitCount = 24;       // 24 bit color image. Changes this number to 32 to write out 32 bit color images
-         bmpInfoHeader_biCompression = 0;     // BI_RGB (which is a value of zero)
-         bmpInfoHeader_biClrUsed = 0;         // Zero for true color
-         bmpInfoHeader_biClrImportant = 0;    // Zero for true color
-
-         FileOutputStream fstream = new FileOutputStream(outFileName);
-         DataOutputStream out = new DataOutputStream(fstream);
-
-// BITMAPFILEHEADER
-         out.writeShort(dibdumper.swapShort(bmpFileHeader_bfType));      // WORD
-         out.writeInt(dibdumper.swapInt(bmpFileHeader_bfSize));          // DWORD
-         out.writeShort(dibdumper.swapShort(bmpFileHeader_bfReserved1)); // WORD
-         out.writeShort(dibdumper.swapShort(bmpFileHeader_bfReserved2)); // WORD
-         out.writeInt(dibdumper.swapInt(bmpFileHeader_bfOffBits));       // DWORD
-
-// BITMAPINFOHEADER
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biSize));          // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biWidth));         // LONG
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biHeight));        // LONG
-         out.writeShort(dibdumper.swapShort(bmpInfoHeader_biPlanes));    // WORD
-         out.writeShort(dibdumper.swapShort(bmpInfoHeader_biBitCount));  // WORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biCompression));   // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biSizeImage));     // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biXPelsPerMeter)); // LONG
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biYPelsPerMeter)); // LONG
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biClrUsed));       // DWORD
-         out.writeInt(dibdumper.swapInt(bmpInfoHeader_biClrImportant));  // DWORD
-
-// there is no color table for this true color image, so write out the pels
-
-         rgbQuad_rgbReserved = 0;
-
-         for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)    // write over the rows (in the usual inverted format)
-            {
-            for (j = 0; j < bmpInfoHeader_biWidth; ++j) // and the columns
-               {
-               pel = imageArray[i][j];
-               rgbQuad_rgbBlue  = pel & 0x00FF;
-               rgbQuad_rgbGreen = (pel >> 8)  & 0x00FF;
-               rgbQuad_rgbRed   = (pel >> 16) & 0x00FF;
-               out.writeByte(rgbQuad_rgbBlue); // lowest byte in the color
-               out.writeByte(rgbQuad_rgbGreen);
-               out.writeByte(rgbQuad_rgbRed);  // highest byte in the color
-               if (bmpInfoHeader_biBitCount == 32) out.writeByte(rgbQuad_rgbReserved);
-               }
-
-            if (bmpInfoHeader_biBitCount != 32)
-               {
-               for (j = 0; j < iDeadBytes; ++j)
-                  {
-                  out.writeByte(0); // Now write out the "dead bytes" to pad to a 4 byte boundary
-                  }
-               }
-            } // for (i = bmpInfoHeader_biHeight - 1; i >= 0; --i)
-
-         out.close();
-         fstream.close();
+         BmpEncoder encoder = new BmpEncoder(bmpInfoHeader_biXPelsPerMeter, bmpInfoHeader_biYPelsPerMeter);
+         encoder.write(outFileName, imageArray, BmpEncoder.TRUE_COLOR_24);
          }
       catch (Exception e)
          {
@@ -0,0 +1,133 @@
+package input;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import perceptron.SampleFeed;
+
+/**
+ * Streams a training set file in the format read by
+ * Loader.loadTrainSet, one case at a time, rereading
+ * the file every epoch instead of holding it in
+ * memory. Meant to be run ahead of the trainer by a
+ * PrefetchFeed.
+ *
+ * Methods:
+ * Constructor:
+ *  - FileFeed(String filename)
+ * Public:
+ *  - void startEpoch(int epoch)
+ *  - boolean next(double[] input, double[] truth)
+ *  - void close()
+ * Private:
+ *  - void parse(String line, double[] values)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class FileFeed implements SampleFeed
+{
+   private String filename;        // The training set file
+   private BufferedReader reader;  // Reads the current epoch
+
+   /**
+    * Creates a feed over the given file.
+    *
+    * @param filename the path to the training set
+    */
+   public FileFeed(String filename)
+   {
+      this.filename = filename;
+   }
+
+   /**
+    * Reopens the file at its first case.
+    *
+    * @param epoch the number of the epoch
+    */
+   public void startEpoch(int epoch)
+   {
+      try
+      {
+         close();
+         reader = new BufferedReader(new FileReader(filename), 1 << 16);
+      }
+      catch (IOException e)
+      {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   /**
+    * Parses the next case of the file.
+    *
+    * @param input the array that receives the inputs
+    * @param truth the array that receives the outputs
+    * @return false at the end of the file
+    */
+   public boolean next(double[] input, double[] truth)
+   {
+      try
+      {
+         String in = reader.readLine();
+         while (in != null && in.trim().equals(""))       // Skips blank lines between cases
+            in = reader.readLine();
+         if (in == null)
+            return false;
+
+         String out = reader.readLine();
+         if (out == null)
+            throw new IOException("Missing expected outputs after \"" + in + "\" in " + filename);
+
+         parse(in, input);
+         parse(out, truth);
+         return true;
+      }
+      catch (IOException e)
+      {
+         throw new UncheckedIOException(e);
+      }
+   }// next(double[] input, double[] truth)
+
+   /**
+    * Closes the file.
+    *
+    * @throws IOException if the file cannot be closed
+    */
+   public void close() throws IOException
+   {
+      if (reader != null)
+         reader.close();
+      reader = null;
+   }
+
+   /**
+    * Parses the space separated values of a line into
+    * the array.
+    *
+    * @param line   the line of the file
+    * @param values the array that receives the values
+    */
+   private void parse(String line, double[] values)
+   {
+      int i = 0;
+      int start = 0;
+      int end = line.length();
+      /*
+       * Walks the line token by token without splitting
+       * it into an array of strings.
+       */
+      while (start < end && i < values.length)
+      {
+         while (start < end && line.charAt(start) == ' ')
+            start++;
+         int stop = start;
+         while (stop < end && line.charAt(stop) != ' ')
+            stop++;
+         if (stop > start)
+            values[i++] = Double.parseDouble(line.substring(start, stop).trim());
+         start = stop;
+      }
+   }// parse(String line, double[] values)
+}// public class FileFeed
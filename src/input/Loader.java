@@ -7,11 +7,28 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import perceptron.CheckpointTrainer;
+import perceptron.ConvNetwork;
+import perceptron.ImageLayer;
+import perceptron.ImportanceSampler;
+import perceptron.LbfgsTrainer;
+import perceptron.LockstepEnsemble;
+import perceptron.Loss;
 import perceptron.Network;
+import perceptron.Normalizer;
+import perceptron.OffHeapNetwork;
+import perceptron.PipelineTrainer;
+import perceptron.PrefetchFeed;
+import perceptron.SampleFeed;
+import perceptron.SparseVector;
+import perceptron.WeightInitializer;
 
 /**
  * A Reader file that takes in input from various
@@ -21,8 +38,24 @@ import perceptron.Network;
  * Public:
  *  - double[][][] readWeights(String filename, double[][][] weights)
  *  - void writeWeights(String filename, double[][][] weights)
+ *  - void readWeights(String filename, OffHeapNetwork network)
+ *  - void writeWeights(String filename, OffHeapNetwork network)
+ *  - Normalizer readStats(String filename)
+ *  - void writeStats(String filename, Normalizer stats)
+ *  - Loss readLoss(String filename)
+ *  - void writeLoss(String filename, Loss loss)
  *  - Map<double[], double[]> loadTrainSet(String filename)
+ *  - Map<SparseVector, double[]> loadSparseTrainSet(String filename, int inputs)
+ *  - Network readStructure(Scanner sc)
+ *  - Network readNetwork(Scanner sc)
+ *  - WeightInitializer parseInitializer(String line)
+ *  - Network loadNetwork(String config)
  *  - void main(String[] args)
+ * Private:
+ *  - int[] parseDimensions(String line)
+ *  - void trainOffHeap(String[] lines, String trainset, Map<String, String> options, int maxIterations, double error, String targetFile)
+ *  - String conflictingOptions(Map<String, String> options)
+ *  - String option(Map<String, String> options, String key, String defaultValue)
  *  
  * @author Harsh Deep Period 2
  * @version 5.1.20
@@ -30,6 +63,9 @@ import perceptron.Network;
 public class Loader
 {
    public static final String DEFAULT_WEIGHT_OUTPUT_FILE = "./data/weights/weights";
+   public static final String STATS_SUFFIX = ".stats";           // Input statistics are saved next to the weights
+   public static final String CONV_SUFFIX = ".conv";             // Image layer weights are saved next to the weights
+   public static final String LOSS_SUFFIX = ".loss";             // The loss trained with is saved next to the weights
 
    /**
     * Reads weights from the given file
@@ -94,18 +130,171 @@ public class Loader
       out.close();
    } // writeWeights(String filename, double[][][] weights)
 
+   /**
+    * Reads weights from the given file straight into
+    * an off-heap network, one weight at a time, so the
+    * heap never holds the model.
+    * 
+    * @param filename the path to the weights file
+    * @param network  the network to populate
+    * @throws FileNotFoundException File could not be
+    *                               found.
+    */
+   public static void readWeights(String filename, OffHeapNetwork network) throws FileNotFoundException
+   {
+      int[] dimensions = network.getDimensions();
+      Scanner sc = new Scanner(new File(filename));
+      for (int n = 0; n < dimensions.length - 1; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+            {
+               network.setWeight(n, k, j, sc.nextDouble());
+            }
+      sc.close();
+   } // readWeights(String filename, OffHeapNetwork network)
+
+   /**
+    * Writes out the weights of an off-heap network in
+    * the same format as the nested arrays, one weight
+    * at a time.
+    * 
+    * @param filename the filepath to write the files
+    *                 to
+    * @param network  the network whose weights are
+    *                 written
+    * @throws IOException
+    */
+   public static void writeWeights(String filename, OffHeapNetwork network) throws IOException
+   {
+      int[] dimensions = network.getDimensions();
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+      for (int n = 0; n < dimensions.length - 1; n++)
+      {
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            for (int j = 0; j < dimensions[n + 1]; j++)
+            {
+               out.print(network.getWeight(n, k, j) + " ");
+            }
+         }
+         out.println();
+      }
+
+      out.flush();
+      out.close();
+   } // writeWeights(String filename, OffHeapNetwork network)
+
+   /**
+    * Reads input statistics written by writeStats
+    * 
+    * @param filename the path to the statistics file
+    * @return the statistics with the scaling they
+    *         were saved with
+    * @throws FileNotFoundException File could not be
+    *                               found.
+    */
+   public static Normalizer readStats(String filename) throws FileNotFoundException
+   {
+      Scanner sc = new Scanner(new File(filename));
+      Normalizer.Scaling scaling = Normalizer.Scaling.valueOf(sc.next());
+      long count = sc.nextLong();
+      int features = sc.nextInt();
+
+      double[] mean = new double[features];
+      double[] variance = new double[features];
+      double[] min = new double[features];
+      double[] max = new double[features];
+      /*
+       * Reads one line of statistics per feature
+       */
+      for (int i = 0; i < features; i++)
+      {
+         mean[i] = sc.nextDouble();
+         variance[i] = sc.nextDouble();
+         min[i] = sc.nextDouble();
+         max[i] = sc.nextDouble();
+      }
+      sc.close();
+
+      return new Normalizer(scaling, count, mean, variance, min, max);
+   } // Normalizer readStats(String filename)
+
+   /**
+    * Writes out the input statistics to file. The
+    * first line holds the scaling, the number of rows
+    * and the number of features, then each line holds
+    * the mean, variance, minimum and maximum of one
+    * feature.
+    * 
+    * @param filename the filepath to write to
+    * @param stats    the statistics to write
+    * @throws IOException
+    */
+   public static void writeStats(String filename, Normalizer stats) throws IOException
+   {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+      double[] mean = stats.getMean();
+      double[] variance = stats.getVariance();
+      double[] min = stats.getMin();
+      double[] max = stats.getMax();
+
+      out.println(stats.getScaling() + " " + stats.getCount() + " " + mean.length);
+      for (int i = 0; i < mean.length; i++)
+      {
+         out.println(mean[i] + " " + variance[i] + " " + min[i] + " " + max[i]);
+      }
+
+      out.flush();
+      out.close();
+   } // writeStats(String filename, Normalizer stats)
+
+   /**
+    * Reads the loss written by writeLoss
+    * 
+    * @param filename the path to the loss file
+    * @return the loss the weights were trained with
+    * @throws FileNotFoundException File could not be
+    *                               found.
+    */
+   public static Loss readLoss(String filename) throws FileNotFoundException
+   {
+      Scanner sc = new Scanner(new File(filename));
+      Loss loss = Loss.parse(sc.next());
+      sc.close();
+
+      return loss;
+   } // Loss readLoss(String filename)
+
+   /**
+    * Writes out the loss weights were trained with,
+    * by its config name.
+    * 
+    * @param filename the filepath to write to
+    * @param loss     the loss
+    * @throws IOException
+    */
+   public static void writeLoss(String filename, Loss loss) throws IOException
+   {
+      PrintWriter out = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+      out.println(loss.getName());
+
+      out.flush();
+      out.close();
+   } // writeLoss(String filename, Loss loss)
+
    /**
     * Loads the training set from file
     * 
     * @param filename The file from which to read the
     *                 training set
     * @return A map with input activations mapping to
-    *         the expected output
+    *         the expected output, iterated in the order
+    *         of the file
     * @throws FileNotFoundException
     */
    public static Map<double[], double[]> loadTrainSet(String filename) throws FileNotFoundException
    {
-      Map<double[], double[]> train = new HashMap<double[], double[]>();
+      Map<double[], double[]> train = new LinkedHashMap<double[], double[]>();  // Keeps file order so seeded runs repeat
       Scanner sc = new Scanner(new File(filename));
       /*
        * Iterates across all of the training sets in the
@@ -150,77 +339,331 @@ public class Loader
    } // Map<double[], double[]> loadTrainSet(String filename)
 
    /**
-    * A driver class for the network
+    * Loads a training set whose inputs are sparse.
+    * Every case takes two lines: the non-zero inputs
+    * as index:value pairs (a bare index means a value
+    * of 1, for binary inputs), then the outputs as in
+    * loadTrainSet.
     * 
-    * @param args the first argument should be the
-    *             file path to the configuration
-    *             file. The configuration file should
-    *             list the number of nodes in each
-    *             layer, the lambda value, the random
-    *             weight range, the training set
-    *             file, the max iterations, the error
-    *             threshold, and (optionally) the
-    *             weight output file all on a separate line.
-    * @throws IOException if file cannot be opened
+    * @param filename the path to the training set
+    * @param inputs   the number of input nodes
+    * @return the inputs mapped to their outputs, in
+    *         file order
+    * @throws FileNotFoundException if the file cannot
+    *                               be found
     */
-   public static void main(String[] args) throws IOException
+   public static Map<SparseVector, double[]> loadSparseTrainSet(String filename, int inputs) throws FileNotFoundException
    {
-      if (args.length != 1)                                                     // Checks for the presence of config filepath
+      Map<SparseVector, double[]> train = new LinkedHashMap<SparseVector, double[]>();
+      Scanner sc = new Scanner(new File(filename));
+      while (sc.hasNextLine())
       {
-         System.err.println("Expected 1 argument(path to config file)");
-         System.exit(1);
+         String ln = sc.nextLine().trim();
+         if (ln.equals(""))
+            continue;
+
+         String[] dat = ln.split("\\s+");
+         int[] indices = new int[dat.length];
+         double[] values = new double[dat.length];
+         for (int i = 0; i < dat.length; i++)
+         {
+            int colon = dat[i].indexOf(':');
+            indices[i] = Integer.valueOf(colon < 0 ? dat[i] : dat[i].substring(0, colon));
+            values[i] = colon < 0 ? 1.0 : Double.valueOf(dat[i].substring(colon + 1));
+         }
+
+         dat = sc.nextLine().trim().split("\\s+");
+         double[] outputs = new double[dat.length];
+         for (int i = 0; i < dat.length; i++)
+            outputs[i] = Double.valueOf(dat[i]);
+
+         train.put(new SparseVector(inputs, indices, values), outputs);
       }
+      sc.close();
 
-      String config = args[0];                                                  // Gets the config filepath from the cmd arguments
+      System.out.println("Loaded " + train.size() + " sparse training cases.");
 
-      Scanner sc = new Scanner(new File(config));
+      return train;
+   } // Map<SparseVector, double[]> loadSparseTrainSet(String filename, int inputs)
 
-      String[] structure = sc.nextLine().split(" ");
+   /**
+    * Builds a network from the first two lines of a
+    * config file: the number of nodes in each layer
+    * and the lambda value. Its weights are left at 0.
+    * 
+    * @param sc a scanner positioned at the start of
+    *           the config
+    * @return the network
+    */
+   public static Network readStructure(Scanner sc)
+   {
+      int[] dimensions = parseDimensions(sc.nextLine());
       
-      int inputs = Integer.valueOf(structure[0]);                               // Sets number of input activations
+      int inputs = dimensions[0];                                               // Sets number of input activations
 
-      int[] hidden = new int[structure.length-2];
+      int[] hidden = new int[dimensions.length-2];
       
       /*
        * Sets the dimensions of each hidden layer 
        */
-      for(int i = 0;i<structure.length-2;i++) 
+      for(int i = 0;i<dimensions.length-2;i++) 
       {
-         hidden[i] = Integer.valueOf(structure[i+1]);
+         hidden[i] = dimensions[i+1];
       }               
 
-      int outputs = Integer.valueOf(structure[structure.length-1]);             // Sets number of output nodes
+      int outputs = dimensions[dimensions.length-1];                            // Sets number of output nodes
 
       double lambda = Double.valueOf(sc.nextLine());                            // Sets lambda(learning rate)
 
-      Network n = new Network(inputs, hidden, outputs, lambda);
+      return new Network(inputs, hidden, outputs, lambda);
+   } // Network readStructure(Scanner sc)
+
+   /**
+    * Builds a network from the first three lines of a
+    * config file: the number of nodes in each layer,
+    * the lambda value and either the random weights
+    * or the path to a weights file (whose input
+    * statistics and loss are loaded too, if
+    * present). Random
+    * weights are given as "low, high" for one range,
+    * or as xavier or he for a range sized to each
+    * layer, either followed by an optional seed.
+    * 
+    * @param sc a scanner positioned at the start of
+    *           the config
+    * @return the network with its weights set
+    * @throws FileNotFoundException if the weights file
+    *                               cannot be found
+    */
+   public static Network readNetwork(Scanner sc) throws FileNotFoundException
+   {
+      Network n = readStructure(sc);
 
       String weight = sc.nextLine();
 
-      /*
-       * Sets the random weights for the network between
-       * given high and low weights or reads in from
-       * file
-       */
-      try
-      {       
-         double lowerWeightbound = Double.valueOf(weight.split(",")[0].trim());
-         double higherWeightbound = Double.valueOf(weight.split(",")[1].trim());
-         System.out.println("Set random weights in the range between "+lowerWeightbound+" and "+higherWeightbound);
-         n.setRandWeights(lowerWeightbound, higherWeightbound);
+      WeightInitializer initializer = parseInitializer(weight);
+      if (initializer != null)                                                  // Sets random weights from the scheme
+      {
+         System.out.println("Set random weights: "+initializer.describe());
+         n.setRandWeights(initializer);
       }
-      catch (Exception e)
+      else
       {
          /*
           * Loads weights from separate file
           */
          n.setWeights(readWeights(weight, n.getWeights()));
          System.out.println("Loaded weights from file");
+
+         if (new File(weight + STATS_SUFFIX).exists())                         // Applies the same input scaling the
+         {                                                                     // weights were trained with
+            n.setInputTransform(readStats(weight + STATS_SUFFIX));
+            System.out.println("Loaded input statistics from file");
+         }
+
+         if (new File(weight + LOSS_SUFFIX).exists())                          // Activates the outputs as they were
+         {                                                                     // trained
+            n.setLoss(readLoss(weight + LOSS_SUFFIX));
+            System.out.println("Loaded loss from file: "+n.getLoss().getName());
+         }
+      }
+
+      return n;
+   } // Network readNetwork(Scanner sc)
+
+   /**
+    * Reads the random weights line of a config: "low,
+    * high" or a scheme name(xavier or he), followed by
+    * an optional seed. Without a seed, one is picked
+    * from the clock and logged so the run can be
+    * repeated.
+    * 
+    * @param line the third line of a config
+    * @return the initializer, or null if the line is
+    *         a weights file path
+    */
+   public static WeightInitializer parseInitializer(String line)
+   {
+      String[] words = line.trim().split("[,\\s]+");
+      WeightInitializer.Scheme scheme;
+      int next;
+      double lower = 0.0;
+      double upper = 0.0;
+      try
+      {
+         if (words[0].equalsIgnoreCase("xavier") || words[0].equalsIgnoreCase("he"))
+         {
+            scheme = WeightInitializer.Scheme.valueOf(words[0].toUpperCase());
+            next = 1;
+         }
+         else
+         {
+            scheme = WeightInitializer.Scheme.UNIFORM;
+            lower = Double.valueOf(words[0]);
+            upper = Double.valueOf(words[1]);
+            next = 2;
+         }
+         long seed = words.length > next ? Long.valueOf(words[next]) : System.nanoTime();
+         return new WeightInitializer(scheme, lower, upper, seed);
+      }
+      catch (RuntimeException e)
+      {
+         return null;                                                          // Not random weights
+      }
+   }// parseInitializer(String line)
+
+   /**
+    * Builds the network described by a config file
+    * without training it.
+    * 
+    * @param config the path to the config file
+    * @return the network with its weights set
+    * @throws FileNotFoundException if the config or
+    *                               weights file cannot
+    *                               be found
+    */
+   public static Network loadNetwork(String config) throws FileNotFoundException
+   {
+      Scanner sc = new Scanner(new File(config));
+      try
+      {
+         return readNetwork(sc);
+      }
+      finally
+      {
+         sc.close();
       }
+   } // Network loadNetwork(String config)
 
+   /**
+    * A driver class for the network
+    * 
+    * @param args the first argument should be the
+    *             file path to the configuration
+    *             file. The configuration file should
+    *             list the number of nodes in each
+    *             layer, the lambda value, the random
+    *             weight range, the training set
+    *             file, the max iterations, the error
+    *             threshold, and (optionally) the
+    *             weight output file all on a separate line.
+    *             Any line after the error threshold of
+    *             the form key=value is an option:
+    *             augment=WxH trains on augmented copies
+    *             of WxH images (with shift, flip,
+    *             rotate, noise, seed and workers).
+    *             prefetch=N trains on batches of N
+    *             cases loaded ahead on another thread
+    *             (with depth and shuffle=seed); without
+    *             augment the file is streamed and never
+    *             stored, the error check included.
+    *             normalize=standard|minmax rescales
+    *             the inputs with statistics that are
+    *             saved next to the weights and reloaded
+    *             with them.
+    *             sparse=true reads the training set in
+    *             the loadSparseTrainSet format and
+    *             trains on the sparse input path (the
+    *             options above need dense cases and are
+    *             ignored).
+    *             image=WxH or WxHxC trains on images of C
+    *             channels(1 by default) through the
+    *             image layers listed by layers=, such as
+    *             layers=conv:8x3,pool:2,conv:16x3/2 for
+    *             8 filters of 3x3, a 2x2 max pool and 16
+    *             filters of 3x3 with a stride of 2. The
+    *             first line then gives the size of the
+    *             image layers' output as the input count.
+    *             The filters start in the range given by
+    *             convrange=low,high(-0.5,0.5 by default),
+    *             drawn from the third line's seed(or
+    *             seed=S if the weights come from a
+    *             file), or are read from
+    *             convweights=path, and
+    *             are written out next to the weights
+    *             (the options for dense inputs are
+    *             ignored).
+    *             ensemble=N trains N models of the same
+    *             shape at once in lockstep, model m
+    *             starting from the third line's random
+    *             weights with its seed+m, so model 0 is
+    *             the single model of that seed, and
+    *             training with the m-th
+    *             of lambdas=a,b,...(cycled, the config's
+    *             lambda by default). Each model is
+    *             written out with .m after the weights
+    *             file, which gets the best of them.
+    *             pipeline=S splits the layers into S
+    *             stages of about the same number of
+    *             weights, each trained by its own
+    *             thread on batches of batch=N
+    *             cases(32) cut into micro-batches of
+    *             microbatch=M cases(N / 2S), applying
+    *             each batch's changes at once.
+    *             loss=squared|bce|softmax picks the
+    *             error trained on and checked against
+    *             the threshold: squared error, binary
+    *             cross entropy on sigmoid outputs, or
+    *             cross entropy on softmax outputs for
+    *             one-hot truths(the loss saved with
+    *             loaded weights, or squared by
+    *             default). The loss is saved next to
+    *             the weights.
+    *             sampling=importance trains each epoch
+    *             on fraction=x of the cases(0.25), drawn
+    *             in proportion to their last error and
+    *             weighted to keep the changes unbiased,
+    *             with a full pass every sweep=K
+    *             epochs(10) to refresh the errors.
+    *             trainer=lbfgs trains with L-BFGS on
+    *             the whole training set, the max
+    *             iterations counting its steps, using
+    *             the last memory=M steps(10) and
+    *             threads=T threads for the gradients(one
+    *             per processor).
+    *             checkpoint=I trains on batches of
+    *             batch=N cases(32) keeping the
+    *             activations of only every I-th layer
+    *             and computing the rest again while
+    *             passing back, then reports the memory
+    *             saved and the work added.
+    *             offheap=true trains with the weights,
+    *             nodes and psi values outside the heap,
+    *             and offheap=path maps the weights onto
+    *             a binary file at path, starting from
+    *             the file if it already holds this
+    *             network's weights. Either way the
+    *             weights never pass through the heap:
+    *             they are set from the third line or
+    *             streamed from and to the weights
+    *             files.
+    *             sparse=true, image, ensemble, pipeline,
+    *             checkpoint, trainer=lbfgs and offheap
+    *             each pick a trainer, so at most one may
+    *             be given, and none of them reads cases
+    *             from augment, prefetch or
+    *             sampling=importance; a config that
+    *             mixes them is rejected.
+    * @throws IOException if file cannot be opened
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length != 1)                                                     // Checks for the presence of config filepath
+      {
+         System.err.println("Expected 1 argument(path to config file)");
+         System.exit(1);
+      }
+
+      String config = args[0];                                                  // Gets the config filepath from the cmd arguments
+
+      Scanner sc = new Scanner(new File(config));
+
+      String[] lines = {sc.nextLine(), sc.nextLine(), sc.nextLine()};                  // The network is built once the options
+                                                                                        // say whether it lives on the heap
       String trainset = sc.nextLine();
-      Map<double[], double[]> training = new HashMap<double[], double[]>();             // Loads the training set for the network
-      training = loadTrainSet(trainset);
+      Map<double[], double[]> training = null;                                          // Loaded once the options are known,
+                                                                                        // never if the file is streamed
+      Map<SparseVector, double[]> sparseTraining = null;
 
       int maxIterations = Integer.valueOf(sc.nextLine());                               // Sets the stopping conditions for the
                                                                                         // network
@@ -228,26 +671,406 @@ public class Loader
       
       System.out.println("Stopping Conditions: Max Iterations: "+maxIterations+"; Error threshold: "+error);
 
-      n.setTrainingHyperparams(maxIterations, error);                                   // Starts training on the network
-      n.trainNetwork(training);
-
       /*
-       * Writes out the final weights to provided
-       * file(or default with timestamp if none was provided)
-       */ 
+       * Reads the optional lines: key=value options and
+       * the weight output file(or default with timestamp
+       * if none was provided)
+       */
       String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
       String targetFile = DEFAULT_WEIGHT_OUTPUT_FILE+timestamp+".out";
-      
-      if (sc.hasNext())
+      Map<String, String> options = new HashMap<String, String>();
+
+      while (sc.hasNextLine())
       {
-          targetFile = sc.nextLine();
+         String line = sc.nextLine().trim();
+         if (line.contains("="))
+            options.put(line.substring(0, line.indexOf('=')).trim(), line.substring(line.indexOf('=') + 1).trim());
+         else if (!line.equals(""))
+            targetFile = line;
       }
-      
+
+      String conflict = conflictingOptions(options);                                    // Every option below is honored or the
+      if (conflict != null)                                                             // run never starts
+      {
+         System.err.println(conflict);
+         System.exit(1);
+      }
+
+      if (options.containsKey("offheap"))
+      {
+         trainOffHeap(lines, trainset, options, maxIterations, error, targetFile);      // Never builds the heap network
+         sc.close();
+         return;
+      }
+
+      WeightInitializer initializer = parseInitializer(lines[2]);                      // Read once so every random part of the
+      Network n;                                                                        // run shares the seed
+      if (initializer == null)
+         n = readNetwork(new Scanner(lines[0] + "\n" + lines[1] + "\n" + lines[2]));
+      else
+      {
+         n = readStructure(new Scanner(lines[0] + "\n" + lines[1]));
+         System.out.println("Set random weights: "+initializer.describe());
+         n.setRandWeights(initializer);
+      }
+      long seed = initializer != null ? initializer.getSeed() : Long.valueOf(option(options, "seed", "0"));
+      int[] dimensions = n.getDimensions();
+      int inputs = dimensions[0];
+      int outputs = dimensions[dimensions.length - 1];
+
+      if (options.containsKey("loss"))                                                  // The error trained on and checked,
+         n.setLoss(Loss.parse(options.get("loss")));                                    // otherwise the loaded weights' own
+
+      boolean streaming = options.containsKey("prefetch") && !options.containsKey("augment")  // Prefetching straight from the file
+            && !options.containsKey("image") && !option(options, "sparse", "false").equals("true");   // never stores the cases
+
+      if (option(options, "sparse", "false").equals("true"))                           // Loads the training set for the network
+         sparseTraining = loadSparseTrainSet(trainset, inputs);
+      else if (!streaming)
+         training = loadTrainSet(trainset);
+
+      ConvNetwork conv = null;                                                          // Puts image layers in front of the
+      if (options.containsKey("image") && sparseTraining == null)                       // network
+      {
+         String[] size = options.get("image").split("x");
+         int channels = size.length > 2 ? Integer.valueOf(size[2].trim()) : 1;
+         ImageLayer[] layers = ConvNetwork.parse(option(options, "layers", ""), channels, Integer.valueOf(size[1].trim()),
+               Integer.valueOf(size[0].trim()));
+         conv = new ConvNetwork(layers, n);
+
+         if (options.containsKey("convweights"))
+         {
+            readWeights(options.get("convweights"), conv.getWeights());
+            System.out.println("Loaded image layer weights from file");
+         }
+         else
+         {
+            String[] range = option(options, "convrange", "-0.5,0.5").split(",");
+            conv.setRandWeights(Double.valueOf(range[0].trim()), Double.valueOf(range[1].trim()), seed);
+            System.out.println("Set random image layer weights: seed "+seed);
+         }
+      }
+
+      if (options.containsKey("normalize") && n.getInputTransform() == null && sparseTraining == null && conv == null)
+      {
+         Normalizer stats;
+         if (training == null)
+         {
+            FileFeed rows = new FileFeed(trainset);                                     // One pass over the file
+            stats = Normalizer.fit(rows, inputs, outputs);
+            rows.close();
+         }
+         else
+            stats = Normalizer.fit(training.keySet().toArray(new double[training.size()][]),
+                  Runtime.getRuntime().availableProcessors());
+         stats.setScaling(Normalizer.Scaling.valueOf(options.get("normalize").toUpperCase()));
+         n.setInputTransform(stats);
+         System.out.println("Normalizing inputs: "+stats.getScaling());
+      }
+
+      n.setTrainingHyperparams(maxIterations, error);                                   // Starts training on the network
+
+      SampleFeed feed = null;                                                           // Trains on the training map unless
+                                                                                        // an option sets up a feed
+      Augmenter augmenter = null;
+      PrefetchFeed prefetch = null;
+
+      if (options.containsKey("augment") && sparseTraining == null && conv == null)
+      {
+         String[] size = options.get("augment").split("x");
+         augmenter = new Augmenter(training, Integer.valueOf(size[0].trim()), Integer.valueOf(size[1].trim()),
+               Long.valueOf(option(options, "seed", "0")), Integer.valueOf(option(options, "workers", "2")), 64);
+         augmenter.setTransforms(Integer.valueOf(option(options, "shift", "2")),
+               Boolean.valueOf(option(options, "flip", "false")), Double.valueOf(option(options, "rotate", "10")),
+               Double.valueOf(option(options, "noise", "0")));
+         System.out.println("Augmenting "+options.get("augment")+" images while training");
+         feed = augmenter;
+      }
+
+      if (options.containsKey("prefetch") && sparseTraining == null && conv == null)
+      {
+         SampleFeed source = feed != null ? feed : new FileFeed(trainset);              // Streams the file if nothing else
+                                                                                        // produces the cases
+         prefetch = new PrefetchFeed(source, inputs, outputs, Integer.valueOf(options.get("prefetch")),
+               Integer.valueOf(option(options, "depth", "4")), Long.valueOf(option(options, "shuffle", "-1")));
+         System.out.println("Prefetching batches of "+options.get("prefetch")+" cases");
+         feed = prefetch;
+      }
+
+      ImportanceSampler sampler = null;
+      if (option(options, "sampling", "").equals("importance") && sparseTraining == null && conv == null && feed == null)
+      {
+         sampler = new ImportanceSampler(training, Double.valueOf(option(options, "fraction", "0.25")),
+               Integer.valueOf(option(options, "sweep", "10")), Long.valueOf(option(options, "seed", "0")));
+         System.out.println("Sampling cases by their error");
+         feed = sampler;
+      }
+
+      LockstepEnsemble ensemble = null;
+      if (options.containsKey("ensemble") && sparseTraining == null && conv == null && feed == null)
+      {
+         ensemble = new LockstepEnsemble(dimensions, Integer.valueOf(options.get("ensemble")));
+         String[] lambdas = option(options, "lambdas", String.valueOf(n.getLambda())).split(",");
+         for (int m = 0; m < ensemble.getModels(); m++)
+            ensemble.setLambda(m, Double.valueOf(lambdas[m % lambdas.length].trim()));
+         ensemble.setInputTransform(n.getInputTransform());
+
+         if (initializer == null)
+            for (int m = 0; m < ensemble.getModels(); m++)                            // Every model starts from the
+               ensemble.setWeights(m, n.getWeights());                                 // loaded weights
+         else
+            ensemble.setRandWeights(initializer);                                      // Model m gets the seed + m
+      }
+
+      PipelineTrainer pipeline = null;
+      if (options.containsKey("pipeline") && sparseTraining == null && conv == null && feed == null && ensemble == null)
+      {
+         int batch = Integer.valueOf(option(options, "batch", "32"));
+         int stages = Integer.valueOf(options.get("pipeline"));
+         int micro = Integer.valueOf(option(options, "microbatch", String.valueOf(Math.max(1, batch / (2 * stages)))));
+         pipeline = new PipelineTrainer(n, PipelineTrainer.balance(dimensions, stages), batch, micro);
+      }
+
+      CheckpointTrainer checkpoints = null;
+      if (options.containsKey("checkpoint") && sparseTraining == null && conv == null && feed == null
+            && ensemble == null && pipeline == null)
+         checkpoints = new CheckpointTrainer(n, Integer.valueOf(option(options, "batch", "32")),
+               Integer.valueOf(options.get("checkpoint")));
+
+      LbfgsTrainer lbfgs = null;
+      if (option(options, "trainer", "sgd").equals("lbfgs") && sparseTraining == null && conv == null && feed == null
+            && ensemble == null && pipeline == null && checkpoints == null)
+         lbfgs = new LbfgsTrainer(n, Integer.valueOf(option(options, "memory", "10")),
+               Integer.valueOf(option(options, "threads", String.valueOf(Runtime.getRuntime().availableProcessors()))));
+
+      if (ensemble != null && n.getLoss() != Loss.SQUARED)
+      {
+         System.out.println("The ensemble engine trains on squared error only; ignoring loss=" + n.getLoss().getName());
+         n.setLoss(Loss.SQUARED);                                                       // Saved with the weights
+      }
+
+      if (sparseTraining != null)
+         n.trainSparse(sparseTraining);
+      else if (lbfgs != null)
+      {
+         lbfgs.setTrainingHyperparams(maxIterations, error);
+         lbfgs.trainNetwork(training);
+      }
+      else if (pipeline != null)
+      {
+         pipeline.setTrainingHyperparams(maxIterations, error);
+         pipeline.trainNetwork(training);
+      }
+      else if (checkpoints != null)
+      {
+         checkpoints.setTrainingHyperparams(maxIterations, error);
+         checkpoints.trainNetwork(training);
+      }
+      else if (ensemble != null)
+      {
+         ensemble.setTrainingHyperparams(maxIterations, error);
+         ensemble.trainNetwork(training);
+         for (int m = 0; m < ensemble.getModels(); m++)
+            writeWeights(targetFile + "." + m, ensemble.getWeights(m));
+         n.setWeights(ensemble.getWeights(ensemble.getBestModel()));
+         System.out.println("Model weights written out to: \""+targetFile+".0\" to \""+targetFile+"."
+               +(ensemble.getModels() - 1)+"\", best is model "+ensemble.getBestModel());
+      }
+      else if (conv != null)
+      {
+         conv.setTrainingHyperparams(maxIterations, error);
+         conv.trainNetwork(training);
+      }
+      else if (training == null)
+      {
+         FileFeed check = new FileFeed(trainset);                                       // Streams the error check too
+         n.trainNetwork(feed, check);
+         check.close();
+      }
+      else
+         n.trainNetwork(training, feed);
+
+      if (prefetch != null)
+      {
+         prefetch.close();
+         prefetch.printStats();
+      }
+      if (augmenter != null)
+         augmenter.close();
+      if (sampler != null)
+         sampler.printStats();
+
       writeWeights(targetFile, n.getWeights());
       System.out.println("Weights written out to: \""+targetFile+"\"");
+
+      if (conv != null)
+      {
+         writeWeights(targetFile + CONV_SUFFIX, conv.getWeights());
+         System.out.println("Image layer weights written out to: \""+targetFile+CONV_SUFFIX+"\"");
+      }
+
+      if (n.getInputTransform() instanceof Normalizer)                                  // Saves the statistics next to the weights
+      {
+         writeStats(targetFile + STATS_SUFFIX, (Normalizer) n.getInputTransform());
+         System.out.println("Input statistics written out to: \""+targetFile+STATS_SUFFIX+"\"");
+      }
+
+      writeLoss(targetFile + LOSS_SUFFIX, n.getLoss());                                 // Saves the loss next to the weights
+      System.out.println("Loss written out to: \""+targetFile+LOSS_SUFFIX+"\"");
       
       sc.close();
 
    }// main(String[] args)
 
+   /**
+    * Reads the number of nodes in each layer from the
+    * first line of a config.
+    * 
+    * @param line the structure line
+    * @return the dimensions, input layer first
+    */
+   private static int[] parseDimensions(String line)
+   {
+      String[] structure = line.trim().split(" ");
+      int[] dimensions = new int[structure.length];
+      for (int i = 0; i < structure.length; i++)
+         dimensions[i] = Integer.valueOf(structure[i]);
+      return dimensions;
+   }
+
+   /**
+    * Trains with the weights, nodes and psi values off
+    * the heap. The network is built straight from the
+    * structure, and its weights are set from the
+    * initializer or streamed in from the weights file
+    * and streamed out again, so the heap only ever
+    * holds a row of them.
+    * 
+    * @param lines         the first three lines of the
+    *                      config
+    * @param trainset      the training set file
+    * @param options       the options of the config
+    * @param maxIterations the most epochs
+    * @param error         the error threshold
+    * @param targetFile    the weight output file
+    * @throws IOException if a file cannot be read or
+    *                     written
+    */
+   private static void trainOffHeap(String[] lines, String trainset, Map<String, String> options, int maxIterations,
+         double error, String targetFile) throws IOException
+   {
+      int[] dimensions = parseDimensions(lines[0]);
+      double lambda = Double.valueOf(lines[1].trim());
+      Map<double[], double[]> training = loadTrainSet(trainset);
+
+      File weightsFile = new File(options.get("offheap"));
+      boolean mapped = !options.get("offheap").equals("true");
+      boolean resume = mapped && weightsFile.length() == 8 * OffHeapNetwork.weightCount(dimensions);
+      OffHeapNetwork offHeap = mapped ? OffHeapNetwork.map(weightsFile, dimensions, lambda)
+            : OffHeapNetwork.allocate(dimensions, lambda);
+
+      WeightInitializer initializer = parseInitializer(lines[2]);
+      if (resume)
+         System.out.println("Resuming from the weights in \""+weightsFile+"\"");
+      else if (initializer != null)
+      {
+         System.out.println("Set random weights: "+initializer.describe());
+         offHeap.setRandWeights(initializer);
+      }
+      else
+      {
+         readWeights(lines[2], offHeap);
+         System.out.println("Loaded weights from file");
+      }
+
+      Normalizer stats = null;
+      if (initializer == null && new File(lines[2] + STATS_SUFFIX).exists())        // Applies the same input scaling the
+      {                                                                             // weights were trained with
+         stats = readStats(lines[2] + STATS_SUFFIX);
+         System.out.println("Loaded input statistics from file");
+      }
+      else if (options.containsKey("normalize"))
+      {
+         double[][] rows = training.keySet().toArray(new double[training.size()][]);
+         stats = Normalizer.fit(rows, Runtime.getRuntime().availableProcessors());
+         stats.setScaling(Normalizer.Scaling.valueOf(options.get("normalize").toUpperCase()));
+         System.out.println("Normalizing inputs: "+stats.getScaling());
+      }
+      offHeap.setInputTransform(stats);
+
+      if (Loss.parse(option(options, "loss", "squared")) != Loss.SQUARED
+            || (initializer == null && new File(lines[2] + LOSS_SUFFIX).exists() && readLoss(lines[2] + LOSS_SUFFIX) != Loss.SQUARED))
+         System.out.println("The off-heap engine trains on squared error only; ignoring the loss");
+
+      offHeap.setTrainingHyperparams(maxIterations, error);
+      offHeap.trainNetwork(training);
+
+      writeWeights(targetFile, offHeap);
+      System.out.println("Weights written out to: \""+targetFile+"\"");
+      if (stats != null)
+      {
+         writeStats(targetFile + STATS_SUFFIX, stats);
+         System.out.println("Input statistics written out to: \""+targetFile+STATS_SUFFIX+"\"");
+      }
+      writeLoss(targetFile + LOSS_SUFFIX, Loss.SQUARED);
+      offHeap.close();
+   }// trainOffHeap(...)
+
+   /**
+    * Checks that the options pick at most one trainer
+    * and that only the default trainer is given a
+    * feed, since every other trainer would silently
+    * ignore the rest.
+    * 
+    * @param options the options of the config
+    * @return a message naming the options that
+    *         conflict, or null if there are none
+    */
+   private static String conflictingOptions(Map<String, String> options)
+   {
+      String trainer = option(options, "trainer", "sgd");
+      if (!trainer.equals("sgd") && !trainer.equals("lbfgs"))
+         return "Unknown trainer=" + trainer + "(expected sgd or lbfgs)";
+
+      List<String> trainers = new ArrayList<String>();
+      if (option(options, "sparse", "false").equals("true"))
+         trainers.add("sparse=true");
+      for (String key : new String[] {"image", "ensemble", "pipeline", "checkpoint"})
+         if (options.containsKey(key))
+            trainers.add(key + "=" + options.get(key));
+      if (trainer.equals("lbfgs"))
+         trainers.add("trainer=lbfgs");
+      if (options.containsKey("offheap"))
+         trainers.add("offheap=" + options.get("offheap"));
+
+      List<String> feeds = new ArrayList<String>();
+      for (String key : new String[] {"augment", "prefetch"})
+         if (options.containsKey(key))
+            feeds.add(key + "=" + options.get(key));
+      boolean importance = option(options, "sampling", "").equals("importance");
+
+      if (trainers.size() > 1)
+         return "Options " + trainers + " each pick a trainer; give at most one";
+      if (!trainers.isEmpty() && (importance || !feeds.isEmpty()))
+         return trainers.get(0) + " does not train from a feed; drop "
+               + (importance ? "sampling=importance" : feeds.toString());
+      if (importance && !feeds.isEmpty())
+         return "sampling=importance draws from the stored cases; drop " + feeds;
+      return null;
+   }// conflictingOptions(Map<String, String> options)
+
+   /**
+    * Looks up an option read from the config file.
+    * 
+    * @param options      the options of the config
+    * @param key          the name of the option
+    * @param defaultValue the value used if the option
+    *                     is missing
+    * @return the value of the option
+    */
+   private static String option(Map<String, String> options, String key, String defaultValue)
+   {
+      return options.containsKey(key) ? options.get(key) : defaultValue;
+   }
+
 }// public class Loader
@@ -0,0 +1,391 @@
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Scanner;
+import perceptron.Network;
+import perceptron.NeuronPruner;
+import perceptron.Normalizer;
+import perceptron.Pruner;
+import perceptron.SparseNetwork;
+
+/**
+ * Prunes the weights of a trained network by
+ * magnitude, optionally fine tunes the surviving
+ * weights on the training set, and saves the result
+ * as a SparseNetwork whose file holds only the
+ * non-zero weights. Alternatively removes whole dead
+ * hidden neurons and saves the smaller dense network
+ * as an ordinary weights file with a config beside
+ * it.
+ *
+ * The file holds, all big endian: the magic number,
+ * the number of layers and their dimensions, then for
+ * every connectivity layer its number of non-zero
+ * weights, the start of each child's weights, the
+ * parent index of each weight and the weights
+ * themselves.
+ *
+ * Methods:
+ * Public:
+ *  - void write(String filename, SparseNetwork network)
+ *  - SparseNetwork read(String filename, double crossover)
+ *  - void main(String[] args)
+ * Private:
+ *  - void pruneNeurons(Network network, Map<double[], double[]> training, String output, Map<String, String> options)
+ *  - double error(Network network, Map<double[], double[]> cases)
+ *  - double nanosPerCase(Network network, Map<double[], double[]> cases)
+ *  - double nanosPerCase(SparseNetwork network, Map<double[], double[]> cases)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Prune
+{
+   public static final int MAGIC = 0x53504E4E;          // "SPNN"
+   public static final long TIMING_NANOS = 200000000L;  // How long each model is timed for
+   public static final String CONFIG_SUFFIX = ".cfg";   // The config written beside a neuron pruned network
+
+   /**
+    * Saves a sparse network.
+    *
+    * @param filename the file to write
+    * @param network  the sparse network
+    * @throws IOException if the file cannot be written
+    */
+   public static void write(String filename, SparseNetwork network) throws IOException
+   {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+      try
+      {
+         int[] dimensions = network.getDimensions();
+         out.writeInt(MAGIC);
+         out.writeInt(dimensions.length);
+         for (int d : dimensions)
+            out.writeInt(d);
+
+         /*
+          * Writes each layer child by child, skipping its
+          * zero weights.
+          */
+         for (int n = 0; n < dimensions.length - 1; n++)
+         {
+            double[][] layer = network.getLayer(n);
+            out.writeInt((int) Pruner.countNonZero(layer));
+
+            int p = 0;
+            for (int j = 0; j < dimensions[n + 1]; j++)
+            {
+               out.writeInt(p);
+               for (int k = 0; k < dimensions[n]; k++)
+                  if (layer[k][j] != 0.0)
+                     p++;
+            }
+            out.writeInt(p);
+
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               for (int k = 0; k < dimensions[n]; k++)
+                  if (layer[k][j] != 0.0)
+                     out.writeInt(k);
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               for (int k = 0; k < dimensions[n]; k++)
+                  if (layer[k][j] != 0.0)
+                     out.writeDouble(layer[k][j]);
+         }// for (int n = 0; n < dimensions.length - 1; n++)
+      }
+      finally
+      {
+         out.close();
+      }
+
+      if (network.getInputTransform() instanceof Normalizer)
+         Loader.writeStats(filename + Loader.STATS_SUFFIX, (Normalizer) network.getInputTransform());
+      Loader.writeLoss(filename + Loader.LOSS_SUFFIX, network.getLoss());
+   }// write(String filename, SparseNetwork network)
+
+   /**
+    * Loads a sparse network saved by write, along
+    * with its input statistics and loss if they exist.
+    *
+    * @param filename  the file to read
+    * @param crossover the density below which a layer
+    *                  is run sparse
+    * @return the sparse network
+    * @throws IOException if the file cannot be read or
+    *                     is not a sparse network
+    */
+   public static SparseNetwork read(String filename, double crossover) throws IOException
+   {
+      SparseNetwork network;
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+      try
+      {
+         if (in.readInt() != MAGIC)
+            throw new IOException(filename + " is not a sparse network");
+
+         int[] dimensions = new int[in.readInt()];
+         for (int n = 0; n < dimensions.length; n++)
+            dimensions[n] = in.readInt();
+
+         int[][] starts = new int[dimensions.length - 1][];
+         int[][] indices = new int[dimensions.length - 1][];
+         double[][] values = new double[dimensions.length - 1][];
+         for (int n = 0; n < dimensions.length - 1; n++)
+         {
+            int nonZeros = in.readInt();
+            starts[n] = new int[dimensions[n + 1] + 1];
+            for (int j = 0; j < starts[n].length; j++)
+               starts[n][j] = in.readInt();
+            indices[n] = new int[nonZeros];
+            for (int p = 0; p < nonZeros; p++)
+               indices[n][p] = in.readInt();
+            values[n] = new double[nonZeros];
+            for (int p = 0; p < nonZeros; p++)
+               values[n][p] = in.readDouble();
+         }
+         network = new SparseNetwork(dimensions, starts, indices, values, crossover);
+      }
+      finally
+      {
+         in.close();
+      }
+
+      if (new File(filename + Loader.STATS_SUFFIX).exists())
+         network.setInputTransform(Loader.readStats(filename + Loader.STATS_SUFFIX));
+      if (new File(filename + Loader.LOSS_SUFFIX).exists())
+         network.setLoss(Loader.readLoss(filename + Loader.LOSS_SUFFIX));
+      return network;
+   }// read(String filename, double crossover)
+
+   /**
+    * Prunes the network named by a config.
+    *
+    * @param args the config whose third line is a
+    *             weights file and fourth line the
+    *             training set, the output file, and
+    *             options of the form key=value:
+    *             threshold=x prunes weights smaller
+    *             than x, keep=N keeps the N largest,
+    *             finetune=N trains the kept weights
+    *             for N more iterations and
+    *             crossover=x sets the density below
+    *             which layers run sparse. range=x
+    *             and tiny=y instead remove hidden
+    *             neurons whose activation spreads
+    *             less than x or whose outgoing
+    *             weights are all below y
+    * @throws IOException if a file cannot be read or
+    *                     written
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 3)
+      {
+         System.out.println("Usage: java input.Prune config output threshold=x|keep=N [finetune=N] [crossover=x]");
+         System.out.println("       java input.Prune config output [range=x] [tiny=y]");
+         return;
+      }
+
+      Map<String, String> options = new HashMap<String, String>();
+      for (int i = 2; i < args.length; i++)
+      {
+         String[] option = args[i].split("=", 2);
+         options.put(option[0].trim(), option.length > 1 ? option[1].trim() : "");
+      }
+
+      Scanner sc = new Scanner(new File(args[0]));
+      Network network = Loader.readNetwork(sc);
+      String trainFile = sc.nextLine().trim();
+      sc.nextLine();                                                      // The original iteration limit
+      double errorThreshold = Double.valueOf(sc.nextLine());
+      sc.close();
+      Map<double[], double[]> training = Loader.loadTrainSet(trainFile);
+
+      if (options.containsKey("range") || options.containsKey("tiny"))
+      {
+         pruneNeurons(network, training, args[1], options);
+         return;
+      }
+
+      double[][][] weights = network.getWeights();
+      long total = 0;
+      for (double[][] layer : weights)
+         total += (long) layer.length * (layer.length == 0 ? 0 : layer[0].length);
+      double before = error(network, training);
+
+      boolean[][][] mask;
+      if (options.containsKey("keep"))
+         mask = Pruner.keepLargest(weights, Long.valueOf(options.get("keep")));
+      else
+         mask = Pruner.pruneBelow(weights, Double.valueOf(options.containsKey("threshold") ? options.get("threshold") : "0"));
+      double pruned = error(network, training);
+
+      double tuned = pruned;
+      if (options.containsKey("finetune"))
+      {
+         network.setWeightMask(mask);
+         network.setTrainingHyperparams(Integer.valueOf(options.get("finetune")), errorThreshold);
+         network.trainNetwork(training);
+         network.setWeightMask(null);
+         tuned = error(network, training);
+      }
+
+      double crossover = options.containsKey("crossover") ? Double.valueOf(options.get("crossover")) : SparseNetwork.DEFAULT_CROSSOVER;
+      SparseNetwork sparse = new SparseNetwork(network.getDimensions(), network.getWeights(), crossover);
+      sparse.setInputTransform(network.getInputTransform());
+      sparse.setLoss(network.getLoss());
+      write(args[1], sparse);
+
+      System.out.println("-------------------------");
+      System.out.println("Pruning Summary:");
+      int[] dimensions = network.getDimensions();
+      for (int n = 0; n < dimensions.length - 1; n++)
+      {
+         double[][] layer = network.getWeights()[n];
+         System.out.println("Layer " + n + " (" + dimensions[n] + "x" + dimensions[n + 1] + "): "
+               + Pruner.countNonZero(layer) + " non-zero, density " + Pruner.density(layer)
+               + (sparse.isSparse(n) ? ", sparse" : ", dense"));
+      }
+      System.out.println("Non-zero weights: " + sparse.getNonZeros() + " of " + total);
+      System.out.println("Weights: " + 8 * total + " bytes dense, " + sparse.getBytes() + " bytes stored");
+      System.out.println("Error: " + before + " -> " + pruned + " pruned"
+            + (options.containsKey("finetune") ? " -> " + tuned + " fine tuned" : ""));
+      System.out.println("Time per case: " + nanosPerCase(network, training) + " ns dense, "
+            + nanosPerCase(sparse, training) + " ns sparse");
+      System.out.println("Sparse network written to " + args[1] + " (" + new File(args[1]).length() + " bytes)");
+   }// main(String[] args)
+
+   /**
+    * Removes the dead hidden neurons of a network and
+    * saves the smaller network, its input statistics
+    * and a config that loads it.
+    *
+    * @param network  the trained network
+    * @param training the cases to analyze
+    * @param output   the weights file to write
+    * @param options  range and tiny tolerances
+    * @throws IOException if a file cannot be written
+    */
+   private static void pruneNeurons(Network network, Map<double[], double[]> training, String output,
+         Map<String, String> options) throws IOException
+   {
+      double range = Double.valueOf(options.containsKey("range") ? options.get("range") : "0");
+      double tiny = Double.valueOf(options.containsKey("tiny") ? options.get("tiny") : "0");
+
+      NeuronPruner pruner = new NeuronPruner(network);
+      pruner.analyze(training);
+      Network smaller = pruner.prune(range, tiny);
+
+      /*
+       * Measures how far the outputs moved.
+       */
+      double largestDifference = 0.0;
+      for (double[] input : training.keySet())
+      {
+         network.setInputActivations(input);
+         double[] out = network.forwardPropagation().clone();
+         smaller.setInputActivations(input);
+         double[] shrunk = smaller.forwardPropagation();
+         for (int i = 0; i < out.length; i++)
+            largestDifference = Math.max(largestDifference, Math.abs(out[i] - shrunk[i]));
+      }
+
+      Loader.writeWeights(output, smaller.getWeights());
+      if (smaller.getInputTransform() instanceof Normalizer)
+         Loader.writeStats(output + Loader.STATS_SUFFIX, (Normalizer) smaller.getInputTransform());
+      Loader.writeLoss(output + Loader.LOSS_SUFFIX, smaller.getLoss());
+
+      int[] dimensions = smaller.getDimensions();
+      StringBuilder structure = new StringBuilder();
+      for (int n = 0; n < dimensions.length; n++)
+         structure.append(n == 0 ? "" : " ").append(dimensions[n]);
+      PrintWriter config = new PrintWriter(output + CONFIG_SUFFIX);
+      config.println(structure);
+      config.println(smaller.getLambda());
+      config.println(output);
+      config.close();
+
+      pruner.printSummary();
+      System.out.println("Error: " + error(network, training) + " -> " + error(smaller, training));
+      System.out.println("Largest output difference: " + largestDifference);
+      System.out.println("Time per case: " + nanosPerCase(network, training) + " ns before, "
+            + nanosPerCase(smaller, training) + " ns after");
+      System.out.println("Pruned network written to " + output + " with config " + output + CONFIG_SUFFIX);
+   }// pruneNeurons(...)
+
+   /**
+    * Computes the average error of a network over a
+    * set of cases, as training does.
+    *
+    * @param network the network
+    * @param cases   the inputs and their truths
+    * @return the error per output
+    */
+   private static double error(Network network, Map<double[], double[]> cases)
+   {
+      double error = 0.0;
+      int outputs = 0;
+      for (double[] input : cases.keySet())
+      {
+         double[] truth = cases.get(input);
+         network.setInputActivations(input);
+         double[] out = network.forwardPropagation();
+         for (int i = 0; i < truth.length; i++)
+            error += network.getLoss().error(out[i], truth[i]);
+         outputs += truth.length;
+      }
+      return error / outputs;
+   }// error(Network network, Map<double[], double[]> cases)
+
+   /**
+    * Times the dense network on the cases.
+    *
+    * @param network the network
+    * @param cases   the inputs to evaluate
+    * @return the average nanoseconds per case
+    */
+   private static double nanosPerCase(Network network, Map<double[], double[]> cases)
+   {
+      long evaluated = 0;
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < TIMING_NANOS)
+      {
+         for (double[] input : cases.keySet())
+         {
+            network.setInputActivations(input);
+            network.forwardPropagation();
+         }
+         evaluated += cases.size();
+      }
+      return (double) (System.nanoTime() - start) / evaluated;
+   }// nanosPerCase(Network network, Map<double[], double[]> cases)
+
+   /**
+    * Times the sparse network on the cases.
+    *
+    * @param network the sparse network
+    * @param cases   the inputs to evaluate
+    * @return the average nanoseconds per case
+    */
+   private static double nanosPerCase(SparseNetwork network, Map<double[], double[]> cases)
+   {
+      long evaluated = 0;
+      long start = System.nanoTime();
+      while (System.nanoTime() - start < TIMING_NANOS)
+      {
+         for (double[] input : cases.keySet())
+            network.forwardPropagation(input);
+         evaluated += cases.size();
+      }
+      return (double) (System.nanoTime() - start) / evaluated;
+   }// nanosPerCase(SparseNetwork network, Map<double[], double[]> cases)
+}// public class Prune
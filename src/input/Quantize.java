@@ -0,0 +1,244 @@
+package input;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import perceptron.Loss;
+import perceptron.Network;
+import perceptron.Normalizer;
+import perceptron.QuantizedNetwork;
+
+/**
+ * Converts trained weights into an 8 bit
+ * QuantizedNetwork, reports how much accuracy the
+ * conversion costs on a validation set and saves the
+ * result in a compact binary file.
+ *
+ * The file holds, all big endian: the magic number,
+ * the granularity, the number of layers and their
+ * dimensions, then for every connectivity layer its
+ * scales as floats followed by its weights as bytes.
+ * Input statistics, if any, are written next to it
+ * like those of ordinary weights files.
+ *
+ * Methods:
+ * Public:
+ *  - void write(String filename, QuantizedNetwork network)
+ *  - QuantizedNetwork read(String filename)
+ *  - void main(String[] args)
+ * Private:
+ *  - boolean correct(double[] output, double[] truth, Loss loss)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Quantize
+{
+   public static final int MAGIC = 0x51384E4E;          // "Q8NN"
+
+   /**
+    * Saves a quantized network.
+    *
+    * @param filename the file to write
+    * @param network  the quantized network
+    * @throws IOException if the file cannot be written
+    */
+   public static void write(String filename, QuantizedNetwork network) throws IOException
+   {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+      try
+      {
+         int[] dimensions = network.getDimensions();
+         out.writeInt(MAGIC);
+         out.writeByte(network.getGranularity().ordinal());
+         out.writeInt(dimensions.length);
+         for (int d : dimensions)
+            out.writeInt(d);
+
+         byte[][] weights = network.getWeights();
+         float[][] scales = network.getScales();
+         for (int n = 0; n < weights.length; n++)
+         {
+            out.writeInt(scales[n].length);
+            for (float s : scales[n])
+               out.writeFloat(s);
+            out.write(weights[n]);
+         }
+      }
+      finally
+      {
+         out.close();
+      }
+
+      if (network.getInputTransform() instanceof Normalizer)
+         Loader.writeStats(filename + Loader.STATS_SUFFIX, (Normalizer) network.getInputTransform());
+      Loader.writeLoss(filename + Loader.LOSS_SUFFIX, network.getLoss());
+   }// write(String filename, QuantizedNetwork network)
+
+   /**
+    * Loads a quantized network saved by write, along
+    * with its input statistics and loss if they exist.
+    *
+    * @param filename the file to read
+    * @return the quantized network
+    * @throws IOException if the file cannot be read or
+    *                     is not a quantized network
+    */
+   public static QuantizedNetwork read(String filename) throws IOException
+   {
+      QuantizedNetwork network;
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+      try
+      {
+         if (in.readInt() != MAGIC)
+            throw new IOException(filename + " is not a quantized network");
+         QuantizedNetwork.Granularity granularity = QuantizedNetwork.Granularity.values()[in.readByte()];
+
+         int[] dimensions = new int[in.readInt()];
+         for (int n = 0; n < dimensions.length; n++)
+            dimensions[n] = in.readInt();
+
+         byte[][] weights = new byte[dimensions.length - 1][];
+         float[][] scales = new float[dimensions.length - 1][];
+         for (int n = 0; n < weights.length; n++)
+         {
+            scales[n] = new float[in.readInt()];
+            for (int j = 0; j < scales[n].length; j++)
+               scales[n][j] = in.readFloat();
+            weights[n] = new byte[dimensions[n] * dimensions[n + 1]];
+            in.readFully(weights[n]);
+         }
+         network = new QuantizedNetwork(dimensions, granularity, weights, scales);
+      }
+      finally
+      {
+         in.close();
+      }
+
+      if (new File(filename + Loader.STATS_SUFFIX).exists())
+         network.setInputTransform(Loader.readStats(filename + Loader.STATS_SUFFIX));
+      if (new File(filename + Loader.LOSS_SUFFIX).exists())
+         network.setLoss(Loader.readLoss(filename + Loader.LOSS_SUFFIX));
+      return network;
+   }// read(String filename)
+
+   /**
+    * Quantizes the weights named by a config and
+    * compares the two models on a validation set.
+    *
+    * @param args the config whose third line is a
+    *             weights file, the validation set in
+    *             the training set format, the output
+    *             file and optionally "layer" or
+    *             "neuron" (the default) for the scale
+    *             granularity
+    * @throws IOException if a file cannot be read or
+    *                     written
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 3)
+      {
+         System.out.println("Usage: java input.Quantize config validation output [layer|neuron]");
+         return;
+      }
+
+      QuantizedNetwork.Granularity granularity = QuantizedNetwork.Granularity.PER_NEURON;
+      if (args.length > 3 && args[3].equalsIgnoreCase("layer"))
+         granularity = QuantizedNetwork.Granularity.PER_LAYER;
+
+      Network network = Loader.loadNetwork(args[0]);
+      QuantizedNetwork quantized = QuantizedNetwork.quantize(network.getDimensions(), network.getWeights(), granularity);
+      quantized.setInputTransform(network.getInputTransform());
+      quantized.setLoss(network.getLoss());
+      Map<double[], double[]> validation = Loader.loadTrainSet(args[1]);
+
+      double error = 0.0;                // Same measure as the training error, per output
+      double quantizedError = 0.0;
+      double largestDifference = 0.0;    // The largest change in any output
+      int correct = 0;
+      int quantizedCorrect = 0;
+      int outputs = 0;
+
+      /*
+       * Runs every validation case through both models.
+       */
+      for (double[] input : validation.keySet())
+      {
+         double[] truth = validation.get(input);
+         network.setInputActivations(input);
+         double[] out = network.forwardPropagation();
+         double[] q = quantized.forwardPropagation(input);
+
+         for (int i = 0; i < truth.length; i++)
+         {
+            error += network.getLoss().error(out[i], truth[i]);
+            quantizedError += network.getLoss().error(q[i], truth[i]);
+            largestDifference = Math.max(largestDifference, Math.abs(out[i] - q[i]));
+         }
+         outputs += truth.length;
+         if (correct(out, truth, network.getLoss()))
+            correct++;
+         if (correct(q, truth, network.getLoss()))
+            quantizedCorrect++;
+      }// for (double[] input : validation.keySet())
+
+      int cases = validation.size();
+      long doubleBytes = 0;
+      for (double[][] layer : network.getWeights())
+         for (double[] row : layer)
+            doubleBytes += 8L * row.length;
+
+      System.out.println("-------------------------");
+      System.out.println("Quantization Summary (" + granularity + "):");
+      System.out.println("Weights: " + doubleBytes + " bytes as doubles, " + quantized.getBytes() + " bytes quantized");
+      System.out.println("Error: " + error / outputs + " -> " + quantizedError / outputs);
+      System.out.println("Accuracy: " + (100.0 * correct / cases) + "% -> " + (100.0 * quantizedCorrect / cases)
+            + "% (drop of " + (100.0 * (correct - quantizedCorrect) / cases) + "%)");
+      System.out.println("Largest output difference: " + largestDifference);
+
+      write(args[2], quantized);
+      System.out.println("Quantized network written to " + args[2] + " (" + new File(args[2]).length() + " bytes)");
+   }// main(String[] args)
+
+   /**
+    * Checks whether an output classifies a case
+    * correctly: under a softmax loss the largest
+    * output must be the largest truth, and otherwise
+    * every output must be within 0.5 of its truth,
+    * so multi-label sets like XOR-AND-OR count a case
+    * only when all of its labels are right.
+    *
+    * @param output the outputs of a model
+    * @param truth  the expected outputs
+    * @param loss   the loss the model was trained with
+    * @return true if the case is classified correctly
+    */
+   private static boolean correct(double[] output, double[] truth, Loss loss)
+   {
+      if (loss != Loss.SOFTMAX)
+      {
+         for (int i = 0; i < output.length; i++)
+            if (Math.abs(truth[i] - output[i]) >= 0.5)
+               return false;
+         return true;
+      }
+
+      int predicted = 0;
+      int expected = 0;
+      for (int i = 1; i < output.length; i++)
+      {
+         if (output[i] > output[predicted])
+            predicted = i;
+         if (truth[i] > truth[expected])
+            expected = i;
+      }
+      return predicted == expected;
+   }// correct(double[] output, double[] truth, Loss loss)
+}// public class Quantize
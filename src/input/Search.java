@@ -0,0 +1,360 @@
+package input;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Searches for a good network configuration. The
+ * training set is loaded once and shared read-only
+ * by every trial, and the trials train side by side
+ * on a thread pool. Successive halving keeps the
+ * search cheap: every trial trains for a short
+ * budget, the best fraction of them train on for a
+ * budget eta times longer, and so on, so most of the
+ * epochs go to the few configurations that are still
+ * winning.
+ *
+ * The search space is a file laid out like a Loader
+ * config, where each of the first lines may list
+ * alternatives separated by |:
+ *  - the nodes in each layer(2 4 1 | 2 8 1)
+ *  - lambda(0.5 | 1 | 2), or low..high to draw it
+ *    at random on a log scale
+ *  - the random weight range(-1, 1 | -2, 2)
+ *  - the training set file
+ *  - the max iterations(1000 | 5000)
+ *  - the error threshold
+ * and any lines after those(options and the output
+ * file) are copied into the winner's config as they
+ * are, so the config runs with Loader.
+ *
+ * Methods:
+ * Public:
+ *  - void main(String[] args)
+ * Private:
+ *  - List<Trial> sample(Scanner sc, Map<String, String> options)
+ *  - void runRung(ExecutorService pool, List<Trial> alive, Map<double[], double[]> training, Map<double[], double[]> validation, int budget)
+ *  - String[] alternatives(String line)
+ *  - int[] parseStructure(String text)
+ *  - void printLeaderboard(List<Trial> trials)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Search
+{
+   public static final int DEFAULT_ETA = 3;             // The fraction of trials kept after each rung is 1/eta
+   public static final int DEFAULT_SAMPLES = 16;        // Trials drawn when lambda is a range
+
+   /**
+    * Orders trials by how far they got, then by
+    * error.
+    */
+   private static final Comparator<Trial> RANKING = new Comparator<Trial>()
+   {
+      public int compare(Trial a, Trial b)
+      {
+         if (a.getStoppedRung() != b.getStoppedRung())
+         {
+            if (!a.isStopped() || !b.isStopped())
+               return a.isStopped() ? 1 : -1;
+            return b.getStoppedRung() - a.getStoppedRung();
+         }
+         return Double.compare(a.getError(), b.getError());
+      }
+   };
+
+   /**
+    * Runs a search and saves the best network.
+    *
+    * @param args the search space file, the weights
+    *             file to write the winner to(its
+    *             Loader config goes next to it), and
+    *             options of the form key=value:
+    *             workers=N trains N trials at once(all
+    *             cores by default), eta=N keeps 1/N of
+    *             the trials after each rung(3),
+    *             rungs=N sets the number of rungs,
+    *             samples=N draws N random
+    *             configurations instead of trying
+    *             every combination, seed=S seeds the
+    *             draw and every trial's weights, and
+    *             validation=path scores the trials on
+    *             another set of cases
+    * @throws IOException if a file cannot be read or
+    *                     written
+    */
+   public static void main(String[] args) throws IOException
+   {
+      if (args.length < 2)
+      {
+         System.out.println("Usage: java input.Search space output [workers=N] [eta=N] [rungs=N] [samples=N] [seed=S] [validation=path]");
+         return;
+      }
+
+      Map<String, String> options = new HashMap<String, String>();
+      for (int i = 2; i < args.length; i++)
+      {
+         String[] option = args[i].split("=", 2);
+         options.put(option[0].trim(), option.length > 1 ? option[1].trim() : "");
+      }
+
+      Scanner sc = new Scanner(new File(args[0]));
+      List<Trial> trials = sample(sc, options);
+      List<String> rest = new ArrayList<String>();                     // Copied into the winner's config
+      while (sc.hasNextLine())
+         rest.add(sc.nextLine());
+      sc.close();
+
+      Map<double[], double[]> training = Loader.loadTrainSet(options.get("trainset"));
+      Map<double[], double[]> validation = options.containsKey("validation") ? Loader.loadTrainSet(options.get("validation"))
+            : training;
+
+      int eta = Integer.valueOf(options.containsKey("eta") ? options.get("eta") : String.valueOf(DEFAULT_ETA));
+      int rungs = 1;
+      for (long kept = trials.size(); kept > 1; kept = (kept + eta - 1) / eta)
+         rungs++;
+      if (options.containsKey("rungs"))
+         rungs = Integer.valueOf(options.get("rungs"));
+
+      int maxIterations = Integer.valueOf(options.get("max"));
+      int workers = Integer.valueOf(options.containsKey("workers") ? options.get("workers")
+            : String.valueOf(Runtime.getRuntime().availableProcessors()));
+
+      System.out.println("Searching " + trials.size() + " configurations over " + rungs + " rungs on " + workers + " threads");
+      long start = System.nanoTime();
+
+      ExecutorService pool = Executors.newFixedThreadPool(workers);
+      List<Trial> alive = new ArrayList<Trial>(trials);
+      try
+      {
+         /*
+          * Trains the survivors for a budget that grows by
+          * eta each rung, ending at the full iteration
+          * limit, and drops all but the best of them.
+          */
+         for (int rung = 0; rung < rungs; rung++)
+         {
+            int budget = (int) Math.max(1, Math.round(maxIterations / Math.pow(eta, rungs - 1 - rung)));
+            runRung(pool, alive, training, validation, budget);
+
+            Collections.sort(alive, RANKING);
+            System.out.println("Rung " + rung + ": " + alive.size() + " trials at " + budget + " epochs, best error "
+                  + alive.get(0).getError());
+
+            if (rung < rungs - 1)
+            {
+               int keep = Math.max(1, (alive.size() + eta - 1) / eta);
+               for (Trial loser : alive.subList(keep, alive.size()))
+                  loser.stop(rung);
+               alive = new ArrayList<Trial>(alive.subList(0, keep));
+            }
+         }// for (int rung = 0; rung < rungs; rung++)
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+      double seconds = (System.nanoTime() - start) / 1e9;
+
+      Collections.sort(trials, RANKING);
+      printLeaderboard(trials);
+
+      long epochs = 0;
+      for (Trial trial : trials)
+         epochs += trial.getEpochs();
+      System.out.println("Trained " + epochs + " epochs in " + seconds + " s, against " + (long) trials.size() * maxIterations
+            + " to train every configuration fully");
+
+      Trial best = trials.get(0);
+      Loader.writeWeights(args[1], best.getNetwork().getWeights());
+
+      int[] dimensions = best.getNetwork().getDimensions();
+      StringBuilder structure = new StringBuilder();
+      for (int n = 0; n < dimensions.length; n++)
+         structure.append(n == 0 ? "" : " ").append(dimensions[n]);
+      PrintWriter config = new PrintWriter(args[1] + Prune.CONFIG_SUFFIX);   // A full Loader config that goes on
+      config.println(structure);                                            // training from the winner's weights
+      config.println(best.getNetwork().getLambda());
+      config.println(args[1]);
+      config.println(options.get("trainset"));
+      config.println(best.getMaxIterations());
+      config.println(options.get("threshold"));
+      for (String line : rest)
+         config.println(line);
+      config.close();
+      System.out.println("Best network written to " + args[1] + " with config " + args[1] + Prune.CONFIG_SUFFIX);
+   }// main(String[] args)
+
+   /**
+    * Reads the search space and builds one trial per
+    * configuration to try: every combination of the
+    * alternatives, or random draws when lambda is a
+    * range or samples is set. The training set file and
+    * the largest iteration limit are put in options as
+    * trainset and max, and the error threshold as
+    * threshold.
+    *
+    * @param sc      a scanner over the search space
+    * @param options the command line options
+    * @return the trials
+    */
+   private static List<Trial> sample(Scanner sc, Map<String, String> options)
+   {
+      String[] structures = alternatives(sc.nextLine());
+      String[] lambdas = alternatives(sc.nextLine());
+      String[] ranges = alternatives(sc.nextLine());
+      options.put("trainset", sc.nextLine().trim());
+      String[] iterations = alternatives(sc.nextLine());
+      String thresholdLine = sc.nextLine().trim();
+      double threshold = Double.valueOf(thresholdLine);
+      options.put("threshold", thresholdLine);
+
+      int max = 0;
+      for (String iteration : iterations)
+         max = Math.max(max, Integer.valueOf(iteration));
+      options.put("max", String.valueOf(max));
+
+      List<Trial> trials = new ArrayList<Trial>();
+      Random rng = new Random(Long.valueOf(options.containsKey("seed") ? options.get("seed") : "0"));   // Also seeds the weights
+      boolean random = options.containsKey("samples") || lambdas[0].contains("..");
+      if (random)
+      {
+         int samples = Integer.valueOf(options.containsKey("samples") ? options.get("samples") : String.valueOf(DEFAULT_SAMPLES));
+         for (int i = 0; i < samples; i++)
+         {
+            String lambda = lambdas[rng.nextInt(lambdas.length)];
+            double value;
+            if (lambda.contains(".."))                                   // Draws evenly on a log scale
+            {
+               double low = Math.log(Double.valueOf(lambda.substring(0, lambda.indexOf("..")).trim()));
+               double high = Math.log(Double.valueOf(lambda.substring(lambda.indexOf("..") + 2).trim()));
+               value = Math.exp(low + rng.nextDouble() * (high - low));
+            }
+            else
+               value = Double.valueOf(lambda);
+
+            String[] range = ranges[rng.nextInt(ranges.length)].split(",");
+            trials.add(new Trial(parseStructure(structures[rng.nextInt(structures.length)]), value,
+                  Double.valueOf(range[0].trim()), Double.valueOf(range[1].trim()), rng.nextLong(),
+                  Integer.valueOf(iterations[rng.nextInt(iterations.length)]), threshold));
+         }
+      }// if (random)
+      else
+      {
+         for (String structure : structures)
+            for (String lambda : lambdas)
+               for (String rangeText : ranges)
+                  for (String iteration : iterations)
+                  {
+                     String[] range = rangeText.split(",");
+                     trials.add(new Trial(parseStructure(structure), Double.valueOf(lambda), Double.valueOf(range[0].trim()),
+                           Double.valueOf(range[1].trim()), rng.nextLong(), Integer.valueOf(iteration), threshold));
+                  }
+      }
+      return trials;
+   }// sample(Scanner sc, Map<String, String> options)
+
+   /**
+    * Trains every surviving trial up to the budget on
+    * the pool and waits for all of them.
+    *
+    * @param pool       the threads to train on
+    * @param alive      the trials still running
+    * @param training   the shared training cases
+    * @param validation the shared scoring cases
+    * @param budget     the total epochs for the rung
+    */
+   private static void runRung(ExecutorService pool, List<Trial> alive, final Map<double[], double[]> training,
+         final Map<double[], double[]> validation, final int budget)
+   {
+      List<Future<?>> pending = new ArrayList<Future<?>>();
+      for (final Trial trial : alive)
+      {
+         pending.add(pool.submit(new Callable<Void>()
+         {
+            public Void call()
+            {
+               trial.train(training, validation, budget);
+               return null;
+            }
+         }));
+      }
+
+      try
+      {
+         for (Future<?> f : pending)
+            f.get();
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("A trial failed", e.getCause());
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while training", e);
+      }
+   }// runRung(...)
+
+   /**
+    * Splits a line of the search space into its
+    * alternatives.
+    *
+    * @param line the line
+    * @return the trimmed alternatives
+    */
+   private static String[] alternatives(String line)
+   {
+      String[] parts = line.split("\\|");
+      for (int i = 0; i < parts.length; i++)
+         parts[i] = parts[i].trim();
+      return parts;
+   }
+
+   /**
+    * Parses the nodes in each layer.
+    *
+    * @param text the counts separated by spaces
+    * @return the counts
+    */
+   private static int[] parseStructure(String text)
+   {
+      String[] counts = text.trim().split("\\s+");
+      int[] structure = new int[counts.length];
+      for (int i = 0; i < counts.length; i++)
+         structure[i] = Integer.valueOf(counts[i]);
+      return structure;
+   }
+
+   /**
+    * Prints every trial from best to worst.
+    *
+    * @param trials the ranked trials
+    */
+   private static void printLeaderboard(List<Trial> trials)
+   {
+      System.out.println("-------------------------");
+      System.out.println("Leaderboard:");
+      for (int i = 0; i < trials.size(); i++)
+      {
+         Trial trial = trials.get(i);
+         System.out.println((i + 1) + ". error " + trial.getError() + " after " + trial.getEpochs() + " epochs"
+               + (trial.isStopped() ? " (stopped at rung " + trial.getStoppedRung() + ")" : "") + ": " + trial.describe());
+      }
+   }// printLeaderboard(List<Trial> trials)
+}// public class Search
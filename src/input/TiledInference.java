@@ -0,0 +1,286 @@
+package input;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntToDoubleFunction;
+import perceptron.BatchEvaluator;
+import perceptron.InputTransform;
+import perceptron.Network;
+
+/**
+ * Slides a square window across a decoded image
+ * (the pels of DibDump.imageArray) and scores every
+ * window with a Network. The network's input layer
+ * must have window * window nodes.
+ *
+ * The image is walked one band of tiles at a time.
+ * Each image row is run through the preprocessing
+ * function once and kept in a ring of window rows,
+ * so rows shared by overlapping bands are reused
+ * instead of being converted and copied again. The
+ * tiles of a band are copied into the reusable input
+ * buffers of BatchEvaluators, passed through the
+ * network's input transform if it has one, and
+ * scored in parallel batches.
+ *
+ * Methods:
+ * Constructor:
+ *  - TiledInference(Network network, int window, int stride, IntToDoubleFunction preprocess, int batchSize,
+ *                   int threads)
+ * Public:
+ *  - double[][][] infer(int[][] image)
+ *  - int[][] toImage(double[][][] map, int output)
+ *  - void shutdown()
+ * Private:
+ *  - void fillRow(int[] pels, double[] row)
+ *  - void scoreBatch(double[][][] weights, double[][] ring, int top, int first, int count, double[][] out)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class TiledInference
+{
+   private Network network;                          // The network that scores each window
+
+   private int window;                               // The side length of the window in pels
+   private int stride;                               // The distance between neighboring windows
+   private IntToDoubleFunction preprocess;           // Maps a pel to an input activation
+   private InputTransform transform;                 // Normalizes each tile as in training, or null
+
+   private int outputs;                              // The number of output nodes
+
+   private ExecutorService pool;                     // Scores the batches of a band
+   private BlockingQueue<BatchEvaluator> evaluators; // One evaluator per worker, reused for every batch
+   private Map<BatchEvaluator, double[]> scratch;    // Each evaluator's raw tile before the transform
+
+   /**
+    * Sets up the worker pool and one batch evaluator
+    * per worker.
+    *
+    * @param network    the trained network
+    * @param window     the side length of the window
+    * @param stride     the step between windows
+    * @param preprocess maps each pel to an input
+    *                   activation
+    * @param batchSize  the number of tiles scored in
+    *                   one batch
+    * @param threads    the number of worker threads
+    */
+   public TiledInference(Network network, int window, int stride, IntToDoubleFunction preprocess, int batchSize,
+         int threads)
+   {
+      int[] dimensions = network.getDimensions();
+      if (dimensions[0] != window * window)
+         throw new IllegalArgumentException("Network expects " + dimensions[0] + " inputs but the window has "
+               + (window * window) + " pels");
+      if (stride < 1)
+         throw new IllegalArgumentException("Stride must be positive");
+
+      this.network = network;
+      this.window = window;
+      this.stride = stride;
+      this.preprocess = preprocess;
+      this.transform = network.getInputTransform();
+      this.outputs = dimensions[dimensions.length - 1];
+
+      pool = Executors.newFixedThreadPool(threads);
+      evaluators = new ArrayBlockingQueue<BatchEvaluator>(threads);
+      scratch = new IdentityHashMap<BatchEvaluator, double[]>();
+      for (int t = 0; t < threads; t++)
+      {
+         BatchEvaluator evaluator = new BatchEvaluator(dimensions, batchSize);
+         evaluator.setLoss(network.getLoss());                     // Activates the outputs as they were trained
+         evaluators.add(evaluator);
+         scratch.put(evaluator, new double[dimensions[0]]);
+      }
+   }// TiledInference(...)
+
+   /**
+    * Scores every window of the image.
+    *
+    * @param image the pels indexed [row][column]
+    * @return the outputs of the network indexed
+    *         [tile row][tile column][output node]
+    * @throws InterruptedException if interrupted
+    *                              while waiting for
+    *                              the workers
+    */
+   public double[][][] infer(int[][] image) throws InterruptedException
+   {
+      int height = image.length;
+      int width = height == 0 ? 0 : image[0].length;
+      if (height < window || width < window)
+         return new double[0][0][outputs];
+
+      int tileRows = (height - window) / stride + 1;
+      int tileCols = (width - window) / stride + 1;
+      int batchSize = evaluators.peek().getBatchSize();
+
+      double[][][] map = new double[tileRows][tileCols][outputs];
+      double[][][] weights = network.getWeights();                    // Every batch of this call sees the same weights
+
+      double[][] ring = new double[window][width];                    // Preprocessed rows, image row r lives in slot r % window
+      int[] ringRow = new int[window];
+      Arrays.fill(ringRow, -1);
+
+      List<Future<?>> pending = new ArrayList<Future<?>>();
+
+      /*
+       * Scores one band of tiles at a time. Only the
+       * rows that were not part of the previous band
+       * are preprocessed.
+       */
+      for (int t = 0; t < tileRows; t++)
+      {
+         int top = t * stride;
+         for (int r = top; r < top + window; r++)
+         {
+            int slot = r % window;
+            if (ringRow[slot] != r)
+            {
+               fillRow(image[r], ring[slot]);
+               ringRow[slot] = r;
+            }
+         }
+
+         final int bandTop = top;
+         final double[][] bandOut = map[t];
+         for (int first = 0; first < tileCols; first += batchSize)
+         {
+            final int start = first;
+            final int count = Math.min(batchSize, tileCols - first);
+            pending.add(pool.submit(new Callable<Void>()
+            {
+               public Void call() throws InterruptedException
+               {
+                  scoreBatch(weights, ring, bandTop, start, count, bandOut);
+                  return null;
+               }
+            }));
+         }
+
+         /*
+          * The ring is overwritten by the next band, so
+          * the batches of this band have to finish first.
+          */
+         try
+         {
+            for (Future<?> f : pending)
+               f.get();
+         }
+         catch (ExecutionException e)
+         {
+            throw new IllegalStateException("Tile scoring failed", e.getCause());
+         }
+         pending.clear();
+      }// for (int t = 0; t < tileRows; t++)
+
+      return map;
+   }// infer(int[][] image)
+
+   /**
+    * Converts one output node of a map produced by
+    * infer to a grayscale image that can be written
+    * with BmpEncoder.
+    *
+    * @param map    the output of infer
+    * @param output the output node to draw
+    * @return the pels indexed [row][column]
+    */
+   public int[][] toImage(double[][][] map, int output)
+   {
+      BmpEncoder encoder = new BmpEncoder();
+      int[][] image = new int[map.length][];
+      for (int i = 0; i < map.length; i++)
+      {
+         image[i] = new int[map[i].length];
+         for (int j = 0; j < map[i].length; j++)
+            image[i][j] = encoder.grayToPel(map[i][j][output]);
+      }
+      return image;
+   }// toImage(double[][][] map, int output)
+
+   /**
+    * Stops the worker threads.
+    */
+   public void shutdown()
+   {
+      pool.shutdown();
+   }
+
+   /**
+    * Runs a row of pels through the preprocessing
+    * function.
+    *
+    * @param pels the pels of the image row
+    * @param row  the buffer that receives the
+    *             activations
+    */
+   private void fillRow(int[] pels, double[] row)
+   {
+      for (int j = 0; j < pels.length; j++)
+         row[j] = preprocess.applyAsDouble(pels[j]);
+   }
+
+   /**
+    * Copies a run of tiles from the ring into an
+    * evaluator's input buffer, applies the input
+    * transform and scores them.
+    *
+    * @param weights the weights of the network
+    * @param ring    the preprocessed rows of the band
+    * @param top     the image row at the top of the
+    *                band
+    * @param first   the first tile column to score
+    * @param count   the number of tiles to score
+    * @param out     the map row that receives the
+    *                outputs
+    * @throws InterruptedException if interrupted
+    *                              while waiting for an
+    *                              evaluator
+    */
+   private void scoreBatch(double[][][] weights, double[][] ring, int top, int first, int count, double[][] out)
+         throws InterruptedException
+   {
+      BatchEvaluator evaluator = evaluators.take();
+      try
+      {
+         double[][] inputs = evaluator.getInputs();
+         double[] raw = scratch.get(evaluator);
+         /*
+          * Fills each patch vector row by row straight from
+          * the ring of preprocessed rows, going through the
+          * scratch row when the tile must be transformed.
+          */
+         for (int b = 0; b < count; b++)
+         {
+            int left = (first + b) * stride;
+            double[] patch = transform == null ? inputs[b] : raw;
+            for (int dy = 0; dy < window; dy++)
+            {
+               System.arraycopy(ring[(top + dy) % window], left, patch, dy * window, window);
+            }
+            if (transform != null)
+               transform.transform(raw, inputs[b]);
+         }
+
+         double[][] scores = evaluator.forward(weights, count);
+         for (int b = 0; b < count; b++)
+            System.arraycopy(scores[b], 0, out[first + b], 0, outputs);
+      }
+      finally
+      {
+         evaluators.put(evaluator);
+      }
+   }// scoreBatch(...)
+}// public class TiledInference
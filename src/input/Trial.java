@@ -0,0 +1,181 @@
+package input;
+
+import java.util.Arrays;
+import java.util.Map;
+import perceptron.Network;
+import perceptron.WeightInitializer;
+
+/**
+ * One configuration tried by a Search: the network
+ * built from it and how far it has trained.
+ *
+ * Methods:
+ * Constructor:
+ *  - Trial(int[] structure, double lambda, double lower, double upper, long seed, int maxIterations, double errorThreshold)
+ * Public:
+ *  - void train(Map<double[], double[]> training, Map<double[], double[]> validation, int budget)
+ *  - void stop(int rung)
+ *  - boolean isStopped()
+ *  - int getStoppedRung()
+ *  - int getEpochs()
+ *  - double getError()
+ *  - int getMaxIterations()
+ *  - Network getNetwork()
+ *  - String describe()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Trial
+{
+   private int[] structure;
+   private double lambda;
+   private double lower, upper;           // The random weight range
+   private long seed;                     // The seed of the random weights
+   private int maxIterations;             // This configuration's own epoch limit
+
+   private Network network;
+   private int epochs;                    // Epochs trained so far
+   private double error = Double.MAX_VALUE;
+   private int stoppedRung = -1;          // The rung the trial lost at, -1 while it runs
+
+   /**
+    * Builds the network for a configuration with
+    * seeded random weights.
+    *
+    * @param structure      the nodes in each layer
+    * @param lambda         the learning rate
+    * @param lower          the lowest random weight
+    * @param upper          the highest random weight
+    * @param seed           the seed of the weights
+    * @param maxIterations  the most epochs this
+    *                       configuration trains
+    * @param errorThreshold the error below which
+    *                       training stops
+    */
+   public Trial(int[] structure, double lambda, double lower, double upper, long seed, int maxIterations,
+         double errorThreshold)
+   {
+      this.structure = structure;
+      this.lambda = lambda;
+      this.lower = lower;
+      this.upper = upper;
+      this.seed = seed;
+      this.maxIterations = maxIterations;
+
+      network = new Network(structure[0], Arrays.copyOfRange(structure, 1, structure.length - 1),
+            structure[structure.length - 1], lambda);
+      network.setRandWeights(new WeightInitializer(WeightInitializer.Scheme.UNIFORM, lower, upper, seed));
+      network.setTrainingHyperparams(maxIterations, errorThreshold);
+   }// Trial(...)
+
+   /**
+    * Trains until the trial has had the given number
+    * of epochs in total, or its own limit, and scores
+    * it.
+    *
+    * @param training   the cases to train on, only
+    *                   read
+    * @param validation the cases to score on, only
+    *                   read
+    * @param budget     the total epochs for the rung
+    */
+   public void train(Map<double[], double[]> training, Map<double[], double[]> validation, int budget)
+   {
+      int target = Math.min(budget, maxIterations);
+      if (epochs < target)
+      {
+         error = network.trainEpochs(training, target - epochs);
+         epochs = target;
+      }
+      if (validation != training)
+         error = network.computeError(validation);
+   }// train(...)
+
+   /**
+    * Marks the trial as lost.
+    *
+    * @param rung the rung it lost at
+    */
+   public void stop(int rung)
+   {
+      stoppedRung = rung;
+   }
+
+   /**
+    * Checks if the trial has lost.
+    *
+    * @return true once the trial was stopped
+    */
+   public boolean isStopped()
+   {
+      return stoppedRung >= 0;
+   }
+
+   /**
+    * Retrieves the rung the trial lost at.
+    *
+    * @return the rung, or -1 if it is still running
+    */
+   public int getStoppedRung()
+   {
+      return stoppedRung;
+   }
+
+   /**
+    * Retrieves the epochs trained so far. Training
+    * that stopped early below the error threshold
+    * still counts the whole rung.
+    *
+    * @return the epochs
+    */
+   public int getEpochs()
+   {
+      return epochs;
+   }
+
+   /**
+    * Retrieves the error of the last scoring.
+    *
+    * @return the error per output
+    */
+   public double getError()
+   {
+      return error;
+   }
+
+   /**
+    * Retrieves the configuration's own epoch limit.
+    *
+    * @return the max iterations
+    */
+   public int getMaxIterations()
+   {
+      return maxIterations;
+   }
+
+   /**
+    * Retrieves the network.
+    *
+    * @return the network being trained
+    */
+   public Network getNetwork()
+   {
+      return network;
+   }
+
+   /**
+    * Describes the configuration like the lines of a
+    * Loader config.
+    *
+    * @return the structure, lambda, weight range and
+    *         seed, and iteration limit
+    */
+   public String describe()
+   {
+      StringBuilder text = new StringBuilder();
+      for (int n = 0; n < structure.length; n++)
+         text.append(n == 0 ? "" : " ").append(structure[n]);
+      return text + " | lambda " + lambda + " | weights " + lower + ", " + upper + ", " + seed + " | max " + maxIterations;
+   }
+}// public class Trial
@@ -0,0 +1,178 @@
+package perceptron;
+
+import java.util.Arrays;
+
+/**
+ * Runs forward propagation for a whole batch of
+ * inputs at once. Every evaluator owns its own
+ * activation buffers, so several evaluators can
+ * read the same weights from different threads
+ * without touching the shared nodes array of a
+ * Network. The loops visit one row of weights at a
+ * time for every case in the batch so each row is
+ * loaded once per batch instead of once per case.
+ * The output layer is activated like the loss the
+ * network was trained with: sigmoids, or a softmax.
+ *
+ * Methods:
+ * Constructor:
+ *  - BatchEvaluator(int[] dimensions, int batchSize)
+ * Public:
+ *  - void setLoss(Loss loss)
+ *  - int getBatchSize()
+ *  - double[][] getInputs()
+ *  - double[][] forward(double[][][] weights, int count)
+ *  - double[][] forward(double[][][] weights, double[][] inputs, int count)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class BatchEvaluator
+{
+   private int[] dimensions;        // Stores the dimensions of each layer of the
+                                    // network
+
+   private int numLayers;           // Stores the number of layers
+
+   private int batchSize;           // The largest number of cases in one batch
+
+   private double[][][] nodes;      // The activations indexed [layer][case][node]
+
+   private Loss loss = Loss.SQUARED;   // Decides the activation of the output layer
+
+   /**
+    * Allocates the activation buffers for batches of
+    * up to batchSize cases.
+    *
+    * @param dimensions the number of nodes in each
+    *                   layer, input layer first
+    * @param batchSize  the largest batch that will
+    *                   be evaluated
+    */
+   public BatchEvaluator(int[] dimensions, int batchSize)
+   {
+      this.dimensions = dimensions.clone();
+      this.numLayers = dimensions.length;
+      this.batchSize = batchSize;
+
+      nodes = new double[numLayers][batchSize][];
+      for (int n = 0; n < numLayers; n++)
+         for (int b = 0; b < batchSize; b++)
+            nodes[n][b] = new double[dimensions[n]];
+   }// BatchEvaluator(int[] dimensions, int batchSize)
+
+   /**
+    * Sets the loss the network was trained with,
+    * which decides how the output layer is activated.
+    *
+    * @param loss the loss
+    */
+   public void setLoss(Loss loss)
+   {
+      this.loss = loss;
+   }
+
+   /**
+    * Retrieves the largest number of cases in one
+    * batch.
+    *
+    * @return the batch size
+    */
+   public int getBatchSize()
+   {
+      return batchSize;
+   }
+
+   /**
+    * Retrieves the reusable input buffer. Callers
+    * fill the first rows and then call
+    * forward(weights, count).
+    *
+    * @return the input activations indexed
+    *         [case][node]
+    */
+   public double[][] getInputs()
+   {
+      return nodes[0];
+   }
+
+   /**
+    * Evaluates the cases held in the input buffer.
+    *
+    * @param weights the weights of the network
+    * @param count   the number of cases to evaluate
+    * @return the output activations indexed
+    *         [case][node]. The array is reused by the
+    *         next call.
+    */
+   public double[][] forward(double[][][] weights, int count)
+   {
+      /*
+       * Iterates across all connectivity layers. n is
+       * the layer of the child node.
+       */
+      for (int n = 1; n < numLayers; n++)
+      {
+         double[][] in = nodes[n - 1];
+         double[][] out = nodes[n];
+
+         for (int b = 0; b < count; b++)
+            Arrays.fill(out[b], 0.0);
+
+         /*
+          * Accumulates the dot products one weight row at
+          * a time so the row is reused for every case.
+          */
+         for (int k = 0; k < dimensions[n - 1]; k++)
+         {
+            double[] row = weights[n - 1][k];
+            for (int b = 0; b < count; b++)
+            {
+               double x = in[b][k];
+               if (x != 0.0)                                   // Zero activations contribute nothing
+               {
+                  double[] acc = out[b];
+                  for (int j = 0; j < dimensions[n]; j++)
+                  {
+                     acc[j] += x * row[j];
+                  }
+               }
+            }
+         }// for (int k = 0; k < dimensions[n - 1]; k++)
+
+         if (n == numLayers - 1 && loss.isSoftmax())
+         {
+            for (int b = 0; b < count; b++)                   // Turns the output sums into a softmax
+               Loss.softmax(out[b]);
+         }
+         else
+         {
+            for (int b = 0; b < count; b++)                   // Applies the activation function
+               for (int j = 0; j < dimensions[n]; j++)
+                  out[b][j] = Network.activation(out[b][j]);
+         }
+
+      } // for (int n = 1; n < numLayers; n++)
+
+      return nodes[numLayers - 1];
+   }// forward(double[][][] weights, int count)
+
+   /**
+    * Copies the given inputs into the input buffer
+    * and evaluates them.
+    *
+    * @param weights the weights of the network
+    * @param inputs  the input activations, at least
+    *                count rows
+    * @param count   the number of cases to evaluate
+    * @return the output activations indexed
+    *         [case][node]. The array is reused by the
+    *         next call.
+    */
+   public double[][] forward(double[][][] weights, double[][] inputs, int count)
+   {
+      for (int b = 0; b < count; b++)
+         System.arraycopy(inputs[b], 0, nodes[0][b], 0, dimensions[0]);
+      return forward(weights, count);
+   }
+}// public class BatchEvaluator
@@ -0,0 +1,390 @@
+package perceptron;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trains a network on batches of cases while keeping
+ * the activations of only some layers. The forward
+ * pass of a batch keeps every interval-th layer of
+ * nodes, the checkpoints, along with the output
+ * layer. The backward pass then works down one
+ * segment between checkpoints at a time, computing
+ * the segment's layers again from the checkpoint
+ * below it before passing the psi values through
+ * them.
+ *
+ * An interval of 1 keeps every layer and computes
+ * nothing twice; larger intervals keep fewer layers
+ * at the cost of a second forward pass over most of
+ * the network. The activations held at once and the
+ * multiply-adds done again are counted so the two can
+ * be weighed against each other.
+ *
+ * The changes of a batch are summed from the weights
+ * at its start and applied together, as in the
+ * PipelineTrainer, so the interval does not change
+ * the result.
+ *
+ * Methods:
+ * Constructor:
+ *  - CheckpointTrainer(Network network, int batchSize, int interval)
+ * Public:
+ *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
+ *  - void trainBatch(List<double[]> inputs, List<double[]> truths)
+ *  - void trainEpoch(List<double[]> inputs, List<double[]> truths)
+ *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - boolean isCheckpoint(int n)
+ *  - long getPeakActivations()
+ *  - long getRecomputedMacs()
+ *  - long getMacs()
+ *  - void printStats()
+ * Private:
+ *  - double[][] forwardLayer(int n, double[][] parents)
+ *  - void hold(double[][] activations)
+ *  - void release(double[][] activations)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class CheckpointTrainer
+{
+   private Network network;
+   private int[] dimensions;
+   private int numLayers;
+   private int batchSize;
+   private int interval;
+   private double[][][] changes;         // The summed weight changes of the batch
+
+   private long held;                    // The activations held right now
+   private long peakActivations;         // The most activations held at once
+   private long largestBatch;            // The most cases trained together
+   private long macs;                    // The multiply-adds of the forward and backward passes
+   private long recomputedMacs;          // The multiply-adds of forward passes done again
+   private long nanos;
+   private long recomputeNanos;
+
+   private int max_iterations;
+   private double error_threshold;
+
+   /**
+    * Sets up training with checkpoints.
+    *
+    * @param network   the network to train
+    * @param batchSize the cases whose changes are
+    *                  applied together
+    * @param interval  the layers between checkpoints
+    */
+   public CheckpointTrainer(Network network, int batchSize, int interval)
+   {
+      if (interval < 1)
+         throw new IllegalArgumentException("Checkpoint interval must be at least 1: " + interval);
+      this.network = network;
+      this.dimensions = network.getDimensions();
+      this.numLayers = dimensions.length;
+      this.batchSize = batchSize;
+      this.interval = interval;
+
+      changes = new double[numLayers - 1][][];
+      for (int n = 0; n < numLayers - 1; n++)
+         changes[n] = new double[dimensions[n]][dimensions[n + 1]];
+   }// CheckpointTrainer(Network network, int batchSize, int interval)
+
+   /**
+    * Sets the training parameters
+    *
+    * @param max_iterations  the number of iterations
+    * @param error_threshold the error below which
+    *                        training stops
+    */
+   public void setTrainingHyperparams(int max_iterations, double error_threshold)
+   {
+      this.max_iterations = max_iterations;
+      this.error_threshold = error_threshold;
+   }
+
+   /**
+    * Trains on one batch, holding only the checkpoint
+    * layers between the forward and backward passes,
+    * and applies its changes.
+    *
+    * @param inputs the input activations of each case
+    * @param truths the truth values of each case
+    */
+   public void trainBatch(List<double[]> inputs, List<double[]> truths)
+   {
+      long start = System.nanoTime();
+      int cases = inputs.size();
+      largestBatch = Math.max(largestBatch, cases);
+      double lambda = network.getLambda();
+      double[][][] weights = network.getWeights();
+      InputTransform transform = network.getInputTransform();
+
+      double[][][] kept = new double[numLayers][][];
+      kept[0] = new double[cases][];
+      for (int c = 0; c < cases; c++)
+      {
+         kept[0][c] = inputs.get(c);
+         if (transform != null)
+         {
+            kept[0][c] = new double[dimensions[0]];
+            transform.transform(inputs.get(c), kept[0][c]);
+         }
+      }
+      hold(kept[0]);
+
+      double[][] current = kept[0];
+      for (int n = 1; n < numLayers; n++)                                  // Forward, keeping the checkpoints
+      {
+         double[][] next = forwardLayer(n, current);
+         macs += (long) cases * dimensions[n - 1] * dimensions[n];
+         if (!isCheckpoint(n - 1))
+            release(current);
+         if (isCheckpoint(n))
+            kept[n] = next;
+         current = next;
+      }
+
+      double[][] out = kept[numLayers - 1];
+      double[][] psi = new double[cases][dimensions[numLayers - 1]];
+      for (int c = 0; c < cases; c++)
+         network.getLoss().outputPsi(out[c], truths.get(c), psi[c]);
+      hold(psi);
+
+      int upper = numLayers - 1;
+      while (upper > 0)                                                    // Backward, a segment at a time
+      {
+         int lower = upper - 1;
+         while (!isCheckpoint(lower))
+            lower--;
+
+         long recompute = System.nanoTime();
+         for (int n = lower + 1; n < upper; n++)                           // Brings back the segment's layers
+         {
+            kept[n] = forwardLayer(n, kept[n - 1]);
+            recomputedMacs += (long) cases * dimensions[n - 1] * dimensions[n];
+         }
+         recomputeNanos += System.nanoTime() - recompute;
+
+         for (int n = upper; n > lower; n--)
+         {
+            double[][] w = weights[n - 1];
+            double[][] change = changes[n - 1];
+            double[][] parents = kept[n - 1];
+            double[][] below = n > 1 ? new double[cases][dimensions[n - 1]] : null;
+            if (below != null)
+               hold(below);
+
+            for (int c = 0; c < cases; c++)
+               for (int k = 0; k < dimensions[n - 1]; k++)
+               {
+                  double omega = 0.0;
+                  for (int j = 0; j < dimensions[n]; j++)
+                  {
+                     omega += w[k][j] * psi[c][j];
+                     change[k][j] += lambda * parents[c][k] * psi[c][j];
+                  }
+                  if (below != null)
+                     below[c][k] = omega * (parents[c][k] * (1.0 - parents[c][k]));
+               }
+            macs += 2L * cases * dimensions[n - 1] * dimensions[n];
+
+            release(psi);
+            psi = below;
+            release(kept[n]);                                              // Done with the layer above
+            kept[n] = null;
+         }
+         upper = lower;
+      }// while (upper > 0)
+      release(kept[0]);
+
+      for (int n = 0; n < numLayers - 1; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+            {
+               weights[n][k][j] += changes[n][k][j];
+               changes[n][k][j] = 0.0;
+            }
+      network.weightsChanged();
+      nanos += System.nanoTime() - start;
+   }// trainBatch(List<double[]> inputs, List<double[]> truths)
+
+   /**
+    * Trains one pass over the cases in batches.
+    *
+    * @param inputs the input activations of each case
+    * @param truths the truth values of each case
+    */
+   public void trainEpoch(List<double[]> inputs, List<double[]> truths)
+   {
+      for (int start = 0; start < inputs.size(); start += batchSize)
+      {
+         int end = Math.min(start + batchSize, inputs.size());
+         trainBatch(inputs.subList(start, end), truths.subList(start, end));
+      }
+   }
+
+   /**
+    * Trains the network on the given training set
+    * until the error is below the threshold or the
+    * iterations run out.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet)
+   {
+      List<double[]> inputs = new ArrayList<double[]>(trainSet.keySet());
+      List<double[]> truths = new ArrayList<double[]>();
+      for (double[] input : inputs)
+         truths.add(trainSet.get(input));
+
+      network.printSummary();
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING WITH CHECKPOINTS EVERY " + interval + " LAYERS STARTED AT " + timestamp);
+
+      boolean error_threshold_met = false;
+      int iteration = 0;
+      while (iteration <= max_iterations && !error_threshold_met)
+      {
+         iteration++;
+         trainEpoch(inputs, truths);
+         if (network.computeError(trainSet) < error_threshold)
+            error_threshold_met = true;
+      }
+
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp);
+      if (error_threshold_met)
+         System.out.println("TRAINING ENDED EARLY AFTER " + iteration + " ITERATIONS: Error below threshold");
+      else
+         System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
+      System.out.println("Error: " + network.computeError(trainSet));
+      printStats();
+   }// trainNetwork(Map<double[], double[]> trainSet)
+
+   /**
+    * Checks whether a layer's activations are kept
+    * through the whole batch. The input and output
+    * layers always are.
+    *
+    * @param n the layer of nodes
+    * @return true if the layer is a checkpoint
+    */
+   public boolean isCheckpoint(int n)
+   {
+      return n % interval == 0 || n == numLayers - 1;
+   }
+
+   /**
+    * Retrieves the most activations held at once, psi
+    * values included.
+    *
+    * @return the peak number of values
+    */
+   public long getPeakActivations()
+   {
+      return peakActivations;
+   }
+
+   /**
+    * Retrieves the multiply-adds spent computing layers
+    * a second time.
+    *
+    * @return the recomputed multiply-adds
+    */
+   public long getRecomputedMacs()
+   {
+      return recomputedMacs;
+   }
+
+   /**
+    * Retrieves the multiply-adds of training without
+    * the recomputed layers.
+    *
+    * @return the multiply-adds of the forward and
+    *         backward passes
+    */
+   public long getMacs()
+   {
+      return macs;
+   }
+
+   /**
+    * Prints the peak activation memory against what
+    * keeping every layer would take, and the work done
+    * again against the work of training.
+    */
+   public void printStats()
+   {
+      long everyLayer = 0;                             // Every layer's activations and the psi values
+      for (int n = 0; n < numLayers; n++)              // of the two layers being passed through
+         everyLayer += dimensions[n];
+      int widest = 0;
+      for (int n = 1; n < numLayers; n++)
+         widest = Math.max(widest, dimensions[n] + dimensions[n - 1]);
+      everyLayer = largestBatch * (everyLayer + widest);
+
+      System.out.println("-------------------------");
+      System.out.println("Checkpoints every " + interval + " layers (batches of " + batchSize + "):");
+      System.out.println("Peak activations: " + peakActivations + " values (" + peakActivations * 8 / 1024
+            + " KB), " + everyLayer + " values (" + everyLayer * 8 / 1024 + " KB) keeping every layer");
+      System.out.println("Recomputed: " + recomputedMacs + " of " + macs + " multiply-adds (+"
+            + (macs == 0 ? 0 : Math.round(1000.0 * recomputedMacs / macs) / 10.0) + "%), "
+            + recomputeNanos / 1000000 + " of " + nanos / 1000000 + " ms");
+   }// printStats()
+
+   /**
+    * Computes a layer of nodes for every case of a
+    * batch.
+    *
+    * @param n       the layer of nodes
+    * @param parents the layer below, one row per case
+    * @return the layer's activations, one row per case
+    */
+   private double[][] forwardLayer(int n, double[][] parents)
+   {
+      double[][] w = network.getWeights()[n - 1];
+      double[][] children = new double[parents.length][dimensions[n]];
+      boolean softmax = n == numLayers - 1 && network.getLoss().isSoftmax();
+      for (int c = 0; c < parents.length; c++)
+      {
+         for (int j = 0; j < dimensions[n]; j++)
+         {
+            double dotProduct = 0.0;
+            for (int k = 0; k < dimensions[n - 1]; k++)
+               dotProduct += parents[c][k] * w[k][j];
+            children[c][j] = softmax ? dotProduct : Network.activation(dotProduct);
+         }
+         if (softmax)
+            Loss.softmax(children[c]);
+      }
+      hold(children);
+      return children;
+   }// forwardLayer(int n, double[][] parents)
+
+   /**
+    * Counts an array of activations as held.
+    *
+    * @param activations the array, one row per case
+    */
+   private void hold(double[][] activations)
+   {
+      held += (long) activations.length * activations[0].length;
+      peakActivations = Math.max(peakActivations, held);
+   }
+
+   /**
+    * Counts an array of activations as let go.
+    *
+    * @param activations the array, one row per case
+    */
+   private void release(double[][] activations)
+   {
+      held -= (long) activations.length * activations[0].length;
+   }
+}// public class CheckpointTrainer
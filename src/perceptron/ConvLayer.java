@@ -0,0 +1,273 @@
+package perceptron;
+
+import java.util.SplittableRandom;
+
+/**
+ * A convolutional layer without padding. Each
+ * filter spans all input channels over a K x K
+ * window, slides with the given stride and applies
+ * the network's sigmoid, so there is one output
+ * channel per filter and one weight per filter,
+ * channel and window position, whatever the size of
+ * the image.
+ *
+ * The forward pass uses im2col: every window of the
+ * input is copied into one row of a patch matrix, so
+ * each output is a contiguous dot product of a
+ * filter with a patch row. The backward pass works on
+ * the same matrix: the input gradient is gathered
+ * per patch and added back onto the image (col2im),
+ * and each weight moves by the sum over patches of
+ * its input times the output's psi.
+ *
+ * Methods:
+ * Constructor:
+ *  - ConvLayer(int channels, int height, int width, int filters, int kernel, int stride)
+ * Public:
+ *  - void setRandWeights(double lower, double upper, SplittableRandom random)
+ *  - int[] getInputShape()
+ *  - int[] getOutputShape()
+ *  - double[] forward(double[] input)
+ *  - double[] backward(double[] gradient, double lambda)
+ *  - double[][] getWeights()
+ *  - long getFlops()
+ *  - String describe()
+ * Private:
+ *  - void im2col(double[] input)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class ConvLayer implements ImageLayer
+{
+   private int channels, height, width;     // The input shape
+   private int filters, kernel, stride;
+   private int outHeight, outWidth;
+   private int patchSize;                   // channels * kernel * kernel
+   private int patches;                     // outHeight * outWidth
+
+   private double[][] weights;              // Indexed [filter][patch position]
+   private double[][] columns;              // The patch matrix indexed [patch][patch position]
+   private double[] output;                 // Indexed filter * patches + patch
+   private double[] psi;                    // The psi value of each output
+   private double[] patchGradient;          // Scratch space for one patch of input gradient
+   private double[] inputGradient;
+
+   /**
+    * Sets up a layer with zero weights.
+    *
+    * @param channels the input channels
+    * @param height   the input height
+    * @param width    the input width
+    * @param filters  the number of filters, which is
+    *                 the number of output channels
+    * @param kernel   the side of the square window
+    * @param stride   the step between windows
+    */
+   public ConvLayer(int channels, int height, int width, int filters, int kernel, int stride)
+   {
+      if (kernel > height || kernel > width)
+         throw new IllegalArgumentException("A " + kernel + "x" + kernel + " kernel does not fit a " + width + "x" + height + " image");
+
+      this.channels = channels;
+      this.height = height;
+      this.width = width;
+      this.filters = filters;
+      this.kernel = kernel;
+      this.stride = stride;
+      this.outHeight = (height - kernel) / stride + 1;
+      this.outWidth = (width - kernel) / stride + 1;
+      this.patchSize = channels * kernel * kernel;
+      this.patches = outHeight * outWidth;
+
+      weights = new double[filters][patchSize];
+      columns = new double[patches][patchSize];
+      output = new double[filters * patches];
+      psi = new double[filters * patches];
+      patchGradient = new double[patchSize];
+      inputGradient = new double[channels * height * width];
+   }// ConvLayer(...)
+
+   /**
+    * Sets every weight to a random value in the
+    * range, drawn in filter order from the given
+    * generator so a seed reproduces them.
+    *
+    * @param lower  the lowest weight
+    * @param upper  the highest weight
+    * @param random the generator of the weights
+    */
+   public void setRandWeights(double lower, double upper, SplittableRandom random)
+   {
+      for (int f = 0; f < filters; f++)
+         for (int q = 0; q < patchSize; q++)
+            weights[f][q] = lower + random.nextDouble() * (upper - lower);
+   }
+
+   /**
+    * Retrieves the shape of the input image.
+    *
+    * @return the channels, height and width
+    */
+   public int[] getInputShape()
+   {
+      return new int[] { channels, height, width };
+   }
+
+   /**
+    * Retrieves the shape of the output image.
+    *
+    * @return the filters, output height and output
+    *         width
+    */
+   public int[] getOutputShape()
+   {
+      return new int[] { filters, outHeight, outWidth };
+   }
+
+   /**
+    * Convolves the input with every filter.
+    *
+    * @param input the flattened input image
+    * @return the flattened output image
+    */
+   public double[] forward(double[] input)
+   {
+      im2col(input);
+      for (int f = 0; f < filters; f++)
+      {
+         double[] filter = weights[f];
+         for (int p = 0; p < patches; p++)
+         {
+            double[] column = columns[p];
+            double dotProduct = 0.0;
+            for (int q = 0; q < patchSize; q++)
+               dotProduct += filter[q] * column[q];
+            output[f * patches + p] = Network.activation(dotProduct);
+         }
+      }
+      return output;
+   }// forward(double[] input)
+
+   /**
+    * Passes the gradient back through the sigmoid and
+    * the convolution, then updates the filters.
+    *
+    * @param gradient the negative error gradient of
+    *                 each output
+    * @param lambda   the learning rate
+    * @return the negative error gradient of each
+    *         input
+    */
+   public double[] backward(double[] gradient, double lambda)
+   {
+      for (int o = 0; o < output.length; o++)
+         psi[o] = gradient[o] * output[o] * (1.0 - output[o]);
+
+      /*
+       * Gathers the input gradient of each patch from the
+       * old weights and adds it back onto the image.
+       */
+      for (int i = 0; i < inputGradient.length; i++)
+         inputGradient[i] = 0.0;
+      for (int p = 0; p < patches; p++)
+      {
+         for (int q = 0; q < patchSize; q++)
+            patchGradient[q] = 0.0;
+         for (int f = 0; f < filters; f++)
+         {
+            double d = psi[f * patches + p];
+            if (d == 0.0)
+               continue;
+            double[] filter = weights[f];
+            for (int q = 0; q < patchSize; q++)
+               patchGradient[q] += d * filter[q];
+         }
+
+         int top = (p / outWidth) * stride;
+         int left = (p % outWidth) * stride;
+         int q = 0;
+         for (int c = 0; c < channels; c++)
+            for (int dy = 0; dy < kernel; dy++)
+            {
+               int row = (c * height + top + dy) * width + left;
+               for (int dx = 0; dx < kernel; dx++)
+                  inputGradient[row + dx] += patchGradient[q++];
+            }
+      }// for (int p = 0; p < patches; p++)
+
+      /*
+       * Moves each weight by its inputs times the psi
+       * values of the outputs it produced.
+       */
+      for (int f = 0; f < filters; f++)
+      {
+         double[] filter = weights[f];
+         for (int p = 0; p < patches; p++)
+         {
+            double step = lambda * psi[f * patches + p];
+            if (step == 0.0)
+               continue;
+            double[] column = columns[p];
+            for (int q = 0; q < patchSize; q++)
+               filter[q] += step * column[q];
+         }
+      }
+      return inputGradient;
+   }// backward(double[] gradient, double lambda)
+
+   /**
+    * Retrieves the filters.
+    *
+    * @return the weights indexed [filter][channel *
+    *         kernel * kernel + dy * kernel + dx]
+    */
+   public double[][] getWeights()
+   {
+      return weights;
+   }
+
+   /**
+    * Counts the multiply-adds of one forward pass.
+    *
+    * @return the multiply-adds per image
+    */
+   public long getFlops()
+   {
+      return (long) filters * patches * patchSize;
+   }
+
+   /**
+    * Describes the layer for summaries.
+    *
+    * @return a short description
+    */
+   public String describe()
+   {
+      return "Conv " + filters + " filters " + kernel + "x" + kernel + " stride " + stride + ": " + channels + "x" + height + "x"
+            + width + " -> " + filters + "x" + outHeight + "x" + outWidth;
+   }
+
+   /**
+    * Copies every window of the input into a row of
+    * the patch matrix.
+    *
+    * @param input the flattened input image
+    */
+   private void im2col(double[] input)
+   {
+      for (int p = 0; p < patches; p++)
+      {
+         int top = (p / outWidth) * stride;
+         int left = (p % outWidth) * stride;
+         double[] column = columns[p];
+         int q = 0;
+         for (int c = 0; c < channels; c++)
+            for (int dy = 0; dy < kernel; dy++)
+            {
+               System.arraycopy(input, (c * height + top + dy) * width + left, column, q, kernel);
+               q += kernel;
+            }
+      }
+   }// im2col(double[] input)
+}// public class ConvLayer
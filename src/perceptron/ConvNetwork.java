@@ -0,0 +1,329 @@
+package perceptron;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * A network for image inputs: convolutional and
+ * pooling layers turn the image into a smaller set
+ * of features, which a dense Network then maps to
+ * the outputs. Filters share their weights across
+ * the image, so the front layers need far fewer
+ * weights and multiply-adds than a dense first layer
+ * over every pixel.
+ *
+ * Training is the same per-case backpropagation as
+ * Network's: the dense layers train on the features
+ * and report how the error depends on each feature,
+ * which is then passed back through the front layers
+ * in reverse.
+ *
+ * Methods:
+ * Constructor:
+ *  - ConvNetwork(ImageLayer[] layers, Network dense)
+ * Public:
+ *  - ImageLayer[] parse(String spec, int channels, int height, int width)
+ *  - void setRandWeights(double lower, double upper, long seed)
+ *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
+ *  - double[] forwardPropagation(double[] image)
+ *  - double[] features(double[] image)
+ *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - double[][][] getWeights()
+ *  - ImageLayer[] getLayers()
+ *  - Network getNetwork()
+ *  - void printSummary()
+ * Private:
+ *  - void trainCase(double[] image, double[] truth)
+ *  - double error(Map<double[], double[]> trainSet)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class ConvNetwork
+{
+   private ImageLayer[] layers;       // The image layers, in order from the input
+   private Network dense;             // The dense layers fed by the last image layer
+
+   private int max_iterations;
+   private double error_threshold;
+
+   /**
+    * Joins image layers to a dense network.
+    *
+    * @param layers the image layers, in order from the
+    *               input
+    * @param dense  the dense layers, whose input count
+    *               must match the size of the last
+    *               image layer's output
+    */
+   public ConvNetwork(ImageLayer[] layers, Network dense)
+   {
+      int[] shape = layers[layers.length - 1].getOutputShape();
+      int features = shape[0] * shape[1] * shape[2];
+      if (dense.getDimensions()[0] != features)
+         throw new IllegalArgumentException("The image layers produce " + features + " features ("
+               + shape[0] + "x" + shape[1] + "x" + shape[2] + ") but the network has " + dense.getDimensions()[0] + " inputs");
+
+      this.layers = layers;
+      this.dense = dense;
+   }// ConvNetwork(ImageLayer[] layers, Network dense)
+
+   /**
+    * Builds image layers from a comma separated list.
+    * conv:FxK adds F filters of K x K, with /S for a
+    * stride of S (conv:8x3/2), and pool:S adds an S x S
+    * max pool. The layers start with zero weights.
+    *
+    * @param spec     the list of layers
+    * @param channels the channels of the input image
+    * @param height   the height of the input image
+    * @param width    the width of the input image
+    * @return the layers in order
+    */
+   public static ImageLayer[] parse(String spec, int channels, int height, int width)
+   {
+      String[] parts = spec.split(",");
+      ImageLayer[] layers = new ImageLayer[parts.length];
+      int[] shape = { channels, height, width };
+
+      for (int i = 0; i < parts.length; i++)
+      {
+         String part = parts[i].trim();
+         String kind = part.substring(0, part.indexOf(':')).trim();
+         String size = part.substring(part.indexOf(':') + 1).trim();
+
+         if (kind.equals("conv"))
+         {
+            int stride = 1;
+            if (size.contains("/"))
+            {
+               stride = Integer.valueOf(size.substring(size.indexOf('/') + 1).trim());
+               size = size.substring(0, size.indexOf('/'));
+            }
+            String[] filters = size.split("x");
+            layers[i] = new ConvLayer(shape[0], shape[1], shape[2], Integer.valueOf(filters[0].trim()),
+                  Integer.valueOf(filters[1].trim()), stride);
+         }
+         else if (kind.equals("pool"))
+            layers[i] = new PoolLayer(shape[0], shape[1], shape[2], Integer.valueOf(size));
+         else
+            throw new IllegalArgumentException("Unknown layer type: " + kind);
+
+         shape = layers[i].getOutputShape();
+      }// for (int i = 0; i < parts.length; i++)
+
+      return layers;
+   }// parse(String spec, int channels, int height, int width)
+
+   /**
+    * Sets the filters of every convolutional layer to
+    * random values in the range. Each layer draws
+    * from its own generator, split from the seed's in
+    * layer order like WeightInitializer's rows.
+    *
+    * @param lower the lowest weight
+    * @param upper the highest weight
+    * @param seed  the seed of the filters
+    */
+   public void setRandWeights(double lower, double upper, long seed)
+   {
+      SplittableRandom root = new SplittableRandom(seed);
+      for (ImageLayer layer : layers)
+         if (layer instanceof ConvLayer)
+            ((ConvLayer) layer).setRandWeights(lower, upper, root.split());
+   }
+
+   /**
+    * Sets the training parameters
+    *
+    * @param max_iterations  the number of iterations
+    * @param error_threshold the error below which
+    *                        training stops
+    */
+   public void setTrainingHyperparams(int max_iterations, double error_threshold)
+   {
+      this.max_iterations = max_iterations;
+      this.error_threshold = error_threshold;
+      dense.setTrainingHyperparams(max_iterations, error_threshold);
+   }
+
+   /**
+    * Computes the outputs for an image.
+    *
+    * @param image the flattened input image
+    * @return the output layer of the network
+    */
+   public double[] forwardPropagation(double[] image)
+   {
+      dense.setInputActivations(features(image));
+      return dense.forwardPropagation();
+   }
+
+   /**
+    * Runs the image layers only.
+    *
+    * @param image the flattened input image
+    * @return the features fed to the dense layers,
+    *         reused by the next call
+    */
+   public double[] features(double[] image)
+   {
+      double[] activations = image;
+      for (ImageLayer layer : layers)
+         activations = layer.forward(activations);
+      return activations;
+   }
+
+   /**
+    * Trains the image and dense layers together on
+    * the given training set.
+    *
+    * @param trainSet A map that maps input images to
+    *                 the expected output.
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet)
+   {
+      printSummary();
+
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING STARTED AT " + timestamp);
+
+      boolean error_threshold_met = false;
+      int iteration = 0;
+      while (iteration <= max_iterations && !error_threshold_met)
+      {
+         iteration++;
+         for (double[] image : trainSet.keySet())
+            trainCase(image, trainSet.get(image));
+
+         if (error(trainSet) < error_threshold)               // Early stopping if error below predefined stopping point
+            error_threshold_met = true;
+      }
+
+      if (dense.getPublisher() != null)
+         dense.publishWeights();
+
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp);
+      if (error_threshold_met)
+         System.out.println("TRAINING ENDED EARLY AFTER " + iteration + " ITERATIONS: Error below threshold");
+      else
+         System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
+
+      for (double[] image : trainSet.keySet())
+         System.out.println("Output: " + Arrays.toString(forwardPropagation(image)) + "\t\tExpected: "
+               + Arrays.toString(trainSet.get(image)));
+      System.out.println("Average error: " + error(trainSet));
+   }// trainNetwork(Map<double[], double[]> trainSet)
+
+   /**
+    * Retrieves the live weights of every image layer,
+    * so they can be written out or filled in place.
+    *
+    * @return the weights indexed [layer][filter][patch
+    *         position], empty for pooling layers
+    */
+   public double[][][] getWeights()
+   {
+      double[][][] weights = new double[layers.length][][];
+      for (int i = 0; i < layers.length; i++)
+         weights[i] = layers[i].getWeights();
+      return weights;
+   }
+
+   /**
+    * Retrieves the image layers.
+    *
+    * @return the layers in order from the input
+    */
+   public ImageLayer[] getLayers()
+   {
+      return layers;
+   }
+
+   /**
+    * Retrieves the dense layers.
+    *
+    * @return the network fed by the image layers
+    */
+   public Network getNetwork()
+   {
+      return dense;
+   }
+
+   /**
+    * Prints each layer's shape, weights and
+    * multiply-adds per image, next to what a dense
+    * first layer over the raw image would need.
+    */
+   public void printSummary()
+   {
+      int[] dims = dense.getDimensions();
+      long weights = 0;
+      long flops = 0;
+
+      System.out.println("-------------------------");
+      System.out.println("Image Layers:");
+      for (ImageLayer layer : layers)
+      {
+         long count = 0;
+         for (double[] row : layer.getWeights())
+            count += row.length;
+         System.out.println(layer.describe() + " (" + count + " weights, " + layer.getFlops() + " ops)");
+         weights += count;
+         flops += layer.getFlops();
+      }
+
+      long denseFirst = (long) dims[0] * dims[1];
+      for (int n = 1; n < dims.length - 1; n++)
+         denseFirst += (long) dims[n] * dims[n + 1];
+      weights += denseFirst;
+      flops += denseFirst;
+
+      int[] shape = layers[0].getInputShape();
+      long pixels = (long) shape[0] * shape[1] * shape[2];
+      long raw = pixels * dims[1] + denseFirst - (long) dims[0] * dims[1];      // The same network without image layers
+      System.out.println("Total: " + weights + " weights, " + flops + " ops per image");
+      System.out.println("Dense on the raw image: " + raw + " weights, " + raw + " multiply-adds per image");
+      dense.printSummary();
+   }// printSummary()
+
+   /**
+    * Does one backpropagation step through the dense
+    * layers and then the image layers.
+    *
+    * @param image the flattened input image
+    * @param truth the expected outputs
+    */
+   private void trainCase(double[] image, double[] truth)
+   {
+      double[] gradient = dense.trainStep(features(image), truth);
+      for (int i = layers.length - 1; i >= 0; i--)
+         gradient = layers[i].backward(gradient, dense.getLambda());
+   }
+
+   /**
+    * Computes the average error over the training
+    * set.
+    *
+    * @param trainSet the training set
+    * @return the average error per output
+    */
+   private double error(Map<double[], double[]> trainSet)
+   {
+      double error = 0.0;
+      int outputs = 0;
+      for (double[] image : trainSet.keySet())
+      {
+         double[] out = forwardPropagation(image);
+         double[] truth = trainSet.get(image);
+         for (int i = 0; i < out.length; i++)
+            error += dense.getLoss().error(out[i], truth[i]);
+         outputs += out.length;
+      }
+      return error / outputs;
+   }// error(Map<double[], double[]> trainSet)
+}// public class ConvNetwork
@@ -0,0 +1,121 @@
+package perceptron;
+
+/**
+ * A binary indexed tree over non-negative values that
+ * changes one value and finds the value a running
+ * total falls in, both in logarithmic time. Drawing a
+ * uniform number below the total and finding it picks
+ * each index in proportion to its value.
+ *
+ * Rounding builds up in the partial sums as values
+ * change, so the tree can be rebuilt from the exact
+ * values now and then.
+ *
+ * Methods:
+ * Constructor:
+ *  - FenwickTree(int size)
+ * Public:
+ *  - void set(int i, double value)
+ *  - double get(int i)
+ *  - double total()
+ *  - int find(double target)
+ *  - void rebuild()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class FenwickTree
+{
+   private double[] values;              // The values, indexed from 0
+   private double[] tree;                // The partial sums, indexed from 1
+   private int top;                      // The highest power of two within the size
+
+   /**
+    * Creates a tree of zeros.
+    *
+    * @param size the number of values
+    */
+   public FenwickTree(int size)
+   {
+      values = new double[size];
+      tree = new double[size + 1];
+      top = Integer.highestOneBit(Math.max(1, size));
+   }
+
+   /**
+    * Changes a value.
+    *
+    * @param i     the index
+    * @param value the new value, at least 0
+    */
+   public void set(int i, double value)
+   {
+      double change = value - values[i];
+      values[i] = value;
+      for (int node = i + 1; node < tree.length; node += node & -node)
+         tree[node] += change;
+   }
+
+   /**
+    * Retrieves a value.
+    *
+    * @param i the index
+    * @return the value
+    */
+   public double get(int i)
+   {
+      return values[i];
+   }
+
+   /**
+    * Adds up every value.
+    *
+    * @return the total
+    */
+   public double total()
+   {
+      double sum = 0.0;
+      for (int node = tree.length - 1; node > 0; node -= node & -node)
+         sum += tree[node];
+      return sum;
+   }
+
+   /**
+    * Finds the index whose value holds a point of the
+    * running total: the smallest i whose values up to
+    * and including i add up to more than target.
+    *
+    * @param target a point from 0 up to the total
+    * @return the index, the last one if target is at
+    *         or past the total
+    */
+   public int find(double target)
+   {
+      int position = 0;
+      for (int step = top; step > 0; step >>= 1)
+      {
+         int next = position + step;
+         if (next < tree.length && tree[next] <= target)
+         {
+            position = next;
+            target -= tree[next];
+         }
+      }
+      return Math.min(position, values.length - 1);
+   }// find(double target)
+
+   /**
+    * Rebuilds the partial sums from the values.
+    */
+   public void rebuild()
+   {
+      for (int node = 1; node < tree.length; node++)
+         tree[node] = values[node - 1];
+      for (int node = 1; node < tree.length; node++)
+      {
+         int parent = node + (node & -node);
+         if (parent < tree.length)
+            tree[parent] += tree[node];
+      }
+   }// rebuild()
+}// public class FenwickTree
@@ -0,0 +1,86 @@
+package perceptron;
+
+/**
+ * A layer that works on images in front of the dense
+ * layers of a Network. Images are flattened channel
+ * by channel, each channel row by row, so pixel
+ * (c, y, x) of a C x H x W image is at index
+ * (c * H + y) * W + x.
+ *
+ * Gradients follow the sign convention of Network's
+ * omega values: they are the negative gradient of
+ * the error, so weights move by plus lambda times
+ * activation times psi.
+ *
+ * Methods:
+ *  - int[] getInputShape()
+ *  - int[] getOutputShape()
+ *  - double[] forward(double[] input)
+ *  - double[] backward(double[] gradient, double lambda)
+ *  - double[][] getWeights()
+ *  - long getFlops()
+ *  - String describe()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public interface ImageLayer
+{
+   /**
+    * Retrieves the shape of the input image.
+    *
+    * @return the channels, height and width
+    */
+   int[] getInputShape();
+
+   /**
+    * Retrieves the shape of the output image.
+    *
+    * @return the channels, height and width
+    */
+   int[] getOutputShape();
+
+   /**
+    * Computes the output image, remembering what
+    * backward needs.
+    *
+    * @param input the flattened input image
+    * @return the flattened output, reused by the next
+    *         call
+    */
+   double[] forward(double[] input);
+
+   /**
+    * Updates the weights from the gradient of the
+    * last forward call's output and passes the
+    * gradient back to the input.
+    *
+    * @param gradient the negative error gradient of
+    *                 each output
+    * @param lambda   the learning rate
+    * @return the negative error gradient of each
+    *         input, reused by the next call
+    */
+   double[] backward(double[] gradient, double lambda);
+
+   /**
+    * Retrieves the weights, which may be empty.
+    *
+    * @return the live weights, one row per filter
+    */
+   double[][] getWeights();
+
+   /**
+    * Counts the multiply-adds of one forward pass.
+    *
+    * @return the multiply-adds per image
+    */
+   long getFlops();
+
+   /**
+    * Describes the layer for summaries.
+    *
+    * @return a short description
+    */
+   String describe();
+}// public interface ImageLayer
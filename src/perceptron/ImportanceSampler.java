@@ -0,0 +1,220 @@
+package perceptron;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * Feeds the network the cases it gets most wrong. The
+ * error of every case is kept in an array indexed by
+ * row, and a Fenwick tree over those errors draws each
+ * case in proportion to its error plus a share of the
+ * average error, so no case is starved. Each draw is
+ * trained with the weight 1 / (N p), N the number of
+ * cases and p the chance of the draw, so on average a
+ * draw moves the weights by the mean of every case's
+ * change, as a full pass would.
+ *
+ * A sampled epoch draws only a fraction of the cases.
+ * Every sweep-th epoch, starting with the first, is a
+ * full pass in order with weight 1, which brings the
+ * errors of cases that were not drawn up to date.
+ *
+ * Methods:
+ * Constructor:
+ *  - ImportanceSampler(Map<double[], double[]> trainSet, double fraction, int sweep, long seed)
+ * Public:
+ *  - void startEpoch(int epoch)
+ *  - boolean next(double[] input, double[] truth)
+ *  - double weight()
+ *  - void report(double error)
+ *  - long getDraws()
+ *  - long getSweepCases()
+ *  - void printStats()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class ImportanceSampler implements WeightedFeed
+{
+   public static final double SMOOTHING = 0.1;         // The share of the average error every case adds
+
+   private List<double[]> inputs = new ArrayList<double[]>();
+   private List<double[]> truths = new ArrayList<double[]>();
+   private double[] errors;              // The last error seen for each case
+   private FenwickTree priorities;       // The errors, to draw from
+   private double errorTotal;            // The sum of errors, kept exactly for the smoothing
+
+   private double fraction;
+   private int sweep;
+   private SplittableRandom random;
+
+   private boolean sweeping;             // Whether this epoch is a full pass
+   private int remaining;                // The cases left in this epoch
+   private int current;                  // The case last handed out
+   private double currentWeight;
+
+   private long draws;
+   private long sweepCases;
+   private double largestWeight;
+
+   /**
+    * Sets up sampling over a training set.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    * @param fraction the share of the cases a sampled
+    *                 epoch draws
+    * @param sweep    the epochs between full passes
+    * @param seed     the seed of the draws
+    */
+   public ImportanceSampler(Map<double[], double[]> trainSet, double fraction, int sweep, long seed)
+   {
+      for (double[] input : trainSet.keySet())
+      {
+         inputs.add(input);
+         truths.add(trainSet.get(input));
+      }
+      errors = new double[inputs.size()];
+      priorities = new FenwickTree(inputs.size());
+      this.fraction = fraction;
+      this.sweep = Math.max(1, sweep);
+      random = new SplittableRandom(seed);
+   }// ImportanceSampler(...)
+
+   /**
+    * Starts a full pass or a sampled epoch.
+    *
+    * @param epoch the number of the epoch, starting
+    *              at 1
+    */
+   public void startEpoch(int epoch)
+   {
+      sweeping = (epoch - 1) % sweep == 0;
+      remaining = sweeping ? inputs.size() : Math.max(1, (int) Math.round(fraction * inputs.size()));
+      current = -1;
+      if (!sweeping)
+         priorities.rebuild();                           // Clears the rounding of the last epoch's changes
+   }
+
+   /**
+    * Copies the next case into the given arrays: the
+    * next in order during a full pass, otherwise one
+    * drawn by error.
+    *
+    * @param input the array that receives the input
+    *              activations
+    * @param truth the array that receives the
+    *              expected outputs
+    * @return false if the epoch has no more cases
+    */
+   public boolean next(double[] input, double[] truth)
+   {
+      if (remaining == 0)
+         return false;
+      remaining--;
+
+      int n = inputs.size();
+      if (sweeping)
+      {
+         current++;
+         currentWeight = 1.0;
+         sweepCases++;
+      }
+      else
+      {
+         double floor = SMOOTHING * errorTotal / n;        // Every case's share of the smoothing
+         double total = errorTotal + floor * n;
+         double target = random.nextDouble() * total;
+         if (!(total > 0.0))                               // Nothing left to learn: any case alike
+         {
+            current = random.nextInt(n);
+            currentWeight = 1.0;
+         }
+         else
+         {
+            if (target < floor * n)                        // Falls in the smoothing: any case alike
+               current = Math.min((int) (target / floor), n - 1);
+            else
+               current = priorities.find(target - floor * n);
+            currentWeight = total / (n * (errors[current] + floor));
+         }
+         largestWeight = Math.max(largestWeight, currentWeight);
+         draws++;
+      }
+
+      System.arraycopy(inputs.get(current), 0, input, 0, input.length);
+      System.arraycopy(truths.get(current), 0, truth, 0, truth.length);
+      return true;
+   }// next(double[] input, double[] truth)
+
+   /**
+    * Retrieves the weight of the last case.
+    *
+    * @return 1 in a full pass, 1 / (N p) otherwise
+    */
+   public double weight()
+   {
+      return currentWeight;
+   }
+
+   /**
+    * Records the error of the last case.
+    *
+    * @param error the case's error
+    */
+   public void report(double error)
+   {
+      errorTotal += error - errors[current];
+      errors[current] = error;
+      priorities.set(current, error);
+      if (sweeping && current == inputs.size() - 1)
+         errorTotal = priorities.total();                 // Resets the running total after a full pass
+   }
+
+   /**
+    * Retrieves the cases drawn by error so far.
+    *
+    * @return the number of draws
+    */
+   public long getDraws()
+   {
+      return draws;
+   }
+
+   /**
+    * Retrieves the cases trained in full passes so far.
+    *
+    * @return the number of cases
+    */
+   public long getSweepCases()
+   {
+      return sweepCases;
+   }
+
+   /**
+    * Prints how the training was split between full
+    * passes and draws, and how the errors are spread.
+    */
+   public void printStats()
+   {
+      int n = errors.length;
+      double largest = 0.0;
+      int settled = 0;                                    // Cases with under a tenth of the average error
+      for (double error : errors)
+      {
+         largest = Math.max(largest, error);
+         if (error < 0.1 * errorTotal / n)
+            settled++;
+      }
+      System.out.println("-------------------------");
+      System.out.println("Importance Sampling (" + Math.round(100 * fraction) + "% per epoch, full pass every "
+            + sweep + " epochs):");
+      System.out.println("Cases trained: " + (draws + sweepCases) + " (" + draws + " drawn, " + sweepCases
+            + " in full passes), largest weight " + largestWeight);
+      System.out.println("Case errors: average " + errorTotal / n + ", largest " + largest + ", " + settled + " of "
+            + n + " under a tenth of the average");
+   }// printStats()
+}// public class ImportanceSampler
@@ -0,0 +1,369 @@
+package perceptron;
+
+/**
+ * Evaluates a network on a sequence of inputs that
+ * each differ from the previous one in only a few
+ * positions. Instead of a full forward propagation
+ * it keeps the theta values of every layer and, for
+ * each input that changed, adds the change times
+ * that input's row of weights (a rank-1 update).
+ * Only the nodes whose activation actually changed
+ * are propagated into the next layer the same way,
+ * so the cost follows the size of the change rather
+ * than the size of the network.
+ *
+ * An activation change no larger than the skip
+ * tolerance is not propagated; the next layer keeps
+ * seeing the old value until the difference grows.
+ * When more than a crossover fraction of a layer
+ * changes, its children are recomputed in full,
+ * which is cheaper there. Any change to the
+ * network's weights, which it counts in its weight
+ * version, brings on a full refresh. Rounding error
+ * from the repeated additions is cleared by a full
+ * refresh every refresh interval evaluations, and
+ * check measures the distance to a full forward
+ * pass.
+ *
+ * Like Network, an evaluator must only be used from
+ * one thread.
+ *
+ * Methods:
+ * Constructors:
+ *  - IncrementalEvaluator(Network network)
+ *  - IncrementalEvaluator(Network network, double skipTolerance)
+ * Public:
+ *  - double[] evaluate(double[] input)
+ *  - double[] update(int index, double value)
+ *  - void refresh()
+ *  - double check()
+ *  - void setRefreshInterval(int interval)
+ *  - void setCrossover(double crossover)
+ *  - long getOperations()
+ * Private:
+ *  - double[] propagate(int[] changed, int count)
+ *  - void computeLayer(int n)
+ *  - void activate(int n)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class IncrementalEvaluator
+{
+   public static final int DEFAULT_REFRESH_INTERVAL = 1000;   // Incremental evaluations between full refreshes
+   public static final double DEFAULT_CROSSOVER = 0.25;       // Fraction of changed parents above which a layer
+                                                              // is recomputed in full
+
+   private Network network;
+   private double[][][] weights;     // The weights the stored thetas were computed with
+   private long version;             // Their version, to notice changes made in place
+   private int[] dimensions;
+   private int numLayers;
+
+   private double[] raw;             // The current input before the transform
+   private double[][] nodes;         // The exact activations of each layer
+   private double[][] theta;         // The theta values of each layer
+   private double[][] propagated;    // The activations the children's thetas reflect
+
+   private int[][] changed;          // Scratch lists of changed nodes per layer
+   private double[] transformed;     // Scratch space for the input transform
+
+   private double skipTolerance;
+   private double crossover = DEFAULT_CROSSOVER;
+   private int refreshInterval = DEFAULT_REFRESH_INTERVAL;
+   private int sinceRefresh = 0;
+   private boolean primed = false;   // False until the first input is evaluated in full
+
+   private long operations = 0;      // Multiply-adds done, to compare with full passes
+
+   /**
+    * Sets up an evaluator that propagates every
+    * change, however small.
+    *
+    * @param network the network to evaluate
+    */
+   public IncrementalEvaluator(Network network)
+   {
+      this(network, 0.0);
+   }
+
+   /**
+    * Sets up an evaluator.
+    *
+    * @param network       the network to evaluate
+    * @param skipTolerance the largest activation
+    *                      change that is not
+    *                      propagated
+    */
+   public IncrementalEvaluator(Network network, double skipTolerance)
+   {
+      this.network = network;
+      this.dimensions = network.getDimensions();
+      this.numLayers = dimensions.length;
+      this.skipTolerance = skipTolerance;
+
+      raw = new double[dimensions[0]];
+      transformed = new double[dimensions[0]];
+      nodes = new double[numLayers][];
+      theta = new double[numLayers][];
+      propagated = new double[numLayers][];
+      changed = new int[numLayers][];
+      for (int n = 0; n < numLayers; n++)
+      {
+         nodes[n] = new double[dimensions[n]];
+         theta[n] = new double[dimensions[n]];
+         propagated[n] = new double[dimensions[n]];
+         changed[n] = new int[dimensions[n]];
+      }
+   }// IncrementalEvaluator(Network network, double skipTolerance)
+
+   /**
+    * Evaluates a whole input, updating only what the
+    * positions that differ from the last input
+    * affect.
+    *
+    * @param input the raw input activations
+    * @return the output layer, overwritten by the next
+    *         call
+    */
+   public double[] evaluate(double[] input)
+   {
+      System.arraycopy(input, 0, raw, 0, dimensions[0]);
+      if (!primed || network.getWeightVersion() != version || ++sinceRefresh >= refreshInterval)
+      {
+         refresh();
+         return nodes[numLayers - 1];
+      }
+
+      double[] in = raw;
+      InputTransform transform = network.getInputTransform();
+      if (transform != null)
+      {
+         transform.transform(raw, transformed);
+         in = transformed;
+      }
+
+      int count = 0;
+      for (int k = 0; k < dimensions[0]; k++)
+      {
+         if (in[k] != nodes[0][k])
+         {
+            nodes[0][k] = in[k];
+            changed[0][count++] = k;
+         }
+      }
+      return propagate(changed[0], count);
+   }// evaluate(double[] input)
+
+   /**
+    * Changes one input and evaluates the result.
+    *
+    * @param index the input to change
+    * @param value its new raw value
+    * @return the output layer, overwritten by the next
+    *         call
+    */
+   public double[] update(int index, double value)
+   {
+      if (network.getInputTransform() != null || !primed)
+      {
+         double[] input = raw.clone();            // The transform may mix inputs, so diff it whole
+         input[index] = value;
+         return evaluate(input);
+      }
+
+      raw[index] = value;
+      if (network.getWeightVersion() != version || ++sinceRefresh >= refreshInterval)
+      {
+         refresh();
+         return nodes[numLayers - 1];
+      }
+      if (nodes[0][index] == value)
+         return nodes[numLayers - 1];
+
+      nodes[0][index] = value;
+      changed[0][0] = index;
+      return propagate(changed[0], 1);
+   }// update(int index, double value)
+
+   /**
+    * Recomputes every layer in full from the current
+    * input with the network's current weights.
+    */
+   public void refresh()
+   {
+      weights = network.getWeights();
+      version = network.getWeightVersion();
+      InputTransform transform = network.getInputTransform();
+      if (transform == null)
+         System.arraycopy(raw, 0, nodes[0], 0, dimensions[0]);
+      else
+         transform.transform(raw, nodes[0]);
+
+      System.arraycopy(nodes[0], 0, propagated[0], 0, dimensions[0]);
+      for (int n = 1; n < numLayers; n++)
+      {
+         computeLayer(n);
+         System.arraycopy(nodes[n], 0, propagated[n], 0, dimensions[n]);
+      }
+      sinceRefresh = 0;
+      primed = true;
+   }// refresh()
+
+   /**
+    * Measures how far the incremental outputs are
+    * from a full forward pass on the same input.
+    *
+    * @return the largest absolute output difference
+    */
+   public double check()
+   {
+      BatchEvaluator full = new BatchEvaluator(dimensions, 1);
+      full.setLoss(network.getLoss());
+      System.arraycopy(nodes[0], 0, full.getInputs()[0], 0, dimensions[0]);
+      double[] expected = full.forward(weights, 1)[0];
+
+      double largest = 0.0;
+      for (int i = 0; i < expected.length; i++)
+         largest = Math.max(largest, Math.abs(expected[i] - nodes[numLayers - 1][i]));
+      return largest;
+   }// check()
+
+   /**
+    * Sets how many incremental evaluations may run
+    * between full refreshes.
+    *
+    * @param interval the number of evaluations
+    */
+   public void setRefreshInterval(int interval)
+   {
+      this.refreshInterval = interval;
+   }
+
+   /**
+    * Sets the fraction of changed parents above which
+    * a layer is recomputed in full.
+    *
+    * @param crossover the fraction between 0 and 1
+    */
+   public void setCrossover(double crossover)
+   {
+      this.crossover = crossover;
+   }
+
+   /**
+    * Retrieves the number of multiply-adds done so
+    * far, including refreshes.
+    *
+    * @return the operation count
+    */
+   public long getOperations()
+   {
+      return operations;
+   }
+
+   /**
+    * Carries a set of changed nodes of one layer
+    * through to the output layer.
+    *
+    * @param changedInputs the changed input nodes
+    * @param count         the number of changed
+    *                      inputs
+    * @return the output layer
+    */
+   private double[] propagate(int[] changedInputs, int count)
+   {
+      int[] parents = changedInputs;
+
+      for (int n = 1; n < numLayers; n++)
+      {
+         if (count == 0)
+            break;
+
+         if (count > crossover * dimensions[n - 1])
+         {
+            System.arraycopy(nodes[n - 1], 0, propagated[n - 1], 0, dimensions[n - 1]);
+            computeLayer(n);                               // Too much changed for rank-1 updates to pay
+         }
+         else
+         {
+            /*
+             * Adds each changed parent's difference times its
+             * row of weights to the children's thetas.
+             */
+            for (int p = 0; p < count; p++)
+            {
+               int k = parents[p];
+               double delta = nodes[n - 1][k] - propagated[n - 1][k];
+               propagated[n - 1][k] = nodes[n - 1][k];
+               double[] row = weights[n - 1][k];
+               for (int j = 0; j < dimensions[n]; j++)
+                  theta[n][j] += delta * row[j];
+               operations += dimensions[n];
+            }
+            activate(n);
+         }
+
+         if (n == numLayers - 1)
+            break;
+
+         /*
+          * Collects the children that moved far enough to
+          * be passed on.
+          */
+         int next = 0;
+         for (int j = 0; j < dimensions[n]; j++)
+         {
+            if (Math.abs(nodes[n][j] - propagated[n][j]) > skipTolerance)
+               changed[n][next++] = j;
+         }
+         parents = changed[n];
+         count = next;
+      }// for (int n = 1; n < numLayers; n++)
+
+      return nodes[numLayers - 1];
+   }// propagate(int[] changedInputs, int count)
+
+   /**
+    * Recomputes the thetas and activations of one
+    * layer from the propagated activations of the
+    * layer before it.
+    *
+    * @param n the layer to compute
+    */
+   private void computeLayer(int n)
+   {
+      for (int j = 0; j < dimensions[n]; j++)
+         theta[n][j] = 0.0;
+      for (int k = 0; k < dimensions[n - 1]; k++)
+      {
+         double x = propagated[n - 1][k];
+         double[] row = weights[n - 1][k];
+         for (int j = 0; j < dimensions[n]; j++)
+            theta[n][j] += x * row[j];
+      }
+      activate(n);
+      operations += (long) dimensions[n - 1] * dimensions[n];
+   }// computeLayer(int n)
+
+   /**
+    * Turns the thetas of a layer into activations:
+    * sigmoids, or a softmax on the output layer of a
+    * network trained with a softmax loss.
+    *
+    * @param n the layer to activate
+    */
+   private void activate(int n)
+   {
+      if (n == numLayers - 1 && network.getLoss().isSoftmax())
+      {
+         System.arraycopy(theta[n], 0, nodes[n], 0, dimensions[n]);
+         Loss.softmax(nodes[n]);
+      }
+      else
+      {
+         for (int j = 0; j < dimensions[n]; j++)
+            nodes[n][j] = Network.activation(theta[n][j]);
+      }
+   }// activate(int n)
+}// public class IncrementalEvaluator
@@ -0,0 +1,25 @@
+package perceptron;
+
+/**
+ * A transform that the network applies to every
+ * input vector before it is placed in the input
+ * layer, both while training and while evaluating.
+ *
+ * Methods:
+ *  - void transform(double[] input, double[] output)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public interface InputTransform
+{
+   /**
+    * Transforms the raw input. Must not modify the
+    * input array.
+    *
+    * @param input  the raw input activations
+    * @param output the array that receives the
+    *               transformed activations
+    */
+   void transform(double[] input, double[] output);
+}// public interface InputTransform
@@ -0,0 +1,54 @@
+package perceptron;
+
+/**
+ * A forward and training engine specialized for one
+ * network topology. A kernel keeps its own flat copy
+ * of the weights, laid out like Network's weights
+ * [n][k][j] row after row, and updates them in place
+ * exactly as Network.updateWeights does.
+ *
+ * Methods:
+ *  - void load(double[][][] weights)
+ *  - void store(double[][][] weights)
+ *  - double[] forward(double[] input)
+ *  - void train(double[] input, double[] truth)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public interface Kernel
+{
+   /**
+    * Copies the network's weights into the kernel.
+    *
+    * @param weights the weights indexed [n][k][j]
+    */
+   void load(double[][][] weights);
+
+   /**
+    * Copies the kernel's weights back out.
+    *
+    * @param weights the arrays to fill, indexed
+    *                [n][k][j]
+    */
+   void store(double[][][] weights);
+
+   /**
+    * Computes the outputs for one input.
+    *
+    * @param input the input activations, already
+    *              transformed
+    * @return the outputs, overwritten by the next
+    *         call
+    */
+   double[] forward(double[] input);
+
+   /**
+    * Does one backpropagation step.
+    *
+    * @param input the input activations, already
+    *              transformed
+    * @param truth the expected outputs
+    */
+   void train(double[] input, double[] truth);
+}// public interface Kernel
@@ -0,0 +1,341 @@
+package perceptron;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Constructor;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+/**
+ * Generates Kernels specialized for one topology.
+ * The source of a class is written with every loop
+ * over the layers, nodes and weights fully unrolled,
+ * so the forward pass and the backpropagation step
+ * are straight-line code over named activations and
+ * one flat array of weights, without loop control
+ * or jagged array lookups. The source is compiled in
+ * memory with the system Java compiler and loaded
+ * through its own class loader; each topology is
+ * compiled once per process.
+ *
+ * Unrolled code grows with the number of weights, and
+ * long methods are not compiled by the JIT, so only
+ * small networks are specialized. When a network is
+ * too large or no compiler is available (a JRE
+ * rather than a JDK), select returns null and the
+ * generic loops of Network are used.
+ *
+ * Methods:
+ * Public:
+ *  - Kernel select(int[] dimensions, double lambda)
+ *  - boolean fits(int[] dimensions)
+ *  - String generateSource(String className, int[] dimensions)
+ * Private:
+ *  - Class<?> compile(String className, String source)
+ *  - String weight(int[] offsets, int[] dimensions, int n, int k, int j)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class KernelGenerator
+{
+   public static final int MAX_LAYER_NODES = 64;            // The widest layer that is unrolled
+   public static final int MAX_WEIGHTS = 1024;              // The most weights that are unrolled
+   public static final int MAX_LAYER_WEIGHTS = 256;         // The most weights between two layers, which keeps
+                                                            // every generated method small enough to compile
+
+   private static Map<String, Constructor<?>> compiled = new HashMap<String, Constructor<?>>();   // Guarded by compiled
+
+   /**
+    * Builds a specialized kernel for the topology if
+    * it is small enough and a compiler is available.
+    *
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @param lambda     the learning rate
+    * @return the kernel, or null to use the generic
+    *         loops
+    */
+   public static Kernel select(int[] dimensions, double lambda)
+   {
+      if (!fits(dimensions))
+         return null;
+
+      StringBuilder name = new StringBuilder("GeneratedKernel");
+      for (int d : dimensions)
+         name.append('_').append(d);
+      String className = name.toString();
+
+      try
+      {
+         Constructor<?> constructor;
+         synchronized (compiled)
+         {
+            constructor = compiled.get(className);
+            if (constructor == null && !compiled.containsKey(className))
+            {
+               Class<?> kernel = compile(className, generateSource(className, dimensions));
+               constructor = kernel == null ? null : kernel.getConstructor(double.class);
+               compiled.put(className, constructor);                  // Remembers failures too
+            }
+         }
+         return constructor == null ? null : (Kernel) constructor.newInstance(lambda);
+      }
+      catch (ReflectiveOperationException e)
+      {
+         return null;
+      }
+   }// select(int[] dimensions, double lambda)
+
+   /**
+    * Checks whether a topology is small enough to be
+    * unrolled.
+    *
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @return true if a kernel would be generated
+    */
+   public static boolean fits(int[] dimensions)
+   {
+      int weights = 0;
+      for (int n = 0; n < dimensions.length; n++)
+      {
+         if (dimensions[n] > MAX_LAYER_NODES)
+            return false;
+         if (n > 0)
+         {
+            if (dimensions[n - 1] * dimensions[n] > MAX_LAYER_WEIGHTS)
+               return false;
+            weights += dimensions[n - 1] * dimensions[n];
+         }
+      }
+      return weights <= MAX_WEIGHTS;
+   }// fits(int[] dimensions)
+
+   /**
+    * Writes the source of a kernel class. Field aN_J
+    * holds the activation of node J in layer N and
+    * pN_J its psi value. Every layer gets its own
+    * forward method fN and backpropagation method bN,
+    * which copy what they read into locals; keeping
+    * each method small lets the JIT compile it, since
+    * HotSpot leaves methods over 8000 bytes of
+    * bytecode interpreted.
+    *
+    * @param className  the name of the class
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @return the Java source
+    */
+   public static String generateSource(String className, int[] dimensions)
+   {
+      int layers = dimensions.length;
+      int[] offsets = new int[layers];                   // Where each connectivity layer starts in w
+      for (int n = 1; n < layers; n++)
+         offsets[n] = offsets[n - 1] + dimensions[n - 1] * dimensions[n];
+      int outputs = dimensions[layers - 1];
+
+      StringBuilder s = new StringBuilder();
+      s.append("public final class ").append(className).append(" implements perceptron.Kernel\n{\n");
+      s.append("   private final double[] w = new double[").append(offsets[layers - 1]).append("];\n");
+      s.append("   private final double[] out = new double[").append(outputs).append("];\n");
+      s.append("   private final double lambda;\n");
+      for (int n = 0; n < layers; n++)
+      {
+         for (int j = 0; j < dimensions[n]; j++)
+         {
+            s.append("   private double a").append(n).append('_').append(j).append(";\n");
+            if (n > 0)
+               s.append("   private double p").append(n).append('_').append(j).append(";\n");
+         }
+      }
+      s.append("\n   public ").append(className).append("(double lambda)\n   {\n      this.lambda = lambda;\n   }\n\n");
+      s.append("   private static double f(double x)\n   {\n      return 1.0 / (1.0 + Math.exp(-x));\n   }\n\n");
+
+      /*
+       * Copies between the jagged weights and the flat
+       * array; these run once per training run, so they
+       * stay as loops.
+       */
+      s.append("   public void load(double[][][] weights)\n   {\n      int i = 0;\n");
+      s.append("      for (double[][] layer : weights)\n         for (double[] row : layer)\n         {\n");
+      s.append("            System.arraycopy(row, 0, w, i, row.length);\n            i += row.length;\n         }\n   }\n\n");
+      s.append("   public void store(double[][][] weights)\n   {\n      int i = 0;\n");
+      s.append("      for (double[][] layer : weights)\n         for (double[] row : layer)\n         {\n");
+      s.append("            System.arraycopy(w, i, row, 0, row.length);\n            i += row.length;\n         }\n   }\n\n");
+
+      /*
+       * The entry points: the input layer is copied in
+       * and the layer methods are called in order.
+       */
+      StringBuilder input = new StringBuilder();
+      for (int k = 0; k < dimensions[0]; k++)
+         input.append("      a0_").append(k).append(" = in[").append(k).append("];\n");
+
+      s.append("   public double[] forward(double[] in)\n   {\n").append(input);
+      for (int n = 1; n < layers; n++)
+         s.append("      f").append(n).append("();\n");
+      for (int i = 0; i < outputs; i++)
+         s.append("      out[").append(i).append("] = a").append(layers - 1).append('_').append(i).append(";\n");
+      s.append("      return out;\n   }\n\n");
+
+      s.append("   public void train(double[] in, double[] truth)\n   {\n").append(input);
+      for (int n = 1; n < layers; n++)
+         s.append("      f").append(n).append("();\n");
+      for (int i = 0; i < outputs; i++)
+      {
+         String a = "a" + (layers - 1) + "_" + i;
+         s.append("      p").append(layers - 1).append('_').append(i).append(" = (truth[").append(i).append("] - ")
+               .append(a).append(") * (").append(a).append(" * (1.0 - ").append(a).append("));\n");
+      }
+      for (int n = layers - 1; n >= 1; n--)
+         s.append("      b").append(n).append("();\n");
+      s.append("   }\n\n");
+
+      /*
+       * The forward method of each layer.
+       */
+      for (int n = 1; n < layers; n++)
+      {
+         s.append("   private void f").append(n).append("()\n   {\n      final double[] w = this.w;\n");
+         for (int k = 0; k < dimensions[n - 1]; k++)
+            s.append("      final double x").append(k).append(" = a").append(n - 1).append('_').append(k).append(";\n");
+         for (int j = 0; j < dimensions[n]; j++)
+         {
+            s.append("      a").append(n).append('_').append(j).append(" = f(0.0");
+            for (int k = 0; k < dimensions[n - 1]; k++)
+               s.append(" + x").append(k).append(" * ").append(weight(offsets, dimensions, n - 1, k, j));
+            s.append(");\n");
+         }
+         s.append("   }\n\n");
+      }
+
+      /*
+       * The backpropagation method of each layer, in the
+       * same order of operations as Network: the psi of
+       * a parent is computed from the old weights before
+       * its weights are updated.
+       */
+      for (int n = layers - 1; n >= 1; n--)
+      {
+         s.append("   private void b").append(n).append("()\n   {\n      final double[] w = this.w;\n");
+         s.append("      final double L = lambda;\n");
+         for (int j = 0; j < dimensions[n]; j++)
+            s.append("      final double q").append(j).append(" = p").append(n).append('_').append(j).append(";\n");
+         for (int k = 0; k < dimensions[n - 1]; k++)
+         {
+            String a = "a" + (n - 1) + "_" + k;
+            if (n > 1)                                   // The psi values of the inputs are never used
+            {
+               s.append("      p").append(n - 1).append('_').append(k).append(" = (0.0");
+               for (int j = 0; j < dimensions[n]; j++)
+                  s.append(" + ").append(weight(offsets, dimensions, n - 1, k, j)).append(" * q").append(j);
+               s.append(") * (").append(a).append(" * (1.0 - ").append(a).append("));\n");
+            }
+            for (int j = 0; j < dimensions[n]; j++)
+               s.append("      ").append(weight(offsets, dimensions, n - 1, k, j)).append(" += L * ").append(a)
+                     .append(" * q").append(j).append(";\n");
+         }
+         s.append("   }\n\n");
+      }
+      s.append("}\n");
+      return s.toString();
+   }// generateSource(String className, int[] dimensions)
+
+   /**
+    * Compiles a class in memory and loads it.
+    *
+    * @param className the name of the class
+    * @param source    its Java source
+    * @return the class, or null if no compiler is
+    *         available or compilation fails
+    */
+   private static Class<?> compile(final String className, final String source)
+   {
+      JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+      if (compiler == null)
+         return null;
+
+      final Map<String, ByteArrayOutputStream> classes = new HashMap<String, ByteArrayOutputStream>();
+      StandardJavaFileManager standard = compiler.getStandardFileManager(null, null, null);
+      JavaFileManager manager = new ForwardingJavaFileManager<StandardJavaFileManager>(standard)
+      {
+         @Override
+         public JavaFileObject getJavaFileForOutput(Location location, final String name, JavaFileObject.Kind kind,
+               FileObject sibling)
+         {
+            return new SimpleJavaFileObject(URI.create("mem:///" + name + kind.extension), kind)
+            {
+               @Override
+               public OutputStream openOutputStream()
+               {
+                  ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                  classes.put(name, bytes);
+                  return bytes;
+               }
+            };
+         }
+      };
+      JavaFileObject file = new SimpleJavaFileObject(URI.create("string:///" + className + ".java"), JavaFileObject.Kind.SOURCE)
+      {
+         @Override
+         public CharSequence getCharContent(boolean ignoreEncodingErrors)
+         {
+            return source;
+         }
+      };
+
+      Boolean ok = compiler.getTask(null, manager, null,
+            Arrays.asList("-g:none", "-classpath", System.getProperty("java.class.path")), null, Arrays.asList(file)).call();
+      if (!ok || !classes.containsKey(className))
+         return null;
+
+      final byte[] code = classes.get(className).toByteArray();
+      ClassLoader loader = new ClassLoader(Kernel.class.getClassLoader())
+      {
+         @Override
+         protected Class<?> findClass(String name) throws ClassNotFoundException
+         {
+            if (!name.equals(className))
+               throw new ClassNotFoundException(name);
+            return defineClass(name, code, 0, code.length);
+         }
+      };
+
+      try
+      {
+         return loader.loadClass(className);
+      }
+      catch (ClassNotFoundException e)
+      {
+         return null;
+      }
+   }// compile(String className, String source)
+
+   /**
+    * Names the flat array element of one weight.
+    *
+    * @param offsets    where each connectivity layer
+    *                   starts
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @param n          the connectivity layer
+    * @param k          the parent node
+    * @param j          the child node
+    * @return the element, such as w[12]
+    */
+   private static String weight(int[] offsets, int[] dimensions, int n, int k, int j)
+   {
+      return "w[" + (offsets[n] + k * dimensions[n + 1] + j) + "]";
+   }
+}// public class KernelGenerator
@@ -0,0 +1,473 @@
+package perceptron;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Trains a network with L-BFGS on the whole training
+ * set at once. The weights are treated as one vector;
+ * every iteration takes the gradient of the network's
+ * loss over all cases, turns it into a search
+ * direction from the last few steps and gradient
+ * changes, and backtracks along that direction until
+ * the error drops enough (the Armijo condition).
+ *
+ * The gradient is the negative of the changes
+ * backpropagation makes, without lambda: psi values
+ * come from the network's loss and travel back
+ * through the unchanged weights. Cases are taken in
+ * chunks of CHUNK on a pool of threads and the chunks'
+ * gradients are added in chunk order, so the result
+ * does not depend on the number of threads.
+ *
+ * Methods:
+ * Constructor:
+ *  - LbfgsTrainer(Network network, int memory, int threads)
+ * Public:
+ *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
+ *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - int getIterations()
+ *  - int getEvaluations()
+ * Private:
+ *  - double evaluate(double[] gradient)
+ *  - double[] chunkGradient(int from, int to, double[] gradient)
+ *  - void direction(double[] gradient, double[] direction)
+ *  - void flatten(double[] flat)
+ *  - void unflatten(double[] flat)
+ *  - double dot(double[] a, double[] b)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class LbfgsTrainer
+{
+   public static final int CHUNK = 64;                 // Cases per gradient task
+   public static final double ARMIJO = 1e-4;           // The share of the predicted drop a step must reach
+   public static final int MAX_BACKTRACKS = 30;
+
+   private Network network;
+   private int[] dimensions;
+   private int numLayers;
+   private int size;                     // The number of weights
+   private int memory;                   // The steps kept for the direction
+   private ExecutorService pool;
+   private int threads;
+
+   private double[][] steps;             // The last steps taken, s = x' - x
+   private double[][] changes;           // The gradient changes along them, y = g' - g
+   private double[] rho;                 // 1 / (y . s) of each kept step
+   private int kept;
+   private int newest = -1;
+
+   private List<double[]> inputs;
+   private List<double[]> truths;
+
+   private int iterations;
+   private int evaluations;
+   private int max_iterations;
+   private double error_threshold;
+
+   /**
+    * Sets up the trainer.
+    *
+    * @param network the network to train
+    * @param memory  the number of past steps used to
+    *                shape the search direction
+    * @param threads the threads computing gradients
+    */
+   public LbfgsTrainer(Network network, int memory, int threads)
+   {
+      this.network = network;
+      this.dimensions = network.getDimensions();
+      this.numLayers = dimensions.length;
+      this.memory = memory;
+      this.threads = Math.max(1, threads);
+      for (int n = 0; n < numLayers - 1; n++)
+         size += dimensions[n] * dimensions[n + 1];
+
+      steps = new double[memory][size];
+      changes = new double[memory][size];
+      rho = new double[memory];
+   }// LbfgsTrainer(Network network, int memory, int threads)
+
+   /**
+    * Sets the training parameters
+    *
+    * @param max_iterations  the number of L-BFGS steps
+    * @param error_threshold the error below which
+    *                        training stops
+    */
+   public void setTrainingHyperparams(int max_iterations, double error_threshold)
+   {
+      this.max_iterations = max_iterations;
+      this.error_threshold = error_threshold;
+   }
+
+   /**
+    * Computes the error of the current weights over the
+    * training cases and its gradient.
+    *
+    * @param gradient receives the gradient, flattened
+    *                 in [n][k][j] order
+    * @return the error per output, as computeError
+    */
+   private double evaluate(double[] gradient)
+   {
+      evaluations++;
+      List<Future<double[]>> tasks = new ArrayList<Future<double[]>>();
+      for (int start = 0; start < inputs.size(); start += CHUNK)
+      {
+         final int from = start;
+         final int to = Math.min(start + CHUNK, inputs.size());
+         tasks.add(pool.submit(new Callable<double[]>()
+         {
+            public double[] call()
+            {
+               return chunkGradient(from, to, new double[size + 1]);
+            }
+         }));
+      }
+
+      double error = 0.0;
+      Arrays.fill(gradient, 0.0);
+      try
+      {
+         for (Future<double[]> task : tasks)               // Adds the chunks up in order
+         {
+            double[] partial = task.get();
+            for (int i = 0; i < size; i++)
+               gradient[i] += partial[i];
+            error += partial[size];
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while computing the gradient", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Computing the gradient failed", e.getCause());
+      }
+
+      double scale = 1.0 / ((double) inputs.size() * (double) dimensions[numLayers - 1]);
+      for (int i = 0; i < size; i++)
+         gradient[i] *= scale;
+
+      boolean[][][] mask = network.getWeightMask();
+      if (mask != null)                                    // Pruned weights stay at zero
+      {
+         int i = 0;
+         for (int n = 0; n < numLayers - 1; n++)
+            for (int k = 0; k < dimensions[n]; k++)
+               for (int j = 0; j < dimensions[n + 1]; j++, i++)
+                  if (!mask[n][k][j])
+                     gradient[i] = 0.0;
+      }
+      return error * scale;
+   }// evaluate(double[] gradient)
+
+   /**
+    * Trains the network on the given training set
+    * until the error is below the threshold, the
+    * iterations run out or no step lowers the error.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet)
+   {
+      inputs = new ArrayList<double[]>();
+      truths = new ArrayList<double[]>();
+      InputTransform transform = network.getInputTransform();
+      for (double[] input : trainSet.keySet())
+      {
+         double[] activations = input;
+         if (transform != null)
+         {
+            activations = new double[dimensions[0]];
+            transform.transform(input, activations);
+         }
+         inputs.add(activations);
+         truths.add(trainSet.get(input));
+      }
+
+      network.printSummary();
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("L-BFGS TRAINING STARTED AT " + timestamp);
+      long start = System.nanoTime();
+      pool = Executors.newFixedThreadPool(threads);
+
+      double[] x = new double[size];
+      double[] gradient = new double[size];
+      double[] previous = new double[size];
+      double[] trial = new double[size];
+      double[] direction = new double[size];
+      flatten(x);
+      double error = evaluate(gradient);
+
+      boolean error_threshold_met = error < error_threshold;
+      boolean stalled = false;
+      iterations = 0;
+      while (iterations < max_iterations && !error_threshold_met && !stalled)
+      {
+         iterations++;
+         direction(gradient, direction);
+         double slope = dot(gradient, direction);
+         if (slope >= 0.0)                                 // Not downhill: forgets the steps and
+         {                                                 // follows the gradient
+            kept = 0;
+            for (int i = 0; i < size; i++)
+               direction[i] = -gradient[i];
+            slope = dot(gradient, direction);
+         }
+
+         double step = kept == 0 ? Math.min(1.0, 1.0 / Math.sqrt(-slope)) : 1.0;
+         System.arraycopy(gradient, 0, previous, 0, size);
+         double trialError = error;
+         int backtracks = 0;
+         while (backtracks <= MAX_BACKTRACKS)
+         {
+            for (int i = 0; i < size; i++)
+               trial[i] = x[i] + step * direction[i];
+            unflatten(trial);
+            trialError = evaluate(gradient);
+            if (trialError <= error + ARMIJO * step * slope)
+               break;
+            step *= 0.5;
+            backtracks++;
+         }
+
+         if (backtracks > MAX_BACKTRACKS)                  // No step along the direction helps
+         {
+            unflatten(x);
+            System.arraycopy(previous, 0, gradient, 0, size);
+            stalled = true;
+            break;
+         }
+
+         double curvature = 0.0;
+         for (int i = 0; i < size; i++)
+            curvature += (trial[i] - x[i]) * (gradient[i] - previous[i]);
+         if (curvature > 1e-12)                            // Remembers the step if it curves upward,
+         {                                                 // replacing the oldest
+            newest = (newest + 1) % memory;
+            for (int i = 0; i < size; i++)
+            {
+               steps[newest][i] = trial[i] - x[i];
+               changes[newest][i] = gradient[i] - previous[i];
+            }
+            rho[newest] = 1.0 / curvature;
+            kept = Math.min(kept + 1, memory);
+         }
+
+         System.arraycopy(trial, 0, x, 0, size);
+         error = trialError;
+         if (error < error_threshold)
+            error_threshold_met = true;
+      }// while (iterations < max_iterations && !error_threshold_met && !stalled)
+
+      pool.shutdown();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp);
+      if (error_threshold_met)
+         System.out.println("TRAINING ENDED EARLY AFTER " + iterations + " ITERATIONS: Error below threshold");
+      else if (stalled)
+         System.out.println("TRAINING ENDED AFTER " + iterations + " ITERATIONS: No step lowers the error");
+      else
+         System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
+      System.out.println("Error: " + error + " after " + iterations + " iterations, " + evaluations
+            + " full-batch gradients, " + seconds + " s");
+   }// trainNetwork(Map<double[], double[]> trainSet)
+
+   /**
+    * Retrieves the L-BFGS steps taken.
+    *
+    * @return the iterations of the last training
+    */
+   public int getIterations()
+   {
+      return iterations;
+   }
+
+   /**
+    * Retrieves the full-batch gradients computed, line
+    * search included.
+    *
+    * @return the number of gradients
+    */
+   public int getEvaluations()
+   {
+      return evaluations;
+   }
+
+   /**
+    * Adds up the error and gradient of a range of
+    * cases, with nodes and psi values of its own.
+    *
+    * @param from     the first case
+    * @param to       the case after the last
+    * @param gradient receives the gradient, with the
+    *                 summed error after it
+    * @return the gradient
+    */
+   private double[] chunkGradient(int from, int to, double[] gradient)
+   {
+      double[][][] weights = network.getWeights();
+      Loss loss = network.getLoss();
+      double[][] nodes = new double[numLayers][];
+      double[][] psi = new double[numLayers][];
+      for (int n = 1; n < numLayers; n++)
+      {
+         nodes[n] = new double[dimensions[n]];
+         psi[n] = new double[dimensions[n]];
+      }
+      int[] offsets = new int[numLayers - 1];
+      for (int n = 1; n < numLayers - 1; n++)
+         offsets[n] = offsets[n - 1] + dimensions[n - 1] * dimensions[n];
+
+      double error = 0.0;
+      for (int c = from; c < to; c++)
+      {
+         nodes[0] = inputs.get(c);
+         for (int n = 1; n < numLayers; n++)
+         {
+            boolean softmax = n == numLayers - 1 && loss.isSoftmax();
+            for (int j = 0; j < dimensions[n]; j++)
+            {
+               double dotProduct = 0.0;
+               for (int k = 0; k < dimensions[n - 1]; k++)
+                  dotProduct += nodes[n - 1][k] * weights[n - 1][k][j];
+               nodes[n][j] = softmax ? dotProduct : Network.activation(dotProduct);
+            }
+            if (softmax)
+               Loss.softmax(nodes[n]);
+         }
+
+         double[] out = nodes[numLayers - 1];
+         double[] truth = truths.get(c);
+         for (int i = 0; i < out.length; i++)
+            error += loss.error(out[i], truth[i]);
+         loss.outputPsi(out, truth, psi[numLayers - 1]);
+
+         for (int n = numLayers - 1; n >= 1; n--)
+         {
+            double[][] w = weights[n - 1];
+            for (int k = 0; k < dimensions[n - 1]; k++)
+            {
+               double node = nodes[n - 1][k];
+               int row = offsets[n - 1] + k * dimensions[n];
+               double omega = 0.0;
+               for (int j = 0; j < dimensions[n]; j++)
+               {
+                  omega += w[k][j] * psi[n][j];
+                  gradient[row + j] -= node * psi[n][j];
+               }
+               if (n > 1)
+                  psi[n - 1][k] = omega * (node * (1.0 - node));
+            }
+         }
+      }// for (int c = from; c < to; c++)
+
+      gradient[size] = error;
+      return gradient;
+   }// chunkGradient(int from, int to, double[] gradient)
+
+   /**
+    * Finds the search direction with the two-loop
+    * recursion over the kept steps, starting from the
+    * gradient scaled by the newest step's curvature.
+    *
+    * @param gradient  the gradient
+    * @param direction receives the direction
+    */
+   private void direction(double[] gradient, double[] direction)
+   {
+      for (int i = 0; i < size; i++)
+         direction[i] = -gradient[i];
+      if (kept == 0)
+         return;
+
+      double[] alpha = new double[memory];
+      for (int m = 0; m < kept; m++)                       // Newest to oldest
+      {
+         int p = (newest - m + memory) % memory;
+         alpha[p] = rho[p] * dot(steps[p], direction);
+         for (int i = 0; i < size; i++)
+            direction[i] -= alpha[p] * changes[p][i];
+      }
+
+      double gamma = 1.0 / (rho[newest] * dot(changes[newest], changes[newest]));
+      for (int i = 0; i < size; i++)
+         direction[i] *= gamma;
+
+      for (int m = kept - 1; m >= 0; m--)                  // Oldest to newest
+      {
+         int p = (newest - m + memory) % memory;
+         double beta = rho[p] * dot(changes[p], direction);
+         for (int i = 0; i < size; i++)
+            direction[i] += (alpha[p] - beta) * steps[p][i];
+      }
+   }// direction(double[] gradient, double[] direction)
+
+   /**
+    * Copies the network's weights into a vector.
+    *
+    * @param flat receives the weights
+    */
+   private void flatten(double[] flat)
+   {
+      double[][][] weights = network.getWeights();
+      int i = 0;
+      for (int n = 0; n < numLayers - 1; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            System.arraycopy(weights[n][k], 0, flat, i, dimensions[n + 1]);
+            i += dimensions[n + 1];
+         }
+   }
+
+   /**
+    * Copies a vector into the network's weights.
+    *
+    * @param flat the weights
+    */
+   private void unflatten(double[] flat)
+   {
+      double[][][] weights = network.getWeights();
+      int i = 0;
+      for (int n = 0; n < numLayers - 1; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            System.arraycopy(flat, i, weights[n][k], 0, dimensions[n + 1]);
+            i += dimensions[n + 1];
+         }
+      network.weightsChanged();
+   }
+
+   /**
+    * Computes a dot product.
+    *
+    * @param a a vector
+    * @param b a vector as long
+    * @return the dot product
+    */
+   private static double dot(double[] a, double[] b)
+   {
+      double sum = 0.0;
+      for (int i = 0; i < a.length; i++)
+         sum += a[i] * b[i];
+      return sum;
+   }
+}// public class LbfgsTrainer
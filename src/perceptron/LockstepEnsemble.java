@@ -0,0 +1,482 @@
+package perceptron;
+
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Trains many networks of the same shape on the same
+ * cases at once. The weights of every model are
+ * interleaved, so weight [n][k][j] of all the models
+ * sits in adjacent memory at ((k * children + j) *
+ * models + m), and so do the activations. The row
+ * of weights leaving one parent is then a single span
+ * covering every child of every model, and each
+ * forward and backward step is a loop over that span,
+ * which the JIT can turn into vector instructions
+ * even when the layers themselves are too small to
+ * fill a vector.
+ *
+ * Every model follows exactly the arithmetic of
+ * Network's training, with its own lambda and its
+ * own random starting weights, and stops changing
+ * once its error is below the threshold, so each one
+ * ends with the weights it would have reached
+ * training alone.
+ *
+ * Methods:
+ * Constructor:
+ *  - LockstepEnsemble(int[] dimensions, int models)
+ * Public:
+ *  - void setLambda(int model, double lambda)
+ *  - double getLambda(int model)
+ *  - void setRandWeights(WeightInitializer initializer)
+ *  - void setWeights(int model, double[][][] weights)
+ *  - double[][][] getWeights(int model)
+ *  - Network toNetwork(int model)
+ *  - void setInputTransform(InputTransform transform)
+ *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
+ *  - double[] forwardPropagation(double[] input)
+ *  - double[] average(double[] input)
+ *  - void train(double[] input, double[] truth)
+ *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - double[] computeErrors(Map<double[], double[]> trainSet)
+ *  - int getModels()
+ *  - int getBestModel()
+ * Private:
+ *  - void setInput(double[] input)
+ *  - void forwardLayers()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class LockstepEnsemble
+{
+   private int[] dimensions;
+   private int numLayers;
+   private int models;
+
+   private double[][] weights;        // Indexed [n][(k * dimensions[n + 1] + j) * models + m]
+   private double[][] nodes;          // Indexed [n][j * models + m]
+   private double[][] psi;
+   private double[] omega;            // One omega per model for the parent being visited
+   private double[] tiled;            // A value per model repeated for every child, so the
+                                      // loops over a weight row run over one long span
+   private double[] products;         // The omega terms of the parent being visited
+
+   private double[] lambdas;
+   private double[] rates;            // Each model's lambda, or 0 once it has met the threshold
+   private double[] errors;           // Each model's error after the last epoch
+   private InputTransform transform;
+   private double[] transformed;      // Holds the transformed input activations
+
+   private int max_iterations;
+   private double error_threshold;
+
+   /**
+    * Sets up the models with zero weights and a
+    * lambda of 1.
+    *
+    * @param dimensions the nodes in each layer
+    * @param models     the number of models
+    */
+   public LockstepEnsemble(int[] dimensions, int models)
+   {
+      this.dimensions = dimensions.clone();
+      this.numLayers = dimensions.length;
+      this.models = models;
+
+      weights = new double[numLayers - 1][];
+      nodes = new double[numLayers][];
+      psi = new double[numLayers][];
+      for (int n = 0; n < numLayers; n++)
+      {
+         nodes[n] = new double[dimensions[n] * models];
+         psi[n] = new double[dimensions[n] * models];
+         if (n < numLayers - 1)
+            weights[n] = new double[dimensions[n] * dimensions[n + 1] * models];
+      }
+      omega = new double[models];
+
+      int widest = 0;
+      for (int n = 1; n < numLayers; n++)
+         widest = Math.max(widest, dimensions[n]);
+      tiled = new double[widest * models];
+      products = new double[widest * models];
+
+      lambdas = new double[models];
+      Arrays.fill(lambdas, 1.0);
+      rates = lambdas.clone();
+      errors = new double[models];
+   }// LockstepEnsemble(int[] dimensions, int models)
+
+   /**
+    * Sets the learning rate of one model.
+    *
+    * @param model  the model
+    * @param lambda its learning rate
+    */
+   public void setLambda(int model, double lambda)
+   {
+      lambdas[model] = lambda;
+      rates[model] = lambda;
+   }
+
+   /**
+    * Retrieves the learning rate of one model.
+    *
+    * @param model the model
+    * @return its learning rate
+    */
+   public double getLambda(int model)
+   {
+      return lambdas[model];
+   }
+
+   /**
+    * Gives every model random weights. Model m gets
+    * the weights the initializer would give a Network
+    * with its seed + m, so model 0 is the network a
+    * single run with the same seed trains, and any
+    * model can be reproduced alone.
+    *
+    * @param initializer the scheme and the seed of
+    *                    model 0
+    */
+   public void setRandWeights(WeightInitializer initializer)
+   {
+      double[][][] start = new double[numLayers - 1][][];
+      for (int n = 0; n < numLayers - 1; n++)
+         start[n] = new double[dimensions[n]][dimensions[n + 1]];
+      for (int m = 0; m < models; m++)
+      {
+         initializer.withSeed(initializer.getSeed() + m).initialize(start);
+         setWeights(m, start);
+      }
+   }// setRandWeights(WeightInitializer initializer)
+
+   /**
+    * Copies one model's weights in.
+    *
+    * @param model   the model
+    * @param weights the weights indexed [n][k][j]
+    */
+   public void setWeights(int model, double[][][] weights)
+   {
+      for (int n = 0; n < numLayers - 1; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               this.weights[n][(k * dimensions[n + 1] + j) * models + model] = weights[n][k][j];
+   }
+
+   /**
+    * Copies one model's weights out.
+    *
+    * @param model the model
+    * @return the weights indexed [n][k][j]
+    */
+   public double[][][] getWeights(int model)
+   {
+      double[][][] copy = new double[numLayers - 1][][];
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         copy[n] = new double[dimensions[n]][dimensions[n + 1]];
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               copy[n][k][j] = weights[n][(k * dimensions[n + 1] + j) * models + model];
+      }
+      return copy;
+   }// getWeights(int model)
+
+   /**
+    * Builds an ordinary network from one model.
+    *
+    * @param model the model
+    * @return a network with its weights, lambda and
+    *         the shared input transform
+    */
+   public Network toNetwork(int model)
+   {
+      Network network = new Network(dimensions[0], Arrays.copyOfRange(dimensions, 1, numLayers - 1),
+            dimensions[numLayers - 1], lambdas[model]);
+      network.setWeights(getWeights(model));
+      network.setInputTransform(transform);
+      return network;
+   }
+
+   /**
+    * Sets the transform every model applies to its
+    * inputs.
+    *
+    * @param transform the transform, or null for none
+    */
+   public void setInputTransform(InputTransform transform)
+   {
+      this.transform = transform;
+      if (transformed == null)
+         transformed = new double[dimensions[0]];
+   }
+
+   /**
+    * Sets the training parameters
+    *
+    * @param max_iterations  the number of iterations
+    * @param error_threshold the error below which a
+    *                        model stops training
+    */
+   public void setTrainingHyperparams(int max_iterations, double error_threshold)
+   {
+      this.max_iterations = max_iterations;
+      this.error_threshold = error_threshold;
+   }
+
+   /**
+    * Computes the outputs of every model.
+    *
+    * @param input the input activations
+    * @return the outputs indexed [i * models + m],
+    *         reused by the next call
+    */
+   public double[] forwardPropagation(double[] input)
+   {
+      setInput(input);
+      forwardLayers();
+      return nodes[numLayers - 1];
+   }
+
+   /**
+    * Computes the ensemble's prediction, the mean of
+    * every model's outputs.
+    *
+    * @param input the input activations
+    * @return the averaged outputs
+    */
+   public double[] average(double[] input)
+   {
+      double[] out = forwardPropagation(input);
+      double[] mean = new double[dimensions[numLayers - 1]];
+      for (int i = 0; i < mean.length; i++)
+      {
+         double sum = 0.0;
+         for (int m = 0; m < models; m++)
+            sum += out[i * models + m];
+         mean[i] = sum / models;
+      }
+      return mean;
+   }// average(double[] input)
+
+   /**
+    * Does one backpropagation step for every model
+    * that is still training.
+    *
+    * @param input the input activations
+    * @param truth the truth values, shared by every
+    *              model
+    */
+   public void train(double[] input, double[] truth)
+   {
+      setInput(input);
+      forwardLayers();
+
+      int last = numLayers - 1;
+      for (int i = 0; i < dimensions[last]; i++)
+         for (int m = 0; m < models; m++)
+         {
+            double activated = nodes[last][i * models + m];
+            psi[last][i * models + m] = (truth[i] - activated) * (activated * (1.0 - activated));
+         }
+
+      /*
+       * Walks back through the layers like
+       * Network.backPropagate: the omega of each parent
+       * is summed from the weights before they change.
+       */
+      for (int n = last; n >= 1; n--)
+      {
+         double[] w = weights[n - 1];
+         double[] parents = nodes[n - 1];
+         double[] childPsi = psi[n];
+         int children = dimensions[n];
+
+         int span = children * models;
+
+         for (int k = 0; k < dimensions[n - 1]; k++)
+         {
+            int row = k * span;
+            for (int i = 0; i < span; i++)                       // Every term of every model's omega
+               products[i] = w[row + i] * childPsi[i];
+            Arrays.fill(omega, 0.0);
+            for (int j = 0; j < children; j++)                   // Summed over the children in Network's order
+               for (int m = 0; m < models; m++)
+                  omega[m] += products[j * models + m];
+
+            for (int m = 0; m < models; m++)
+               tiled[m] = rates[m] * parents[k * models + m];
+            for (int i = models; i < span; i++)
+               tiled[i] = tiled[i - models];
+            for (int i = 0; i < span; i++)
+               w[row + i] += tiled[i] * childPsi[i];
+
+            if (n > 1)
+               for (int m = 0; m < models; m++)
+               {
+                  double activated = parents[k * models + m];
+                  psi[n - 1][k * models + m] = omega[m] * (activated * (1.0 - activated));
+               }
+         }// for (int k = 0; k < dimensions[n - 1]; k++)
+      }// for (int n = last; n >= 1; n--)
+   }// train(double[] input, double[] truth)
+
+   /**
+    * Trains every model on the training set, each
+    * until its error is below the threshold or the
+    * iterations run out.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet)
+   {
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING " + models + " MODELS IN LOCKSTEP STARTED AT " + timestamp);
+
+      rates = lambdas.clone();
+      int training = models;
+      int iteration = 0;
+      while (iteration <= max_iterations && training > 0)
+      {
+         iteration++;
+         for (double[] inputs : trainSet.keySet())
+            train(inputs, trainSet.get(inputs));
+
+         errors = computeErrors(trainSet);
+         for (int m = 0; m < models; m++)
+            if (rates[m] != 0.0 && errors[m] < error_threshold)     // Freezes a model once it has met the threshold
+            {
+               rates[m] = 0.0;
+               training--;
+            }
+      }
+
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp + " AFTER " + iteration + " ITERATIONS");
+      for (int m = 0; m < models; m++)
+         System.out.println("Model " + m + ": lambda " + lambdas[m] + ", error " + errors[m]
+               + (rates[m] == 0.0 ? " (below threshold)" : ""));
+
+      double error = 0.0;
+      for (double[] inputs : trainSet.keySet())                     // Scores the averaged prediction
+      {
+         double[] mean = average(inputs);
+         double[] truth = trainSet.get(inputs);
+         for (int i = 0; i < mean.length; i++)
+            error += 0.5 * (truth[i] - mean[i]) * (truth[i] - mean[i]);
+      }
+      System.out.println("Ensemble average: error " + error / ((double) trainSet.size() * (double) dimensions[numLayers - 1]));
+   }// trainNetwork(Map<double[], double[]> trainSet)
+
+   /**
+    * Computes the average error of every model over a
+    * set of cases.
+    *
+    * @param trainSet the inputs and their truths
+    * @return the error per output of each model
+    */
+   public double[] computeErrors(Map<double[], double[]> trainSet)
+   {
+      double[] total = new double[models];
+      int outputs = dimensions[numLayers - 1];
+      for (double[] inputs : trainSet.keySet())
+      {
+         double[] out = forwardPropagation(inputs);
+         double[] truth = trainSet.get(inputs);
+         for (int i = 0; i < outputs; i++)
+            for (int m = 0; m < models; m++)
+            {
+               double omega = truth[i] - out[i * models + m];
+               total[m] += 0.5 * omega * omega;
+            }
+      }
+      for (int m = 0; m < models; m++)
+         total[m] /= ((double) trainSet.size() * (double) outputs);
+      return total;
+   }// computeErrors(Map<double[], double[]> trainSet)
+
+   /**
+    * Retrieves the number of models.
+    *
+    * @return the models
+    */
+   public int getModels()
+   {
+      return models;
+   }
+
+   /**
+    * Finds the model with the lowest error after the
+    * last epoch.
+    *
+    * @return the model
+    */
+   public int getBestModel()
+   {
+      int best = 0;
+      for (int m = 1; m < models; m++)
+         if (errors[m] < errors[best])
+            best = m;
+      return best;
+   }
+
+   /**
+    * Copies the input into every model's input
+    * layer, transformed if a transform is set.
+    *
+    * @param input the input activations
+    */
+   private void setInput(double[] input)
+   {
+      double[] values = input;
+      if (transform != null)
+      {
+         transform.transform(input, transformed);
+         values = transformed;
+      }
+      for (int k = 0; k < dimensions[0]; k++)
+         for (int m = 0; m < models; m++)
+            nodes[0][k * models + m] = values[k];
+   }// setInput(double[] input)
+
+   /**
+    * Computes every layer after the inputs for every
+    * model.
+    */
+   private void forwardLayers()
+   {
+      for (int n = 1; n < numLayers; n++)
+      {
+         double[] w = weights[n - 1];
+         double[] parents = nodes[n - 1];
+         double[] children = nodes[n];
+         int count = dimensions[n];
+         Arrays.fill(children, 0.0);
+
+         int span = count * models;
+
+         for (int k = 0; k < dimensions[n - 1]; k++)      // Sums theta in the same order as Network
+         {
+            System.arraycopy(parents, k * models, tiled, 0, models);
+            for (int i = models; i < span; i++)
+               tiled[i] = tiled[i - models];
+
+            int row = k * span;
+            for (int i = 0; i < span; i++)
+               children[i] += tiled[i] * w[row + i];
+         }
+
+         for (int i = 0; i < children.length; i++)
+            children[i] = Network.activation(children[i]);
+      }
+   }// forwardLayers()
+}// public class LockstepEnsemble
@@ -0,0 +1,138 @@
+package perceptron;
+
+/**
+ * The error a network is trained to lower, together
+ * with the activation of its output layer:
+ *  - SQUARED: 0.5 (T - F)^2 on sigmoid outputs, whose
+ *    psi (T - F) F (1 - F) fades as an output saturates
+ *  - CROSS_ENTROPY: -(T ln F + (1 - T) ln(1 - F)) on
+ *    sigmoid outputs, for outputs that are each true
+ *    or false
+ *  - SOFTMAX: -T ln F on softmax outputs, for classes
+ *    of which exactly one is true
+ *
+ * Both cross entropies are fused with their output
+ * activation: the derivative of the activation cancels
+ * against the loss's, so the psi of an output is just
+ * T - F and does not vanish when the output saturates.
+ *
+ * Methods:
+ * Public:
+ *  - double error(double output, double truth)
+ *  - void outputPsi(double[] outputs, double[] truth, double[] psi)
+ *  - boolean isSoftmax()
+ *  - String getName()
+ *  - void softmax(double[] values)
+ *  - Loss parse(String name)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public enum Loss
+{
+   SQUARED, CROSS_ENTROPY, SOFTMAX;
+
+   public static final double CLAMP = 1e-15;     // Keeps the logarithms finite
+
+   /**
+    * Computes the error of one output.
+    *
+    * @param output the output activation
+    * @param truth  the truth value
+    * @return the error
+    */
+   public double error(double output, double truth)
+   {
+      if (this == SQUARED)
+      {
+         double omega = (truth - output);
+         return 0.5 * omega * omega;
+      }
+      double clamped = Math.min(1.0 - CLAMP, Math.max(CLAMP, output));
+      if (this == SOFTMAX)
+         return truth == 0.0 ? 0.0 : -truth * Math.log(clamped);
+      return -(truth * Math.log(clamped) + (1.0 - truth) * Math.log(1.0 - clamped));
+   }// error(double output, double truth)
+
+   /**
+    * Computes the psi values of the output layer.
+    *
+    * @param outputs the output activations
+    * @param truth   the truth values
+    * @param psi     receives the psi values
+    */
+   public void outputPsi(double[] outputs, double[] truth, double[] psi)
+   {
+      for (int i = 0; i < outputs.length; i++)
+      {
+         if (this == SQUARED)
+            psi[i] = (truth[i] - outputs[i]) * (outputs[i] * (1.0 - outputs[i]));
+         else
+            psi[i] = truth[i] - outputs[i];
+      }
+   }
+
+   /**
+    * Checks whether the output layer is a softmax
+    * rather than sigmoids.
+    *
+    * @return true for SOFTMAX
+    */
+   public boolean isSoftmax()
+   {
+      return this == SOFTMAX;
+   }
+
+   /**
+    * Retrieves the config name of the loss, which
+    * parse reads back.
+    *
+    * @return squared, bce or softmax
+    */
+   public String getName()
+   {
+      return this == SQUARED ? "squared" : this == CROSS_ENTROPY ? "bce" : "softmax";
+   }
+
+   /**
+    * Turns a layer's dot products into softmax
+    * activations in place, shifted by the largest so
+    * no exponential overflows.
+    *
+    * @param values the dot products, replaced by the
+    *               activations
+    */
+   public static void softmax(double[] values)
+   {
+      double largest = Double.NEGATIVE_INFINITY;
+      for (double value : values)
+         largest = Math.max(largest, value);
+      double sum = 0.0;
+      for (int i = 0; i < values.length; i++)
+      {
+         values[i] = Math.exp(values[i] - largest);
+         sum += values[i];
+      }
+      for (int i = 0; i < values.length; i++)
+         values[i] /= sum;
+   }// softmax(double[] values)
+
+   /**
+    * Reads a loss from its config name: squared, bce
+    * or crossentropy, and softmax.
+    *
+    * @param name the name
+    * @return the loss
+    */
+   public static Loss parse(String name)
+   {
+      String key = name.trim().toLowerCase();
+      if (key.equals("squared"))
+         return SQUARED;
+      if (key.equals("bce") || key.equals("crossentropy"))
+         return CROSS_ENTROPY;
+      if (key.equals("softmax"))
+         return SOFTMAX;
+      throw new IllegalArgumentException("Unknown loss: " + name + " (expected squared, bce or softmax)");
+   }
+}// public enum Loss
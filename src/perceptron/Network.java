@@ -4,6 +4,7 @@ import java.text.SimpleDateFormat;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * A feed-forward neural network that can do
@@ -17,19 +18,51 @@ import java.util.Map;
  * Public:
  *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
  *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - void trainNetwork(Map<double[], double[]> trainSet, SampleFeed feed)
+ *  - void trainNetwork(SampleFeed feed, SampleFeed check)
  *  - void printCases(Map<double[], double[]> trainSet)
  *  - double[][][] getWeights()
+ *  - long getWeightVersion()
+ *  - void weightsChanged()
+ *  - int[] getDimensions()
+ *  - double getLambda()
  *  - double random(double lower, double upper)
- *  - void setRandWeights(double lower, double upper)
+ *  - void setRandWeights(WeightInitializer initializer)
  *  - void setWeights(double[][][] weights)
  *  - void setInputActivations(double[] input)
+ *  - void setInputTransform(InputTransform transform)
+ *  - InputTransform getInputTransform()
+ *  - void setLoss(Loss loss)
+ *  - Loss getLoss()
+ *  - void setKernelsEnabled(boolean enabled)
+ *  - void setWeightMask(boolean[][][] mask)
+ *  - boolean[][][] getWeightMask()
+ *  - void setPublishing(WeightPublisher.Mode mode, int interval)
+ *  - WeightPublisher getPublisher()
+ *  - void publishWeights()
  *  - void printSummary()
  *  - double[] forwardPropagation()
+ *  - double[] forwardPropagation(SparseVector input)
+ *  - void trainSparse(Map<SparseVector, double[]> trainSet)
+ *  - double trainEpochs(Map<double[], double[]> trainSet, int epochs)
+ *  - double computeError(Map<double[], double[]> trainSet)
+ *  - double computeError(SampleFeed cases)
  *  - 
+ * Package:
+ *  - double activation(double x)
+ *  - double[] activations(int n)
+ *  - double[] trainStep(double[] input, double[] truth)
  * Private:
+ *  - void train(Map<double[], double[]> trainSet, SampleFeed feed, SampleFeed check)
+ *  - double[] forwardLayers(double[][][] weights, int first)
+ *  - void trainCase(double[] activations, double[] truth)
+ *  - void trainWeighted(double[] activations, double[] truth, WeightedFeed feed)
  *  - void updateWeights(double[] activations, double[] truth)
- *  - double activation(double x)
- *  - double error(double T, double F)
+ *  - void updateWeights(SparseVector activations, double[] truth)
+ *  - void forwardTheta(int first)
+ *  - void activateLayer(int n, double[] sums)
+ *  - void backPropagate(double[] truth, int lowest)
+ *  - void countUpdate()
  *  - double activationDerivative(double x)
  * 
  * @author Harsh Deep Period 2
@@ -58,6 +91,29 @@ public class Network
 
    private double[][] psi;          // The psi values array used during training
 
+   private InputTransform transform;   // Applied to every input before it reaches the
+                                       // input layer, null for none
+   private double[] transformed;       // Holds the transformed input activations
+
+   private Kernel kernel;              // The engine specialized for this topology while
+                                       // training, null for the generic loops
+   private boolean kernelsEnabled = true;
+
+   private double[] inputGradient;     // The omega values of the input layer, kept by
+                                       // trainStep for the layers in front of the network
+
+   private Loss loss = Loss.SQUARED;   // The error trained on and the output activation
+
+   private boolean[][][] mask;         // The weights training may change, indexed like
+                                       // weights; null lets training change all of them
+
+   private WeightPublisher publisher;  // Publishes snapshots of the weights for other
+                                       // threads, null if not publishing
+   private int publishInterval;        // The number of weight updates between snapshots
+   private long updates;               // The number of weight updates so far
+   private long weightVersion;         // Counts every change to the weights, so cached
+                                       // results can tell they are stale
+
    /**
     * Initializes the nodes and weights for the
     * network. Nodes and weights are all set to
@@ -147,8 +203,57 @@ public class Network
     */
    public void trainNetwork(Map<double[], double[]> trainSet)
    {
-      double[] out = null;
-      double[] truth = null;
+      trainNetwork(trainSet, null);
+   }
+
+   /**
+    * Trains the network on the cases pulled from the
+    * feed. The error that is checked against the
+    * threshold after every epoch is still computed
+    * on the given training set.
+    * 
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    * @param feed     the source of the training cases
+    *                 for each epoch, or null to train
+    *                 on trainSet directly
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet, SampleFeed feed)
+   {
+      train(trainSet, feed, null);
+   }
+
+   /**
+    * Trains the network on the cases pulled from the
+    * feed without any stored training set. The error
+    * checked against the threshold after every epoch
+    * is computed on one pass over the check feed, so
+    * a training file can be streamed twice per epoch
+    * instead of being held in memory.
+    * 
+    * @param feed  the source of the training cases
+    * @param check the source of the cases the error
+    *              is measured on
+    */
+   public void trainNetwork(SampleFeed feed, SampleFeed check)
+   {
+      train(null, feed, check);
+   }
+
+   /**
+    * Trains the network on a training set, a feed or
+    * both, as the public trainNetwork methods ask.
+    * 
+    * @param trainSet the stored cases, or null if the
+    *                 cases are only streamed
+    * @param feed     the source of the training cases,
+    *                 or null to train on trainSet
+    * @param check    the cases the error is measured
+    *                 on when there is no trainSet
+    */
+   private void train(Map<double[], double[]> trainSet, SampleFeed feed, SampleFeed check)
+   {
       printSummary();                                                                 // Print data about the network configuration
 
       String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
@@ -158,7 +263,18 @@ public class Network
       boolean error_threshold_met = false;                                             // boolean to check if the error threshold is met and
                                                                                        // exit loop early
       
+      WeightedFeed weighted = feed instanceof WeightedFeed ? (WeightedFeed) feed : null;
+      kernel = kernelsEnabled && mask == null && loss == Loss.SQUARED && weighted == null      // Kernels have lambda built in
+            ? KernelGenerator.select(dimensions, lambda) : null;
+      if (kernel != null)                                                              // Small topologies train on unrolled code
+      {
+         kernel.load(weights);
+         System.out.println("Training with a kernel generated for this topology");
+      }
       
+      double[] feedInput = new double[dimensions[0]];                                  // Buffers the feed copies each case into
+      double[] feedTruth = new double[outputs];
+
       int iteration = 0;
       /*
        * Updates the weights up to a max number of
@@ -169,33 +285,29 @@ public class Network
       {
          iteration++;
          
-         for (double[] inputs : trainSet.keySet())
+         if (feed == null)
          {
-            updateWeights(inputs, trainSet.get(inputs));                               // Updates the weights in the network based
+            for (double[] inputs : trainSet.keySet())
+            {
+               trainCase(inputs, trainSet.get(inputs));                                // Updates the weights in the network based
                                                                                        // on
                                                                                        // all of the training cases
+            }
          }
-
-         double error = 0.0;
-         int cases = 0;
-         /*
-          * Computes total error after every epoch and
-          * prints it
-          */
-         for (double[] inputs : trainSet.keySet())
+         else
          {
-            nodes[0] = inputs;
-            out = forwardPropagation();
-            truth = trainSet.get(inputs);
-
-            for (int i = 0; i < outputs; i++)
+            feed.startEpoch(iteration);
+            while (feed.next(feedInput, feedTruth))                                    // Trains on every case the feed produces
             {
-               error += error(out[i], truth[i]);
+               if (weighted == null)
+                  trainCase(feedInput, feedTruth);
+               else
+                  trainWeighted(feedInput, feedTruth, weighted);
             }
-            cases++;
-         } // for (double[] inputs : trainSet.keySet())
+         }
 
-         error /= (((double) cases) * (double) (outputs));           // Computes the average error
+         double error = trainSet != null ? computeError(trainSet) : computeError(check);    // Computes the average error
+                                                                                             // after every epoch
 
          if (error < error_threshold)                                // Early stopping if error below predefined stopping point
          {
@@ -203,6 +315,16 @@ public class Network
          }
       }// while (iteration <= max_iterations && !error_threshold_met)
 
+      if (kernel != null)
+      {
+         kernel.store(weights);                                                                // Hands the trained weights back
+         weightVersion++;
+         kernel = null;
+      }
+
+      if (publisher != null)
+         publishWeights();                                                                     // Publishes the final weights
+
       timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
       System.out.println("TRAINING ENDED AT " + timestamp);                                    // Print a time stamp for when the
                                                                                                // network ended training
@@ -215,9 +337,15 @@ public class Network
       else
          System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
 
-      printCases(trainSet);
+      if (trainSet != null)
+         printCases(trainSet);
+      else
+      {
+         System.out.println("Error: " + computeError(check));                                 // Too many cases to print
+         printSummary();
+      }
 
-   }// trainNetwork(Map<double[], double[]> trainSet)
+   }// train(Map<double[], double[]> trainSet, SampleFeed feed, SampleFeed check)
 
    /**
     * Prints the outputs of the network on all of the
@@ -234,14 +362,14 @@ public class Network
        */
       for (double[] inputs : trainSet.keySet())
       {
-         nodes[0] = inputs;
+         setInputActivations(inputs);
          double[] out = forwardPropagation();
          double[] err = new double[outputs];
          double[] truth = trainSet.get(inputs);
          for (int i = 0; i < outputs; i++)
          {
 
-            err[i] = error(out[i], truth[i]);
+            err[i] = loss.error(out[i], truth[i]);
          }
          System.out.println("Inputs: " + Arrays.toString(inputs) + "\tOutput: " + Arrays.toString(out) + "\t\tExpected: "
                + Arrays.toString(trainSet.get(inputs)) + "\t\t Error: " + Arrays.toString(err));
@@ -262,6 +390,49 @@ public class Network
       return weights;
    }
 
+   /**
+    * Retrieves the number of times the weights have
+    * changed. Anything computed from the weights is
+    * stale once this has moved on.
+    * 
+    * @return the version of the weights
+    */
+   public long getWeightVersion()
+   {
+      return weightVersion;
+   }
+
+   /**
+    * Records a change to the weights made in place
+    * through getWeights, by a trainer outside the
+    * network.
+    */
+   public void weightsChanged()
+   {
+      weightVersion++;
+   }
+
+   /**
+    * Retrieves the number of nodes in each layer of
+    * the network, input layer first.
+    * 
+    * @return a copy of the dimensions of the network.
+    */
+   public int[] getDimensions()
+   {
+      return dimensions.clone();
+   }
+
+   /**
+    * Retrieves the learning rate.
+    * 
+    * @return the lambda value
+    */
+   public double getLambda()
+   {
+      return lambda;
+   }
+
    /**
     * Produces random values from lower(inclusive) to
     * upper(exclusive)
@@ -275,32 +446,25 @@ public class Network
     */
    public double random(double lower, double upper)
    {
-      return lower + Math.random() * (upper - lower);
+      return lower + ThreadLocalRandom.current().nextDouble() * (upper - lower);   // Each thread has its own generator
    }
 
    /**
-    * Sets up the weights with random numbers in the
-    * range
+    * Sets up the weights from a seeded initializer,
+    * which fills them the same way on any number of
+    * threads.
     * 
-    * @param lower a double that is the lower
-    *              bound(inclusive) of random values
-    *              for each weight
-    * @param upper a double that is the upper
-    *              bound(exclusive) of random values
-    *              for each weight
+    * @param initializer the scheme and seed of the
+    *                    weights
     */
-   public void setRandWeights(double lower, double upper)
+   public void setRandWeights(WeightInitializer initializer)
    {
-      /*
-       * Iterates across all elements in the weights
-       * array and sets each one to a random value
-       * between the upper and lower bound
-       */
-      for (int n = 0; n < weights.length; n++)
-         for (int k = 0; k < weights[n].length; k++)
-            for (int j = 0; j < weights[n][k].length; j++)
-               weights[n][k][j] = random(lower, upper);
-   }// setRandWeights(double lower, double upper)
+      initializer.initialize(weights);
+      weightVersion++;
+
+      if (publisher != null)
+         publishWeights();
+   }
 
    /**
     * Sets the weights to the given weights
@@ -310,16 +474,150 @@ public class Network
    public void setWeights(double[][][] weights)
    {
       this.weights = weights;
+      weightVersion++;
+      if (publisher != null)
+         publishWeights();
    }
 
    /**
-    * Sets the input activations to the given values.
+    * Sets the input activations to the given values,
+    * passing them through the input transform if one
+    * is set.
     * 
     * @param input the new input activations
     */
    public void setInputActivations(double[] input)
    {
-      nodes[0] = input;
+      if (transform == null)
+      {
+         nodes[0] = input;
+      }
+      else
+      {
+         transform.transform(input, transformed);
+         nodes[0] = transformed;
+      }
+   }
+
+   /**
+    * Sets the transform applied to every input, for
+    * training and evaluation alike.
+    * 
+    * @param transform the transform, or null to use
+    *                  inputs as given
+    */
+   public void setInputTransform(InputTransform transform)
+   {
+      this.transform = transform;
+      if (transformed == null)
+         transformed = new double[dimensions[0]];
+   }
+
+   /**
+    * Retrieves the transform applied to every input.
+    * 
+    * @return the transform, or null if there is none
+    */
+   public InputTransform getInputTransform()
+   {
+      return transform;
+   }
+
+   /**
+    * Sets the loss trained on, which also decides the
+    * output activation and the error checked against
+    * the threshold.
+    * 
+    * @param loss the loss
+    */
+   public void setLoss(Loss loss)
+   {
+      this.loss = loss;
+   }
+
+   /**
+    * Retrieves the loss trained on.
+    * 
+    * @return the loss
+    */
+   public Loss getLoss()
+   {
+      return loss;
+   }
+
+   /**
+    * Allows or forbids training on kernels generated
+    * for small topologies. Enabled by default; the
+    * generated code gives the same results as the
+    * generic loops.
+    * 
+    * @param enabled true to use generated kernels
+    *                when the topology is small enough
+    */
+   public void setKernelsEnabled(boolean enabled)
+   {
+      this.kernelsEnabled = enabled;
+   }
+
+   /**
+    * Restricts training to the weights marked true in
+    * the mask, so pruned weights stay zero while the
+    * rest are fine tuned.
+    * 
+    * @param mask the trainable weights indexed like
+    *             the weights, or null to train all
+    */
+   public void setWeightMask(boolean[][][] mask)
+   {
+      this.mask = mask;
+   }
+
+   /**
+    * Retrieves the mask of trainable weights.
+    * 
+    * @return the mask, or null if every weight is
+    *         trained
+    */
+   public boolean[][][] getWeightMask()
+   {
+      return mask;
+   }
+
+   /**
+    * Starts publishing snapshots of the weights so
+    * other threads can evaluate with them while the
+    * network trains. The current weights are
+    * published right away.
+    * 
+    * @param mode     copy-on-write or double buffered
+    *                 publication
+    * @param interval the number of weight updates
+    *                 between publications, 0 to only
+    *                 publish at the end of training
+    */
+   public void setPublishing(WeightPublisher.Mode mode, int interval)
+   {
+      publisher = new WeightPublisher(mode, weights);
+      publishInterval = interval;
+   }
+
+   /**
+    * Retrieves the publisher of the weight snapshots.
+    * 
+    * @return the publisher, or null if the network
+    *         does not publish its weights
+    */
+   public WeightPublisher getPublisher()
+   {
+      return publisher;
+   }
+
+   /**
+    * Publishes the current weights now.
+    */
+   public void publishWeights()
+   {
+      publisher.publish(weights);
    }
 
    /**
@@ -337,6 +635,7 @@ public class Network
       }
       System.out.println("Output Layer: " + dimensions[numLayers - 1] + " nodes");
       System.out.println("Lambda: " + lambda);
+      System.out.println("Loss: " + loss.name().toLowerCase());
       System.out.println("Max_Iterations: " + max_iterations);
    } // printSummary()
 
@@ -351,13 +650,204 @@ public class Network
     * @return the output layer of the network
     */
    public double[] forwardPropagation()
+   {
+      return forwardLayers(this.weights, 1);     // Reads the weights once so a concurrent
+                                                 // setWeights cannot mix two sets of them
+   }
+
+   /**
+    * Computes the outputs for a sparse input. The
+    * first layer only visits the weight rows of the
+    * non-zero inputs. An input transform generally
+    * turns zeros into non-zeros, so with a transform
+    * set the input is expanded and run densely.
+    * 
+    * @param input the input activations
+    * @return the output layer of the network
+    */
+   public double[] forwardPropagation(SparseVector input)
+   {
+      if (transform != null)
+      {
+         setInputActivations(input.toDense());
+         return forwardPropagation();
+      }
+
+      double[][][] weights = this.weights;
+      double[] dotProducts = theta[1];           // Scratch space for the first layer
+      for (int j = 0; j < dimensions[1]; j++)
+         dotProducts[j] = 0.0;
+
+      int[] index = input.getIndices();
+      double[] value = input.getValues();
+      for (int p = 0; p < index.length; p++)     // Adds each non-zero input's row of weights
+      {
+         double x = value[p];
+         double[] row = weights[0][index[p]];
+         for (int j = 0; j < dimensions[1]; j++)
+            dotProducts[j] += x * row[j];
+      }
+
+      activateLayer(1, dotProducts);
+
+      return forwardLayers(weights, 2);
+   }// forwardPropagation(SparseVector input)
+
+   /**
+    * Trains the network on sparse inputs, the same
+    * way trainNetwork does on dense ones, but with a
+    * first layer that only touches the weights of
+    * the non-zero inputs.
+    * 
+    * @param trainSet A map that maps sparse input
+    *                 activations the expected
+    *                 output.
+    */
+   public void trainSparse(Map<SparseVector, double[]> trainSet)
+   {
+      printSummary();
+
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING STARTED AT " + timestamp);
+
+      boolean error_threshold_met = false;
+      int iteration = 0;
+      while (iteration <= max_iterations && !error_threshold_met)
+      {
+         iteration++;
+         for (SparseVector inputs : trainSet.keySet())
+            updateWeights(inputs, trainSet.get(inputs));
+
+         double error = 0.0;
+         for (SparseVector inputs : trainSet.keySet())       // Computes the average error after every epoch
+         {
+            double[] out = forwardPropagation(inputs);
+            double[] truth = trainSet.get(inputs);
+            for (int i = 0; i < outputs; i++)
+               error += loss.error(out[i], truth[i]);
+         }
+         error /= ((double) trainSet.size() * (double) outputs);
+
+         if (error < error_threshold)
+            error_threshold_met = true;
+      }// while (iteration <= max_iterations && !error_threshold_met)
+
+      if (publisher != null)
+         publishWeights();
+
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp);
+      if (error_threshold_met)
+         System.out.println("TRAINING ENDED EARLY AFTER " + iteration + " ITERATIONS: Error below threshold");
+      else
+         System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
+      printSummary();
+   }// trainSparse(Map<SparseVector, double[]> trainSet)
+
+   /**
+    * Trains for up to the given number of epochs
+    * without printing anything, so a caller can train
+    * a network in steps and watch its error. Stops
+    * early once the error is below the threshold.
+    * 
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    * @param epochs   the most epochs to train
+    * @return the average error after the last epoch
+    */
+   public double trainEpochs(Map<double[], double[]> trainSet, int epochs)
+   {
+      kernel = kernelsEnabled && mask == null && loss == Loss.SQUARED ? KernelGenerator.select(dimensions, lambda) : null;
+      if (kernel != null)
+         kernel.load(weights);
+
+      double error = Double.MAX_VALUE;
+      for (int epoch = 0; epoch < epochs && error >= error_threshold; epoch++)
+      {
+         for (double[] inputs : trainSet.keySet())
+            trainCase(inputs, trainSet.get(inputs));
+         error = computeError(trainSet);
+      }
+
+      if (kernel != null)
+      {
+         kernel.store(weights);
+         weightVersion++;
+         kernel = null;
+      }
+      return error == Double.MAX_VALUE ? computeError(trainSet) : error;
+   }// trainEpochs(Map<double[], double[]> trainSet, int epochs)
+
+   /**
+    * Computes the average error over a set of cases,
+    * as training does after every epoch.
+    * 
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    * @return the error per output
+    */
+   public double computeError(Map<double[], double[]> trainSet)
+   {
+      double error = 0.0;
+      for (double[] inputs : trainSet.keySet())
+      {
+         setInputActivations(inputs);
+         double[] out = kernel == null ? forwardPropagation() : kernel.forward(nodes[0]);
+         double[] truth = trainSet.get(inputs);
+         for (int i = 0; i < outputs; i++)
+            error += loss.error(out[i], truth[i]);
+      }
+      return error / ((double) trainSet.size() * (double) outputs);
+   }// computeError(Map<double[], double[]> trainSet)
+
+   /**
+    * Computes the average error over one epoch of a
+    * feed, for training sets that are streamed rather
+    * than stored.
+    * 
+    * @param cases the feed of the cases
+    * @return the error per output
+    */
+   public double computeError(SampleFeed cases)
+   {
+      double[] input = new double[dimensions[0]];
+      double[] truth = new double[outputs];
+      double error = 0.0;
+      long count = 0;
+
+      cases.startEpoch(1);
+      while (cases.next(input, truth))
+      {
+         setInputActivations(input);
+         double[] out = kernel == null ? forwardPropagation() : kernel.forward(nodes[0]);
+         for (int i = 0; i < outputs; i++)
+            error += loss.error(out[i], truth[i]);
+         count++;
+      }
+      return error / ((double) count * (double) outputs);
+   }// computeError(SampleFeed cases)
+
+   /**
+    * Runs forward propagation from the given layer
+    * on, assuming the layers before it are already
+    * computed.
+    * 
+    * @param weights the weights to use
+    * @param first   the first layer to compute
+    * @return the output layer of the network
+    */
+   private double[] forwardLayers(double[][][] weights, int first)
    {
       /*
        * Iterates across all connectivity layers. n is
        * the layer of the child node.
        */
-      for (int n = 1; n < numLayers; n++)
+      for (int n = first; n < numLayers; n++)
       {
+         boolean softmax = n == numLayers - 1 && loss.isSoftmax();   // The output layer activates as a whole
+
          /*
           * Iterates across all of the child nodes and
           * computes their new values
@@ -375,16 +865,65 @@ public class Network
                dotProduct += nodes[n - 1][i] * weights[n - 1][i][j];
             }
 
-            double activated = activation(dotProduct);   // Applies the activation function to the
-                                                         // dot product
+            double activated = softmax ? dotProduct : activation(dotProduct);   // Applies the activation function to the
+                                                                                // dot product
             nodes[n][j] = activated;
 
          } // for (int j = 0; j < dimensions[n]; j++)
 
+         if (softmax)
+            Loss.softmax(nodes[n]);
+
       } // for (int n = 1; n < numLayers; n++)
       return nodes[numLayers - 1];
 
-   }// forwardPropogation()
+   }// forwardLayers(double[][][] weights, int first)
+
+   /**
+    * Trains on one case, on the generated kernel if
+    * training has one and with updateWeights
+    * otherwise.
+    * 
+    * @param activations the input activations
+    * @param truth       the truth values for the
+    *                    given activations
+    */
+   private void trainCase(double[] activations, double[] truth)
+   {
+      if (kernel == null)
+      {
+         updateWeights(activations, truth);
+         return;
+      }
+
+      setInputActivations(activations);
+      kernel.train(nodes[0], truth);
+      countUpdate();
+   }// trainCase(double[] activations, double[] truth)
+
+   /**
+    * Trains on a case from a weighted feed with the
+    * learning rate scaled by the case's weight, then
+    * reports the case's error from the forward pass
+    * before the update.
+    * 
+    * @param activations the input activations
+    * @param truth       the truth values for the
+    *                    given activations
+    * @param feed        the feed the case came from
+    */
+   private void trainWeighted(double[] activations, double[] truth, WeightedFeed feed)
+   {
+      double rate = lambda;
+      lambda = rate * feed.weight();
+      updateWeights(activations, truth);
+      lambda = rate;
+
+      double error = 0.0;
+      for (int i = 0; i < outputs; i++)
+         error += loss.error(nodes[numLayers - 1][i], truth[i]);
+      feed.report(error);
+   }// trainWeighted(double[] activations, double[] truth, WeightedFeed feed)
 
    /**
     * Updates the weights based on the given
@@ -398,13 +937,79 @@ public class Network
     */
    private void updateWeights(double[] activations, double[] truth)
    {
-      nodes[0] = activations;                   // Sets the input activations
+      setInputActivations(activations);         // Sets the input activations
+      forwardTheta(1);
+      backPropagate(truth, 1);
+      countUpdate();
+   }// updateWeights(double[] activations, double[] truth)
+
+   /**
+    * Updates the weights for a sparse input. Only the
+    * weight rows of the non-zero inputs can change in
+    * the first layer, so only those are visited; an
+    * input transform makes the input dense, so then
+    * the dense update is used.
+    * 
+    * @param activations the sparse input activations
+    * @param truth       the truth values for the
+    *                    given activations
+    */
+   private void updateWeights(SparseVector activations, double[] truth)
+   {
+      if (transform != null)
+      {
+         updateWeights(activations.toDense(), truth);
+         return;
+      }
+
+      int[] index = activations.getIndices();
+      double[] value = activations.getValues();
+      for (int j = 0; j < dimensions[1]; j++)
+         theta[1][j] = 0.0;
+      for (int p = 0; p < index.length; p++)
+      {
+         double x = value[p];
+         double[] row = weights[0][index[p]];
+         for (int j = 0; j < dimensions[1]; j++)
+            theta[1][j] += x * row[j];
+      }
+      activateLayer(1, theta[1]);
+
+      forwardTheta(2);
+      backPropagate(truth, 2);                  // Stops once psi of the first hidden layer is known
 
+      /*
+       * Updates the rows of the non-zero inputs; the
+       * psi values of the input layer are never needed.
+       */
+      for (int p = 0; p < index.length; p++)
+      {
+         int k = index[p];
+         double step = lambda * value[p];
+         for (int j = 0; j < dimensions[1]; j++)
+         {
+            if (mask == null || mask[0][k][j])
+               weights[0][k][j] += step * psi[1][j];
+         }
+      }
+
+      countUpdate();
+   }// updateWeights(SparseVector activations, double[] truth)
+
+   /**
+    * Does a forward propagation from the given layer
+    * on and stores the theta values and activations
+    * for training.
+    * 
+    * @param first the first layer to compute
+    */
+   private void forwardTheta(int first)
+   {
       /*
        * Does a forward propagation on the network &
        * stores theta values and activations.
        */
-      for (int n = 1; n < numLayers; n++)
+      for (int n = first; n < numLayers; n++)
       {
          /*
           * Iterates across nodes in layer n and stores the
@@ -423,27 +1028,57 @@ public class Network
             {
                theta[n][j] += nodes[n - 1][k] * weights[n - 1][k][j];           // Evaluates theta for each node in this layer
             }
-            nodes[n][j] = activation(theta[n][j]);                              // Updates the value of the node by applying
-                                                                                // activation to the theta
          }// for (int j = 0; j < dimensions[n]; j++)
 
-      } // for (int n = 1; n < numLayers; n++)
+         activateLayer(n, theta[n]);                                            // Updates the values of the nodes by applying
+                                                                                // activation to the theta
+
+      } // for (int n = first; n < numLayers; n++)
+   }// forwardTheta(int first)
 
+   /**
+    * Sets a layer's activations from its dot products:
+    * sigmoids, or a softmax for the output layer under
+    * the SOFTMAX loss.
+    * 
+    * @param n    the layer of nodes
+    * @param sums the layer's dot products
+    */
+   private void activateLayer(int n, double[] sums)
+   {
+      if (n == numLayers - 1 && loss.isSoftmax())
+      {
+         System.arraycopy(sums, 0, nodes[n], 0, dimensions[n]);
+         Loss.softmax(nodes[n]);
+         return;
+      }
+      for (int j = 0; j < dimensions[n]; j++)
+         nodes[n][j] = activation(sums[j]);
+   }
+
+   /**
+    * Computes the psi values from the output layer
+    * back and updates the weights into every layer
+    * from the last down to the given one.
+    * 
+    * @param truth  the truth values
+    * @param lowest the lowest child layer whose
+    *               incoming weights are updated
+    */
+   private void backPropagate(double[] truth, int lowest)
+   {
       /*
        * Computes Psi_I and the omega values in the last
        * layer.
        */
-      for (int i = 0; i < outputs; i++)
-      {
-         psi[numLayers - 1][i] = (truth[i] - nodes[numLayers - 1][i]) * activationDerivative(theta[numLayers - 1][i]);
-      }
+      loss.outputPsi(nodes[numLayers - 1], truth, psi[numLayers - 1]);     // T - F for the fused cross entropies
 
       /*
        * This is the backpropagation loop. It starts
        * from the last layer and works its way backward
        * through the network
        */
-      for (int n = numLayers - 1; n >= 1; n--)
+      for (int n = numLayers - 1; n >= lowest; n--)
       {
          /*
           * Iterates through the n-1 layer and computes the
@@ -462,23 +1097,43 @@ public class Network
                omega += weights[n - 1][k][j] * psi[n][j];                       // The calculation of the omega value which is
                                                                                 // used to find the psi values for n-1 layer
 
-               weights[n - 1][k][j] += lambda * nodes[n - 1][k] * psi[n][j];    // Updates the weights based on the psi values
+               if (mask == null || mask[n - 1][k][j])                           // Pruned weights are left at zero
+                  weights[n - 1][k][j] += lambda * nodes[n - 1][k] * psi[n][j]; // Updates the weights based on the psi values
                                                                                 // from layer n and is done after omega is
                                                                                 // calculated.
             }// for (int j = 0; j < dimensions[n]; j++)
 
+            if (n == 1 && inputGradient != null)
+               inputGradient[k] = omega;                                        // How the error changes with each input
+
             psi[n - 1][k] = omega * activationDerivative(theta[n - 1][k]);      // Using the computed omega, computes the psi
                                                                                 // values in the n-1 layer.
 
          }// for (int k = 0; k < dimensions[n-1]; k++)
 
-      } // for (int n = numLayers - 1; n >= 1; n--)
+      } // for (int n = numLayers - 1; n >= lowest; n--)
+   }// backPropagate(double[] truth, int lowest)
 
-   }// updateWeights(double[] activations, double[] truth)
+   /**
+    * Counts a weight update and publishes the weights
+    * when the publishing interval is reached.
+    */
+   private void countUpdate()
+   {
+      updates++;
+      weightVersion++;
+      if (publisher != null && publishInterval > 0 && updates % publishInterval == 0)
+      {
+         if (kernel != null)
+            kernel.store(weights);                                              // The kernel holds the latest weights
+         publisher.publish(weights);                                            // Lets readers pick up the new weights
+      }
+   }// countUpdate()
    
    /**
     * Applies the activation function to the input
-    * variable
+    * variable. Shared with the other evaluators in
+    * this package so they all use the same function.
     * 
     * @param x The value to evaluate the activation
     *          function at.
@@ -486,24 +1141,40 @@ public class Network
     * @return the value of the activation function
     *         evaluated at the given value.
     */
-   private double activation(double x)
+   static double activation(double x)
    {
       return 1.0 / (1.0 + Math.exp(-x));    // Sigmoid activation function
    }
 
    /**
-    * Computes the error function based on the truth
-    * and generated value
+    * Retrieves the activations of one layer left by
+    * the last forward propagation.
+    * 
+    * @param n the layer
+    * @return the live activations of the layer
+    */
+   double[] activations(int n)
+   {
+      return nodes[n];
+   }
+
+   /**
+    * Does one backpropagation step and reports how
+    * the error depends on each input, so layers in
+    * front of the network can train too.
     * 
-    * @param T the truth value
-    * @param F the value to be compared to the truth
-    * @return the error of the truth and generated
-    *         value
+    * @param input the input activations
+    * @param truth the truth values
+    * @return the omega value of each input, the
+    *         negative gradient of the error; reused by
+    *         the next call
     */
-   private double error(double T, double F)
+   double[] trainStep(double[] input, double[] truth)
    {
-      double omega = (T - F);
-      return 0.5 * omega * omega;
+      if (inputGradient == null)
+         inputGradient = new double[dimensions[0]];
+      updateWeights(input, truth);
+      return inputGradient;
    }
 
    /**
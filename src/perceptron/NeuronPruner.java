@@ -0,0 +1,265 @@
+package perceptron;
+
+import java.util.Map;
+
+/**
+ * Finds and removes dead hidden neurons, producing
+ * a smaller dense Network that runs on the ordinary
+ * kernels.
+ *
+ * analyze runs a set of cases through the network
+ * and gathers the mean and range of every hidden
+ * activation. A neuron is dead if its activation
+ * barely moves over the data (constant) or if all of
+ * its outgoing weights are tiny (silent).
+ *
+ * The network has no biases, so a constant neuron's
+ * contribution cannot simply be added to the next
+ * layer. Instead the constant neuron of a layer with
+ * the largest mean is kept as a carrier: it acts as
+ * a bias unit, and the average contribution of every
+ * other removed neuron of that layer is folded into
+ * its outgoing weights. Without a carrier, silent
+ * neurons are dropped with their small contribution.
+ *
+ * Methods:
+ * Constructor:
+ *  - NeuronPruner(Network network)
+ * Public:
+ *  - void analyze(Map<double[], double[]> cases)
+ *  - Network prune(double rangeTolerance, double weightTolerance)
+ *  - int getRemoved(int n)
+ *  - boolean hasCarrier(int n)
+ *  - void printSummary()
+ * Private:
+ *  - boolean[] filled(int length)
+ *  - double largest(double[] row)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class NeuronPruner
+{
+   private Network network;
+   private int[] dimensions;
+   private Normalizer[] stats;        // The activation statistics of each hidden layer
+
+   private int[] removed;             // The neurons removed from each layer by prune
+   private int[] carriers;            // The carrier kept in each layer, or -1
+
+   /**
+    * Prepares to prune the given network.
+    *
+    * @param network the trained network, which is
+    *                not modified
+    */
+   public NeuronPruner(Network network)
+   {
+      this.network = network;
+      this.dimensions = network.getDimensions();
+      this.removed = new int[dimensions.length];
+      this.carriers = new int[dimensions.length];
+      for (int n = 0; n < dimensions.length; n++)
+         carriers[n] = -1;
+   }
+
+   /**
+    * Gathers the statistics of every hidden
+    * activation over the cases.
+    *
+    * @param cases the training or validation set
+    */
+   public void analyze(Map<double[], double[]> cases)
+   {
+      stats = new Normalizer[dimensions.length];
+      for (int n = 1; n < dimensions.length - 1; n++)
+         stats[n] = new Normalizer(dimensions[n]);
+
+      for (double[] input : cases.keySet())
+      {
+         network.setInputActivations(input);
+         network.forwardPropagation();
+         for (int n = 1; n < dimensions.length - 1; n++)
+            stats[n].add(network.activations(n));
+      }
+   }// analyze(Map<double[], double[]> cases)
+
+   /**
+    * Builds a copy of the network without its dead
+    * hidden neurons.
+    *
+    * @param rangeTolerance  the largest spread of
+    *                        activations over the data
+    *                        for a constant neuron
+    * @param weightTolerance the largest outgoing
+    *                        weight magnitude of a
+    *                        silent neuron
+    * @return the smaller network, with the same input
+    *         transform
+    */
+   public Network prune(double rangeTolerance, double weightTolerance)
+   {
+      if (stats == null)
+         throw new IllegalStateException("analyze must be called before prune");
+
+      double[][][] weights = network.getWeights();
+      int layers = dimensions.length;
+      boolean[][] keep = new boolean[layers][];
+      double[][][] outgoing = new double[layers - 1][][];          // Copies of the outgoing weights, with folding
+
+      for (int n = 0; n < layers - 1; n++)
+      {
+         outgoing[n] = new double[dimensions[n]][];
+         for (int k = 0; k < dimensions[n]; k++)
+            outgoing[n][k] = weights[n][k].clone();
+      }
+      keep[0] = filled(dimensions[0]);
+      keep[layers - 1] = filled(dimensions[layers - 1]);
+
+      /*
+       * Decides the fate of each hidden neuron and
+       * folds the average contribution of the removed
+       * ones into the carrier.
+       */
+      for (int n = 1; n < layers - 1; n++)
+      {
+         double[] mean = stats[n].getMean();
+         double[] min = stats[n].getMin();
+         double[] max = stats[n].getMax();
+         keep[n] = filled(dimensions[n]);
+         removed[n] = 0;
+         carriers[n] = -1;
+
+         boolean[] constant = new boolean[dimensions[n]];
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            constant[k] = max[k] - min[k] <= rangeTolerance;
+            if (constant[k] && (carriers[n] < 0 || Math.abs(mean[k]) > Math.abs(mean[carriers[n]])))
+               carriers[n] = k;
+         }
+         int carrier = carriers[n];
+
+         int strongest = 0;                                     // Kept if every neuron of the layer is silent
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            if (largest(weights[n][k]) > largest(weights[n][strongest]))
+               strongest = k;
+         }
+
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            if (k == carrier)
+               continue;
+            boolean silent = largest(weights[n][k]) <= weightTolerance;
+            boolean folded = constant[k] && carrier >= 0;
+            if (!folded && !(silent && (k != strongest || carrier >= 0)))
+               continue;
+
+            keep[n][k] = false;
+            removed[n]++;
+            if (carrier >= 0 && mean[carrier] != 0.0)
+            {
+               double ratio = mean[k] / mean[carrier];           // The carrier stands in for this neuron
+               for (int j = 0; j < dimensions[n + 1]; j++)
+                  outgoing[n][carrier][j] += ratio * weights[n][k][j];
+            }
+         }// for (int k = 0; k < dimensions[n]; k++)
+      }// for (int n = 1; n < layers - 1; n++)
+
+      int[] hidden = new int[layers - 2];
+      for (int n = 1; n < layers - 1; n++)
+         hidden[n - 1] = dimensions[n] - removed[n];
+      Network smaller = new Network(dimensions[0], hidden, dimensions[layers - 1], network.getLambda());
+
+      /*
+       * Copies the rows of the kept parents and the
+       * columns of the kept children.
+       */
+      double[][][] shrunk = smaller.getWeights();
+      for (int n = 0; n < layers - 1; n++)
+      {
+         int row = 0;
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            if (!keep[n][k])
+               continue;
+            int column = 0;
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               if (keep[n + 1][j])
+                  shrunk[n][row][column++] = outgoing[n][k][j];
+            row++;
+         }
+      }
+
+      smaller.setWeights(shrunk);
+      smaller.setInputTransform(network.getInputTransform());
+      smaller.setLoss(network.getLoss());
+      return smaller;
+   }// prune(double rangeTolerance, double weightTolerance)
+
+   /**
+    * Retrieves the number of neurons prune removed
+    * from a layer.
+    *
+    * @param n the layer
+    * @return the number of removed neurons
+    */
+   public int getRemoved(int n)
+   {
+      return removed[n];
+   }
+
+   /**
+    * Checks whether prune kept a carrier neuron in a
+    * layer.
+    *
+    * @param n the layer
+    * @return true if the layer has a carrier
+    */
+   public boolean hasCarrier(int n)
+   {
+      return carriers[n] >= 0;
+   }
+
+   /**
+    * Prints the neurons removed from each layer.
+    */
+   public void printSummary()
+   {
+      System.out.println("-------------------------");
+      System.out.println("Neuron Pruning Summary:");
+      for (int n = 1; n < dimensions.length - 1; n++)
+      {
+         System.out.println("Hidden Layer " + n + ": " + dimensions[n] + " -> " + (dimensions[n] - removed[n])
+               + " nodes" + (carriers[n] >= 0 ? " (node " + carriers[n] + " kept as carrier)" : ""));
+      }
+   }
+
+   /**
+    * Creates a mask that keeps every neuron.
+    *
+    * @param length the number of neurons
+    * @return an array of trues
+    */
+   private static boolean[] filled(int length)
+   {
+      boolean[] all = new boolean[length];
+      for (int i = 0; i < length; i++)
+         all[i] = true;
+      return all;
+   }
+
+   /**
+    * Finds the largest magnitude in a row of weights.
+    *
+    * @param row the outgoing weights of a neuron
+    * @return the largest magnitude
+    */
+   private static double largest(double[] row)
+   {
+      double max = 0.0;
+      for (double w : row)
+         max = Math.max(max, Math.abs(w));
+      return max;
+   }
+}// public class NeuronPruner
@@ -0,0 +1,310 @@
+package perceptron;
+
+/**
+ * Per-feature statistics of a data set (mean,
+ * variance, minimum and maximum) gathered in one
+ * streaming pass with Welford's algorithm, and the
+ * input transform that rescales every feature with
+ * them. Statistics of separate chunks can be merged,
+ * so large sets are summarized in parallel.
+ *
+ * Methods:
+ * Constructor:
+ *  - Normalizer(int features)
+ *  - Normalizer(Scaling scaling, long count, double[] mean, double[] variance, double[] min, double[] max)
+ * Public:
+ *  - Normalizer fit(double[][] rows, int threads)
+ *  - Normalizer fit(SampleFeed feed, int features, int outputs)
+ *  - void add(double[] row)
+ *  - void merge(Normalizer other)
+ *  - void setScaling(Scaling scaling)
+ *  - Scaling getScaling()
+ *  - long getCount()
+ *  - double[] getMean()
+ *  - double[] getVariance()
+ *  - double[] getMin()
+ *  - double[] getMax()
+ *  - void transform(double[] input, double[] output)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Normalizer implements InputTransform
+{
+   /*
+    * How each feature is rescaled.
+    */
+   public enum Scaling
+   {
+      STANDARD,         // (x - mean) / standard deviation
+      MINMAX            // (x - min) / (max - min), into [0, 1]
+   }
+
+   private Scaling scaling = Scaling.STANDARD;
+
+   private long count;              // The number of rows seen
+   private double[] mean;           // The running mean of each feature
+   private double[] m2;             // The running sum of squared differences from the mean
+   private double[] min;
+   private double[] max;
+
+   /**
+    * Creates empty statistics for the given number of
+    * features.
+    *
+    * @param features the length of each row
+    */
+   public Normalizer(int features)
+   {
+      mean = new double[features];
+      m2 = new double[features];
+      min = new double[features];
+      max = new double[features];
+      for (int i = 0; i < features; i++)
+      {
+         min[i] = Double.POSITIVE_INFINITY;
+         max[i] = Double.NEGATIVE_INFINITY;
+      }
+   }// Normalizer(int features)
+
+   /**
+    * Recreates statistics that were saved earlier.
+    *
+    * @param scaling  the rescaling to apply
+    * @param count    the number of rows summarized
+    * @param mean     the mean of each feature
+    * @param variance the population variance of each
+    *                 feature
+    * @param min      the minimum of each feature
+    * @param max      the maximum of each feature
+    */
+   public Normalizer(Scaling scaling, long count, double[] mean, double[] variance, double[] min, double[] max)
+   {
+      this.scaling = scaling;
+      this.count = count;
+      this.mean = mean.clone();
+      this.min = min.clone();
+      this.max = max.clone();
+      this.m2 = new double[variance.length];
+      for (int i = 0; i < variance.length; i++)
+         m2[i] = variance[i] * count;
+   }// Normalizer(Scaling scaling, long count, ...)
+
+   /**
+    * Summarizes the rows in one pass, splitting them
+    * into a chunk per thread and merging the chunks.
+    *
+    * @param rows    the rows of the data set
+    * @param threads the number of threads to use
+    * @return the statistics of all the rows
+    */
+   public static Normalizer fit(final double[][] rows, int threads)
+   {
+      final int features = rows.length == 0 ? 0 : rows[0].length;
+      threads = Math.max(1, Math.min(threads, rows.length));
+      final Normalizer[] chunks = new Normalizer[threads];
+      Thread[] workers = new Thread[threads];
+
+      /*
+       * Each thread summarizes one contiguous chunk of
+       * the rows.
+       */
+      for (int t = 0; t < threads; t++)
+      {
+         final int chunk = t;
+         final int from = (int) ((long) rows.length * t / threads);
+         final int to = (int) ((long) rows.length * (t + 1) / threads);
+         chunks[t] = new Normalizer(features);
+         workers[t] = new Thread(new Runnable()
+         {
+            public void run()
+            {
+               for (int r = from; r < to; r++)
+                  chunks[chunk].add(rows[r]);
+            }
+         });
+         workers[t].start();
+      }
+
+      Normalizer all = new Normalizer(features);
+      try
+      {
+         for (int t = 0; t < threads; t++)
+         {
+            workers[t].join();
+            all.merge(chunks[t]);
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while computing input statistics", e);
+      }
+      return all;
+   }// fit(double[][] rows, int threads)
+
+   /**
+    * Summarizes one epoch of a feed as it streams by,
+    * without storing any of the rows.
+    *
+    * @param feed     the source of the rows
+    * @param features the number of inputs
+    * @param outputs  the number of outputs
+    * @return the statistics of the inputs
+    */
+   public static Normalizer fit(SampleFeed feed, int features, int outputs)
+   {
+      Normalizer stats = new Normalizer(features);
+      double[] input = new double[features];
+      double[] truth = new double[outputs];
+
+      feed.startEpoch(1);
+      while (feed.next(input, truth))
+         stats.add(input);
+      return stats;
+   }// fit(SampleFeed feed, int features, int outputs)
+
+   /**
+    * Adds one row to the statistics.
+    *
+    * @param row the values of each feature
+    */
+   public void add(double[] row)
+   {
+      count++;
+      for (int i = 0; i < mean.length; i++)
+      {
+         double x = row[i];
+         double delta = x - mean[i];
+         mean[i] += delta / count;
+         m2[i] += delta * (x - mean[i]);                 // Welford's update of the squared differences
+
+         if (x < min[i])
+            min[i] = x;
+         if (x > max[i])
+            max[i] = x;
+      }
+   }// add(double[] row)
+
+   /**
+    * Merges the statistics of another chunk into
+    * these (Chan et al.'s pairwise combination).
+    *
+    * @param other the statistics of the other chunk
+    */
+   public void merge(Normalizer other)
+   {
+      if (other.count == 0)
+         return;
+
+      long total = count + other.count;
+      for (int i = 0; i < mean.length; i++)
+      {
+         double delta = other.mean[i] - mean[i];
+         mean[i] += delta * other.count / total;
+         m2[i] += other.m2[i] + delta * delta * ((double) count * other.count / total);
+         min[i] = Math.min(min[i], other.min[i]);
+         max[i] = Math.max(max[i], other.max[i]);
+      }
+      count = total;
+   }// merge(Normalizer other)
+
+   /**
+    * Sets how transform rescales each feature.
+    *
+    * @param scaling the rescaling to apply
+    */
+   public void setScaling(Scaling scaling)
+   {
+      this.scaling = scaling;
+   }
+
+   /**
+    * Retrieves how transform rescales each feature.
+    *
+    * @return the rescaling
+    */
+   public Scaling getScaling()
+   {
+      return scaling;
+   }
+
+   /**
+    * Retrieves the number of rows summarized.
+    *
+    * @return the row count
+    */
+   public long getCount()
+   {
+      return count;
+   }
+
+   /**
+    * Retrieves the mean of each feature.
+    *
+    * @return the means
+    */
+   public double[] getMean()
+   {
+      return mean.clone();
+   }
+
+   /**
+    * Retrieves the population variance of each
+    * feature.
+    *
+    * @return the variances
+    */
+   public double[] getVariance()
+   {
+      double[] variance = new double[m2.length];
+      for (int i = 0; i < m2.length; i++)
+         variance[i] = count == 0 ? 0.0 : m2[i] / count;
+      return variance;
+   }
+
+   /**
+    * Retrieves the minimum of each feature.
+    *
+    * @return the minimums
+    */
+   public double[] getMin()
+   {
+      return min.clone();
+   }
+
+   /**
+    * Retrieves the maximum of each feature.
+    *
+    * @return the maximums
+    */
+   public double[] getMax()
+   {
+      return max.clone();
+   }
+
+   /**
+    * Rescales every feature. Features that never
+    * vary are only shifted.
+    *
+    * @param input  the raw input activations
+    * @param output the array that receives the
+    *               rescaled activations
+    */
+   public void transform(double[] input, double[] output)
+   {
+      for (int i = 0; i < mean.length; i++)
+      {
+         if (scaling == Scaling.STANDARD)
+         {
+            double deviation = count == 0 ? 0.0 : Math.sqrt(m2[i] / count);
+            output[i] = deviation > 0.0 ? (input[i] - mean[i]) / deviation : input[i] - mean[i];
+         }
+         else
+         {
+            double range = max[i] - min[i];
+            output[i] = range > 0.0 ? (input[i] - min[i]) / range : 0.0;
+         }
+      }
+   }// transform(double[] input, double[] output)
+}// public class Normalizer
@@ -0,0 +1,232 @@
+package perceptron;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An array of doubles outside the Java heap, indexed
+ * by long so it can hold more than 2^31 values. The
+ * values live in chunks of direct or file mapped
+ * buffers of at most 2^27 doubles each, which the
+ * garbage collector never scans or copies.
+ *
+ * The memory is given back when close is called
+ * rather than whenever the collector gets to the
+ * buffers, and a mapped array writes its values back
+ * to its file. The array must not be used once it is
+ * closed.
+ *
+ * Methods:
+ * Constructor:
+ *  - OffHeapArray(long length)
+ * Public:
+ *  - OffHeapArray allocate(long length)
+ *  - OffHeapArray map(File file, long length)
+ *  - long length()
+ *  - long bytes()
+ *  - double get(long i)
+ *  - void set(long i, double value)
+ *  - void add(long i, double value)
+ *  - void close()
+ * Private:
+ *  - void free(ByteBuffer buffer)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class OffHeapArray
+{
+   public static final int CHUNK_SHIFT = 27;                       // 2^27 doubles, 1 GB, per buffer
+   private static final long CHUNK_MASK = (1L << CHUNK_SHIFT) - 1;
+
+   private long length;
+   private ByteBuffer[] buffers;         // Kept to free them
+   private DoubleBuffer[] chunks;        // Views of the buffers as doubles
+   private boolean mapped;
+
+   /**
+    * Sets up the chunk tables of an array.
+    *
+    * @param length the number of doubles
+    */
+   private OffHeapArray(long length)
+   {
+      this.length = length;
+      int count = (int) ((length + CHUNK_MASK) >>> CHUNK_SHIFT);
+      buffers = new ByteBuffer[count];
+      chunks = new DoubleBuffer[count];
+   }
+
+   /**
+    * Allocates a zeroed array in direct memory.
+    *
+    * @param length the number of doubles
+    * @return the array
+    */
+   public static OffHeapArray allocate(long length)
+   {
+      OffHeapArray array = new OffHeapArray(length);
+      for (int c = 0; c < array.chunks.length; c++)
+      {
+         long size = Math.min(CHUNK_MASK + 1, length - ((long) c << CHUNK_SHIFT));
+         array.buffers[c] = ByteBuffer.allocateDirect((int) (size * 8)).order(ByteOrder.nativeOrder());
+         array.chunks[c] = array.buffers[c].asDoubleBuffer();
+      }
+      return array;
+   }// allocate(long length)
+
+   /**
+    * Maps an array onto a file of little endian
+    * doubles, creating or growing the file to the
+    * length. Changes to the array reach the file.
+    *
+    * @param file   the file
+    * @param length the number of doubles
+    * @return the array
+    * @throws IOException if the file cannot be mapped
+    */
+   public static OffHeapArray map(File file, long length) throws IOException
+   {
+      OffHeapArray array = new OffHeapArray(length);
+      array.mapped = true;
+      FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+      try
+      {
+         for (int c = 0; c < array.chunks.length; c++)
+         {
+            long start = (long) c << CHUNK_SHIFT;
+            long size = Math.min(CHUNK_MASK + 1, length - start);
+            array.buffers[c] = channel.map(FileChannel.MapMode.READ_WRITE, start * 8, size * 8)
+                  .order(ByteOrder.LITTLE_ENDIAN);
+            array.chunks[c] = array.buffers[c].asDoubleBuffer();
+         }
+      }
+      finally
+      {
+         channel.close();                  // The mappings stay valid without the channel
+      }
+      return array;
+   }// map(File file, long length)
+
+   /**
+    * Retrieves the length.
+    *
+    * @return the number of doubles
+    */
+   public long length()
+   {
+      return length;
+   }
+
+   /**
+    * Retrieves the memory held.
+    *
+    * @return the number of bytes
+    */
+   public long bytes()
+   {
+      return length * 8;
+   }
+
+   /**
+    * Reads a value.
+    *
+    * @param i the index
+    * @return the value
+    */
+   public double get(long i)
+   {
+      return chunks[(int) (i >>> CHUNK_SHIFT)].get((int) (i & CHUNK_MASK));
+   }
+
+   /**
+    * Writes a value.
+    *
+    * @param i     the index
+    * @param value the value
+    */
+   public void set(long i, double value)
+   {
+      chunks[(int) (i >>> CHUNK_SHIFT)].put((int) (i & CHUNK_MASK), value);
+   }
+
+   /**
+    * Adds to a value.
+    *
+    * @param i     the index
+    * @param value the amount to add
+    */
+   public void add(long i, double value)
+   {
+      DoubleBuffer chunk = chunks[(int) (i >>> CHUNK_SHIFT)];
+      int offset = (int) (i & CHUNK_MASK);
+      chunk.put(offset, chunk.get(offset) + value);
+   }
+
+   /**
+    * Writes a mapped array back to its file and frees
+    * the memory of every chunk. Closing twice does
+    * nothing.
+    */
+   public void close()
+   {
+      if (buffers == null)
+         return;
+      for (ByteBuffer buffer : buffers)
+      {
+         if (mapped)
+            ((MappedByteBuffer) buffer).force();
+         free(buffer);
+      }
+      buffers = null;
+      chunks = null;
+   }// close()
+
+   /**
+    * Frees a direct or mapped buffer now instead of
+    * when it is collected. Java 9 and later free it
+    * through Unsafe.invokeCleaner, Java 8 through the
+    * buffer's own cleaner; if neither can be reached
+    * the buffer is left to the collector.
+    *
+    * @param buffer the buffer, unused afterwards
+    */
+   private static void free(ByteBuffer buffer)
+   {
+      try
+      {
+         Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+         Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+         theUnsafe.setAccessible(true);
+         Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+         invokeCleaner.invoke(theUnsafe.get(null), buffer);
+         return;
+      }
+      catch (ReflectiveOperationException e)
+      {
+         // No invokeCleaner before Java 9
+      }
+
+      try
+      {
+         Method cleaner = buffer.getClass().getMethod("cleaner");
+         cleaner.setAccessible(true);
+         Object clean = cleaner.invoke(buffer);
+         if (clean != null)
+            clean.getClass().getMethod("clean").invoke(clean);
+      }
+      catch (ReflectiveOperationException | RuntimeException e)
+      {
+         // Left to the garbage collector
+      }
+   }// free(ByteBuffer buffer)
+}// public class OffHeapArray
@@ -0,0 +1,485 @@
+package perceptron;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The network of Network with its weights, nodes and
+ * psi values kept in OffHeapArrays instead of nested
+ * arrays, so the heap and the time spent collecting it
+ * stay the same however large the model grows. A
+ * layer may hold more than 2^31 weights.
+ *
+ * The weights of layer n are stored row after row,
+ * the weight from node k to node j at
+ * offset[n] + k * dimensions[n + 1] + j. Mapped onto a
+ * file, that layout is also the file's, so a model
+ * can be trained in place and the file used as its
+ * checkpoint. Training matches Network case for case.
+ *
+ * Methods:
+ * Constructor:
+ *  - OffHeapNetwork(int[] dimensions, double lambda, OffHeapArray weights)
+ * Public:
+ *  - OffHeapNetwork allocate(int[] dimensions, double lambda)
+ *  - OffHeapNetwork map(File file, int[] dimensions, double lambda)
+ *  - long weightCount(int[] dimensions)
+ *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
+ *  - void setInputTransform(InputTransform transform)
+ *  - void setRandWeights(WeightInitializer initializer)
+ *  - void setWeights(double[][][] weights)
+ *  - double[][][] getWeights()
+ *  - double getWeight(int n, int k, int j)
+ *  - void setWeight(int n, int k, int j, double weight)
+ *  - int[] getDimensions()
+ *  - long getOffHeapBytes()
+ *  - double[] forwardPropagation(double[] input)
+ *  - void trainCase(double[] input, double[] truth)
+ *  - double computeError(Map<double[], double[]> trainSet)
+ *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - void printSummary()
+ *  - void close()
+ * Private:
+ *  - void forward(double[] input)
+ *  - long collections()
+ *  - long collectionMillis()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class OffHeapNetwork
+{
+   private int[] dimensions;
+   private int numLayers;
+   private int outputs;
+   private double lambda;
+
+   private OffHeapArray weights;
+   private long[] offsets;               // Where each layer's weights start
+   private OffHeapArray nodes;           // Every layer's activations, one after another
+   private OffHeapArray psi;             // Every layer's psi values, laid out like nodes
+   private long[] nodeOffsets;           // Where each layer's nodes start
+
+   private InputTransform transform;
+   private double[] transformed;
+
+   private int max_iterations;
+   private double error_threshold;
+
+   /**
+    * Sets up a network around its weights and
+    * allocates the nodes and psi values.
+    *
+    * @param dimensions the nodes in each layer
+    * @param lambda     the learning rate
+    * @param weights    the weights, weightCount long
+    */
+   public OffHeapNetwork(int[] dimensions, double lambda, OffHeapArray weights)
+   {
+      if (weights.length() != weightCount(dimensions))
+         throw new IllegalArgumentException("Expected " + weightCount(dimensions) + " weights, got " + weights.length());
+      this.dimensions = dimensions.clone();
+      this.numLayers = dimensions.length;
+      this.outputs = dimensions[numLayers - 1];
+      this.lambda = lambda;
+      this.weights = weights;
+
+      offsets = new long[numLayers - 1];
+      for (int n = 1; n < numLayers - 1; n++)
+         offsets[n] = offsets[n - 1] + (long) dimensions[n - 1] * dimensions[n];
+
+      nodeOffsets = new long[numLayers];
+      long totalNodes = dimensions[0];
+      for (int n = 1; n < numLayers; n++)
+      {
+         nodeOffsets[n] = totalNodes;
+         totalNodes += dimensions[n];
+      }
+      nodes = OffHeapArray.allocate(totalNodes);
+      psi = OffHeapArray.allocate(totalNodes);
+   }// OffHeapNetwork(int[] dimensions, double lambda, OffHeapArray weights)
+
+   /**
+    * Creates a network with zeroed weights in direct
+    * memory.
+    *
+    * @param dimensions the nodes in each layer
+    * @param lambda     the learning rate
+    * @return the network
+    */
+   public static OffHeapNetwork allocate(int[] dimensions, double lambda)
+   {
+      return new OffHeapNetwork(dimensions, lambda, OffHeapArray.allocate(weightCount(dimensions)));
+   }
+
+   /**
+    * Creates a network whose weights are mapped onto a
+    * file. An existing file of the right size supplies
+    * the weights; otherwise the file is sized to fit and
+    * the weights start at zero.
+    *
+    * @param file       the weights file
+    * @param dimensions the nodes in each layer
+    * @param lambda     the learning rate
+    * @return the network
+    * @throws IOException if the file cannot be mapped
+    */
+   public static OffHeapNetwork map(File file, int[] dimensions, double lambda) throws IOException
+   {
+      return new OffHeapNetwork(dimensions, lambda, OffHeapArray.map(file, weightCount(dimensions)));
+   }
+
+   /**
+    * Counts the weights of a network.
+    *
+    * @param dimensions the nodes in each layer
+    * @return the number of weights
+    */
+   public static long weightCount(int[] dimensions)
+   {
+      long count = 0;
+      for (int n = 0; n < dimensions.length - 1; n++)
+         count += (long) dimensions[n] * dimensions[n + 1];
+      return count;
+   }
+
+   /**
+    * Sets the training parameters
+    *
+    * @param max_iterations  the number of iterations
+    * @param error_threshold the error below which
+    *                        training stops
+    */
+   public void setTrainingHyperparams(int max_iterations, double error_threshold)
+   {
+      this.max_iterations = max_iterations;
+      this.error_threshold = error_threshold;
+   }
+
+   /**
+    * Sets the transform applied to every input.
+    *
+    * @param transform the transform, or null for none
+    */
+   public void setInputTransform(InputTransform transform)
+   {
+      this.transform = transform;
+      transformed = transform == null ? null : new double[dimensions[0]];
+   }
+
+   /**
+    * Sets the weights from a seeded initializer, one
+    * row at a time so no more than a row is held on
+    * the heap. The weights are the ones the
+    * initializer gives a Network of the same shape.
+    *
+    * @param initializer the scheme and seed of the
+    *                    weights
+    */
+   public void setRandWeights(WeightInitializer initializer)
+   {
+      SplittableRandom root = new SplittableRandom(initializer.getSeed());
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         double[] range = initializer.bounds(dimensions[n], dimensions[n + 1]);
+         double[] row = new double[dimensions[n + 1]];
+         for (int k = 0; k < dimensions[n]; k++)
+         {
+            WeightInitializer.fill(row, root.split(), range[0], range[1]);   // Split in the initializer's order
+            long start = offsets[n] + (long) k * dimensions[n + 1];
+            for (int j = 0; j < row.length; j++)
+               weights.set(start + j, row[j]);
+         }
+      }
+   }// setRandWeights(WeightInitializer initializer)
+
+   /**
+    * Copies weights in from nested arrays.
+    *
+    * @param weights the weights, indexed [n][k][j]
+    */
+   public void setWeights(double[][][] weights)
+   {
+      for (int n = 0; n < numLayers - 1; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               this.weights.set(offsets[n] + (long) k * dimensions[n + 1] + j, weights[n][k][j]);
+   }
+
+   /**
+    * Copies the weights out to nested arrays, which
+    * only fits models with fewer than 2^31 weights in
+    * a row.
+    *
+    * @return the weights, indexed [n][k][j]
+    */
+   public double[][][] getWeights()
+   {
+      double[][][] copy = new double[numLayers - 1][][];
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         copy[n] = new double[dimensions[n]][dimensions[n + 1]];
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+               copy[n][k][j] = getWeight(n, k, j);
+      }
+      return copy;
+   }// getWeights()
+
+   /**
+    * Reads one weight.
+    *
+    * @param n the layer of the parent node
+    * @param k the parent node
+    * @param j the child node
+    * @return the weight from k to j
+    */
+   public double getWeight(int n, int k, int j)
+   {
+      return weights.get(offsets[n] + (long) k * dimensions[n + 1] + j);
+   }
+
+   /**
+    * Changes one weight.
+    *
+    * @param n      the layer of the parent node
+    * @param k      the parent node
+    * @param j      the child node
+    * @param weight the new weight from k to j
+    */
+   public void setWeight(int n, int k, int j, double weight)
+   {
+      weights.set(offsets[n] + (long) k * dimensions[n + 1] + j, weight);
+   }
+
+   /**
+    * Retrieves the number of nodes in each layer.
+    *
+    * @return a copy of the dimensions
+    */
+   public int[] getDimensions()
+   {
+      return dimensions.clone();
+   }
+
+   /**
+    * Retrieves the memory the network holds outside
+    * the heap.
+    *
+    * @return the bytes of the weights, nodes and psi
+    *         values
+    */
+   public long getOffHeapBytes()
+   {
+      return weights.bytes() + nodes.bytes() + psi.bytes();
+   }
+
+   /**
+    * Runs the network on an input.
+    *
+    * @param input the input activations
+    * @return a copy of the output activations
+    */
+   public double[] forwardPropagation(double[] input)
+   {
+      forward(input);
+      double[] out = new double[outputs];
+      for (int i = 0; i < outputs; i++)
+         out[i] = nodes.get(nodeOffsets[numLayers - 1] + i);
+      return out;
+   }
+
+   /**
+    * Trains on one case: a forward pass, then psi
+    * values from the output back, with each weight
+    * used for omega before it is changed.
+    *
+    * @param input the input activations
+    * @param truth the truth values
+    */
+   public void trainCase(double[] input, double[] truth)
+   {
+      forward(input);
+
+      long top = nodeOffsets[numLayers - 1];
+      for (int i = 0; i < outputs; i++)
+      {
+         double activated = nodes.get(top + i);
+         psi.set(top + i, (truth[i] - activated) * (activated * (1.0 - activated)));
+      }
+
+      for (int n = numLayers - 1; n >= 1; n--)
+      {
+         long parents = nodeOffsets[n - 1];
+         long children = nodeOffsets[n];
+         for (int k = 0; k < dimensions[n - 1]; k++)
+         {
+            double node = nodes.get(parents + k);
+            long row = offsets[n - 1] + (long) k * dimensions[n];
+            double omega = 0.0;
+            for (int j = 0; j < dimensions[n]; j++)
+            {
+               double psiJ = psi.get(children + j);
+               double w = weights.get(row + j);
+               omega += w * psiJ;
+               weights.set(row + j, w + lambda * node * psiJ);
+            }
+            psi.set(parents + k, omega * (node * (1.0 - node)));
+         }
+      }// for (int n = numLayers - 1; n >= 1; n--)
+   }// trainCase(double[] input, double[] truth)
+
+   /**
+    * Computes the error on a set of cases.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    * @return the error per output
+    */
+   public double computeError(Map<double[], double[]> trainSet)
+   {
+      double error = 0.0;
+      long top = nodeOffsets[numLayers - 1];
+      for (double[] input : trainSet.keySet())
+      {
+         forward(input);
+         double[] truth = trainSet.get(input);
+         for (int i = 0; i < outputs; i++)
+         {
+            double difference = truth[i] - nodes.get(top + i);
+            error += 0.5 * difference * difference;
+         }
+      }
+      return error / ((double) trainSet.size() * (double) outputs);
+   }// computeError(Map<double[], double[]> trainSet)
+
+   /**
+    * Trains the network on the given training set
+    * until the error is below the threshold or the
+    * iterations run out, then reports the heap and the
+    * collector's work during training.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet)
+   {
+      printSummary();
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("OFF-HEAP TRAINING STARTED AT " + timestamp);
+      long startCollections = collections();
+      long startMillis = collectionMillis();
+
+      boolean error_threshold_met = false;
+      int iteration = 0;
+      while (iteration <= max_iterations && !error_threshold_met)
+      {
+         iteration++;
+         for (double[] input : trainSet.keySet())
+            trainCase(input, trainSet.get(input));
+         if (computeError(trainSet) < error_threshold)
+            error_threshold_met = true;
+      }
+
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp);
+      if (error_threshold_met)
+         System.out.println("TRAINING ENDED EARLY AFTER " + iteration + " ITERATIONS: Error below threshold");
+      else
+         System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
+      System.out.println("Error: " + computeError(trainSet));
+      System.out.println("Off-heap: " + getOffHeapBytes() / 1024 + " KB, heap in use: "
+            + ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() / 1024 + " KB, collections: "
+            + (collections() - startCollections) + " taking " + (collectionMillis() - startMillis) + " ms");
+   }// trainNetwork(Map<double[], double[]> trainSet)
+
+   /**
+    * Prints the layers and the memory they take.
+    */
+   public void printSummary()
+   {
+      System.out.println("-------------------------");
+      System.out.println("Off-Heap Network Summary:");
+      System.out.println("Input Layer: " + dimensions[0] + " nodes");
+      for (int n = 1; n < numLayers - 1; n++)
+         System.out.println("Hidden Layer " + n + ": " + dimensions[n] + " nodes");
+      System.out.println("Output Layer: " + dimensions[numLayers - 1] + " nodes");
+      System.out.println("Lambda: " + lambda);
+      System.out.println("Max_Iterations: " + max_iterations);
+      System.out.println("Weights: " + weights.length() + " (" + getOffHeapBytes() / 1024 + " KB off the heap)");
+   }
+
+   /**
+    * Frees the weights, nodes and psi values, writing
+    * mapped weights back to their file. The network
+    * must not be used afterwards.
+    */
+   public void close()
+   {
+      weights.close();
+      nodes.close();
+      psi.close();
+   }
+
+   /**
+    * Computes every layer's activations for an input.
+    *
+    * @param input the input activations
+    */
+   private void forward(double[] input)
+   {
+      if (transform != null)
+      {
+         transform.transform(input, transformed);
+         input = transformed;
+      }
+      for (int i = 0; i < dimensions[0]; i++)
+         nodes.set(i, input[i]);
+
+      for (int n = 1; n < numLayers; n++)
+      {
+         long parents = nodeOffsets[n - 1];
+         for (int j = 0; j < dimensions[n]; j++)
+         {
+            double dotProduct = 0.0;
+            for (int k = 0; k < dimensions[n - 1]; k++)
+               dotProduct += nodes.get(parents + k) * weights.get(offsets[n - 1] + (long) k * dimensions[n] + j);
+            nodes.set(nodeOffsets[n] + j, Network.activation(dotProduct));
+         }
+      }
+   }// forward(double[] input)
+
+   /**
+    * Counts the collections so far.
+    *
+    * @return the collections of every collector
+    */
+   private static long collections()
+   {
+      long count = 0;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+         count += Math.max(0, collector.getCollectionCount());
+      return count;
+   }
+
+   /**
+    * Adds up the time spent collecting so far.
+    *
+    * @return the milliseconds of every collector
+    */
+   private static long collectionMillis()
+   {
+      long millis = 0;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+         millis += Math.max(0, collector.getCollectionTime());
+      return millis;
+   }
+}// public class OffHeapNetwork
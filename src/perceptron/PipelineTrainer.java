@@ -0,0 +1,501 @@
+package perceptron;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Trains a deep network with its layers split into
+ * stages, each run by its own thread and holding only
+ * its own layers' weights. A batch of cases is cut
+ * into micro-batches; activations flow forward from
+ * stage to stage and omega values flow back through
+ * single producer, single consumer queues.
+ *
+ * Each stage follows the 1F1B schedule: it runs
+ * enough forward passes to fill the stages after it,
+ * then alternates one forward and one backward pass,
+ * then drains the remaining backward passes, so a
+ * stage never holds the activations of more
+ * micro-batches than there are stages after it. The
+ * weight changes of a batch are summed and applied
+ * once every micro-batch has gone back through the
+ * stage, which makes training mini-batch gradient
+ * descent: the same result whatever the number of
+ * stages or micro-batches.
+ *
+ * The time each stage spends waiting on its queues is
+ * its bubble; a stage with a much smaller bubble than
+ * the others is the bottleneck and should get fewer
+ * layers.
+ *
+ * Methods:
+ * Constructor:
+ *  - PipelineTrainer(Network network, int[] boundaries, int batchSize, int microBatchSize)
+ * Public:
+ *  - int[] balance(int[] dimensions, int stages)
+ *  - void setTrainingHyperparams(int max_iterations, double error_threshold)
+ *  - void trainEpoch(List<double[]> inputs, List<double[]> truths)
+ *  - void trainNetwork(Map<double[], double[]> trainSet)
+ *  - void printStats()
+ * Private:
+ *  - void runStage(int s, List<double[]> inputs, List<double[]> truths)
+ *  - void abort(Throwable cause)
+ *  - double[][][] forward(int s, double[][] input)
+ *  - void backward(int s, double[][][] activations, double[][] psi)
+ *  - void apply(int s)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class PipelineTrainer
+{
+   private Network network;
+   private int[] dimensions;
+   private int stages;
+   private int[] first;                  // The layer of nodes each stage starts from
+   private int[] last;                   // The layer of nodes each stage ends at
+
+   private int batchSize;
+   private int microBatchSize;
+   private double[][][] changes;         // The summed weight changes of the batch, indexed like
+                                         // the weights; each layer is touched only by its stage
+
+   private List<SpscQueue<double[][]>> forwardQueues = new ArrayList<SpscQueue<double[][]>>();    // Stage s to s + 1
+   private List<SpscQueue<double[][]>> backwardQueues = new ArrayList<SpscQueue<double[][]>>();   // Stage s + 1 to s
+
+   private long[] busyNanos;             // Written by each stage's thread, read after joining it
+   private Throwable failure;            // The first exception thrown by a stage, guarded by this
+   private long[] idleNanos;
+
+   private int max_iterations;
+   private double error_threshold;
+
+   /**
+    * Splits a network into stages.
+    *
+    * @param network        the network to train
+    * @param boundaries     the layer of nodes each stage
+    *                       starts from, increasing from
+    *                       0
+    * @param batchSize      the cases whose changes are
+    *                       applied together
+    * @param microBatchSize the cases that move through
+    *                       the stages together
+    */
+   public PipelineTrainer(Network network, int[] boundaries, int batchSize, int microBatchSize)
+   {
+      this.network = network;
+      this.dimensions = network.getDimensions();
+      this.stages = boundaries.length;
+      this.batchSize = batchSize;
+      this.microBatchSize = microBatchSize;
+
+      if (boundaries[0] != 0 || boundaries[stages - 1] >= dimensions.length - 1)
+         throw new IllegalArgumentException("Stages must start at layer 0 and each hold at least one layer");
+      first = boundaries.clone();
+      last = new int[stages];
+      for (int s = 0; s < stages; s++)
+      {
+         last[s] = s < stages - 1 ? boundaries[s + 1] : dimensions.length - 1;
+         if (last[s] <= first[s])
+            throw new IllegalArgumentException("Stage " + s + " holds no layers");
+      }
+
+      double[][][] weights = network.getWeights();
+      changes = new double[weights.length][][];
+      for (int n = 0; n < weights.length; n++)
+         changes[n] = new double[dimensions[n]][dimensions[n + 1]];
+
+      int inFlight = (batchSize + microBatchSize - 1) / microBatchSize + 1;
+      for (int s = 0; s < stages - 1; s++)
+      {
+         forwardQueues.add(new SpscQueue<double[][]>(inFlight));
+         backwardQueues.add(new SpscQueue<double[][]>(inFlight));
+      }
+      busyNanos = new long[stages];
+      idleNanos = new long[stages];
+   }// PipelineTrainer(...)
+
+   /**
+    * Splits the layers into stages with about the same
+    * number of weights each.
+    *
+    * @param dimensions the nodes in each layer
+    * @param stages     the number of stages, at most
+    *                   the number of weight layers
+    * @return the layer of nodes each stage starts from
+    */
+   public static int[] balance(int[] dimensions, int stages)
+   {
+      int layers = dimensions.length - 1;
+      stages = Math.max(1, Math.min(stages, layers));
+      long total = 0;
+      for (int n = 0; n < layers; n++)
+         total += (long) dimensions[n] * dimensions[n + 1];
+
+      int[] boundaries = new int[stages];
+      long sum = 0;
+      int s = 1;
+      for (int n = 0; n < layers && s < stages; n++)
+      {
+         sum += (long) dimensions[n] * dimensions[n + 1];
+         if (sum * stages >= total * s || layers - (n + 1) == stages - s)    // Enough weights, or only one layer
+            boundaries[s++] = n + 1;                                         // left for each remaining stage
+      }
+      return boundaries;
+   }// balance(int[] dimensions, int stages)
+
+   /**
+    * Sets the training parameters
+    *
+    * @param max_iterations  the number of iterations
+    * @param error_threshold the error below which
+    *                        training stops
+    */
+   public void setTrainingHyperparams(int max_iterations, double error_threshold)
+   {
+      this.max_iterations = max_iterations;
+      this.error_threshold = error_threshold;
+   }
+
+   /**
+    * Trains one pass over the cases, in batches, with
+    * one thread per stage.
+    *
+    * @param inputs the input activations of each case
+    * @param truths the truth values of each case
+    * @throws IllegalStateException if a stage failed,
+    *                               unless it threw an
+    *                               unchecked exception,
+    *                               which is rethrown
+    */
+   public void trainEpoch(final List<double[]> inputs, final List<double[]> truths)
+   {
+      Thread[] threads = new Thread[stages];
+      for (int s = 0; s < stages; s++)
+      {
+         final int stage = s;
+         threads[s] = new Thread(new Runnable()
+         {
+            public void run()
+            {
+               try
+               {
+                  runStage(stage, inputs, truths);
+               }
+               catch (Throwable e)
+               {
+                  abort(e);                                   // Stops the neighbours spinning on this stage
+               }
+            }
+         }, "pipeline stage " + s);
+         threads[s].start();
+      }
+
+      try
+      {
+         for (Thread t : threads)
+            t.join();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while training", e);
+      }
+      network.weightsChanged();
+
+      Throwable cause;
+      synchronized (this)
+      {
+         cause = failure;
+      }
+      if (cause instanceof Error)
+         throw (Error) cause;
+      if (cause instanceof RuntimeException)
+         throw (RuntimeException) cause;
+      if (cause != null)
+         throw new IllegalStateException("A pipeline stage failed", cause);
+   }// trainEpoch(List<double[]> inputs, List<double[]> truths)
+
+   /**
+    * Trains the network on the given training set
+    * until the error is below the threshold or the
+    * iterations run out.
+    *
+    * @param trainSet A map that maps input
+    *                 activations the expected
+    *                 output.
+    */
+   public void trainNetwork(Map<double[], double[]> trainSet)
+   {
+      List<double[]> inputs = new ArrayList<double[]>(trainSet.keySet());
+      List<double[]> truths = new ArrayList<double[]>();
+      for (double[] input : inputs)
+         truths.add(trainSet.get(input));
+
+      network.printSummary();
+      String timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING IN " + stages + " PIPELINE STAGES STARTED AT " + timestamp);
+
+      boolean error_threshold_met = false;
+      int iteration = 0;
+      while (iteration <= max_iterations && !error_threshold_met)
+      {
+         iteration++;
+         trainEpoch(inputs, truths);
+         if (network.computeError(trainSet) < error_threshold)
+            error_threshold_met = true;
+      }
+
+      timestamp = new SimpleDateFormat("yyyy-MM-dd-HH.mm.ss").format(new Date());
+      System.out.println("TRAINING ENDED AT " + timestamp);
+      if (error_threshold_met)
+         System.out.println("TRAINING ENDED EARLY AFTER " + iteration + " ITERATIONS: Error below threshold");
+      else
+         System.out.println("TRAINING ENDED: MAXIMUM ITERATIONS REACHED: " + max_iterations + " ITERATIONS.");
+      System.out.println("Error: " + network.computeError(trainSet));
+      printStats();
+   }// trainNetwork(Map<double[], double[]> trainSet)
+
+   /**
+    * Prints each stage's layers, weights, working time
+    * and bubble, the share of its time spent waiting.
+    */
+   public void printStats()
+   {
+      System.out.println("-------------------------");
+      System.out.println("Pipeline Stages (batches of " + batchSize + ", micro-batches of " + microBatchSize + "):");
+      for (int s = 0; s < stages; s++)
+      {
+         long weights = 0;
+         for (int n = first[s]; n < last[s]; n++)
+            weights += (long) dimensions[n] * dimensions[n + 1];
+         long total = busyNanos[s] + idleNanos[s];
+         System.out.println("Stage " + s + ": layers " + first[s] + "-" + last[s] + ", " + weights + " weights, busy "
+               + busyNanos[s] / 1000000 + "ms, waiting " + idleNanos[s] / 1000000 + "ms, bubble "
+               + (total == 0 ? 0 : Math.round(1000.0 * idleNanos[s] / total) / 10.0) + "%");
+      }
+   }// printStats()
+
+   /**
+    * Runs one stage over every batch of the epoch in
+    * the 1F1B order.
+    *
+    * @param s      the stage
+    * @param inputs the input activations of each case
+    * @param truths the truth values of each case
+    */
+   private void runStage(int s, List<double[]> inputs, List<double[]> truths)
+   {
+      long started = System.nanoTime();
+      long idle = 0;
+      InputTransform transform = network.getInputTransform();
+      int outputs = dimensions[dimensions.length - 1];
+
+      for (int start = 0; start < inputs.size(); start += batchSize)
+      {
+         int end = Math.min(start + batchSize, inputs.size());
+         int micro = (end - start + microBatchSize - 1) / microBatchSize;
+         int warmup = Math.min(stages - 1 - s, micro);                   // Forward passes before the first backward
+         double[][][][] saved = new double[warmup + 1][][][];            // Activations of the micro-batches in flight
+
+         int forwards = 0;
+         int backwards = 0;
+         while (backwards < micro)
+         {
+            if (forwards < micro && (forwards < warmup || forwards == backwards + warmup))
+            {
+               int from = start + forwards * microBatchSize;
+               int to = Math.min(from + microBatchSize, end);
+               double[][] input;
+               if (s == 0)
+               {
+                  input = new double[to - from][];
+                  for (int c = from; c < to; c++)
+                  {
+                     input[c - from] = inputs.get(c);
+                     if (transform != null)
+                     {
+                        input[c - from] = new double[dimensions[0]];
+                        transform.transform(inputs.get(c), input[c - from]);
+                     }
+                  }
+               }
+               else
+               {
+                  long wait = System.nanoTime();
+                  input = forwardQueues.get(s - 1).take();
+                  idle += System.nanoTime() - wait;
+               }
+
+               double[][][] activations = forward(s, input);
+               saved[forwards % saved.length] = activations;
+               if (s < stages - 1)
+                  forwardQueues.get(s).put(activations[activations.length - 1]);
+               forwards++;
+            }
+            else
+            {
+               double[][][] activations = saved[backwards % saved.length];
+               double[][] out = activations[activations.length - 1];
+               double[][] psi = new double[out.length][];
+               if (s == stages - 1)
+               {
+                  int from = start + backwards * microBatchSize;
+                  for (int c = 0; c < out.length; c++)
+                  {
+                     psi[c] = new double[outputs];
+                     network.getLoss().outputPsi(out[c], truths.get(from + c), psi[c]);
+                  }
+               }
+               else
+               {
+                  long wait = System.nanoTime();
+                  double[][] omega = backwardQueues.get(s).take();
+                  idle += System.nanoTime() - wait;
+                  for (int c = 0; c < out.length; c++)
+                  {
+                     psi[c] = new double[omega[c].length];
+                     for (int j = 0; j < psi[c].length; j++)
+                        psi[c][j] = omega[c][j] * (out[c][j] * (1.0 - out[c][j]));
+                  }
+               }
+
+               backward(s, activations, psi);
+               saved[backwards % saved.length] = null;
+               backwards++;
+            }
+         }// while (backwards < micro)
+
+         apply(s);
+      }// for (int start = 0; start < inputs.size(); start += batchSize)
+
+      idleNanos[s] += idle;
+      busyNanos[s] += System.nanoTime() - started - idle;
+   }// runStage(int s, List<double[]> inputs, List<double[]> truths)
+
+   /**
+    * Records the first failure of a stage and aborts
+    * every queue, so the other stages stop waiting on
+    * it and the epoch can end.
+    *
+    * @param cause what the stage threw
+    */
+   private synchronized void abort(Throwable cause)
+   {
+      if (failure == null)
+         failure = cause;
+      for (SpscQueue<double[][]> queue : forwardQueues)
+         queue.abort();
+      for (SpscQueue<double[][]> queue : backwardQueues)
+         queue.abort();
+   }
+
+   /**
+    * Computes a stage's layers for a micro-batch.
+    *
+    * @param s     the stage
+    * @param input the activations entering the stage,
+    *              one row per case
+    * @return the activations of every layer of the
+    *         stage, starting with the input
+    */
+   private double[][][] forward(int s, double[][] input)
+   {
+      double[][][] weights = network.getWeights();
+      double[][][] activations = new double[last[s] - first[s] + 1][][];
+      activations[0] = input;
+
+      for (int n = first[s] + 1; n <= last[s]; n++)
+      {
+         double[][] w = weights[n - 1];
+         double[][] parents = activations[n - 1 - first[s]];
+         double[][] children = new double[input.length][dimensions[n]];
+         boolean softmax = n == dimensions.length - 1 && network.getLoss().isSoftmax();
+         for (int c = 0; c < input.length; c++)
+         {
+            for (int j = 0; j < dimensions[n]; j++)
+            {
+               double dotProduct = 0.0;
+               for (int k = 0; k < dimensions[n - 1]; k++)
+                  dotProduct += parents[c][k] * w[k][j];
+               children[c][j] = softmax ? dotProduct : Network.activation(dotProduct);
+            }
+            if (softmax)
+               Loss.softmax(children[c]);
+         }
+         activations[n - first[s]] = children;
+      }
+      return activations;
+   }// forward(int s, double[][] input)
+
+   /**
+    * Passes the psi values of a stage's last layer
+    * back through its layers, adding up the weight
+    * changes and sending the omega values of its first
+    * layer to the stage before.
+    *
+    * @param s           the stage
+    * @param activations the stage's activations for
+    *                    the micro-batch
+    * @param psi         the psi values of the stage's
+    *                    last layer, one row per case
+    */
+   private void backward(int s, double[][][] activations, double[][] psi)
+   {
+      double[][][] weights = network.getWeights();
+      double lambda = network.getLambda();
+      int cases = psi.length;
+
+      for (int n = last[s]; n > first[s]; n--)
+      {
+         double[][] w = weights[n - 1];
+         double[][] change = changes[n - 1];
+         double[][] parents = activations[n - 1 - first[s]];
+         boolean edge = n - 1 == first[s];                               // The layer below belongs to another stage
+         double[][] below = new double[cases][dimensions[n - 1]];
+
+         for (int c = 0; c < cases; c++)
+            for (int k = 0; k < dimensions[n - 1]; k++)
+            {
+               double omega = 0.0;
+               for (int j = 0; j < dimensions[n]; j++)
+               {
+                  omega += w[k][j] * psi[c][j];
+                  change[k][j] += lambda * parents[c][k] * psi[c][j];
+               }
+               double activated = parents[c][k];
+               below[c][k] = edge ? omega : omega * (activated * (1.0 - activated));
+            }
+
+         if (edge)
+         {
+            if (s > 0)
+               backwardQueues.get(s - 1).put(below);
+         }
+         else
+            psi = below;
+      }// for (int n = last[s]; n > first[s]; n--)
+   }// backward(int s, double[][][] activations, double[][] psi)
+
+   /**
+    * Adds a stage's summed changes to its weights and
+    * clears them for the next batch.
+    *
+    * @param s the stage
+    */
+   private void apply(int s)
+   {
+      double[][][] weights = network.getWeights();
+      for (int n = first[s]; n < last[s]; n++)
+         for (int k = 0; k < dimensions[n]; k++)
+            for (int j = 0; j < dimensions[n + 1]; j++)
+            {
+               weights[n][k][j] += changes[n][k][j];
+               changes[n][k][j] = 0.0;
+            }
+   }
+}// public class PipelineTrainer
@@ -0,0 +1,159 @@
+package perceptron;
+
+/**
+ * A max pooling layer. Each channel is cut into
+ * non-overlapping size x size windows and each
+ * window is replaced by its largest value, so the
+ * image shrinks by the window size in both
+ * directions. Rows or columns left over at the edge
+ * are dropped. The backward pass hands each output's
+ * gradient to the input that won its window.
+ *
+ * Methods:
+ * Constructor:
+ *  - PoolLayer(int channels, int height, int width, int size)
+ * Public:
+ *  - int[] getInputShape()
+ *  - int[] getOutputShape()
+ *  - double[] forward(double[] input)
+ *  - double[] backward(double[] gradient, double lambda)
+ *  - double[][] getWeights()
+ *  - long getFlops()
+ *  - String describe()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class PoolLayer implements ImageLayer
+{
+   private int channels, height, width;   // The input shape
+   private int size;
+   private int outHeight, outWidth;
+
+   private double[] output;
+   private int[] winners;                 // The input index of each output's maximum
+   private double[] inputGradient;
+
+   /**
+    * Sets up a pooling layer.
+    *
+    * @param channels the input channels
+    * @param height   the input height
+    * @param width    the input width
+    * @param size     the side of each window
+    */
+   public PoolLayer(int channels, int height, int width, int size)
+   {
+      if (size > height || size > width)
+         throw new IllegalArgumentException("A " + size + "x" + size + " pool does not fit a " + width + "x" + height + " image");
+
+      this.channels = channels;
+      this.height = height;
+      this.width = width;
+      this.size = size;
+      this.outHeight = height / size;
+      this.outWidth = width / size;
+
+      output = new double[channels * outHeight * outWidth];
+      winners = new int[output.length];
+      inputGradient = new double[channels * height * width];
+   }// PoolLayer(int channels, int height, int width, int size)
+
+   /**
+    * Retrieves the shape of the input image.
+    *
+    * @return the channels, height and width
+    */
+   public int[] getInputShape()
+   {
+      return new int[] { channels, height, width };
+   }
+
+   /**
+    * Retrieves the shape of the output image.
+    *
+    * @return the channels, output height and output
+    *         width
+    */
+   public int[] getOutputShape()
+   {
+      return new int[] { channels, outHeight, outWidth };
+   }
+
+   /**
+    * Takes the maximum of every window.
+    *
+    * @param input the flattened input image
+    * @return the flattened output image
+    */
+   public double[] forward(double[] input)
+   {
+      int o = 0;
+      for (int c = 0; c < channels; c++)
+         for (int y = 0; y < outHeight; y++)
+            for (int x = 0; x < outWidth; x++)
+            {
+               int best = (c * height + y * size) * width + x * size;
+               for (int dy = 0; dy < size; dy++)
+               {
+                  int row = (c * height + y * size + dy) * width + x * size;
+                  for (int dx = 0; dx < size; dx++)
+                     if (input[row + dx] > input[best])
+                        best = row + dx;
+               }
+               winners[o] = best;
+               output[o++] = input[best];
+            }
+      return output;
+   }// forward(double[] input)
+
+   /**
+    * Routes each output's gradient to the input that
+    * won its window.
+    *
+    * @param gradient the negative error gradient of
+    *                 each output
+    * @param lambda   unused, the layer has no weights
+    * @return the negative error gradient of each
+    *         input
+    */
+   public double[] backward(double[] gradient, double lambda)
+   {
+      for (int i = 0; i < inputGradient.length; i++)
+         inputGradient[i] = 0.0;
+      for (int o = 0; o < output.length; o++)
+         inputGradient[winners[o]] += gradient[o];
+      return inputGradient;
+   }
+
+   /**
+    * Retrieves the weights, of which there are none.
+    *
+    * @return an empty array
+    */
+   public double[][] getWeights()
+   {
+      return new double[0][0];
+   }
+
+   /**
+    * Counts the comparisons of one forward pass.
+    *
+    * @return the comparisons per image
+    */
+   public long getFlops()
+   {
+      return (long) output.length * size * size;
+   }
+
+   /**
+    * Describes the layer for summaries.
+    *
+    * @return a short description
+    */
+   public String describe()
+   {
+      return "Max pool " + size + "x" + size + ": " + channels + "x" + height + "x" + width + " -> " + channels + "x" + outHeight
+            + "x" + outWidth;
+   }
+}// public class PoolLayer
@@ -0,0 +1,317 @@
+package perceptron;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Runs another feed on a loader thread so the next
+ * batch of cases is read, decoded and shuffled while
+ * the network trains on the current one.
+ *
+ * The batches live in a ring of preallocated buffers
+ * that are handed back and forth through two
+ * array-backed queues, so once the ring is built the
+ * pipeline allocates nothing. The loader keeps
+ * running into the next epoch while the trainer
+ * finishes the current one. The depth of the ready
+ * queue and the time the trainer and loader spend
+ * waiting on each other are recorded and reported by
+ * printStats.
+ *
+ * Methods:
+ * Constructor:
+ *  - PrefetchFeed(SampleFeed source, int inputs, int outputs, int batchSize, int depth, long seed)
+ * Public:
+ *  - void startEpoch(int epoch)
+ *  - boolean next(double[] input, double[] truth)
+ *  - void close()
+ *  - double getAverageDepth()
+ *  - long getStallNanos()
+ *  - long getLoaderStallNanos()
+ *  - void printStats()
+ * Private:
+ *  - void load()
+ *  - void shuffle(Batch batch)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class PrefetchFeed implements SampleFeed
+{
+   /*
+    * One preallocated buffer of the ring.
+    */
+   private static final class Batch
+   {
+      double[][] inputs;
+      double[][] truths;
+      int count;                   // The number of cases filled in
+      boolean lastOfEpoch;         // Whether the epoch ends with this batch
+   }
+
+   private SampleFeed source;                  // The feed run on the loader thread
+   private SplittableRandom rng;               // Shuffles the cases within each batch, null to keep order
+
+   private BlockingQueue<Batch> free;          // Buffers waiting to be filled
+   private BlockingQueue<Batch> ready;         // Buffers waiting to be trained on
+
+   private Batch poison;                       // Wakes the trainer if the loader fails
+
+   private Batch current;                      // The batch the trainer is reading
+   private int position;                       // The next case of the current batch
+
+   private Thread loader;
+   private volatile boolean running = false;
+   private volatile Throwable failure;         // Thrown by the source on the loader thread
+
+   private long takes = 0;                     // The statistics of the pipeline
+   private long depthTotal = 0;
+   private long stallNanos = 0;
+   private volatile long loaderStallNanos = 0;
+
+   /**
+    * Builds the ring of buffers. The loader starts
+    * with the first epoch.
+    *
+    * @param source    the feed to run ahead of the
+    *                  trainer
+    * @param inputs    the number of input activations
+    * @param outputs   the number of outputs
+    * @param batchSize the number of cases per buffer
+    * @param depth     the number of buffers, at least
+    *                  2 for double buffering
+    * @param seed      the seed used to shuffle each
+    *                  batch, or -1 to keep the order of
+    *                  the source
+    */
+   public PrefetchFeed(SampleFeed source, int inputs, int outputs, int batchSize, int depth, long seed)
+   {
+      this.source = source;
+      this.rng = seed == -1 ? null : new SplittableRandom(seed);
+
+      depth = Math.max(2, depth);
+      free = new ArrayBlockingQueue<Batch>(depth);
+      ready = new ArrayBlockingQueue<Batch>(depth + 1);           // Leaves room for the poison batch
+      poison = new Batch();
+      poison.inputs = new double[0][];
+      poison.truths = new double[0][];
+      poison.lastOfEpoch = true;
+      for (int d = 0; d < depth; d++)
+      {
+         Batch batch = new Batch();
+         batch.inputs = new double[batchSize][inputs];
+         batch.truths = new double[batchSize][outputs];
+         free.add(batch);
+      }
+   }// PrefetchFeed(...)
+
+   /**
+    * Starts the loader thread the first time it is
+    * called. The loader already knows where each
+    * epoch ends, so later calls do nothing.
+    *
+    * @param epoch the number of the epoch
+    */
+   public void startEpoch(int epoch)
+   {
+      if (!running)
+      {
+         running = true;
+         loader = new Thread(new Runnable()
+         {
+            public void run()
+            {
+               load();
+            }
+         }, "prefetch-loader");
+         loader.setDaemon(true);
+         loader.start();
+      }
+   }// startEpoch(int epoch)
+
+   /**
+    * Copies the next case of the current batch,
+    * taking the next ready batch when the current one
+    * is used up.
+    *
+    * @param input the array that receives the inputs
+    * @param truth the array that receives the outputs
+    * @return false at the end of the epoch
+    */
+   public boolean next(double[] input, double[] truth)
+   {
+      try
+      {
+         /*
+          * Hands used up batches back to the loader and
+          * waits for the next one. An empty batch can only
+          * be the end of an epoch.
+          */
+         while (current == null || position == current.count)
+         {
+            if (current != null)
+            {
+               boolean last = current.lastOfEpoch;
+               free.put(current);
+               current = null;
+               if (last)
+                  return false;
+            }
+
+            takes++;
+            depthTotal += ready.size();
+            long start = System.nanoTime();
+            current = ready.take();
+            stallNanos += System.nanoTime() - start;
+            position = 0;
+
+            if (current == poison)
+            {
+               if (failure instanceof Error)
+                  throw (Error) failure;
+               throw (RuntimeException) failure;                // Nothing else escapes the loader
+            }
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         return false;
+      }
+
+      System.arraycopy(current.inputs[position], 0, input, 0, input.length);
+      System.arraycopy(current.truths[position], 0, truth, 0, truth.length);
+      position++;
+      return true;
+   }// next(double[] input, double[] truth)
+
+   /**
+    * Stops the loader thread.
+    */
+   public void close()
+   {
+      running = false;
+      if (loader != null)
+         loader.interrupt();
+   }
+
+   /**
+    * Retrieves the average number of ready batches
+    * found in the queue each time the trainer took
+    * one. Near zero means the loader is the
+    * bottleneck.
+    *
+    * @return the average queue depth
+    */
+   public double getAverageDepth()
+   {
+      return takes == 0 ? 0.0 : (double) depthTotal / takes;
+   }
+
+   /**
+    * Retrieves the time the trainer spent waiting for
+    * a ready batch.
+    *
+    * @return the trainer stall time in nanoseconds
+    */
+   public long getStallNanos()
+   {
+      return stallNanos;
+   }
+
+   /**
+    * Retrieves the time the loader spent waiting for
+    * a free buffer, which is time the trainer was the
+    * bottleneck.
+    *
+    * @return the loader stall time in nanoseconds
+    */
+   public long getLoaderStallNanos()
+   {
+      return loaderStallNanos;
+   }
+
+   /**
+    * Prints the queue depth and stall times.
+    */
+   public void printStats()
+   {
+      System.out.println("Prefetch: batches taken: " + takes + "; average queue depth: "
+            + String.format("%.2f", getAverageDepth()) + "; trainer stalled " + (stallNanos / 1000000) + " ms"
+            + "; loader stalled " + (loaderStallNanos / 1000000) + " ms");
+   }
+
+   /**
+    * The loop run by the loader thread. Pulls the
+    * source one epoch after the other into free
+    * buffers and marks the last buffer of each epoch.
+    */
+   private void load()
+   {
+      int epoch = 0;
+      try
+      {
+         while (running)
+         {
+            epoch++;
+            source.startEpoch(epoch);
+
+            boolean more = true;
+            while (more)
+            {
+               long start = System.nanoTime();
+               Batch batch = free.take();
+               loaderStallNanos += System.nanoTime() - start;
+
+               batch.count = 0;
+               while (batch.count < batch.inputs.length
+                     && (more = source.next(batch.inputs[batch.count], batch.truths[batch.count])))
+               {
+                  batch.count++;
+               }
+               batch.lastOfEpoch = !more;
+
+               if (rng != null)
+                  shuffle(batch);
+               ready.put(batch);
+            }
+         }// while (running)
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (RuntimeException e)
+      {
+         failure = e;                                     // Hands the failure to the trainer
+         ready.offer(poison);
+      }
+      catch (Error e)
+      {
+         failure = e;                                     // Wakes the trainer before the thread dies
+         ready.offer(poison);
+         throw e;
+      }
+   }// load()
+
+   /**
+    * Shuffles the cases of a batch by swapping row
+    * references, which allocates nothing.
+    *
+    * @param batch the filled batch
+    */
+   private void shuffle(Batch batch)
+   {
+      for (int i = batch.count - 1; i > 0; i--)
+      {
+         int j = rng.nextInt(i + 1);
+         double[] in = batch.inputs[i];
+         batch.inputs[i] = batch.inputs[j];
+         batch.inputs[j] = in;
+         double[] out = batch.truths[i];
+         batch.truths[i] = batch.truths[j];
+         batch.truths[j] = out;
+      }
+   }// shuffle(Batch batch)
+}// public class PrefetchFeed
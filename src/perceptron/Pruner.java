@@ -0,0 +1,152 @@
+package perceptron;
+
+import java.util.Arrays;
+
+/**
+ * Magnitude pruning of network weights. Pruning
+ * zeroes weights in place and returns the mask of
+ * the weights that survive, which can be handed to
+ * Network.setWeightMask to fine tune the rest
+ * without reviving the pruned ones.
+ *
+ * Methods:
+ * Public:
+ *  - boolean[][][] pruneBelow(double[][][] weights, double threshold)
+ *  - boolean[][][] keepLargest(double[][][] weights, long count)
+ *  - long countNonZero(double[][][] weights)
+ *  - long countNonZero(double[][] layer)
+ *  - double density(double[][] layer)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Pruner
+{
+   /**
+    * Zeroes every weight whose magnitude is below
+    * the threshold. Only the threshold decides, so a
+    * threshold of 0 keeps every weight, even ones
+    * that are 0 but may grow while fine tuning.
+    *
+    * @param weights   the weights, pruned in place
+    * @param threshold the smallest magnitude kept
+    * @return the mask of kept weights
+    */
+   public static boolean[][][] pruneBelow(double[][][] weights, double threshold)
+   {
+      boolean[][][] mask = new boolean[weights.length][][];
+      for (int n = 0; n < weights.length; n++)
+      {
+         mask[n] = new boolean[weights[n].length][];
+         for (int k = 0; k < weights[n].length; k++)
+         {
+            mask[n][k] = new boolean[weights[n][k].length];
+            for (int j = 0; j < weights[n][k].length; j++)
+            {
+               mask[n][k][j] = Math.abs(weights[n][k][j]) >= threshold;
+               if (!mask[n][k][j])
+                  weights[n][k][j] = 0.0;
+            }
+         }
+      }
+      return mask;
+   }// pruneBelow(double[][][] weights, double threshold)
+
+   /**
+    * Keeps the given number of weights with the
+    * largest magnitudes across the whole network and
+    * zeroes the rest. Ties at the cut are broken in
+    * layer order.
+    *
+    * @param weights the weights, pruned in place
+    * @param count   the number of weights to keep
+    * @return the mask of kept weights
+    */
+   public static boolean[][][] keepLargest(double[][][] weights, long count)
+   {
+      int total = 0;
+      for (double[][] layer : weights)
+         for (double[] row : layer)
+            total += row.length;
+      if (count >= total)
+         return pruneBelow(weights, 0.0);
+
+      double[] magnitudes = new double[total];
+      int i = 0;
+      for (double[][] layer : weights)
+         for (double[] row : layer)
+            for (double w : row)
+               magnitudes[i++] = Math.abs(w);
+      Arrays.sort(magnitudes);
+      double cut = count <= 0 ? Double.POSITIVE_INFINITY : magnitudes[total - (int) count];
+
+      long above = 0;                                  // Weights strictly above the cut are always kept
+      for (int m = total - 1; m >= 0 && magnitudes[m] > cut; m--)
+         above++;
+      long ties = count - above;                       // The number of weights equal to the cut to keep
+
+      boolean[][][] mask = pruneBelow(weights, cut);
+      for (int n = 0; n < weights.length; n++)
+         for (int k = 0; k < weights[n].length; k++)
+            for (int j = 0; j < weights[n][k].length; j++)
+            {
+               if (mask[n][k][j] && Math.abs(weights[n][k][j]) == cut)
+               {
+                  if (ties > 0)
+                  {
+                     ties--;
+                  }
+                  else
+                  {
+                     mask[n][k][j] = false;
+                     weights[n][k][j] = 0.0;
+                  }
+               }
+            }
+      return mask;
+   }// keepLargest(double[][][] weights, long count)
+
+   /**
+    * Counts the non-zero weights of a network.
+    *
+    * @param weights the weights
+    * @return the number of non-zero weights
+    */
+   public static long countNonZero(double[][][] weights)
+   {
+      long count = 0;
+      for (double[][] layer : weights)
+         count += countNonZero(layer);
+      return count;
+   }
+
+   /**
+    * Counts the non-zero weights of one connectivity
+    * layer.
+    *
+    * @param layer the weights indexed [k][j]
+    * @return the number of non-zero weights
+    */
+   public static long countNonZero(double[][] layer)
+   {
+      long count = 0;
+      for (double[] row : layer)
+         for (double w : row)
+            if (w != 0.0)
+               count++;
+      return count;
+   }
+
+   /**
+    * Computes the fraction of non-zero weights in one
+    * connectivity layer.
+    *
+    * @param layer the weights indexed [k][j]
+    * @return the density between 0 and 1
+    */
+   public static double density(double[][] layer)
+   {
+      long size = (long) layer.length * (layer.length == 0 ? 0 : layer[0].length);
+      return size == 0 ? 0.0 : (double) countNonZero(layer) / size;
+   }
+}// public class Pruner
@@ -0,0 +1,366 @@
+package perceptron;
+
+/**
+ * An inference only copy of a trained network with
+ * its weights quantized to 8 bit integers. Every
+ * weight w is stored as round(w / scale) in
+ * [-127, 127], with one scale for a whole layer or
+ * one for each child node. The activations of each
+ * layer are quantized the same way as they are
+ * produced, so the dot products are integer
+ * multiplies accumulated in an int over runs short
+ * enough not to overflow, then in a long; the sum
+ * is only turned back into a double (by the two
+ * scales) right before the sigmoid.
+ *
+ * The weights are laid out by child node, so the
+ * inner loop over the parent nodes reads one
+ * contiguous run of bytes. A model takes an eighth
+ * of the memory of the doubles in Network.
+ *
+ * Like Network, an instance reuses its activation
+ * buffers and must only be used from one thread.
+ *
+ * Methods:
+ * Constructor:
+ *  - QuantizedNetwork(int[] dimensions, Granularity granularity, byte[][] weights, float[][] scales)
+ * Public:
+ *  - QuantizedNetwork quantize(int[] dimensions, double[][][] weights, Granularity granularity)
+ *  - double[] forwardPropagation(double[] input)
+ *  - double[][][] dequantize()
+ *  - int[] getDimensions()
+ *  - Granularity getGranularity()
+ *  - byte[][] getWeights()
+ *  - float[][] getScales()
+ *  - long getBytes()
+ *  - void setInputTransform(InputTransform transform)
+ *  - InputTransform getInputTransform()
+ *  - void setLoss(Loss loss)
+ *  - Loss getLoss()
+ * Private:
+ *  - double quantizeActivations(double[] activations, int count)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class QuantizedNetwork
+{
+   public static final int LEVELS = 127;       // The largest quantized magnitude
+   public static final int SAFE_RUN = Integer.MAX_VALUE / (LEVELS * LEVELS);   // Products an int can sum
+
+   /*
+    * How many weights share one scale.
+    */
+   public enum Granularity
+   {
+      PER_LAYER,
+      PER_NEURON
+   }
+
+   private int[] dimensions;
+   private int numLayers;
+   private Granularity granularity;
+
+   private byte[][] weights;                   // Indexed [n][j * dimensions[n] + k] for the weight from k to j
+   private float[][] scales;                   // Indexed [n][j], or [n][0] for PER_LAYER
+
+   private double[][] nodes;                   // The activations of each layer
+   private byte[] quantized;                   // The quantized activations of the layer being read
+
+   private InputTransform transform;           // Applied to the inputs, or null
+   private Loss loss = Loss.SQUARED;           // Decides the activation of the output layer
+   private double[] transformed;
+
+   /**
+    * Wraps already quantized weights.
+    *
+    * @param dimensions  the number of nodes in each
+    *                    layer
+    * @param granularity how many weights share a
+    *                    scale
+    * @param weights     the quantized weights of each
+    *                    connectivity layer, by child
+    *                    node
+    * @param scales      the scale of each layer or
+    *                    child node
+    */
+   public QuantizedNetwork(int[] dimensions, Granularity granularity, byte[][] weights, float[][] scales)
+   {
+      this.dimensions = dimensions.clone();
+      this.numLayers = dimensions.length;
+      this.granularity = granularity;
+      this.weights = weights;
+      this.scales = scales;
+
+      int widest = 0;
+      nodes = new double[numLayers][];
+      for (int n = 0; n < numLayers; n++)
+      {
+         nodes[n] = new double[dimensions[n]];
+         widest = Math.max(widest, dimensions[n]);
+      }
+      quantized = new byte[widest];
+      transformed = new double[dimensions[0]];
+   }// QuantizedNetwork(...)
+
+   /**
+    * Quantizes the weights of a trained network
+    * symmetrically, so that the largest magnitude
+    * sharing a scale maps to 127.
+    *
+    * @param dimensions  the number of nodes in each
+    *                    layer
+    * @param weights     the weights indexed [n][k][j]
+    * @param granularity how many weights share a
+    *                    scale
+    * @return the quantized network
+    */
+   public static QuantizedNetwork quantize(int[] dimensions, double[][][] weights, Granularity granularity)
+   {
+      int connections = dimensions.length - 1;
+      byte[][] q = new byte[connections][];
+      float[][] s = new float[connections][];
+
+      for (int n = 0; n < connections; n++)
+      {
+         int parents = dimensions[n];
+         int children = dimensions[n + 1];
+         q[n] = new byte[parents * children];
+
+         double[] largest = new double[children];     // The largest magnitude into each child
+         for (int k = 0; k < parents; k++)
+            for (int j = 0; j < children; j++)
+               largest[j] = Math.max(largest[j], Math.abs(weights[n][k][j]));
+
+         if (granularity == Granularity.PER_LAYER)
+         {
+            double max = 0.0;
+            for (int j = 0; j < children; j++)
+               max = Math.max(max, largest[j]);
+            s[n] = new float[] { max == 0.0 ? 1.0f : (float) (max / LEVELS) };
+         }
+         else
+         {
+            s[n] = new float[children];
+            for (int j = 0; j < children; j++)
+               s[n][j] = largest[j] == 0.0 ? 1.0f : (float) (largest[j] / LEVELS);
+         }
+
+         for (int j = 0; j < children; j++)
+         {
+            double scale = s[n][granularity == Granularity.PER_LAYER ? 0 : j];
+            for (int k = 0; k < parents; k++)
+            {
+               long level = Math.round(weights[n][k][j] / scale);
+               q[n][j * parents + k] = (byte) Math.max(-LEVELS, Math.min(LEVELS, level));
+            }
+         }
+      }// for (int n = 0; n < connections; n++)
+
+      return new QuantizedNetwork(dimensions, granularity, q, s);
+   }// quantize(int[] dimensions, double[][][] weights, Granularity granularity)
+
+   /**
+    * Computes the outputs for one input.
+    *
+    * @param input the raw input activations
+    * @return the output layer, overwritten by the next
+    *         call
+    */
+   public double[] forwardPropagation(double[] input)
+   {
+      if (transform == null)
+      {
+         System.arraycopy(input, 0, nodes[0], 0, dimensions[0]);
+      }
+      else
+      {
+         transform.transform(input, transformed);
+         System.arraycopy(transformed, 0, nodes[0], 0, dimensions[0]);
+      }
+
+      boolean perNeuron = granularity == Granularity.PER_NEURON;
+
+      /*
+       * Quantizes the parent layer, then accumulates
+       * each child's integer dot product over one
+       * contiguous row of weights.
+       */
+      for (int n = 1; n < numLayers; n++)
+      {
+         int parents = dimensions[n - 1];
+         double activationScale = quantizeActivations(nodes[n - 1], parents);
+         byte[] w = weights[n - 1];
+         float[] s = scales[n - 1];
+         boolean softmax = n == numLayers - 1 && loss.isSoftmax();
+
+         for (int j = 0; j < dimensions[n]; j++)
+         {
+            int base = j * parents;
+            long dotProduct = 0;
+            for (int start = 0; start < parents; start += SAFE_RUN)   // Sums in an int until it could
+            {                                                         // overflow
+               int end = Math.min(parents, start + SAFE_RUN);
+               int run = 0;
+               for (int k = start; k < end; k++)
+                  run += w[base + k] * quantized[k];
+               dotProduct += run;
+            }
+
+            double theta = dotProduct * (double) (perNeuron ? s[j] : s[0]) * activationScale;
+            nodes[n][j] = softmax ? theta : Network.activation(theta);
+         }
+         if (softmax)
+            Loss.softmax(nodes[n]);
+      }// for (int n = 1; n < numLayers; n++)
+
+      return nodes[numLayers - 1];
+   }// forwardPropagation(double[] input)
+
+   /**
+    * Expands the quantized weights back into doubles,
+    * to compare them with the originals.
+    *
+    * @return the weights indexed [n][k][j]
+    */
+   public double[][][] dequantize()
+   {
+      double[][][] w = new double[numLayers - 1][][];
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         int parents = dimensions[n];
+         w[n] = new double[parents][dimensions[n + 1]];
+         for (int j = 0; j < dimensions[n + 1]; j++)
+         {
+            double scale = scales[n][granularity == Granularity.PER_LAYER ? 0 : j];
+            for (int k = 0; k < parents; k++)
+               w[n][k][j] = weights[n][j * parents + k] * scale;
+         }
+      }
+      return w;
+   }// dequantize()
+
+   /**
+    * Retrieves the number of nodes in each layer.
+    *
+    * @return a copy of the dimensions
+    */
+   public int[] getDimensions()
+   {
+      return dimensions.clone();
+   }
+
+   /**
+    * Retrieves how many weights share a scale.
+    *
+    * @return the granularity
+    */
+   public Granularity getGranularity()
+   {
+      return granularity;
+   }
+
+   /**
+    * Retrieves the quantized weights.
+    *
+    * @return the weights indexed
+    *         [n][j * dimensions[n] + k]
+    */
+   public byte[][] getWeights()
+   {
+      return weights;
+   }
+
+   /**
+    * Retrieves the scales of the weights.
+    *
+    * @return the scales indexed [n][j], or [n][0]
+    *         for one scale per layer
+    */
+   public float[][] getScales()
+   {
+      return scales;
+   }
+
+   /**
+    * Computes the memory taken by the weights and
+    * scales.
+    *
+    * @return the size in bytes
+    */
+   public long getBytes()
+   {
+      long bytes = 0;
+      for (int n = 0; n < weights.length; n++)
+         bytes += weights[n].length + 4L * scales[n].length;
+      return bytes;
+   }
+
+   /**
+    * Sets the transform applied to every input
+    * before it is quantized.
+    *
+    * @param transform the transform, or null for none
+    */
+   public void setInputTransform(InputTransform transform)
+   {
+      this.transform = transform;
+   }
+
+   /**
+    * Retrieves the transform applied to the inputs.
+    *
+    * @return the transform, or null if there is none
+    */
+   public InputTransform getInputTransform()
+   {
+      return transform;
+   }
+
+   /**
+    * Sets the loss the network was trained with,
+    * which decides how the output layer is activated.
+    *
+    * @param loss the loss
+    */
+   public void setLoss(Loss loss)
+   {
+      this.loss = loss;
+   }
+
+   /**
+    * Retrieves the loss the network was trained with.
+    *
+    * @return the loss
+    */
+   public Loss getLoss()
+   {
+      return loss;
+   }
+
+   /**
+    * Quantizes a layer of activations into the
+    * quantized buffer with one symmetric scale.
+    *
+    * @param activations the activations
+    * @param count       the number of activations
+    * @return the scale of the quantized activations
+    */
+   private double quantizeActivations(double[] activations, int count)
+   {
+      double max = 0.0;
+      for (int k = 0; k < count; k++)
+         max = Math.max(max, Math.abs(activations[k]));
+      if (max == 0.0)
+      {
+         for (int k = 0; k < count; k++)
+            quantized[k] = 0;
+         return 0.0;
+      }
+
+      double inverse = LEVELS / max;
+      for (int k = 0; k < count; k++)
+         quantized[k] = (byte) Math.round(activations[k] * inverse);
+      return max / LEVELS;
+   }// quantizeActivations(double[] activations, int count)
+}// public class QuantizedNetwork
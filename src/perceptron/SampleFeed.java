@@ -0,0 +1,39 @@
+package perceptron;
+
+/**
+ * A source of training cases that the network pulls
+ * from while it trains. A feed can produce its cases
+ * lazily (augmented, prefetched, reordered) instead
+ * of having every case stored in the training map.
+ *
+ * Methods:
+ *  - void startEpoch(int epoch)
+ *  - boolean next(double[] input, double[] truth)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public interface SampleFeed
+{
+   /**
+    * Called by the network before it pulls the cases
+    * of an epoch.
+    *
+    * @param epoch the number of the epoch, starting
+    *              at 1
+    */
+   void startEpoch(int epoch);
+
+   /**
+    * Copies the next training case of the current
+    * epoch into the given arrays.
+    *
+    * @param input the array that receives the input
+    *              activations
+    * @param truth the array that receives the
+    *              expected outputs
+    * @return false if the epoch has no more cases, in
+    *         which case the arrays are left untouched
+    */
+   boolean next(double[] input, double[] truth);
+}// public interface SampleFeed
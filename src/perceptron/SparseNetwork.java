@@ -0,0 +1,371 @@
+package perceptron;
+
+/**
+ * An inference only copy of a pruned network.
+ * Every connectivity layer is stored by child node,
+ * either as a dense row of weights or, when fewer
+ * than the crossover fraction of its weights are
+ * non-zero, in compressed sparse row form: for each
+ * child node the parent indices and values of its
+ * non-zero weights. Sparse layers cost time and
+ * memory in proportion to their non-zero weights;
+ * above the crossover the index lookups cost more
+ * than the zeros they skip, so those layers stay
+ * dense.
+ *
+ * Like Network, an instance reuses its activation
+ * buffers and must only be used from one thread.
+ *
+ * Methods:
+ * Constructors:
+ *  - SparseNetwork(int[] dimensions, double[][][] weights)
+ *  - SparseNetwork(int[] dimensions, double[][][] weights, double crossover)
+ *  - SparseNetwork(int[] dimensions, int[][] starts, int[][] indices, double[][] values, double crossover)
+ * Public:
+ *  - double[] forwardPropagation(double[] input)
+ *  - double[][] getLayer(int n)
+ *  - boolean isSparse(int n)
+ *  - long getNonZeros()
+ *  - long getBytes()
+ *  - int[] getDimensions()
+ *  - void setInputTransform(InputTransform transform)
+ *  - InputTransform getInputTransform()
+ *  - void setLoss(Loss loss)
+ *  - Loss getLoss()
+ * Private:
+ *  - void store(int n, int[] start, int[] index, double[] value, double crossover)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class SparseNetwork
+{
+   public static final double DEFAULT_CROSSOVER = 0.35;    // Density below which a layer is run sparse
+
+   private int[] dimensions;
+   private int numLayers;
+
+   private double[][] dense;        // Indexed [n][j * dimensions[n] + k], null for sparse layers
+   private int[][] starts;          // Indexed [n][j]: where child j's weights begin, null for dense layers
+   private int[][] indices;         // The parent node of each stored weight
+   private double[][] values;       // The stored non-zero weights
+
+   private double[][] nodes;        // The activations of each layer
+
+   private InputTransform transform;
+   private double[] transformed;
+   private Loss loss = Loss.SQUARED;   // Decides the activation of the output layer
+
+   /**
+    * Compresses the weights of a network with the
+    * default crossover.
+    *
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @param weights    the weights indexed [n][k][j]
+    */
+   public SparseNetwork(int[] dimensions, double[][][] weights)
+   {
+      this(dimensions, weights, DEFAULT_CROSSOVER);
+   }
+
+   /**
+    * Compresses the weights of a network.
+    *
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @param weights    the weights indexed [n][k][j]
+    * @param crossover  the density below which a
+    *                   layer is stored sparse
+    */
+   public SparseNetwork(int[] dimensions, double[][][] weights, double crossover)
+   {
+      this(dimensions, new int[dimensions.length - 1][], new int[dimensions.length - 1][],
+            new double[dimensions.length - 1][], crossover);
+
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         int parents = dimensions[n];
+         int children = dimensions[n + 1];
+         int[] start = new int[children + 1];
+         int[] index = new int[(int) Pruner.countNonZero(weights[n])];
+         double[] value = new double[index.length];
+
+         int p = 0;
+         for (int j = 0; j < children; j++)
+         {
+            start[j] = p;
+            for (int k = 0; k < parents; k++)
+            {
+               if (weights[n][k][j] != 0.0)
+               {
+                  index[p] = k;
+                  value[p++] = weights[n][k][j];
+               }
+            }
+         }
+         start[children] = p;
+         store(n, start, index, value, crossover);
+      }// for (int n = 0; n < numLayers - 1; n++)
+   }// SparseNetwork(int[] dimensions, double[][][] weights, double crossover)
+
+   /**
+    * Builds a network straight from compressed
+    * layers, so loading never needs the dense
+    * weights.
+    *
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @param starts     for each layer, where each
+    *                   child's weights begin, with one
+    *                   extra entry for the end
+    * @param indices    for each layer, the parent node
+    *                   of each weight
+    * @param values     for each layer, the non-zero
+    *                   weights
+    * @param crossover  the density below which a
+    *                   layer is kept sparse
+    */
+   public SparseNetwork(int[] dimensions, int[][] starts, int[][] indices, double[][] values, double crossover)
+   {
+      this.dimensions = dimensions.clone();
+      this.numLayers = dimensions.length;
+      this.dense = new double[numLayers - 1][];
+      this.starts = new int[numLayers - 1][];
+      this.indices = new int[numLayers - 1][];
+      this.values = new double[numLayers - 1][];
+
+      for (int n = 0; n < numLayers - 1; n++)
+         if (starts[n] != null)
+            store(n, starts[n], indices[n], values[n], crossover);
+
+      nodes = new double[numLayers][];
+      for (int n = 0; n < numLayers; n++)
+         nodes[n] = new double[dimensions[n]];
+      transformed = new double[dimensions[0]];
+   }// SparseNetwork(...)
+
+   /**
+    * Computes the outputs for one input.
+    *
+    * @param input the raw input activations
+    * @return the output layer, overwritten by the next
+    *         call
+    */
+   public double[] forwardPropagation(double[] input)
+   {
+      double[] in = input;
+      if (transform != null)
+      {
+         transform.transform(input, transformed);
+         in = transformed;
+      }
+      System.arraycopy(in, 0, nodes[0], 0, dimensions[0]);
+
+      for (int n = 1; n < numLayers; n++)
+      {
+         double[] parent = nodes[n - 1];
+         int parents = dimensions[n - 1];
+         boolean softmax = n == numLayers - 1 && loss.isSoftmax();
+
+         if (dense[n - 1] != null)
+         {
+            double[] w = dense[n - 1];
+            for (int j = 0; j < dimensions[n]; j++)
+            {
+               int base = j * parents;
+               double dotProduct = 0.0;
+               for (int k = 0; k < parents; k++)
+                  dotProduct += parent[k] * w[base + k];
+               nodes[n][j] = softmax ? dotProduct : Network.activation(dotProduct);
+            }
+         }
+         else
+         {
+            int[] start = starts[n - 1];               // Only the non-zero weights of each child
+            int[] index = indices[n - 1];
+            double[] value = values[n - 1];
+            for (int j = 0; j < dimensions[n]; j++)
+            {
+               double dotProduct = 0.0;
+               for (int p = start[j]; p < start[j + 1]; p++)
+                  dotProduct += parent[index[p]] * value[p];
+               nodes[n][j] = softmax ? dotProduct : Network.activation(dotProduct);
+            }
+         }
+         if (softmax)
+            Loss.softmax(nodes[n]);
+      }// for (int n = 1; n < numLayers; n++)
+
+      return nodes[numLayers - 1];
+   }// forwardPropagation(double[] input)
+
+   /**
+    * Expands one connectivity layer back into the
+    * dense layout of Network.
+    *
+    * @param n the connectivity layer
+    * @return the weights indexed [k][j]
+    */
+   public double[][] getLayer(int n)
+   {
+      int parents = dimensions[n];
+      double[][] layer = new double[parents][dimensions[n + 1]];
+      for (int j = 0; j < dimensions[n + 1]; j++)
+      {
+         if (dense[n] != null)
+         {
+            for (int k = 0; k < parents; k++)
+               layer[k][j] = dense[n][j * parents + k];
+         }
+         else
+         {
+            for (int p = starts[n][j]; p < starts[n][j + 1]; p++)
+               layer[indices[n][p]][j] = values[n][p];
+         }
+      }
+      return layer;
+   }// getLayer(int n)
+
+   /**
+    * Checks whether a layer runs with the sparse
+    * kernel.
+    *
+    * @param n the connectivity layer
+    * @return true if it is stored sparse
+    */
+   public boolean isSparse(int n)
+   {
+      return dense[n] == null;
+   }
+
+   /**
+    * Counts the non-zero weights.
+    *
+    * @return the number of non-zero weights
+    */
+   public long getNonZeros()
+   {
+      long count = 0;
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         if (dense[n] == null)
+         {
+            count += values[n].length;
+         }
+         else
+         {
+            for (double w : dense[n])
+               if (w != 0.0)
+                  count++;
+         }
+      }
+      return count;
+   }// getNonZeros()
+
+   /**
+    * Computes the memory taken by the stored
+    * weights.
+    *
+    * @return the size in bytes
+    */
+   public long getBytes()
+   {
+      long bytes = 0;
+      for (int n = 0; n < numLayers - 1; n++)
+      {
+         if (dense[n] == null)
+            bytes += 12L * values[n].length + 4L * starts[n].length;     // A value and an index per weight
+         else
+            bytes += 8L * dense[n].length;
+      }
+      return bytes;
+   }
+
+   /**
+    * Retrieves the number of nodes in each layer.
+    *
+    * @return a copy of the dimensions
+    */
+   public int[] getDimensions()
+   {
+      return dimensions.clone();
+   }
+
+   /**
+    * Sets the transform applied to every input.
+    *
+    * @param transform the transform, or null for none
+    */
+   public void setInputTransform(InputTransform transform)
+   {
+      this.transform = transform;
+   }
+
+   /**
+    * Retrieves the transform applied to the inputs.
+    *
+    * @return the transform, or null if there is none
+    */
+   public InputTransform getInputTransform()
+   {
+      return transform;
+   }
+
+   /**
+    * Sets the loss the network was trained with,
+    * which decides how the output layer is activated.
+    *
+    * @param loss the loss
+    */
+   public void setLoss(Loss loss)
+   {
+      this.loss = loss;
+   }
+
+   /**
+    * Retrieves the loss the network was trained with.
+    *
+    * @return the loss
+    */
+   public Loss getLoss()
+   {
+      return loss;
+   }
+
+   /**
+    * Keeps a compressed layer sparse if its density
+    * is below the crossover and expands it otherwise.
+    *
+    * @param n         the connectivity layer
+    * @param start     where each child's weights begin
+    * @param index     the parent of each weight
+    * @param value     the non-zero weights
+    * @param crossover the density below which the
+    *                  layer stays sparse
+    */
+   private void store(int n, int[] start, int[] index, double[] value, double crossover)
+   {
+      int parents = dimensions[n];
+      int children = dimensions[n + 1];
+      double density = (double) value.length / ((double) parents * children);
+
+      if (density < crossover)
+      {
+         dense[n] = null;
+         starts[n] = start;
+         indices[n] = index;
+         values[n] = value;
+      }
+      else
+      {
+         dense[n] = new double[parents * children];
+         for (int j = 0; j < children; j++)
+            for (int p = start[j]; p < start[j + 1]; p++)
+               dense[n][j * parents + index[p]] = value[p];
+         starts[n] = null;
+         indices[n] = null;
+         values[n] = null;
+      }
+   }// store(int n, int[] start, int[] index, double[] value, double crossover)
+}// public class SparseNetwork
@@ -0,0 +1,148 @@
+package perceptron;
+
+/**
+ * An input vector that stores only its non-zero
+ * entries, as parallel arrays of indices and values
+ * in increasing index order. Used for inputs such as
+ * binarized images or one-hot features where most
+ * activations are exactly zero, so the first layer
+ * only has to touch the weight rows of the non-zero
+ * inputs.
+ *
+ * Methods:
+ * Constructor:
+ *  - SparseVector(int length, int[] indices, double[] values)
+ * Public:
+ *  - SparseVector of(double[] dense)
+ *  - int getLength()
+ *  - int getNonZeros()
+ *  - int[] getIndices()
+ *  - double[] getValues()
+ *  - double[] toDense()
+ *  - void toDense(double[] dense)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class SparseVector
+{
+   private int length;              // The number of entries, zeros included
+   private int[] indices;
+   private double[] values;
+
+   /**
+    * Wraps the non-zero entries of a vector.
+    *
+    * @param length  the full length of the vector
+    * @param indices the index of each stored entry,
+    *                increasing
+    * @param values  the value of each stored entry
+    */
+   public SparseVector(int length, int[] indices, double[] values)
+   {
+      if (indices.length != values.length)
+         throw new IllegalArgumentException("Got " + indices.length + " indices but " + values.length + " values");
+      for (int p = 0; p < indices.length; p++)
+      {
+         if (indices[p] < 0 || indices[p] >= length || (p > 0 && indices[p] <= indices[p - 1]))
+            throw new IllegalArgumentException("Index " + indices[p] + " is out of order or out of range");
+      }
+
+      this.length = length;
+      this.indices = indices;
+      this.values = values;
+   }// SparseVector(int length, int[] indices, double[] values)
+
+   /**
+    * Compresses a dense vector.
+    *
+    * @param dense the full vector
+    * @return the vector of its non-zero entries
+    */
+   public static SparseVector of(double[] dense)
+   {
+      int count = 0;
+      for (double x : dense)
+         if (x != 0.0)
+            count++;
+
+      int[] indices = new int[count];
+      double[] values = new double[count];
+      int p = 0;
+      for (int i = 0; i < dense.length; i++)
+      {
+         if (dense[i] != 0.0)
+         {
+            indices[p] = i;
+            values[p++] = dense[i];
+         }
+      }
+      return new SparseVector(dense.length, indices, values);
+   }// of(double[] dense)
+
+   /**
+    * Retrieves the full length of the vector.
+    *
+    * @return the number of entries, zeros included
+    */
+   public int getLength()
+   {
+      return length;
+   }
+
+   /**
+    * Retrieves the number of stored entries.
+    *
+    * @return the number of non-zero entries
+    */
+   public int getNonZeros()
+   {
+      return indices.length;
+   }
+
+   /**
+    * Retrieves the indices of the stored entries.
+    *
+    * @return the indices, which must not be modified
+    */
+   public int[] getIndices()
+   {
+      return indices;
+   }
+
+   /**
+    * Retrieves the values of the stored entries.
+    *
+    * @return the values, which must not be modified
+    */
+   public double[] getValues()
+   {
+      return values;
+   }
+
+   /**
+    * Expands the vector into a new array.
+    *
+    * @return the full vector
+    */
+   public double[] toDense()
+   {
+      double[] dense = new double[length];
+      toDense(dense);
+      return dense;
+   }
+
+   /**
+    * Expands the vector into the given array.
+    *
+    * @param dense an array of the full length, which
+    *              is overwritten
+    */
+   public void toDense(double[] dense)
+   {
+      for (int i = 0; i < length; i++)
+         dense[i] = 0.0;
+      for (int p = 0; p < indices.length; p++)
+         dense[indices[p]] = values[p];
+   }
+}// public class SparseVector
@@ -0,0 +1,132 @@
+package perceptron;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded lock-free queue for exactly one producer
+ * thread and one consumer thread. The producer only
+ * writes the tail and the consumer only writes the
+ * head, so neither needs a lock or a compare and
+ * swap; each publishes its counter with an ordered
+ * store after touching the slot.
+ *
+ * Aborting the queue makes both ends stop spinning:
+ * put and take then throw instead of waiting for a
+ * thread that has died.
+ *
+ * Methods:
+ * Constructor:
+ *  - SpscQueue(int capacity)
+ * Public:
+ *  - boolean offer(T item)
+ *  - T poll()
+ *  - void put(T item)
+ *  - T take()
+ *  - void abort()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ *
+ * @param <T> the type of the items
+ */
+public class SpscQueue<T>
+{
+   private final Object[] slots;
+   private final int mask;
+   private final AtomicLong head = new AtomicLong();   // The next item to take, written by the consumer
+   private final AtomicLong tail = new AtomicLong();   // The next slot to fill, written by the producer
+   private volatile boolean aborted = false;           // Set when the other end will never come back
+
+   /**
+    * Creates an empty queue.
+    *
+    * @param capacity the most items held, rounded up
+    *                 to a power of two
+    */
+   public SpscQueue(int capacity)
+   {
+      int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+      slots = new Object[size];
+      mask = size - 1;
+   }
+
+   /**
+    * Adds an item if there is room.
+    *
+    * @param item the item, not null
+    * @return false if the queue was full
+    */
+   public boolean offer(T item)
+   {
+      long t = tail.get();
+      if (t - head.get() == slots.length)
+         return false;
+      slots[(int) t & mask] = item;
+      tail.lazySet(t + 1);                            // Publishes the slot to the consumer
+      return true;
+   }
+
+   /**
+    * Removes the oldest item if there is one.
+    *
+    * @return the item, or null if the queue was empty
+    */
+   @SuppressWarnings("unchecked")
+   public T poll()
+   {
+      long h = head.get();
+      if (h == tail.get())
+         return null;
+      int slot = (int) h & mask;
+      T item = (T) slots[slot];
+      slots[slot] = null;
+      head.lazySet(h + 1);                            // Hands the slot back to the producer
+      return item;
+   }
+
+   /**
+    * Adds an item, spinning while the queue is full.
+    *
+    * @param item the item, not null
+    * @throws IllegalStateException if the queue is
+    *                               aborted
+    */
+   public void put(T item)
+   {
+      while (!offer(item))
+      {
+         if (aborted)
+            throw new IllegalStateException("Queue aborted");
+         Thread.yield();
+      }
+   }
+
+   /**
+    * Removes the oldest item, spinning while the
+    * queue is empty.
+    *
+    * @return the item
+    * @throws IllegalStateException if the queue is
+    *                               aborted
+    */
+   public T take()
+   {
+      T item;
+      while ((item = poll()) == null)
+      {
+         if (aborted)
+            throw new IllegalStateException("Queue aborted");
+         Thread.yield();
+      }
+      return item;
+   }
+
+   /**
+    * Wakes both ends for good: every put or take that
+    * would wait throws instead.
+    */
+   public void abort()
+   {
+      aborted = true;
+   }
+}// public class SpscQueue
@@ -0,0 +1,232 @@
+package perceptron;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Fills a network's weights with random values from a
+ * seed, row by row on several threads. Every row of
+ * every layer gets its own generator, split from the
+ * seed's generator in layer and row order before any
+ * thread starts, so the weights depend only on the
+ * seed and never on the threads or the order they run
+ * in.
+ *
+ * The range of each layer comes from the scheme:
+ *  - UNIFORM: the given range for every layer
+ *  - XAVIER: +-4 sqrt(6 / (fanIn + fanOut)), Glorot's
+ *    range scaled by 4 for sigmoid nodes, which keeps
+ *    a layer's gradients about as spread as the next
+ *    layer's
+ *  - HE: +-sqrt(6 / fanIn)
+ *
+ * Methods:
+ * Constructor:
+ *  - WeightInitializer(Scheme scheme, double lower, double upper, long seed)
+ * Public:
+ *  - void setThreads(int threads)
+ *  - long getSeed()
+ *  - Scheme getScheme()
+ *  - WeightInitializer withSeed(long seed)
+ *  - double[] bounds(int fanIn, int fanOut)
+ *  - void initialize(double[][][] weights)
+ *  - String describe()
+ * Package:
+ *  - void fill(double[] row, SplittableRandom random, double lower, double upper)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class WeightInitializer
+{
+   public static final int ROWS_PER_TASK = 64;
+
+   /**
+    * The ways the range of a layer is chosen.
+    */
+   public enum Scheme
+   {
+      UNIFORM, XAVIER, HE
+   }
+
+   private Scheme scheme;
+   private double lower;                 // The range of UNIFORM
+   private double upper;
+   private long seed;
+   private int threads = Runtime.getRuntime().availableProcessors();
+
+   /**
+    * Sets up an initializer.
+    *
+    * @param scheme the scheme
+    * @param lower  the lowest weight under UNIFORM
+    * @param upper  the highest weight under UNIFORM
+    * @param seed   the seed of every weight
+    */
+   public WeightInitializer(Scheme scheme, double lower, double upper, long seed)
+   {
+      this.scheme = scheme;
+      this.lower = lower;
+      this.upper = upper;
+      this.seed = seed;
+   }
+
+   /**
+    * Sets the threads that fill the rows.
+    *
+    * @param threads the number of threads, 1 to fill
+    *                on the caller's thread
+    */
+   public void setThreads(int threads)
+   {
+      this.threads = Math.max(1, threads);
+   }
+
+   /**
+    * Retrieves the seed.
+    *
+    * @return the seed
+    */
+   public long getSeed()
+   {
+      return seed;
+   }
+
+   /**
+    * Retrieves the scheme.
+    *
+    * @return the scheme
+    */
+   public Scheme getScheme()
+   {
+      return scheme;
+   }
+
+   /**
+    * Copies the initializer with another seed, for
+    * models that should differ only in their draw.
+    *
+    * @param seed the new seed
+    * @return the copy
+    */
+   public WeightInitializer withSeed(long seed)
+   {
+      WeightInitializer copy = new WeightInitializer(scheme, lower, upper, seed);
+      copy.threads = threads;
+      return copy;
+   }
+
+   /**
+    * Finds the range of a layer's weights.
+    *
+    * @param fanIn  the nodes feeding the layer
+    * @param fanOut the nodes of the layer
+    * @return the lowest and highest weight
+    */
+   public double[] bounds(int fanIn, int fanOut)
+   {
+      if (scheme == Scheme.UNIFORM)
+         return new double[] {lower, upper};
+      double limit = scheme == Scheme.XAVIER ? 4.0 * Math.sqrt(6.0 / (fanIn + fanOut)) : Math.sqrt(6.0 / fanIn);
+      return new double[] {-limit, limit};
+   }
+
+   /**
+    * Fills the weights.
+    *
+    * @param weights the weights, indexed [n][k][j]
+    */
+   public void initialize(final double[][][] weights)
+   {
+      final List<double[]> rows = new ArrayList<double[]>();
+      final List<SplittableRandom> randoms = new ArrayList<SplittableRandom>();
+      final List<double[]> ranges = new ArrayList<double[]>();
+      SplittableRandom root = new SplittableRandom(seed);
+      for (int n = 0; n < weights.length; n++)
+      {
+         double[] range = bounds(weights[n].length, weights[n][0].length);
+         for (double[] row : weights[n])
+         {
+            rows.add(row);
+            randoms.add(root.split());
+            ranges.add(range);
+         }
+      }
+
+      if (threads == 1 || rows.size() <= ROWS_PER_TASK)
+      {
+         for (int r = 0; r < rows.size(); r++)
+            fill(rows.get(r), randoms.get(r), ranges.get(r)[0], ranges.get(r)[1]);
+         return;
+      }
+
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      try
+      {
+         List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+         for (int start = 0; start < rows.size(); start += ROWS_PER_TASK)
+         {
+            final int from = start;
+            final int to = Math.min(start + ROWS_PER_TASK, rows.size());
+            tasks.add(pool.submit(new Callable<Void>()
+            {
+               public Void call()
+               {
+                  for (int r = from; r < to; r++)
+                     fill(rows.get(r), randoms.get(r), ranges.get(r)[0], ranges.get(r)[1]);
+                  return null;
+               }
+            }));
+         }
+         for (Future<Void> task : tasks)
+            task.get();
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("Interrupted while setting weights", e);
+      }
+      catch (ExecutionException e)
+      {
+         throw new IllegalStateException("Setting weights failed", e.getCause());
+      }
+      finally
+      {
+         pool.shutdown();
+      }
+   }// initialize(double[][][] weights)
+
+   /**
+    * Describes the scheme, ranges and seed.
+    *
+    * @return a line for the log
+    */
+   public String describe()
+   {
+      String range = scheme == Scheme.UNIFORM ? " weights between " + lower + " and " + upper
+            : " weights sized to each layer";
+      return scheme.name().charAt(0) + scheme.name().substring(1).toLowerCase() + range + ", seed " + seed;
+   }
+
+   /**
+    * Fills a row of weights from its generator. Shared
+    * with OffHeapNetwork, which splits the generators
+    * the same way.
+    *
+    * @param row    the row
+    * @param random the row's generator
+    * @param lower  the lowest weight
+    * @param upper  the highest weight
+    */
+   static void fill(double[] row, SplittableRandom random, double lower, double upper)
+   {
+      for (int j = 0; j < row.length; j++)
+         row[j] = lower + random.nextDouble() * (upper - lower);
+   }
+}// public class WeightInitializer
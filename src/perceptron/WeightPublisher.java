@@ -0,0 +1,202 @@
+package perceptron;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Publishes the weights of a network that is being
+ * trained so that other threads can keep evaluating
+ * with them. Readers take the current snapshot
+ * through an atomic reference and never block, and
+ * a snapshot is completely written before it is
+ * published, so no reader ever sees a half updated
+ * layer.
+ *
+ * Two ways of publishing are supported:
+ *  - COPY_ON_WRITE copies the weights into fresh
+ *    arrays for every publication and leaves old
+ *    snapshots to the garbage collector.
+ *  - DOUBLE_BUFFER refills the one spare buffer and
+ *    swaps it in, so the steady state allocates
+ *    nothing. If a slow reader still holds the spare
+ *    buffer, that buffer is left to the reader and a
+ *    fresh one is filled instead of waiting. Readers
+ *    must release what they acquire.
+ *
+ * Methods:
+ * Constructor:
+ *  - WeightPublisher(Mode mode, double[][][] weights)
+ * Public:
+ *  - WeightSnapshot acquire()
+ *  - void release(WeightSnapshot snapshot)
+ *  - void publish(double[][][] weights)
+ *  - long getVersion()
+ *  - long getFreshBuffers()
+ *  - Mode getMode()
+ * Private:
+ *  - double[][][] copy(double[][][] source, double[][][] target)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class WeightPublisher
+{
+   /*
+    * How new versions are published.
+    */
+   public enum Mode
+   {
+      COPY_ON_WRITE,
+      DOUBLE_BUFFER
+   }
+
+   private Mode mode;
+
+   private final AtomicReference<WeightSnapshot> current = new AtomicReference<WeightSnapshot>();
+   private WeightSnapshot spare;               // The buffer refilled next in DOUBLE_BUFFER mode
+
+   private long version = 0;                   // Only the publishing thread writes this
+   private long freshBuffers = 0;              // Double buffered publications that could not reuse the spare
+
+   /**
+    * Publishes a copy of the initial weights as
+    * version 1.
+    *
+    * @param mode    how later versions are published
+    * @param weights the initial weights
+    */
+   public WeightPublisher(Mode mode, double[][][] weights)
+   {
+      this.mode = mode;
+      version = 1;
+      current.set(new WeightSnapshot(version, copy(weights, null)));
+      if (mode == Mode.DOUBLE_BUFFER)
+         spare = new WeightSnapshot(0, copy(weights, null));
+   }
+
+   /**
+    * Takes the current snapshot. Never blocks.
+    *
+    * @return the most recently published snapshot
+    */
+   public WeightSnapshot acquire()
+   {
+      if (mode == Mode.COPY_ON_WRITE)
+         return current.get();
+
+      /*
+       * Registers as a reader, then checks that the
+       * snapshot is still the published one. If it was
+       * swapped out in between it may be refilled, so
+       * the reader lets go and tries the new one.
+       */
+      while (true)
+      {
+         WeightSnapshot snapshot = current.get();
+         snapshot.readers().incrementAndGet();
+         if (current.get() == snapshot)
+            return snapshot;
+         snapshot.readers().decrementAndGet();
+      }
+   }// acquire()
+
+   /**
+    * Hands back a snapshot taken with acquire.
+    *
+    * @param snapshot the snapshot
+    */
+   public void release(WeightSnapshot snapshot)
+   {
+      if (mode == Mode.DOUBLE_BUFFER)
+         snapshot.readers().decrementAndGet();
+   }
+
+   /**
+    * Publishes a copy of the given weights as the next
+    * version. Must only be called from one thread at a
+    * time, normally the training thread. Never waits
+    * for readers.
+    *
+    * @param weights the weights being trained
+    */
+   public void publish(double[][][] weights)
+   {
+      if (mode == Mode.COPY_ON_WRITE)
+      {
+         current.set(new WeightSnapshot(version + 1, copy(weights, null)));
+         version++;
+         return;
+      }
+
+      if (spare.readers().get() == 0)
+      {
+         copy(weights, spare.getWeights());             // Refills the free buffer in place
+         spare.setVersion(version + 1);
+      }
+      else
+      {
+         spare = new WeightSnapshot(version + 1, copy(weights, null));   // A slow reader keeps the old one
+         freshBuffers++;
+      }
+      spare = current.getAndSet(spare);                 // The swap publishes the filled buffer
+      version++;
+   }// publish(double[][][] weights)
+
+   /**
+    * Retrieves the version of the latest publication.
+    *
+    * @return the version
+    */
+   public long getVersion()
+   {
+      return current.get().getVersion();
+   }
+
+   /**
+    * Retrieves the number of double buffered
+    * publications that had to fill a fresh buffer
+    * because a reader still held the spare one.
+    *
+    * @return the number of fresh buffers
+    */
+   public long getFreshBuffers()
+   {
+      return freshBuffers;
+   }
+
+   /**
+    * Retrieves how versions are published.
+    *
+    * @return the mode
+    */
+   public Mode getMode()
+   {
+      return mode;
+   }
+
+   /**
+    * Copies the weights into the target, allocating
+    * the target if it is null.
+    *
+    * @param source the weights to copy
+    * @param target the arrays to fill, or null
+    * @return the filled arrays
+    */
+   private static double[][][] copy(double[][][] source, double[][][] target)
+   {
+      if (target == null)
+      {
+         target = new double[source.length][][];
+         for (int n = 0; n < source.length; n++)
+         {
+            target[n] = new double[source[n].length][];
+            for (int k = 0; k < source[n].length; k++)
+               target[n][k] = new double[source[n][k].length];
+         }
+      }
+
+      for (int n = 0; n < source.length; n++)
+         for (int k = 0; k < source[n].length; k++)
+            System.arraycopy(source[n][k], 0, target[n][k], 0, source[n][k].length);
+      return target;
+   }// copy(double[][][] source, double[][][] target)
+}// public class WeightPublisher
@@ -0,0 +1,85 @@
+package perceptron;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A published version of a network's weights.
+ * Readers must treat the arrays as read only; the
+ * publisher never writes to a snapshot while it is
+ * published or while a reader holds it.
+ *
+ * Methods:
+ * Constructor:
+ *  - WeightSnapshot(long version, double[][][] weights)
+ * Public:
+ *  - long getVersion()
+ *  - double[][][] getWeights()
+ * Package:
+ *  - AtomicInteger readers()
+ *  - void setVersion(long version)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class WeightSnapshot
+{
+   private long version;                 // Increases with every publication
+   private double[][][] weights;
+
+   private final AtomicInteger readers = new AtomicInteger();   // Readers holding this snapshot
+
+   /**
+    * Wraps the given weights, which must not be
+    * modified afterwards by anyone but the publisher.
+    *
+    * @param version the version number
+    * @param weights the weights
+    */
+   public WeightSnapshot(long version, double[][][] weights)
+   {
+      this.version = version;
+      this.weights = weights;
+   }
+
+   /**
+    * Retrieves the version number of the snapshot.
+    *
+    * @return the version
+    */
+   public long getVersion()
+   {
+      return version;
+   }
+
+   /**
+    * Retrieves the weights of the snapshot.
+    *
+    * @return the read only weights
+    */
+   public double[][][] getWeights()
+   {
+      return weights;
+   }
+
+   /**
+    * Retrieves the count of readers holding the
+    * snapshot, used by double buffering to tell when
+    * a buffer can be refilled.
+    *
+    * @return the reader count
+    */
+   AtomicInteger readers()
+   {
+      return readers;
+   }
+
+   /**
+    * Renumbers a buffer that is being refilled.
+    *
+    * @param version the new version number
+    */
+   void setVersion(long version)
+   {
+      this.version = version;
+   }
+}// public class WeightSnapshot
@@ -0,0 +1,36 @@
+package perceptron;
+
+/**
+ * A feed that hands out cases unevenly and wants to
+ * hear how the network did on them. The network
+ * scales its learning rate for each case by the
+ * case's weight, which undoes the feed's bias
+ * towards some cases, and reports the error of the
+ * case before the update.
+ *
+ * Methods:
+ *  - double weight()
+ *  - void report(double error)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public interface WeightedFeed extends SampleFeed
+{
+   /**
+    * Retrieves the weight of the case last returned by
+    * next.
+    *
+    * @return the factor for the learning rate
+    */
+   double weight();
+
+   /**
+    * Tells the feed the error of the case last returned
+    * by next, summed over the outputs, as computed
+    * before training on it.
+    *
+    * @param error the case's error
+    */
+   void report(double error);
+}// public interface WeightedFeed
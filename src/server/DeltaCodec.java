@@ -0,0 +1,154 @@
+package server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Writes and reads the weight changes workers push
+ * to a ParameterServer, optionally compressed. Top-k
+ * sends only the largest changes with their indices,
+ * and int8 sends every change as a byte scaled by
+ * the largest one. Whatever compression leaves out is
+ * returned to the caller, which adds it to its next
+ * change so nothing is lost for good.
+ *
+ * Format (big endian): int mode, then
+ *  - NONE: every change as a double
+ *  - TOPK: int count, then count pairs of int index
+ *    and double change
+ *  - INT8: double scale, then every change as a byte
+ *    of change / scale
+ *
+ * Methods:
+ * Public:
+ *  - int write(DataOutputStream out, double[] delta, Compression mode, double fraction)
+ *  - double[] read(DataInputStream in, int length)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class DeltaCodec
+{
+   public static final int LEVELS = 127;          // The largest int8 value
+
+   /**
+    * The ways a change can be sent.
+    */
+   public enum Compression
+   {
+      NONE, TOPK, INT8
+   }
+
+   /**
+    * Writes a change. The part of the change that was
+    * not sent is left in delta and the rest is zeroed,
+    * so delta becomes the residual for the next push.
+    *
+    * @param out      the stream to write to
+    * @param delta    the change of every weight,
+    *                 replaced by what was not sent
+    * @param mode     the compression
+    * @param fraction the share of changes top-k sends
+    * @return the number of bytes written
+    * @throws IOException if the stream fails
+    */
+   public static int write(DataOutputStream out, double[] delta, Compression mode, double fraction) throws IOException
+   {
+      out.writeInt(mode.ordinal());
+      if (mode == Compression.NONE)
+      {
+         for (int i = 0; i < delta.length; i++)
+         {
+            out.writeDouble(delta[i]);
+            delta[i] = 0.0;
+         }
+         return 4 + 8 * delta.length;
+      }
+
+      if (mode == Compression.TOPK)
+      {
+         int count = Math.max(1, Math.min(delta.length, (int) Math.round(fraction * delta.length)));
+
+         /*
+          * Finds the size of the count-th largest change;
+          * the changes at least that large are sent, up to
+          * count of them.
+          */
+         double[] sizes = new double[delta.length];
+         for (int i = 0; i < delta.length; i++)
+            sizes[i] = Math.abs(delta[i]);
+         Arrays.sort(sizes);
+         double cutoff = sizes[delta.length - count];
+
+         out.writeInt(count);
+         int sent = 0;
+         for (int i = 0; i < delta.length && sent < count; i++)
+            if (Math.abs(delta[i]) >= cutoff)
+            {
+               out.writeInt(i);
+               out.writeDouble(delta[i]);
+               delta[i] = 0.0;
+               sent++;
+            }
+         return 8 + 12 * count;
+      }// if (mode == Compression.TOPK)
+
+      double largest = 0.0;
+      for (double d : delta)
+         largest = Math.max(largest, Math.abs(d));
+      double scale = largest / LEVELS;
+
+      out.writeDouble(scale);
+      for (int i = 0; i < delta.length; i++)
+      {
+         int level = scale == 0.0 ? 0 : (int) Math.round(delta[i] / scale);
+         out.writeByte(level);
+         delta[i] -= level * scale;
+      }
+      return 12 + delta.length;
+   }// write(DataOutputStream out, double[] delta, Compression mode, double fraction)
+
+   /**
+    * Reads a change written by write.
+    *
+    * @param in     the stream to read from
+    * @param length the number of weights
+    * @return the change of every weight
+    * @throws IOException if the stream fails or holds
+    *                     a bad change
+    */
+   public static double[] read(DataInputStream in, int length) throws IOException
+   {
+      int mode = in.readInt();
+      double[] delta = new double[length];
+      if (mode == Compression.NONE.ordinal())
+      {
+         for (int i = 0; i < length; i++)
+            delta[i] = in.readDouble();
+      }
+      else if (mode == Compression.TOPK.ordinal())
+      {
+         int count = in.readInt();
+         if (count < 0 || count > length)
+            throw new IOException("Bad number of changes: " + count);
+         for (int c = 0; c < count; c++)
+         {
+            int index = in.readInt();
+            if (index < 0 || index >= length)
+               throw new IOException("Bad weight index: " + index);
+            delta[index] = in.readDouble();
+         }
+      }
+      else if (mode == Compression.INT8.ordinal())
+      {
+         double scale = in.readDouble();
+         for (int i = 0; i < length; i++)
+            delta[i] = in.readByte() * scale;
+      }
+      else
+         throw new IOException("Unknown compression: " + mode);
+      return delta;
+   }// read(DataInputStream in, int length)
+}// public class DeltaCodec
@@ -0,0 +1,176 @@
+package server;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free histogram of non-negative values with
+ * log-linear buckets: values below 16 are counted
+ * exactly, larger values in 8 buckets per power of
+ * two, so every reported value is within 12.5% of
+ * the recorded one. Any number of threads may record
+ * at once.
+ *
+ * Methods:
+ * Public:
+ *  - void record(long value)
+ *  - long getCount()
+ *  - double getMean()
+ *  - long getMax()
+ *  - long percentile(double fraction)
+ *  - String summary(String unit)
+ *  - String distribution()
+ * Private:
+ *  - int bucket(long value)
+ *  - long lowest(int bucket)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Histogram
+{
+   private static final int SUB_BUCKETS = 8;                 // Buckets per power of two
+   private static final int SUB_BUCKET_BITS = 3;
+
+   private final AtomicLongArray counts = new AtomicLongArray(64 * SUB_BUCKETS);
+   private final AtomicLong count = new AtomicLong();
+   private final AtomicLong sum = new AtomicLong();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Counts one value.
+    *
+    * @param value the value, negative values count
+    *              as zero
+    */
+   public void record(long value)
+   {
+      value = Math.max(0, value);
+      counts.incrementAndGet(bucket(value));
+      count.incrementAndGet();
+      sum.addAndGet(value);
+
+      long seen = max.get();
+      while (value > seen && !max.compareAndSet(seen, value))
+         seen = max.get();
+   }// record(long value)
+
+   /**
+    * Retrieves the number of values recorded.
+    *
+    * @return the count
+    */
+   public long getCount()
+   {
+      return count.get();
+   }
+
+   /**
+    * Retrieves the exact mean of the values.
+    *
+    * @return the mean, zero if nothing was recorded
+    */
+   public double getMean()
+   {
+      long n = count.get();
+      return n == 0 ? 0.0 : (double) sum.get() / n;
+   }
+
+   /**
+    * Retrieves the largest value recorded.
+    *
+    * @return the maximum
+    */
+   public long getMax()
+   {
+      return max.get();
+   }
+
+   /**
+    * Finds the value below which the given fraction of
+    * the recorded values fall.
+    *
+    * @param fraction the fraction, 0.5 for the median
+    * @return the lowest value of the bucket that holds
+    *         the percentile
+    */
+   public long percentile(double fraction)
+   {
+      long total = 0;
+      for (int b = 0; b < counts.length(); b++)
+         total += counts.get(b);
+      if (total == 0)
+         return 0;
+
+      long target = Math.max(1, (long) Math.ceil(fraction * total));
+      long seen = 0;
+      for (int b = 0; b < counts.length(); b++)
+      {
+         seen += counts.get(b);
+         if (seen >= target)
+            return Math.min(lowest(b), max.get());
+      }
+      return max.get();
+   }// percentile(double fraction)
+
+   /**
+    * Formats the count, mean, p50, p99 and maximum.
+    *
+    * @param unit the unit printed after each value
+    * @return a one line summary
+    */
+   public String summary(String unit)
+   {
+      return "count=" + getCount() + " mean=" + String.format("%.1f", getMean()) + unit + " p50="
+            + percentile(0.50) + unit + " p99=" + percentile(0.99) + unit + " max=" + getMax() + unit;
+   }
+
+   /**
+    * Formats every non-empty bucket as "low:count".
+    *
+    * @return the buckets separated by spaces
+    */
+   public String distribution()
+   {
+      StringBuilder out = new StringBuilder();
+      for (int b = 0; b < counts.length(); b++)
+      {
+         long c = counts.get(b);
+         if (c > 0)
+            out.append(lowest(b)).append(':').append(c).append(' ');
+      }
+      return out.toString().trim();
+   }// distribution()
+
+   /**
+    * Finds the bucket of a value.
+    *
+    * @param value the non-negative value
+    * @return the bucket index
+    */
+   private int bucket(long value)
+   {
+      if (value < 2 * SUB_BUCKETS)
+         return (int) value;
+
+      int exponent = 63 - Long.numberOfLeadingZeros(value);           // The position of the highest set bit
+      int sub = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+      return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+   }
+
+   /**
+    * Finds the lowest value that falls in a bucket.
+    *
+    * @param bucket the bucket index
+    * @return the lowest value of the bucket
+    */
+   private long lowest(int bucket)
+   {
+      if (bucket < 2 * SUB_BUCKETS)
+         return bucket;
+
+      int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+      long sub = bucket % SUB_BUCKETS;
+      return (SUB_BUCKETS + sub) << (exponent - SUB_BUCKET_BITS);
+   }
+}// public class Histogram
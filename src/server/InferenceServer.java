@@ -0,0 +1,289 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import input.Loader;
+import perceptron.Network;
+
+/**
+ * Serves a network on localhost over a plain TCP
+ * binary protocol. Each connection gets its own
+ * thread, and every request is evaluated through a
+ * MicroBatcher so concurrent requests share batched
+ * forward passes.
+ *
+ * Protocol (big endian, as written by
+ * DataOutputStream), any number of requests per
+ * connection:
+ *  - request:  int n, then n doubles (the inputs)
+ *  - response: int m, then m doubles (the outputs)
+ *  - n = STATS (-1) replies with a UTF string of the
+ *    latency and batch size histograms
+ *  - a bad request is answered with ERROR (-2) and a
+ *    UTF message
+ *
+ * Methods:
+ * Constructor:
+ *  - InferenceServer(MicroBatcher batcher, int port)
+ * Public:
+ *  - void start()
+ *  - void stop()
+ *  - int getPort()
+ *  - String stats()
+ *  - void main(String[] args)
+ * Private:
+ *  - void accept()
+ *  - void serve(Socket socket)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class InferenceServer
+{
+   public static final int STATS = -1;               // Request codes
+   public static final int ERROR = -2;
+
+   public static final int DEFAULT_MAX_BATCH = 32;
+   public static final long DEFAULT_BUDGET_MICROS = 500;
+
+   private MicroBatcher batcher;
+   private int port;
+
+   private ServerSocket listener;
+   private ExecutorService connections;              // One thread per open connection
+   private volatile boolean running = false;
+
+   /**
+    * Creates a server for the batcher.
+    *
+    * @param batcher the batcher that evaluates the
+    *                requests
+    * @param port    the port to listen on, 0 for any
+    */
+   public InferenceServer(MicroBatcher batcher, int port)
+   {
+      this.batcher = batcher;
+      this.port = port;
+   }
+
+   /**
+    * Binds to localhost and starts accepting
+    * connections.
+    *
+    * @throws IOException if the port cannot be bound
+    */
+   public void start() throws IOException
+   {
+      listener = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+      port = listener.getLocalPort();
+
+      connections = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "connection");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+
+      running = true;
+      batcher.start();
+      connections.execute(new Runnable()
+      {
+         public void run()
+         {
+            accept();
+         }
+      });
+   }// start()
+
+   /**
+    * Stops accepting connections and stops the
+    * batcher.
+    */
+   public void stop()
+   {
+      running = false;
+      try
+      {
+         listener.close();
+      }
+      catch (IOException e)
+      {
+         System.err.println("Error closing server socket: " + e);
+      }
+      connections.shutdownNow();
+      batcher.stop();
+   }// stop()
+
+   /**
+    * Retrieves the port the server listens on.
+    *
+    * @return the port
+    */
+   public int getPort()
+   {
+      return port;
+   }
+
+   /**
+    * Formats the latency and batch size histograms.
+    *
+    * @return the statistics of the server
+    */
+   public String stats()
+   {
+      return "latency: " + batcher.getLatency().summary("us") + "\n"
+            + "batch size: " + batcher.getBatchSizes().summary("") + "\n"
+            + "batch size distribution: " + batcher.getBatchSizes().distribution() + "\n"
+            + "batching window: " + (batcher.getWindowNanos() / 1000) + "us";
+   }
+
+   /**
+    * Starts a server for the network in a config file
+    * and prints its statistics every ten seconds.
+    *
+    * @param args the config file, the port and
+    *             optionally the largest batch, the
+    *             latency budget in microseconds and
+    *             the number of batcher threads
+    * @throws Exception if the server cannot start
+    */
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length < 2)
+      {
+         System.err.println("Expected arguments: config port [maxBatch] [budgetMicros] [threads]");
+         System.exit(1);
+      }
+
+      Network network = Loader.loadNetwork(args[0]);
+      int maxBatch = args.length > 2 ? Integer.valueOf(args[2]) : DEFAULT_MAX_BATCH;
+      long budget = args.length > 3 ? Long.valueOf(args[3]) : DEFAULT_BUDGET_MICROS;
+      int threads = args.length > 4 ? Integer.valueOf(args[4]) : Runtime.getRuntime().availableProcessors();
+
+      InferenceServer server = new InferenceServer(new MicroBatcher(network, maxBatch, budget * 1000, threads),
+            Integer.valueOf(args[1]));
+      server.start();
+      System.out.println("Serving on localhost:" + server.getPort());
+
+      while (true)
+      {
+         Thread.sleep(10000);
+         System.out.println(server.stats());
+      }
+   }// main(String[] args)
+
+   /**
+    * Accepts connections until the server stops.
+    */
+   private void accept()
+   {
+      while (running)
+      {
+         try
+         {
+            final Socket socket = listener.accept();
+            socket.setTcpNoDelay(true);
+            connections.execute(new Runnable()
+            {
+               public void run()
+               {
+                  serve(socket);
+               }
+            });
+         }
+         catch (IOException e)
+         {
+            if (running)
+               System.err.println("Error accepting connection: " + e);
+         }
+      }
+   }// accept()
+
+   /**
+    * Answers the requests of one connection until the
+    * client closes it.
+    *
+    * @param socket the connection
+    */
+   private void serve(Socket socket)
+   {
+      try
+      {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+         while (true)
+         {
+            int n = in.readInt();
+            if (n == STATS)
+            {
+               out.writeInt(STATS);
+               out.writeUTF(stats());
+            }
+            else if (n < 0 || n > (1 << 24))
+            {
+               out.writeInt(ERROR);
+               out.writeUTF("Bad request length: " + n);
+               out.flush();
+               break;
+            }
+            else
+            {
+               double[] input = new double[n];
+               for (int i = 0; i < n; i++)
+                  input[i] = in.readDouble();
+
+               try
+               {
+                  double[] output = batcher.evaluate(input);
+                  out.writeInt(output.length);
+                  for (int i = 0; i < output.length; i++)
+                     out.writeDouble(output[i]);
+               }
+               catch (IllegalArgumentException e)
+               {
+                  out.writeInt(ERROR);
+                  out.writeUTF(e.getMessage());
+               }
+            }
+            out.flush();
+         }// while (true)
+      }
+      catch (EOFException e)
+      {
+         // The client closed the connection
+      }
+      catch (IOException e)
+      {
+         System.err.println("Connection error: " + e);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         try
+         {
+            socket.close();
+         }
+         catch (IOException e)
+         {
+            System.err.println("Error closing connection: " + e);
+         }
+      }
+   }// serve(Socket socket)
+}// public class InferenceServer
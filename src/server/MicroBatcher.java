@@ -0,0 +1,355 @@
+package server;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import perceptron.BatchEvaluator;
+import perceptron.InputTransform;
+import perceptron.Network;
+import perceptron.WeightPublisher;
+import perceptron.WeightSnapshot;
+
+/**
+ * Gathers concurrent evaluation requests into
+ * batched forward passes. Callers block in evaluate
+ * while batcher threads, each with its own
+ * BatchEvaluator, drain the request queue.
+ *
+ * A batcher holds its first request for at most the
+ * batching window before running whatever it has
+ * gathered. The window adapts to the load: it is the
+ * latency budget minus the measured time of a
+ * forward pass, and it drops to zero when requests
+ * arrive too far apart for a second one to be
+ * expected in time, so a lone request is never held
+ * back for nothing.
+ *
+ * If the network publishes weight snapshots, every
+ * batch runs on the latest snapshot, so the network
+ * can keep training while it is served.
+ *
+ * If a batch fails, each of its callers gets the
+ * failure thrown from evaluate and the batcher goes
+ * on with the next batch.
+ *
+ * Methods:
+ * Constructor:
+ *  - MicroBatcher(Network network, int maxBatch, long budgetNanos, int threads)
+ * Public:
+ *  - void start()
+ *  - void stop()
+ *  - double[] evaluate(double[] input)
+ *  - Histogram getLatency()
+ *  - Histogram getBatchSizes()
+ *  - long getWindowNanos()
+ * Private:
+ *  - void run()
+ *  - void serve(Request[] batch, int count, BatchEvaluator evaluator)
+ *  - void fail(Request[] batch, int count, Throwable failure)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class MicroBatcher
+{
+   public static final int QUEUE_CAPACITY = 4096;              // Requests waiting beyond this block the caller
+
+   private static final double SMOOTHING = 0.1;                // Weight of the newest sample in the moving averages
+
+   /*
+    * One pending evaluation.
+    */
+   private static final class Request
+   {
+      double[] input;
+      double[] output;
+      long arrival;                  // System.nanoTime() when queued
+      Thread caller;
+      Throwable failure;             // Set instead of the output if the batch failed
+      volatile boolean done;
+   }
+
+   private Network network;          // Supplies the weights and input transform
+   private int[] dimensions;
+   private int maxBatch;
+   private long budgetNanos;         // The latency the batching window may use up
+
+   private BlockingQueue<Request> queue = new ArrayBlockingQueue<Request>(QUEUE_CAPACITY);
+   private Thread[] batchers;
+   private volatile boolean running = false;
+
+   private volatile double serviceNanos = 0.0;      // Moving average time of a forward pass
+   private volatile double gapNanos = 0.0;          // Moving average time between arrivals
+   private volatile long lastArrival = 0;
+
+   private Histogram latency = new Histogram();     // Microseconds from arrival to completion
+   private Histogram batchSizes = new Histogram();
+
+   /**
+    * Sets up a batcher for the network.
+    *
+    * @param network     the network to evaluate
+    * @param maxBatch    the largest batch
+    * @param budgetNanos the latency budget for
+    *                    batching
+    * @param threads     the number of batcher threads
+    */
+   public MicroBatcher(Network network, int maxBatch, long budgetNanos, int threads)
+   {
+      this.network = network;
+      this.dimensions = network.getDimensions();
+      this.maxBatch = maxBatch;
+      this.budgetNanos = budgetNanos;
+      this.batchers = new Thread[threads];
+   }
+
+   /**
+    * Starts the batcher threads.
+    */
+   public void start()
+   {
+      running = true;
+      for (int t = 0; t < batchers.length; t++)
+      {
+         batchers[t] = new Thread(new Runnable()
+         {
+            public void run()
+            {
+               MicroBatcher.this.run();
+            }
+         }, "batcher-" + t);
+         batchers[t].setDaemon(true);
+         batchers[t].start();
+      }
+   }// start()
+
+   /**
+    * Stops the batcher threads once the queue is
+    * empty.
+    */
+   public void stop()
+   {
+      running = false;
+   }
+
+   /**
+    * Evaluates one input, waiting until a batcher
+    * has run it.
+    *
+    * @param input the raw input activations
+    * @return the output activations
+    * @throws InterruptedException if interrupted
+    *                              while waiting
+    * @throws RuntimeException     the failure of
+    *                              the request's batch
+    */
+   public double[] evaluate(double[] input) throws InterruptedException
+   {
+      if (input.length != dimensions[0])
+         throw new IllegalArgumentException("Expected " + dimensions[0] + " inputs but got " + input.length);
+
+      Request request = new Request();
+      request.input = input;
+      request.output = new double[dimensions[dimensions.length - 1]];
+      request.caller = Thread.currentThread();
+      request.arrival = System.nanoTime();
+
+      long previous = lastArrival;                                       // Tracks how far apart requests arrive
+      lastArrival = request.arrival;
+      if (previous != 0)
+         gapNanos += SMOOTHING * ((request.arrival - previous) - gapNanos);
+
+      queue.put(request);
+      while (!request.done)
+      {
+         LockSupport.park(this);
+         if (Thread.interrupted())
+            throw new InterruptedException();
+      }
+
+      if (request.failure instanceof Error)
+         throw (Error) request.failure;
+      if (request.failure != null)
+         throw (RuntimeException) request.failure;
+
+      latency.record((System.nanoTime() - request.arrival) / 1000);
+      return request.output;
+   }// evaluate(double[] input)
+
+   /**
+    * Retrieves the request latency histogram in
+    * microseconds.
+    *
+    * @return the latency histogram
+    */
+   public Histogram getLatency()
+   {
+      return latency;
+   }
+
+   /**
+    * Retrieves the histogram of batch sizes.
+    *
+    * @return the batch size histogram
+    */
+   public Histogram getBatchSizes()
+   {
+      return batchSizes;
+   }
+
+   /**
+    * Computes the current batching window.
+    *
+    * @return the nanoseconds a batcher waits for more
+    *         requests after the first
+    */
+   public long getWindowNanos()
+   {
+      double room = budgetNanos - serviceNanos;
+      if (room <= 0.0 || gapNanos >= room)                   // No second request is expected in time
+         return 0;
+      return (long) room;
+   }
+
+   /**
+    * The loop of each batcher thread.
+    */
+   private void run()
+   {
+      BatchEvaluator evaluator = new BatchEvaluator(dimensions, maxBatch);
+      evaluator.setLoss(network.getLoss());
+      Request[] batch = new Request[maxBatch];
+      try
+      {
+         while (running || !queue.isEmpty())
+         {
+            Request first = queue.poll(100, TimeUnit.MILLISECONDS);
+            if (first == null)
+               continue;
+
+            batch[0] = first;
+            int count = 1;
+            long deadline = first.arrival + getWindowNanos();
+
+            /*
+             * Takes whatever is already queued, then waits for
+             * more until the batch is full or the window of
+             * the first request closes.
+             */
+            while (count < maxBatch)
+            {
+               Request next = queue.poll();
+               if (next == null)
+               {
+                  long remaining = deadline - System.nanoTime();
+                  if (remaining <= 0)
+                     break;
+                  next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                  if (next == null)
+                     break;
+               }
+               batch[count++] = next;
+            }
+
+            try
+            {
+               serve(batch, count, evaluator);
+            }
+            catch (RuntimeException e)
+            {
+               fail(batch, count, e);                          // Keeps serving the next batches
+            }
+            catch (Error e)
+            {
+               fail(batch, count, e);                          // Wakes the callers before the thread dies
+               throw e;
+            }
+         }// while (running || !queue.isEmpty())
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+   }// run()
+
+   /**
+    * Runs one batch and wakes its callers.
+    *
+    * @param batch     the gathered requests
+    * @param count     the number of requests
+    * @param evaluator this thread's evaluator
+    */
+   private void serve(Request[] batch, int count, BatchEvaluator evaluator)
+   {
+      long start = System.nanoTime();
+      double[][] inputs = evaluator.getInputs();
+      InputTransform transform = network.getInputTransform();
+
+      for (int b = 0; b < count; b++)
+      {
+         if (transform == null)
+            System.arraycopy(batch[b].input, 0, inputs[b], 0, dimensions[0]);
+         else
+            transform.transform(batch[b].input, inputs[b]);
+      }
+
+      /*
+       * Evaluates with the latest published snapshot if
+       * the network is publishing (it may be training),
+       * otherwise with its weights directly.
+       */
+      WeightPublisher publisher = network.getPublisher();
+      double[][] outputs;
+      if (publisher == null)
+      {
+         outputs = evaluator.forward(network.getWeights(), count);
+      }
+      else
+      {
+         WeightSnapshot snapshot = publisher.acquire();
+         try
+         {
+            outputs = evaluator.forward(snapshot.getWeights(), count);
+         }
+         finally
+         {
+            publisher.release(snapshot);
+         }
+      }
+
+      for (int b = 0; b < count; b++)
+      {
+         Request request = batch[b];
+         System.arraycopy(outputs[b], 0, request.output, 0, request.output.length);
+         request.done = true;
+         LockSupport.unpark(request.caller);
+         batch[b] = null;
+      }
+
+      serviceNanos += SMOOTHING * ((System.nanoTime() - start) - serviceNanos);
+      batchSizes.record(count);
+   }// serve(Request[] batch, int count, BatchEvaluator evaluator)
+
+   /**
+    * Wakes the callers of a batch that failed, each
+    * to have the failure thrown from evaluate.
+    *
+    * @param batch   the gathered requests
+    * @param count   the number of requests
+    * @param failure what the batch threw
+    */
+   private void fail(Request[] batch, int count, Throwable failure)
+   {
+      for (int b = 0; b < count; b++)
+      {
+         Request request = batch[b];
+         if (request == null || request.done)                 // Already answered before the failure
+            continue;
+         request.failure = failure;
+         request.done = true;
+         LockSupport.unpark(request.caller);
+         batch[b] = null;
+      }
+   }// fail(Request[] batch, int count, Throwable failure)
+}// public class MicroBatcher
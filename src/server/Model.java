@@ -0,0 +1,150 @@
+package server;
+
+import perceptron.BatchEvaluator;
+import perceptron.InputTransform;
+import perceptron.Loss;
+import perceptron.WeightSnapshot;
+
+/**
+ * An immutable, loaded model held by the
+ * ModelRegistry. The weights are never modified after
+ * loading, so one Model is shared by every caller
+ * that asks for it.
+ *
+ * Methods:
+ * Constructor:
+ *  - Model(String name, int[] dimensions, WeightSnapshot weights, InputTransform transform, Loss loss)
+ * Public:
+ *  - String getName()
+ *  - int[] getDimensions()
+ *  - WeightSnapshot getWeights()
+ *  - InputTransform getInputTransform()
+ *  - Loss getLoss()
+ *  - long getBytes()
+ *  - double[] evaluate(double[] input)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class Model
+{
+   public static final long OVERHEAD_BYTES = 16;      // Array header charged for every weight row
+
+   private final String name;
+   private final int[] dimensions;
+   private final WeightSnapshot weights;
+   private final InputTransform transform;
+   private final Loss loss;                           // Decides the activation of the output layer
+   private final long bytes;                          // The heap held by the weights
+
+   /**
+    * Wraps the loaded weights of a model.
+    *
+    * @param name       the name the model is
+    *                   registered under
+    * @param dimensions the number of nodes in each
+    *                   layer
+    * @param weights    the weights, never modified
+    *                   afterwards
+    * @param transform  the input transform, or null
+    * @param loss       the loss the weights were
+    *                   trained with
+    */
+   public Model(String name, int[] dimensions, WeightSnapshot weights, InputTransform transform, Loss loss)
+   {
+      this.name = name;
+      this.dimensions = dimensions.clone();
+      this.weights = weights;
+      this.transform = transform;
+      this.loss = loss;
+
+      long size = 0;
+      for (double[][] layer : weights.getWeights())
+         for (double[] row : layer)
+            size += OVERHEAD_BYTES + 8L * row.length;
+      this.bytes = size;
+   }// Model(...)
+
+   /**
+    * Retrieves the name of the model.
+    *
+    * @return the name
+    */
+   public String getName()
+   {
+      return name;
+   }
+
+   /**
+    * Retrieves the number of nodes in each layer.
+    *
+    * @return a copy of the dimensions
+    */
+   public int[] getDimensions()
+   {
+      return dimensions.clone();
+   }
+
+   /**
+    * Retrieves the shared, read only weights.
+    *
+    * @return the weights
+    */
+   public WeightSnapshot getWeights()
+   {
+      return weights;
+   }
+
+   /**
+    * Retrieves the transform applied to the inputs.
+    *
+    * @return the transform, or null if there is none
+    */
+   public InputTransform getInputTransform()
+   {
+      return transform;
+   }
+
+   /**
+    * Retrieves the loss the weights were trained
+    * with, for evaluators of the model to activate
+    * its outputs the same way.
+    *
+    * @return the loss
+    */
+   public Loss getLoss()
+   {
+      return loss;
+   }
+
+   /**
+    * Retrieves the memory charged to the model.
+    *
+    * @return the size of the weights in bytes
+    */
+   public long getBytes()
+   {
+      return bytes;
+   }
+
+   /**
+    * Evaluates a single input. Safe to call from any
+    * number of threads; batch serving should use its
+    * own BatchEvaluator with getWeights instead.
+    *
+    * @param input the raw input activations
+    * @return the output activations
+    */
+   public double[] evaluate(double[] input)
+   {
+      BatchEvaluator evaluator = new BatchEvaluator(dimensions, 1);
+      evaluator.setLoss(loss);
+      double[] in = evaluator.getInputs()[0];
+      if (transform == null)
+         System.arraycopy(input, 0, in, 0, in.length);
+      else
+         transform.transform(input, in);
+
+      return evaluator.forward(weights.getWeights(), 1)[0].clone();
+   }// evaluate(double[] input)
+}// public class Model
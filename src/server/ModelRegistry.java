@@ -0,0 +1,495 @@
+package server;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Scanner;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import input.Loader;
+import perceptron.Network;
+import perceptron.WeightSnapshot;
+
+/**
+ * Hosts many models in one process. A model is only
+ * registered (a Loader config plus, optionally, a
+ * separate weights file) until it is first asked
+ * for; then it is loaded once and the same immutable
+ * Model is shared by every caller. When the loaded
+ * models exceed the memory budget the least recently
+ * used ones are dropped and loaded again on their
+ * next request.
+ *
+ * Requests can be appended to an access log, which a
+ * background thread writes so no request waits on the
+ * disk. On the next start, warm reads that log and loads the most
+ * requested models in the background, most requested
+ * first, as long as each fits in the budget, so
+ * startup does not wait for any loading.
+ *
+ * Methods:
+ * Constructor:
+ *  - ModelRegistry(long budgetBytes)
+ * Public:
+ *  - void register(String name, String config)
+ *  - void register(String name, String config, String weightsFile)
+ *  - Model get(String name)
+ *  - boolean isLoaded(String name)
+ *  - long getLoadedBytes()
+ *  - int getLoadedCount()
+ *  - void setAccessLog(String filename)
+ *  - Thread warm(String accessLog)
+ *  - void printSummary()
+ * Private:
+ *  - Model share(String name, boolean warming)
+ *  - Model load(String name)
+ *  - void admit(Model model)
+ *  - boolean fill(Model model)
+ *  - void logAccess(String name)
+ *  - void writeAccesses(Writer out)
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class ModelRegistry
+{
+   private long budgetBytes;                                        // The most memory the loaded models may hold
+
+   private Map<String, String[]> registered = new ConcurrentHashMap<String, String[]>();     // name -> config, weights
+   private ConcurrentHashMap<String, FutureTask<Model>> loading = new ConcurrentHashMap<String, FutureTask<Model>>();
+
+   private LinkedHashMap<String, Model> loaded =                    // Iterates least recently used first
+         new LinkedHashMap<String, Model>(16, 0.75f, true);
+   private long loadedBytes = 0;
+
+   private long hits = 0;                                           // Guarded by loaded
+   private long misses = 0;
+   private long evictions = 0;
+
+   private LinkedBlockingQueue<String> accessLog;                   // Requests not yet written to the log
+
+   /**
+    * Creates an empty registry.
+    *
+    * @param budgetBytes the memory budget for the
+    *                    weights of the loaded models
+    */
+   public ModelRegistry(long budgetBytes)
+   {
+      this.budgetBytes = budgetBytes;
+   }
+
+   /**
+    * Registers a model whose config names its weights
+    * file. Nothing is loaded.
+    *
+    * @param name   the name of the model
+    * @param config the path to its Loader config
+    */
+   public void register(String name, String config)
+   {
+      register(name, config, null);
+   }
+
+   /**
+    * Registers a model whose weights are kept apart
+    * from its config. Nothing is loaded.
+    *
+    * @param name        the name of the model
+    * @param config      the path to its Loader config
+    * @param weightsFile the path to its weights, or
+    *                    null to use the config's
+    */
+   public void register(String name, String config, String weightsFile)
+   {
+      registered.put(name, new String[] { config, weightsFile });
+   }
+
+   /**
+    * Retrieves a model, loading it on first use.
+    * Concurrent first requests wait for a single
+    * load.
+    *
+    * @param name the name of the model
+    * @return the shared, immutable model
+    * @throws IOException if the model cannot be
+    *                     loaded
+    */
+   public Model get(final String name) throws IOException
+   {
+      logAccess(name);
+      synchronized (loaded)
+      {
+         Model model = loaded.get(name);                          // Also marks the model as recently used
+         if (model != null)
+         {
+            hits++;
+            return model;
+         }
+         misses++;
+      }
+      return share(name, false);
+   }// get(String name)
+
+   /**
+    * Loads a model once for every caller that asks for
+    * it at the same time, whether a request or the
+    * warmer, and keeps it if the loading caller may.
+    *
+    * @param name    the name of the model
+    * @param warming true if the warmer is loading, so
+    *                the model is kept only if it fits
+    *                without evicting anything
+    * @return the shared, immutable model
+    * @throws IOException if the model cannot be
+    *                     loaded
+    */
+   private Model share(final String name, boolean warming) throws IOException
+   {
+      FutureTask<Model> task = new FutureTask<Model>(new Callable<Model>()
+      {
+         public Model call() throws IOException
+         {
+            return load(name);
+         }
+      });
+      FutureTask<Model> running = loading.putIfAbsent(name, task);
+      if (running == null)                                         // This caller does the loading
+      {
+         running = task;
+         task.run();
+      }
+
+      try
+      {
+         Model model = running.get();
+         if (running == task)
+         {
+            if (warming)
+               fill(model);
+            else
+               admit(model);
+            loading.remove(name);
+         }
+         return model;
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+         throw new IOException("Interrupted while loading " + name, e);
+      }
+      catch (ExecutionException e)
+      {
+         loading.remove(name, task);
+         if (e.getCause() instanceof IOException)
+            throw (IOException) e.getCause();
+         throw new IOException("Could not load " + name, e.getCause());
+      }
+   }// share(String name, boolean warming)
+
+   /**
+    * Checks whether a model is loaded.
+    *
+    * @param name the name of the model
+    * @return true if it is held in memory
+    */
+   public boolean isLoaded(String name)
+   {
+      synchronized (loaded)
+      {
+         return loaded.containsKey(name);
+      }
+   }
+
+   /**
+    * Retrieves the memory held by the loaded models.
+    *
+    * @return the size in bytes
+    */
+   public long getLoadedBytes()
+   {
+      synchronized (loaded)
+      {
+         return loadedBytes;
+      }
+   }
+
+   /**
+    * Retrieves the number of loaded models.
+    *
+    * @return the count
+    */
+   public int getLoadedCount()
+   {
+      synchronized (loaded)
+      {
+         return loaded.size();
+      }
+   }
+
+   /**
+    * Starts appending the name of every requested
+    * model to the given file.
+    *
+    * @param filename the access log
+    * @throws IOException if the file cannot be opened
+    */
+   public void setAccessLog(String filename) throws IOException
+   {
+      final Writer out = new BufferedWriter(new FileWriter(filename, true));
+      accessLog = new LinkedBlockingQueue<String>();
+      Thread writer = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            writeAccesses(out);
+         }
+      }, "registry-access-log");
+      writer.setDaemon(true);
+      writer.start();
+   }// setAccessLog(String filename)
+
+   /**
+    * Loads the most requested models of an access log
+    * on a background thread, most requested first,
+    * skipping any that no longer fit in the budget.
+    * A request for a model being warmed waits for the
+    * same load.
+    *
+    * @param filename the access log, one model name
+    *                 per line
+    * @return the warming thread
+    * @throws IOException if the log cannot be read
+    */
+   public Thread warm(String filename) throws IOException
+   {
+      final Map<String, Integer> counts = new HashMap<String, Integer>();
+      BufferedReader in = new BufferedReader(new FileReader(filename));
+      try
+      {
+         String line;
+         while ((line = in.readLine()) != null)
+         {
+            line = line.trim();
+            if (registered.containsKey(line))
+               counts.put(line, counts.containsKey(line) ? counts.get(line) + 1 : 1);
+         }
+      }
+      finally
+      {
+         in.close();
+      }
+
+      final List<String> order = new ArrayList<String>(counts.keySet());
+      Collections.sort(order, new Comparator<String>()
+      {
+         public int compare(String a, String b)
+         {
+            return counts.get(b) - counts.get(a);
+         }
+      });
+
+      Thread warmer = new Thread(new Runnable()
+      {
+         public void run()
+         {
+            /*
+             * Loads every model that still fits in the
+             * budget, skipping the ones that would push it
+             * over so smaller models behind them are warmed.
+             */
+            for (String name : order)
+            {
+               try
+               {
+                  if (!isLoaded(name))
+                     share(name, true);                             // Joins a request loading the same model
+               }
+               catch (IOException e)
+               {
+                  System.err.println("Could not warm " + name + ": " + e);
+               }
+            }
+         }
+      }, "registry-warmer");
+      warmer.setDaemon(true);
+      warmer.start();
+      return warmer;
+   }// warm(String filename)
+
+   /**
+    * Prints the loaded models and cache statistics.
+    */
+   public void printSummary()
+   {
+      synchronized (loaded)
+      {
+         System.out.println("-------------------------");
+         System.out.println("Model Registry Summary:");
+         System.out.println("Registered: " + registered.size() + " models");
+         System.out.println("Loaded: " + loaded.size() + " models, " + loadedBytes + " of " + budgetBytes + " bytes");
+         System.out.println("Hits: " + hits + "; Misses: " + misses + "; Evictions: " + evictions);
+      }
+   }
+
+   /**
+    * Loads a registered model from disk.
+    *
+    * @param name the name of the model
+    * @return the loaded model
+    * @throws IOException if the files cannot be read
+    */
+   private Model load(String name) throws IOException
+   {
+      String[] files = registered.get(name);
+      if (files == null)
+         throw new IOException("No model registered as " + name);
+
+      if (files[1] == null)
+      {
+         Network network = Loader.loadNetwork(files[0]);
+         return new Model(name, network.getDimensions(), new WeightSnapshot(1, network.getWeights()),
+               network.getInputTransform(), network.getLoss());
+      }
+
+      Network network;                                              // Only the structure: the config's own
+      Scanner config = new Scanner(new File(files[0]));              // weights line is never read
+      try
+      {
+         network = Loader.readStructure(config);
+      }
+      finally
+      {
+         config.close();
+      }
+      double[][][] weights = network.getWeights();
+      try
+      {
+         weights = Loader.readWeights(files[1], weights);
+      }
+      catch (NoSuchElementException e)                            // The file is too short for the structure
+      {
+         throw new IOException("Weights in " + files[1] + " do not match the config of " + name, e);
+      }
+      if (new File(files[1] + Loader.STATS_SUFFIX).exists())
+         network.setInputTransform(Loader.readStats(files[1] + Loader.STATS_SUFFIX));
+      if (new File(files[1] + Loader.LOSS_SUFFIX).exists())
+         network.setLoss(Loader.readLoss(files[1] + Loader.LOSS_SUFFIX));
+
+      return new Model(name, network.getDimensions(), new WeightSnapshot(1, weights), network.getInputTransform(),
+            network.getLoss());
+   }// load(String name)
+
+   /**
+    * Adds a freshly loaded model and evicts the least
+    * recently used models until the budget holds. The
+    * new model itself is never evicted.
+    *
+    * @param model the loaded model
+    */
+   private void admit(Model model)
+   {
+      synchronized (loaded)
+      {
+         if (loaded.containsKey(model.getName()))
+            return;
+         loaded.put(model.getName(), model);
+         loadedBytes += model.getBytes();
+
+         Iterator<Map.Entry<String, Model>> eldest = loaded.entrySet().iterator();
+         while (loadedBytes > budgetBytes && eldest.hasNext())
+         {
+            Model victim = eldest.next().getValue();
+            if (victim == model)
+               continue;
+            eldest.remove();
+            loadedBytes -= victim.getBytes();
+            evictions++;
+         }
+      }
+   }// admit(Model model)
+
+   /**
+    * Keeps a warmed model only if it fits in what is
+    * left of the budget, since warming should never
+    * push out a model that requests are using.
+    *
+    * @param model the loaded model
+    * @return true if the model was kept
+    */
+   private boolean fill(Model model)
+   {
+      synchronized (loaded)
+      {
+         if (loaded.containsKey(model.getName()) || loadedBytes + model.getBytes() > budgetBytes)
+            return false;
+         loaded.put(model.getName(), model);
+         loadedBytes += model.getBytes();
+         return true;
+      }
+   }
+
+   /**
+    * Queues a request for the access log, if any.
+    *
+    * @param name the requested model
+    */
+   private void logAccess(String name)
+   {
+      LinkedBlockingQueue<String> log = accessLog;
+      if (log != null)
+         log.offer(name);
+   }
+
+   /**
+    * The loop of the access log thread: writes the
+    * queued requests, flushing whenever the queue has
+    * been drained.
+    *
+    * @param out the access log
+    */
+   private void writeAccesses(Writer out)
+   {
+      LinkedBlockingQueue<String> log = accessLog;
+      List<String> names = new ArrayList<String>();
+      try
+      {
+         while (true)
+         {
+            names.add(log.take());
+            log.drainTo(names);
+            for (String name : names)
+            {
+               out.write(name);
+               out.write(System.lineSeparator());
+            }
+            out.flush();
+            names.clear();
+         }
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      catch (IOException e)
+      {
+         System.err.println("Could not write access log: " + e);
+      }
+   }// writeAccesses(Writer out)
+}// public class ModelRegistry
@@ -0,0 +1,547 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import input.Loader;
+import perceptron.Network;
+
+/**
+ * Holds the weights of a network for workers that
+ * train it in other processes. Each worker pulls the
+ * weights, trains on its own shard of the training
+ * set for a while and pushes back the change it
+ * made.
+ *
+ * With a staleness of 0 training is synchronous:
+ * the changes of one round are collected and their
+ * average is applied, and no worker gets the weights
+ * for the next round until every worker still
+ * training has pushed. With a staleness of s,
+ * changes are scaled by 1 / workers and applied as
+ * they arrive, and a worker may run at most s pushes
+ * ahead of the slowest worker still training before
+ * its pulls wait.
+ *
+ * Protocol (big endian, as written by
+ * DataOutputStream), one connection per worker:
+ *  - the worker sends int id and int number of
+ *    weights; the server answers with the number of
+ *    weights, or ERROR and a UTF message
+ *  - PULL (1): answered with long version, then every
+ *    weight as a double
+ *  - PUSH (2) followed by a change written by
+ *    DeltaCodec: answered with long version
+ *  - DONE (3): answered with DONE, then the
+ *    connection closes
+ *  - STATS (-1): answered with STATS and a UTF string
+ *
+ * Methods:
+ * Constructor:
+ *  - ParameterServer(Network network, int workers, int staleness, int port)
+ * Public:
+ *  - void start()
+ *  - void stop()
+ *  - int getPort()
+ *  - void awaitWorkers()
+ *  - Network getNetwork()
+ *  - String stats()
+ *  - void main(String[] args)
+ * Package:
+ *  - double[] flatten(double[][][] weights, double[] flat)
+ *  - void unflatten(double[] flat, double[][][] weights)
+ * Private:
+ *  - void accept()
+ *  - void serve(Socket socket)
+ *  - long pull(int worker, double[] copy)
+ *  - long push(int worker, double[] delta)
+ *  - void finish(int worker)
+ *  - void applyRound()
+ *  - int slowest()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class ParameterServer
+{
+   public static final int PULL = 1;                 // Request codes
+   public static final int PUSH = 2;
+   public static final int DONE = 3;
+   public static final int STATS = InferenceServer.STATS;
+   public static final int ERROR = InferenceServer.ERROR;
+
+   private Network network;
+   private int workers;
+   private int staleness;                            // 0 for synchronous rounds
+   private int port;
+
+   private double[] weights;                         // The current weights, flattened; guarded by this
+   private double[] pending;                         // The changes of the current synchronous round
+   private int roundPushes;                          // Pushes collected for the current round
+   private long version;                             // Rounds applied, or pushes applied without rounds
+   private int[] clocks;                             // Pushes made by each worker
+   private boolean[] done;
+   private int active;                               // Workers that have not finished
+
+   private long waitNanos;                           // Time pulls spent waiting for slower workers
+
+   private ServerSocket listener;
+   private ExecutorService connections;
+   private volatile boolean running = false;
+
+   /**
+    * Creates a server for the network's weights.
+    *
+    * @param network   the network whose weights are
+    *                  trained
+    * @param workers   the number of workers
+    * @param staleness how many pushes a worker may
+    *                  run ahead of the slowest, 0 for
+    *                  synchronous training
+    * @param port      the port to listen on, 0 for any
+    */
+   public ParameterServer(Network network, int workers, int staleness, int port)
+   {
+      this.network = network;
+      this.workers = workers;
+      this.staleness = staleness;
+      this.port = port;
+
+      weights = flatten(network.getWeights(), null);
+      pending = new double[weights.length];
+      clocks = new int[workers];
+      done = new boolean[workers];
+      active = workers;
+   }// ParameterServer(...)
+
+   /**
+    * Binds to localhost and starts accepting workers.
+    *
+    * @throws IOException if the port cannot be bound
+    */
+   public void start() throws IOException
+   {
+      listener = new ServerSocket(port, 128, InetAddress.getLoopbackAddress());
+      port = listener.getLocalPort();
+
+      connections = Executors.newCachedThreadPool(new ThreadFactory()
+      {
+         public Thread newThread(Runnable r)
+         {
+            Thread t = new Thread(r, "worker connection");
+            t.setDaemon(true);
+            return t;
+         }
+      });
+
+      running = true;
+      connections.execute(new Runnable()
+      {
+         public void run()
+         {
+            accept();
+         }
+      });
+   }// start()
+
+   /**
+    * Stops accepting workers and closes the
+    * connections.
+    */
+   public void stop()
+   {
+      running = false;
+      try
+      {
+         listener.close();
+      }
+      catch (IOException e)
+      {
+         System.err.println("Error closing server socket: " + e);
+      }
+      connections.shutdownNow();
+   }// stop()
+
+   /**
+    * Retrieves the port the server listens on.
+    *
+    * @return the port
+    */
+   public int getPort()
+   {
+      return port;
+   }
+
+   /**
+    * Waits until every worker has finished.
+    *
+    * @throws InterruptedException if interrupted while
+    *                              waiting
+    */
+   public synchronized void awaitWorkers() throws InterruptedException
+   {
+      while (active > 0)
+         wait();
+   }
+
+   /**
+    * Copies the current weights into the network.
+    *
+    * @return the network with the trained weights
+    */
+   public synchronized Network getNetwork()
+   {
+      unflatten(weights, network.getWeights());
+      network.weightsChanged();
+      return network;
+   }
+
+   /**
+    * Describes the progress of training.
+    *
+    * @return the version, clocks and waiting
+    */
+   public synchronized String stats()
+   {
+      StringBuilder clockText = new StringBuilder();
+      for (int w = 0; w < workers; w++)
+         clockText.append(w == 0 ? "" : " ").append(clocks[w]).append(done[w] ? "(done)" : "");
+      return "version: " + version + "\n"
+            + "worker pushes: " + clockText + "\n"
+            + "pull wait: " + waitNanos / 1000000 + "ms";
+   }
+
+   /**
+    * Serves the network in a config file until every
+    * worker has finished, then saves the weights and
+    * reports the error on the whole training set.
+    *
+    * @param args the config file, the port, the number
+    *             of workers, the weights file to write
+    *             and optionally staleness=s(0, for
+    *             synchronous training, by default)
+    * @throws Exception if the server cannot start
+    */
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length < 4)
+      {
+         System.err.println("Expected arguments: config port workers output [staleness=s]");
+         System.exit(1);
+      }
+
+      int staleness = 0;
+      for (int i = 4; i < args.length; i++)
+         if (args[i].startsWith("staleness="))
+            staleness = Integer.valueOf(args[i].substring("staleness=".length()));
+
+      Scanner sc = new Scanner(new File(args[0]));
+      Network network = Loader.readNetwork(sc);
+      String trainset = sc.nextLine().trim();
+      sc.close();
+
+      ParameterServer server = new ParameterServer(network, Integer.valueOf(args[2]), staleness, Integer.valueOf(args[1]));
+      server.start();
+      System.out.println("Parameter server on localhost:" + server.getPort() + " for " + args[2] + " workers"
+            + (staleness == 0 ? ", synchronous" : ", staleness " + staleness));
+
+      long start = System.nanoTime();
+      server.awaitWorkers();
+      double seconds = (System.nanoTime() - start) / 1e9;
+      server.stop();
+
+      Map<double[], double[]> training = Loader.loadTrainSet(trainset);
+      Network trained = server.getNetwork();
+      System.out.println(server.stats());
+      System.out.println("Trained in " + seconds + " s, error " + trained.computeError(training));
+
+      Loader.writeWeights(args[3], trained.getWeights());
+      System.out.println("Weights written out to: \"" + args[3] + "\"");
+   }// main(String[] args)
+
+   /**
+    * Copies weights into one flat array, layer by
+    * layer and row by row.
+    *
+    * @param weights the weights indexed [n][k][j]
+    * @param flat    the array to fill, or null to
+    *                allocate one
+    * @return the flat weights
+    */
+   static double[] flatten(double[][][] weights, double[] flat)
+   {
+      if (flat == null)
+      {
+         int count = 0;
+         for (double[][] layer : weights)
+            for (double[] row : layer)
+               count += row.length;
+         flat = new double[count];
+      }
+
+      int i = 0;
+      for (double[][] layer : weights)
+         for (double[] row : layer)
+         {
+            System.arraycopy(row, 0, flat, i, row.length);
+            i += row.length;
+         }
+      return flat;
+   }// flatten(double[][][] weights, double[] flat)
+
+   /**
+    * Copies flat weights back into their layers.
+    *
+    * @param flat    the flat weights
+    * @param weights the arrays to fill, indexed
+    *                [n][k][j]
+    */
+   static void unflatten(double[] flat, double[][][] weights)
+   {
+      int i = 0;
+      for (double[][] layer : weights)
+         for (double[] row : layer)
+         {
+            System.arraycopy(flat, i, row, 0, row.length);
+            i += row.length;
+         }
+   }
+
+   /**
+    * Accepts workers until the server stops.
+    */
+   private void accept()
+   {
+      while (running)
+      {
+         try
+         {
+            final Socket socket = listener.accept();
+            socket.setTcpNoDelay(true);
+            connections.execute(new Runnable()
+            {
+               public void run()
+               {
+                  serve(socket);
+               }
+            });
+         }
+         catch (IOException e)
+         {
+            if (running)
+               System.err.println("Error accepting connection: " + e);
+         }
+      }
+   }// accept()
+
+   /**
+    * Answers the requests of one worker until it is
+    * done.
+    *
+    * @param socket the connection
+    */
+   private void serve(Socket socket)
+   {
+      int worker = -1;
+      try
+      {
+         DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+         worker = in.readInt();
+         int length = in.readInt();
+         if (worker < 0 || worker >= workers || length != weights.length)
+         {
+            out.writeInt(ERROR);
+            out.writeUTF(worker < 0 || worker >= workers ? "Bad worker id: " + worker
+                  : "Expected " + weights.length + " weights, not " + length);
+            out.flush();
+            worker = -1;
+            return;
+         }
+         out.writeInt(length);
+         out.flush();
+
+         double[] copy = new double[length];
+         while (true)
+         {
+            int request = in.readInt();
+            if (request == PULL)
+            {
+               long current = pull(worker, copy);
+               out.writeLong(current);
+               for (int i = 0; i < length; i++)
+                  out.writeDouble(copy[i]);
+            }
+            else if (request == PUSH)
+               out.writeLong(push(worker, DeltaCodec.read(in, length)));
+            else if (request == STATS)
+            {
+               out.writeInt(STATS);
+               out.writeUTF(stats());
+            }
+            else if (request == DONE)
+            {
+               finish(worker);
+               worker = -1;
+               out.writeInt(DONE);
+               out.flush();
+               break;
+            }
+            else
+            {
+               out.writeInt(ERROR);
+               out.writeUTF("Bad request: " + request);
+               out.flush();
+               break;
+            }
+            out.flush();
+         }// while (true)
+      }
+      catch (EOFException e)
+      {
+         System.err.println("Worker " + worker + " disconnected");
+      }
+      catch (IOException e)
+      {
+         System.err.println("Connection error: " + e);
+      }
+      catch (InterruptedException e)
+      {
+         Thread.currentThread().interrupt();
+      }
+      finally
+      {
+         if (worker >= 0)
+            finish(worker);                          // A lost worker must not hold the others back
+         try
+         {
+            socket.close();
+         }
+         catch (IOException e)
+         {
+            System.err.println("Error closing connection: " + e);
+         }
+      }
+   }// serve(Socket socket)
+
+   /**
+    * Copies the weights for a worker's next step,
+    * first waiting for the round it needs or for the
+    * slowest worker to catch up.
+    *
+    * @param worker the worker
+    * @param copy   the array to copy the weights into
+    * @return the version of the weights
+    * @throws InterruptedException if interrupted while
+    *                              waiting
+    */
+   private synchronized long pull(int worker, double[] copy) throws InterruptedException
+   {
+      long start = System.nanoTime();
+      if (staleness == 0)
+         while (version < clocks[worker])
+            wait();
+      else
+         while (clocks[worker] - slowest() > staleness)
+            wait();
+      waitNanos += System.nanoTime() - start;
+
+      System.arraycopy(weights, 0, copy, 0, weights.length);
+      return version;
+   }// pull(int worker, double[] copy)
+
+   /**
+    * Adds a worker's change, at once or when its
+    * round is complete.
+    *
+    * @param worker the worker
+    * @param delta  the change of every weight
+    * @return the version after the push
+    */
+   private synchronized long push(int worker, double[] delta)
+   {
+      clocks[worker]++;
+
+      if (staleness == 0)
+      {
+         for (int i = 0; i < delta.length; i++)
+            pending[i] += delta[i];
+         roundPushes++;
+         if (roundPushes >= active)                  // Every worker still training has pushed
+            applyRound();
+      }
+      else
+      {
+         double scale = 1.0 / workers;
+         for (int i = 0; i < delta.length; i++)
+            weights[i] += scale * delta[i];
+         version++;
+      }
+      notifyAll();
+      return version;
+   }// push(int worker, double[] delta)
+
+   /**
+    * Marks a worker as finished, completing the
+    * current round if only it was missing.
+    *
+    * @param worker the worker
+    */
+   private synchronized void finish(int worker)
+   {
+      if (done[worker])
+         return;
+      done[worker] = true;
+      active--;
+
+      if (staleness == 0 && roundPushes > 0 && roundPushes >= active)
+         applyRound();
+      notifyAll();
+   }// finish(int worker)
+
+   /**
+    * Applies the average of the changes pushed in the
+    * round, scaled by the pushes it actually got, so
+    * rounds after a worker finishes are not shrunk.
+    */
+   private void applyRound()
+   {
+      double scale = 1.0 / roundPushes;
+      for (int i = 0; i < weights.length; i++)
+      {
+         weights[i] += scale * pending[i];
+         pending[i] = 0.0;
+      }
+      roundPushes = 0;
+      version++;
+   }
+
+   /**
+    * Finds the fewest pushes of the workers still
+    * training.
+    *
+    * @return the slowest clock, or the largest int if
+    *         every worker is done
+    */
+   private int slowest()
+   {
+      int slowest = Integer.MAX_VALUE;
+      for (int w = 0; w < workers; w++)
+         if (!done[w])
+            slowest = Math.min(slowest, clocks[w]);
+      return slowest;
+   }
+}// public class ParameterServer
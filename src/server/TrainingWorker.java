@@ -0,0 +1,295 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import input.FileFeed;
+import input.Loader;
+import perceptron.Network;
+
+/**
+ * Trains a network for a ParameterServer on one
+ * shard of the training set. Worker i of n takes
+ * every n-th case of the training set file starting
+ * at case i, so the shards are disjoint whatever
+ * process reads them. Every step the worker pulls the
+ * weights, trains one epoch on a batch of its cases
+ * and pushes the change it made, compressed if asked.
+ * What compression leaves out is carried over into
+ * the next push.
+ *
+ * Methods:
+ * Constructor:
+ *  - TrainingWorker(Network network, int id, int port)
+ * Public:
+ *  - void connect()
+ *  - void train(List<Map<double[], double[]>> batches, int epochs, DeltaCodec.Compression mode, double fraction)
+ *  - void close()
+ *  - long getBytesSent()
+ *  - long getBytesUncompressed()
+ *  - List<Map<double[], double[]>> shard(String trainset, int id, int workers, int batch, int inputs, int outputs)
+ *  - void main(String[] args)
+ * Private:
+ *  - long pull()
+ *
+ * @author Harsh Deep Period 2
+ * @version 5.1.20
+ */
+public class TrainingWorker
+{
+   public static final int DEFAULT_BATCH = 32;
+   public static final double DEFAULT_FRACTION = 0.01;   // The share of changes top-k sends
+
+   private Network network;
+   private int id;
+   private int port;
+
+   private Socket socket;
+   private DataInputStream in;
+   private DataOutputStream out;
+
+   private double[] pulled;                  // The weights of the last pull, flattened
+   private double[] trained;                 // The weights after training on a batch
+   private double[] delta;                   // The change to push, then what was not sent
+
+   private long bytesSent;
+   private long bytesUncompressed;
+
+   /**
+    * Creates a worker for a network whose weights the
+    * server replaces.
+    *
+    * @param network the network to train, shaped like
+    *                the server's
+    * @param id      the worker's number, from 0
+    * @param port    the server's port on localhost
+    */
+   public TrainingWorker(Network network, int id, int port)
+   {
+      this.network = network;
+      this.id = id;
+      this.port = port;
+
+      pulled = ParameterServer.flatten(network.getWeights(), null);
+      trained = new double[pulled.length];
+      delta = new double[pulled.length];
+   }// TrainingWorker(Network network, int id, int port)
+
+   /**
+    * Connects to the server and checks that it holds
+    * weights of the same size.
+    *
+    * @throws IOException if the server cannot be
+    *                     reached or refuses the worker
+    */
+   public void connect() throws IOException
+   {
+      socket = new Socket(InetAddress.getLoopbackAddress(), port);
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+
+      out.writeInt(id);
+      out.writeInt(pulled.length);
+      out.flush();
+      if (in.readInt() == ParameterServer.ERROR)
+         throw new IOException("Server refused worker " + id + ": " + in.readUTF());
+   }// connect()
+
+   /**
+    * Trains for a number of epochs over the batches,
+    * pulling before and pushing after every batch.
+    *
+    * @param batches  the worker's shard in batches
+    * @param epochs   the passes over the shard
+    * @param mode     the compression of the pushes
+    * @param fraction the share of changes top-k sends
+    * @throws IOException if the connection fails
+    */
+   public void train(List<Map<double[], double[]>> batches, int epochs, DeltaCodec.Compression mode, double fraction)
+         throws IOException
+   {
+      for (int epoch = 1; epoch <= epochs; epoch++)
+      {
+         double error = 0.0;
+         for (Map<double[], double[]> batch : batches)
+         {
+            pull();
+            error += network.trainEpochs(batch, 1) * batch.size();
+
+            ParameterServer.flatten(network.getWeights(), trained);
+            for (int i = 0; i < delta.length; i++)
+               delta[i] += trained[i] - pulled[i];             // Adds to what earlier pushes left out
+
+            out.writeInt(ParameterServer.PUSH);
+            bytesSent += 4 + DeltaCodec.write(out, delta, mode, fraction);
+            bytesUncompressed += 8 + 8L * delta.length;
+            out.flush();
+            in.readLong();
+         }
+
+         int cases = 0;
+         for (Map<double[], double[]> batch : batches)
+            cases += batch.size();
+         if (epoch == 1 || epoch == epochs || epoch % Math.max(1, epochs / 10) == 0)
+            System.out.println("Worker " + id + " epoch " + epoch + ": error " + error / cases);
+      }// for (int epoch = 1; epoch <= epochs; epoch++)
+   }// train(...)
+
+   /**
+    * Tells the server the worker is done and closes
+    * the connection.
+    *
+    * @throws IOException if the connection fails
+    */
+   public void close() throws IOException
+   {
+      out.writeInt(ParameterServer.DONE);
+      out.flush();
+      in.readInt();
+      socket.close();
+   }
+
+   /**
+    * Retrieves the bytes pushed so far.
+    *
+    * @return the bytes of every change sent
+    */
+   public long getBytesSent()
+   {
+      return bytesSent;
+   }
+
+   /**
+    * Retrieves the bytes the pushes would have taken
+    * without compression.
+    *
+    * @return the uncompressed bytes
+    */
+   public long getBytesUncompressed()
+   {
+      return bytesUncompressed;
+   }
+
+   /**
+    * Reads one worker's shard of a training set file
+    * in file order.
+    *
+    * @param trainset the training set file
+    * @param id       the worker's number
+    * @param workers  the number of workers
+    * @param batch    the cases per batch
+    * @param inputs   the inputs of a case
+    * @param outputs  the truth values of a case
+    * @return the shard split into batches
+    * @throws IOException if the file cannot be read
+    */
+   public static List<Map<double[], double[]>> shard(String trainset, int id, int workers, int batch, int inputs,
+         int outputs) throws IOException
+   {
+      List<Map<double[], double[]>> batches = new ArrayList<Map<double[], double[]>>();
+      FileFeed feed = new FileFeed(trainset);
+      feed.startEpoch(1);
+      double[] input = new double[inputs];
+      double[] truth = new double[outputs];
+      Map<double[], double[]> current = new LinkedHashMap<double[], double[]>();
+      for (int c = 0; feed.next(input, truth); c++)
+         if (c % workers == id)
+         {
+            current.put(input.clone(), truth.clone());
+            if (current.size() == batch)
+            {
+               batches.add(current);
+               current = new LinkedHashMap<double[], double[]>();
+            }
+         }
+      if (!current.isEmpty())
+         batches.add(current);
+      feed.close();
+      return batches;
+   }// shard(String trainset, int id, int workers, int batch)
+
+   /**
+    * Trains the network in a config file as one worker
+    * of a ParameterServer on localhost, for the config's
+    * max iterations as epochs over its shard.
+    *
+    * @param args the config file, the server's port,
+    *             the worker's number, the number of
+    *             workers and options of the form
+    *             key=value: batch=N cases per push(32),
+    *             compress=none|topk|int8 and
+    *             fraction=x, the share of changes
+    *             top-k sends(0.01)
+    * @throws Exception if training fails
+    */
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length < 4)
+      {
+         System.err.println("Expected arguments: config port id workers [batch=N] [compress=none|topk|int8] [fraction=x]");
+         System.exit(1);
+      }
+
+      Map<String, String> options = new HashMap<String, String>();
+      for (int i = 4; i < args.length; i++)
+      {
+         String[] option = args[i].split("=", 2);
+         options.put(option[0].trim(), option.length > 1 ? option[1].trim() : "");
+      }
+      int batch = options.containsKey("batch") ? Integer.valueOf(options.get("batch")) : DEFAULT_BATCH;
+      DeltaCodec.Compression mode = DeltaCodec.Compression.valueOf(
+            (options.containsKey("compress") ? options.get("compress") : "none").toUpperCase());
+      double fraction = options.containsKey("fraction") ? Double.valueOf(options.get("fraction")) : DEFAULT_FRACTION;
+
+      Scanner sc = new Scanner(new File(args[0]));
+      Network network = Loader.readNetwork(sc);
+      String trainset = sc.nextLine().trim();
+      int epochs = Integer.valueOf(sc.nextLine().trim());
+      sc.close();
+
+      int id = Integer.valueOf(args[2]);
+      int[] dimensions = network.getDimensions();
+      List<Map<double[], double[]>> batches = shard(trainset, id, Integer.valueOf(args[3]), batch, dimensions[0],
+            dimensions[dimensions.length - 1]);
+      System.out.println("Worker " + id + ": " + batches.size() + " batches");
+
+      TrainingWorker worker = new TrainingWorker(network, id, Integer.valueOf(args[1]));
+      worker.connect();
+      long start = System.nanoTime();
+      worker.train(batches, epochs, mode, fraction);
+      worker.close();
+
+      System.out.println("Worker " + id + " finished in " + (System.nanoTime() - start) / 1e9 + " s, pushed "
+            + worker.getBytesSent() + " bytes (" + worker.getBytesUncompressed() + " uncompressed)");
+   }// main(String[] args)
+
+   /**
+    * Replaces the network's weights with the server's.
+    *
+    * @return the version of the weights
+    * @throws IOException if the connection fails
+    */
+   private long pull() throws IOException
+   {
+      out.writeInt(ParameterServer.PULL);
+      out.flush();
+      long version = in.readLong();
+      for (int i = 0; i < pulled.length; i++)
+         pulled[i] = in.readDouble();
+      ParameterServer.unflatten(pulled, network.getWeights());
+      network.weightsChanged();
+      return version;
+   }
+}// public class TrainingWorker